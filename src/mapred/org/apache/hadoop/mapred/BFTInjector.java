@@ -8,20 +8,20 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 
 public class BFTInjector {
-    public static boolean tamperingDigests(String[] digests) {
+    public static boolean tamperingDigests(DigestWritable[] digests) {
         Random randomGenerator = new Random();
-        String s2 = "T" + System.currentTimeMillis() + "G";
+        byte[] s2 = ("T" + System.currentTimeMillis() + "G").getBytes();
         for(int i=0; i<digests.length; i++) {
             int randomInt = randomGenerator.nextInt(100);
             if(randomInt < 50) {
-                String s1 = digests[i];
-                StringBuilder sb = new StringBuilder();
+                byte[] s1 = digests[i].get();
+                byte[] tampered = new byte[s1.length];
 
-                // XOR string
-                for(int j=0; j<s1.length() && j<s2.length();j++) 
-                    sb.append((char)(s1.charAt(j) ^ s2.charAt(j)));
+                // XOR digest
+                for(int j=0; j<s1.length; j++) 
+                    tampered[j] = (byte) (s1[j] ^ s2[j % s2.length]);
 
-                digests[i] = sb.toString();
+                digests[i] = new DigestWritable(tampered);
                 
                 return true;
             }
@@ -0,0 +1,52 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+
+/**
+ * The digests of a task, as one RPC parameter. RPC writes the class name of
+ * every element of an array parameter, so a plain DigestWritable[] would
+ * cost more than the digests themselves.
+ */
+public class DigestArrayWritable implements Writable {
+	private DigestWritable[] digests;
+
+	public DigestArrayWritable() {
+	}
+
+	public DigestArrayWritable(DigestWritable[] digests) {
+		this.digests = digests;
+	}
+
+	public DigestWritable[] get() {
+		return digests;
+	}
+
+	public void write(DataOutput out) throws IOException {
+		DigestWritable.writeArray(out, digests);
+	}
+
+	public void readFields(DataInput in) throws IOException {
+		digests = DigestWritable.readArray(in);
+	}
+}
@@ -0,0 +1,83 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.security.MessageDigest;
+
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * The digests of a task: the ones of the job's {@link DigestProvider},
+ * hashed as a Merkle tree ({@link TreeDigest}) or in the background
+ * ({@link PipelinedDigest}) when the job asks for it.
+ */
+class DigestFactory implements DigestProvider {
+	private final DigestProvider provider;
+	// buffers of a digest that hashes in the background, 0 to hash inline
+	private final int pipelineBuffers;
+	// bytes of each leaf of a tree digest, 0 for a plain digest
+	private final int treeChunkSize;
+
+	DigestFactory(JobConf conf) {
+		this(ReflectionUtils.newInstance(conf.getDigestProviderClass(), conf),
+				conf.getDigestPipelineBuffers(), conf.getDigestTreeChunkSize());
+	}
+
+	/**
+	 * @param provider the engine of the digests
+	 * @param pipelineBuffers the buffers of each digest, or 0 to hash inline
+	 * @param treeChunkSize the bytes of each leaf, or 0 for a plain digest. A
+	 *        tree digest already hashes in the background, so it is never
+	 *        pipelined.
+	 */
+	DigestFactory(DigestProvider provider, int pipelineBuffers, int treeChunkSize) {
+		this.provider = provider;
+		this.pipelineBuffers = pipelineBuffers;
+		this.treeChunkSize = treeChunkSize;
+	}
+
+	/**
+	 * @param meter measures the time and bytes of the digests
+	 * @return a factory of the same digests, measured by the meter
+	 */
+	DigestFactory meteredBy(DigestMeter meter) {
+		return new DigestFactory(meter.wrap(provider), pipelineBuffers, treeChunkSize);
+	}
+
+	DigestProvider getProvider() {
+		return provider;
+	}
+
+	public MessageDigest newInstance() {
+		if (treeChunkSize > 0)
+			return new TreeDigest(provider, treeChunkSize);
+
+		MessageDigest md = provider.newInstance();
+		if (pipelineBuffers > 0)
+			md = new PipelinedDigest(md, pipelineBuffers);
+
+		return md;
+	}
+
+	@Override
+	public String toString() {
+		return provider.getClass().getSimpleName()
+				+ (treeChunkSize > 0 ? " tree of " + treeChunkSize + " bytes" : "")
+				+ (treeChunkSize == 0 && pipelineBuffers > 0 ? " pipelined in " + pipelineBuffers + " buffers" : "");
+	}
+}
@@ -0,0 +1,309 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * The digests of the reduce replicas of a job, with the outcome of their
+ * votes, in one file under the digests directory of the job's output
+ * (<code>&lt;output&gt;/_sha/manifest</code>). The job tracker writes it
+ * when the job succeeds, since it is the one that knows how the votes went.
+ *
+ * The file has a header, with the digest engine and the tree chunk size
+ * that the digests were taken with, followed by fixed-size entries sorted
+ * by partition and replica, so that the entries of a partition are found
+ * by a binary search without reading the whole file:
+ * <pre>
+ * "DGMF" version provider(Text) treeChunkSize digestLength count
+ * (partition replica outcome digest[digestLength])*
+ * </pre>
+ */
+public class DigestManifest {
+
+    public static final String DIGESTS_DIR = "_sha";
+    public static final String MANIFEST = "manifest";
+
+    private static final byte[] MAGIC = { 'D', 'G', 'M', 'F' };
+    private static final byte VERSION = 1;
+
+    /** How the vote on the digest of a replica went */
+    public static enum Outcome {
+        /** the digest is the one the majority agreed on */
+        AGREED,
+        /** the majority agreed on another digest */
+        DISAGREED,
+        /** the replicas never agreed on a digest */
+        UNDECIDED
+    }
+
+    /** The digest of a reduce replica */
+    public static class Entry {
+        private final int partition;
+        private final int replica;
+        private final DigestWritable digest;
+        private final Outcome outcome;
+
+        public Entry(int partition, int replica, DigestWritable digest, Outcome outcome) {
+            this.partition = partition;
+            this.replica = replica;
+            this.digest = digest;
+            this.outcome = outcome;
+        }
+
+        public int getPartition() {
+            return partition;
+        }
+
+        public int getReplica() {
+            return replica;
+        }
+
+        public DigestWritable getDigest() {
+            return digest;
+        }
+
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        @Override
+        public String toString() {
+            return partition + "\t" + replica + "\t" + outcome + "\t" + digest;
+        }
+    }
+
+    private static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+        public int compare(Entry e1, Entry e2) {
+            if (e1.partition != e2.partition)
+                return e1.partition < e2.partition ? -1 : 1;
+            if (e1.replica != e2.replica)
+                return e1.replica < e2.replica ? -1 : 1;
+            return 0;
+        }
+    };
+
+    private DigestManifest() {
+    }
+
+    /**
+     * @param outputDir the output directory of a job
+     * @return the manifest of the job's digests
+     */
+    public static Path getPath(Path outputDir) {
+        return new Path(new Path(outputDir, DIGESTS_DIR), MANIFEST);
+    }
+
+    /**
+     * Write the manifest of a job, replacing the one that may be there
+     * @param fs the file system of the digests directory
+     * @param dir the digests directory of the job
+     * @param providerClass the class of the digest engine
+     * @param treeChunkSize the bytes of each leaf of a tree digest, or 0
+     * @param entries the digests of the reduce replicas
+     */
+    public static void write(FileSystem fs, Path dir, String providerClass, int treeChunkSize,
+            List<Entry> entries) throws IOException {
+        List<Entry> sorted = new ArrayList<Entry>(entries);
+        Collections.sort(sorted, ORDER);
+
+        int length = sorted.isEmpty() ? 0 : sorted.get(0).digest.getLength();
+        for (Entry e : sorted) {
+            if (e.digest.getLength() != length)
+                throw new IOException("Digest of partition " + e.partition + " replica " + e.replica
+                        + " has " + e.digest.getLength() + " bytes instead of " + length);
+        }
+
+        Path tmp = new Path(dir, "_" + MANIFEST);
+        FSDataOutputStream out = fs.create(tmp, true);
+        try {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            Text.writeString(out, providerClass);
+            out.writeInt(treeChunkSize);
+            out.writeInt(length);
+            out.writeInt(sorted.size());
+            for (Entry e : sorted) {
+                out.writeInt(e.partition);
+                out.writeInt(e.replica);
+                out.writeByte(e.outcome.ordinal());
+                out.write(e.digest.get(), 0, length);
+            }
+        } finally {
+            out.close();
+        }
+
+        Path manifest = new Path(dir, MANIFEST);
+        fs.delete(manifest, false);
+        if (!fs.rename(tmp, manifest))
+            throw new IOException("Can't rename " + tmp + " to " + manifest);
+    }
+
+    /**
+     * Reads a manifest, seeking to the entries it is asked for
+     */
+    public static class Reader implements java.io.Closeable {
+        private final FSDataInputStream in;
+        private final String providerClass;
+        private final int treeChunkSize;
+        private final int digestLength;
+        private final int count;
+        // offset of the first entry
+        private final long start;
+
+        /**
+         * @param fs the file system of the manifest
+         * @param file the manifest
+         */
+        public Reader(FileSystem fs, Path file) throws IOException {
+            in = fs.open(file);
+            try {
+                byte[] magic = new byte[MAGIC.length];
+                in.readFully(magic);
+                if (!Arrays.equals(MAGIC, magic))
+                    throw new IOException(file + " is not a digest manifest");
+                byte version = in.readByte();
+                if (version != VERSION)
+                    throw new IOException("Unknown version " + version + " of " + file);
+
+                providerClass = Text.readString(in);
+                treeChunkSize = in.readInt();
+                digestLength = in.readInt();
+                count = in.readInt();
+                if (digestLength < 0 || digestLength > 255 || count < 0)
+                    throw new IOException(file + " is corrupt");
+                start = in.getPos();
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        public String getProviderClass() {
+            return providerClass;
+        }
+
+        public int getTreeChunkSize() {
+            return treeChunkSize;
+        }
+
+        public int size() {
+            return count;
+        }
+
+        /**
+         * @param conf the configuration of the digest engine
+         * @return an empty digest of the kind the manifest holds
+         */
+        public MessageDigest newDigest(Configuration conf) throws IOException {
+            Class<?> cls;
+            try {
+                cls = conf.getClassByName(providerClass);
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Can't load the digest engine " + providerClass);
+            }
+            if (!DigestProvider.class.isAssignableFrom(cls))
+                throw new IOException(providerClass + " is not a " + DigestProvider.class.getName());
+
+            DigestProvider provider = (DigestProvider) ReflectionUtils.newInstance(cls, conf);
+            return new DigestFactory(provider, 0, treeChunkSize).newInstance();
+        }
+
+        private Entry read(int i) throws IOException {
+            in.seek(start + (long) i * (9 + digestLength));
+            int partition = in.readInt();
+            int replica = in.readInt();
+            int outcome = in.readByte();
+            if (outcome < 0 || outcome >= Outcome.values().length)
+                throw new IOException("Unknown outcome " + outcome + " of entry " + i);
+            byte[] digest = new byte[digestLength];
+            in.readFully(digest);
+
+            return new Entry(partition, replica, new DigestWritable(digest), Outcome.values()[outcome]);
+        }
+
+        /**
+         * @return all the entries, by partition and replica
+         */
+        public synchronized List<Entry> getEntries() throws IOException {
+            List<Entry> entries = new ArrayList<Entry>(count);
+            for (int i = 0; i < count; i++)
+                entries.add(read(i));
+
+            return entries;
+        }
+
+        /**
+         * @param partition a partition of the job's output
+         * @return the entries of the partition's replicas, by replica
+         */
+        public synchronized List<Entry> getEntries(int partition) throws IOException {
+            // the first entry of the partition
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (read(mid).partition < partition)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+
+            List<Entry> entries = new ArrayList<Entry>();
+            for (int i = low; i < count; i++) {
+                Entry e = read(i);
+                if (e.partition != partition)
+                    break;
+                entries.add(e);
+            }
+
+            return entries;
+        }
+
+        /**
+         * @param partition a partition of the job's output
+         * @return the digest the replicas of the partition agreed on, or null
+         */
+        public DigestWritable getVotedDigest(int partition) throws IOException {
+            for (Entry e : getEntries(partition)) {
+                if (e.outcome == Outcome.AGREED)
+                    return e.digest;
+            }
+
+            return null;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
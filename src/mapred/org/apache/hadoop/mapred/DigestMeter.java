@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.security.MessageDigest;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The time spent and the bytes hashed by the digests of a task, which the
+ * task reports in its counters.
+ *
+ * The meter wraps the digests of the {@link DigestProvider}, so a tree or
+ * pipelined digest is measured in the threads that hash its bytes. A digest
+ * is added to the meter once it is done, and the time of the small updates
+ * is sampled.
+ */
+class DigestMeter {
+	// the smallest update that is always timed
+	static final int TIMED_UPDATE = 512;
+	// one in this many of the smaller updates is timed
+	static final int SAMPLED_UPDATES = 16;
+
+	private final AtomicLong nanos = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+
+	/**
+	 * @param provider the engine of the digests to measure
+	 * @return an engine of the same digests, measured by this meter
+	 */
+	DigestProvider wrap(final DigestProvider provider) {
+		return new DigestProvider() {
+			public MessageDigest newInstance() {
+				return new MeteredDigest(provider.newInstance());
+			}
+		};
+	}
+
+	/**
+	 * @return the milliseconds spent hashing
+	 */
+	long getMillis() {
+		return nanos.get() / 1000000;
+	}
+
+	/**
+	 * @return the bytes hashed
+	 */
+	long getBytes() {
+		return bytes.get();
+	}
+
+	/**
+	 * Measures one digest. The digest only counts its own time and bytes,
+	 * and adds them to the meter when it is done, so the hashing path only
+	 * pays for the clock. Only one in {@link #SAMPLED_UPDATES} of the
+	 * updates smaller than {@link #TIMED_UPDATE} bytes is timed, as the clock
+	 * would cost more than the hashing, and their time is scaled to all the
+	 * bytes of the small updates.
+	 */
+	private class MeteredDigest extends MessageDigest {
+		private final MessageDigest md;
+		private long digestNanos = 0;
+		private long digestBytes = 0;
+		// the small updates, their bytes, and the bytes and time of those timed
+		private long smallUpdates = 0;
+		private long smallBytes = 0;
+		private long sampledBytes = 0;
+		private long sampledNanos = 0;
+
+		MeteredDigest(MessageDigest md) {
+			super(md.getAlgorithm());
+			this.md = md;
+		}
+
+		@Override
+		protected void engineUpdate(byte input) {
+			if(smallUpdates++ % SAMPLED_UPDATES == 0) {
+				long start = System.nanoTime();
+				md.update(input);
+				sampledNanos += System.nanoTime() - start;
+				sampledBytes++;
+			} else {
+				md.update(input);
+			}
+			smallBytes++;
+			digestBytes++;
+		}
+
+		@Override
+		protected void engineUpdate(byte[] input, int offset, int len) {
+			if(len >= TIMED_UPDATE) {
+				long start = System.nanoTime();
+				md.update(input, offset, len);
+				digestNanos += System.nanoTime() - start;
+			} else if(smallUpdates++ % SAMPLED_UPDATES == 0) {
+				long start = System.nanoTime();
+				md.update(input, offset, len);
+				sampledNanos += System.nanoTime() - start;
+				sampledBytes += len;
+				smallBytes += len;
+			} else {
+				md.update(input, offset, len);
+				smallBytes += len;
+			}
+			digestBytes += len;
+		}
+
+		@Override
+		protected byte[] engineDigest() {
+			long start = System.nanoTime();
+			byte[] digest = md.digest();
+			digestNanos += System.nanoTime() - start;
+			flush();
+			return digest;
+		}
+
+		@Override
+		protected void engineReset() {
+			md.reset();
+			flush();
+		}
+
+		@Override
+		protected int engineGetDigestLength() {
+			return md.getDigestLength();
+		}
+
+		private void flush() {
+			if(sampledBytes > 0) {
+				digestNanos += (long) ((double) sampledNanos * smallBytes / sampledBytes);
+			}
+			nanos.addAndGet(digestNanos);
+			bytes.addAndGet(digestBytes);
+			digestNanos = 0;
+			digestBytes = 0;
+			smallUpdates = 0;
+			smallBytes = 0;
+			sampledBytes = 0;
+			sampledNanos = 0;
+		}
+	}
+}
@@ -0,0 +1,42 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.security.MessageDigest;
+
+/**
+ * The engine of the digests that the replicas of a task vote on.
+ *
+ * A job chooses its engine by class name with
+ * {@link JobConf#setDigestProviderClass(Class)}. The engine does not need
+ * to be a JCE provider: it only has to hand out {@link MessageDigest}s, which
+ * the tasks feed while the output is written and read. A non-cryptographic
+ * engine is only safe against accidental corruption, not against a replica
+ * that forges its output.
+ *
+ * Implementations need a public no-argument constructor, and may implement
+ * {@link org.apache.hadoop.conf.Configurable} to get the job configuration.
+ */
+public interface DigestProvider {
+  /**
+   * New digest, which the caller uses from a single thread. This method
+   * may be called from several threads at once.
+   * @return an empty digest
+   */
+  MessageDigest newInstance();
+}
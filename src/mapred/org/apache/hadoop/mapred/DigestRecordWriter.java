@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+
+import org.apache.hadoop.io.IOUtils;
+
+/**
+ * A <code>RecordWriter</code> that digests the records written to the reduce
+ * output.
+ *
+ * Records are digested in their text form (<code>key SEP value\n</code>, as
+ * written by {@link TextOutputFormat}), so the digest is the same whatever
+ * the output format or compression, and it is ready as soon as the writer
+ * is closed, without reading the output back from the file system.
+ *
+ * The records can also be given to a {@link ProgressDigest}, so that the
+ * replicas of a reduce can be compared before they finish.
+ */
+class DigestRecordWriter<K, V> implements RecordWriter<K, V> {
+	private final RecordWriter<K, V> real;
+	private final MessageDigest md;
+	private final TextOutputFormat.LineRecordWriter<K, V> text;
+	private byte[] digest = null;
+	// the progress digests, or null
+	private final ProgressDigest progress;
+
+	/**
+	 * @param real the writer of the output, or null to only digest the records
+	 * @param job the job configuration
+	 * @param md the message digest
+	 */
+	public DigestRecordWriter(RecordWriter<K, V> real, JobConf job, MessageDigest md) {
+		this(real, job, md, null);
+	}
+
+	/**
+	 * @param real the writer of the output, or null to only digest the records
+	 * @param job the job configuration
+	 * @param md the message digest
+	 * @param progress the progress digests of the records, or null
+	 */
+	public DigestRecordWriter(RecordWriter<K, V> real, JobConf job, MessageDigest md,
+			ProgressDigest progress) {
+		this.real = real;
+		this.md = md;
+		this.progress = progress;
+
+		OutputStream out = new DigestOutputStream(new IOUtils.NullOutputStream(), md);
+		if(progress != null)
+			out = new DigestOutputStream(out, progress.getDigest());
+		this.text = new TextOutputFormat.LineRecordWriter<K, V>(new DataOutputStream(out),
+				job.get("mapred.textoutputformat.separator", "\t"));
+	}
+
+	public void write(K key, V value) throws IOException {
+		if(real != null)
+			real.write(key, value);
+		text.write(key, value);
+		if(progress != null)
+			progress.endRecord();
+	}
+
+	public void close(Reporter reporter) throws IOException {
+		if(real != null)
+			real.close(reporter);
+		getDigest();
+	}
+
+	/**
+	 * Digest of the records written so far. Once it is called no more
+	 * records may be written.
+	 * @return digest
+	 */
+	public byte[] getDigest() {
+		if(digest == null)
+			digest = md.digest();
+
+		return digest;
+	}
+}
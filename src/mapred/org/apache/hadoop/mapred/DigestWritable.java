@@ -0,0 +1,180 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * The binary digest of a task output (or of one partition of a map output).
+ *
+ * It is serialized as one length byte followed by the digest bytes, so a
+ * SHA-1 digest takes 21 bytes on the wire and in memory no hex or UTF-8
+ * conversion is made.
+ */
+public class DigestWritable implements WritableComparable<DigestWritable> {
+	private static final byte[] EMPTY = new byte[0];
+
+	private byte[] digest;
+
+	public DigestWritable() {
+		this(EMPTY);
+	}
+
+	/**
+	 * @param digest digest bytes; the array is not copied
+	 */
+	public DigestWritable(byte[] digest) {
+		set(digest);
+	}
+
+	public void set(byte[] digest) {
+		if(digest == null)
+			digest = EMPTY;
+
+		if(digest.length > 255)
+			throw new IllegalArgumentException("Digest too long: " + digest.length + " bytes");
+
+		this.digest = digest;
+	}
+
+	public byte[] get() {
+		return digest;
+	}
+
+	public int getLength() {
+		return digest.length;
+	}
+
+	public void write(DataOutput out) throws IOException {
+		out.writeByte(digest.length);
+		out.write(digest);
+	}
+
+	public void readFields(DataInput in) throws IOException {
+		digest = new byte[in.readUnsignedByte()];
+		in.readFully(digest);
+	}
+
+	public static DigestWritable read(DataInput in) throws IOException {
+		DigestWritable d = new DigestWritable();
+		d.readFields(in);
+		return d;
+	}
+
+	/**
+	 * Write an array of digests, like {@link WritableUtils#writeStringArray}
+	 * @param out
+	 * @param digests may be null
+	 * @throws IOException
+	 */
+	public static void writeArray(DataOutput out, DigestWritable[] digests) throws IOException {
+		if(digests == null) {
+			WritableUtils.writeVInt(out, -1);
+			return;
+		}
+
+		WritableUtils.writeVInt(out, digests.length);
+		for(DigestWritable d : digests) {
+			d.write(out);
+		}
+	}
+
+	/**
+	 * Read an array written by {@link #writeArray}
+	 * @param in
+	 * @return the array, or null
+	 * @throws IOException
+	 */
+	public static DigestWritable[] readArray(DataInput in) throws IOException {
+		int len = WritableUtils.readVInt(in);
+		if(len < 0)
+			return null;
+
+		DigestWritable[] digests = new DigestWritable[len];
+		for(int i=0; i<len; i++) {
+			digests[i] = read(in);
+		}
+
+		return digests;
+	}
+
+	/**
+	 * Compare arrays of digests
+	 * @param digest1
+	 * @param digest2
+	 * @return true if both are non null and have the same digests
+	 */
+	public static boolean equals(DigestWritable[] digest1, DigestWritable[] digest2) {
+		if(digest1 == null || digest2 == null)
+			return false;
+
+		return Arrays.equals(digest1, digest2);
+	}
+
+	public int compareTo(DigestWritable o) {
+		if(digest.length != o.digest.length)
+			return digest.length - o.digest.length;
+
+		return WritableComparator.compareBytes(digest, 0, digest.length, o.digest, 0, o.digest.length);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if(!(o instanceof DigestWritable))
+			return false;
+
+		return Arrays.equals(digest, ((DigestWritable) o).digest);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(digest);
+	}
+
+	/**
+	 * @return the digest in hex
+	 */
+	@Override
+	public String toString() {
+		return ShaAbstractHash.convertHashToString(digest);
+	}
+
+	/** A raw comparator of serialized digests */
+	public static class Comparator extends WritableComparator {
+		public Comparator() {
+			super(DigestWritable.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			// the length byte comes first, so this orders as compareTo
+			return compareBytes(b1, s1, l1, b2, s2, l2);
+		}
+	}
+
+	static {
+		WritableComparator.define(DigestWritable.class, new Comparator());
+	}
+}
@@ -22,6 +22,9 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
@@ -92,6 +95,20 @@ class IFile {
 		public Writer(Configuration conf, FSDataOutputStream out, 
 				Class<K> keyClass, Class<V> valueClass,
 				CompressionCodec codec, Counters.Counter writesCounter)
+		throws IOException {
+			this(conf, out, keyClass, valueClass, codec, writesCounter, null);
+		}
+
+		/**
+		 * Create a writer that also digests the records it writes.
+		 * @param recordDigest if not null, digests the uncompressed
+		 *        <key-len, value-len, key, value> stream and the EOF marker,
+		 *        which don't depend on the codec or the IFile checksum
+		 */
+		public Writer(Configuration conf, FSDataOutputStream out, 
+				Class<K> keyClass, Class<V> valueClass,
+				CompressionCodec codec, Counters.Counter writesCounter,
+				MessageDigest recordDigest)
 		throws IOException {
 			this.writtenRecordsCounter = writesCounter;
 			this.checksumOut = new IFileOutputStream(out);
@@ -102,13 +119,16 @@ class IFile {
 				this.compressor = CodecPool.getCompressor(codec);
 				this.compressor.reset();
 				this.compressedOut = codec.createOutputStream(checksumOut, compressor);
-				this.out = new FSDataOutputStream(this.compressedOut,  null);
 				this.compressOutput = true;
 				this.type = codec.getCompressorType();
-			} else {
-				this.out = new FSDataOutputStream(checksumOut,null);
 			}
 
+			OutputStream records = compressOutput ? compressedOut : checksumOut;
+			if (recordDigest != null) {
+				records = new DigestOutputStream(records, recordDigest);
+			}
+			this.out = new FSDataOutputStream(records, null);
+
 			this.keyClass = keyClass;
 			this.valueClass = valueClass;
 			SerializationFactory serializationFactory = new SerializationFactory(conf);
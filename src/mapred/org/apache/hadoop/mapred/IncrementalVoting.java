@@ -0,0 +1,579 @@
+package org.apache.hadoop.mapred;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Voting system that tallies the digests as they arrive.
+ *
+ * Each logical task (all the replicas of a map or reduce) has its own
+ * {@link Tally}, held in a concurrent map and locked on its own, so votes on
+ * unrelated tasks don't wait on each other. Replicas that produced the same
+ * digests are counted together, so the decision is taken in O(1) once f+1
+ * matching replicas have reported, and per partition counting is only needed
+ * when the replicas disagree. A decided task only keeps the winning digests
+ * and the ids of the replicas that produced them, or that agree with them
+ * on some partition when no replica has all of them.
+ */
+public class IncrementalVoting implements VotingSystem {
+    private static final Log LOG = LogFactory.getLog(IncrementalVoting.class);
+    private int numReplicas;
+    private int partitions;
+
+    private ConcurrentMap<String, List<Integer>> tasksSuccessful = new ConcurrentHashMap<String, List<Integer>>();
+
+    // the tallies of map and reduce tasks, by task id within the job
+    private ConcurrentMap<Integer, Tally> mapTally = new ConcurrentHashMap<Integer, Tally>();
+    private ConcurrentMap<Integer, Tally> redTally = new ConcurrentHashMap<Integer, Tally>();
+
+    // reduce tasks that got enough digests without a majority
+    private ConcurrentSkipListSet<Integer> redWithoutMajority = new ConcurrentSkipListSet<Integer>();
+
+    // digests held by all the tallies, kept up to date by the tallies
+    private final AtomicLong stateSize = new AtomicLong();
+
+    public IncrementalVoting(int numReplicas, int nrOfReduces) {
+        this.numReplicas = numReplicas;
+        this.partitions = nrOfReduces;
+    }
+
+    /**
+     * Votes of the replicas of one logical task.
+     *
+     * Once the task has a majority the tally is compacted: only the winning
+     * digests and the ids of the replicas that produced them are kept.
+     * Replicas that report later are added to the winners if they agree and
+     * are otherwise dropped, as the decision can't change any more.
+     *
+     * When the majority is only found partition by partition, no replica may
+     * have all the winning digests, so the winners are the replicas that
+     * agree with the majority on at least one partition, and their own
+     * digests are kept as well.
+     */
+    static class Tally {
+        private final int threshold;
+        private final AtomicLong stateSize;
+
+        // digests of the replicas that reported, by replica number, and the
+        // replicas grouped by equal digests. null once the task is decided.
+        private Map<Integer, DigestWritable[]> replicas = new HashMap<Integer, DigestWritable[]>(4);
+        private List<DigestWritable[]> groups = new ArrayList<DigestWritable[]>(2);
+        private List<Integer> groupSize = new ArrayList<Integer>(2);
+
+        // ids of the replicas that reported, or of the winners once decided
+        private final Map<Integer, TaskID> tasks = new LinkedHashMap<Integer, TaskID>(4);
+        private DigestWritable[] majority = null;
+        // the digests of the winners, when the majority was only found
+        // partition by partition. null otherwise.
+        private Map<Integer, DigestWritable[]> partial = null;
+        private int decision = MajorityVoting.NOT_ENOUGH_ELEMENTS;
+
+        private List<TaskCompletionEvent> events = null;
+        private DigestWritable[] firstHash = null;
+
+        /**
+         * @param stateSize the digests held by all the tallies, which this
+         *        one adds the digests it gains or drops to
+         */
+        Tally(int threshold, AtomicLong stateSize) {
+            this.threshold = threshold;
+            this.stateSize = stateSize;
+        }
+
+        synchronized void add(TaskID tid, DigestWritable[] values) {
+            long before = size();
+            doAdd(tid, values);
+            stateSize.addAndGet(size() - before);
+        }
+
+        synchronized boolean remove(TaskID tid) {
+            long before = size();
+            boolean removed = doRemove(tid);
+            stateSize.addAndGet(size() - before);
+            return removed;
+        }
+
+        private void doAdd(TaskID tid, DigestWritable[] values) {
+            int replica = tid.getReplicaNumber();
+            if(isDecided()) {
+                if(partial != null)
+                    partial.remove(replica);
+
+                if(Arrays.equals(majority, values)) {
+                    tasks.put(replica, tid);
+                } else if(partial != null && agreesOnAPartition(values)) {
+                    tasks.put(replica, tid);
+                    partial.put(replica, values);
+                } else {
+                    tasks.remove(replica);
+                }
+
+                return;
+            }
+
+            if(replicas.containsKey(replica))
+                doRemove(tid);
+
+            replicas.put(replica, values);
+            tasks.put(replica, tid);
+            addToGroup(values);
+            decide();
+        }
+
+        private boolean doRemove(TaskID tid) {
+            int replica = tid.getReplicaNumber();
+            if(isDecided()) {
+                if(tasks.remove(replica) == null)
+                    return false;
+
+                // the decision doesn't hold without enough winners, vote again
+                // with the ones left. A majority found partition by partition
+                // may not hold without any of them.
+                if(tasks.size() < threshold || partial != null) {
+                    replicas = new HashMap<Integer, DigestWritable[]>(4);
+                    for(Integer r : tasks.keySet())
+                        replicas.put(r, getWinner(r));
+
+                    rebuild();
+                }
+
+                return true;
+            }
+
+            tasks.remove(replica);
+            if(replicas.remove(replica) == null)
+                return false;
+
+            // rare: rebuild the groups from the replicas left
+            rebuild();
+            return true;
+        }
+
+        private void rebuild() {
+            groups = new ArrayList<DigestWritable[]>(2);
+            groupSize = new ArrayList<Integer>(2);
+            majority = null;
+            partial = null;
+            for(DigestWritable[] values : replicas.values())
+                addToGroup(values);
+
+            decide();
+        }
+
+        private void addToGroup(DigestWritable[] values) {
+            for(int i=0; i<groups.size(); i++) {
+                if(Arrays.equals(groups.get(i), values)) {
+                    int size = groupSize.get(i) + 1;
+                    groupSize.set(i, size);
+
+                    if(size >= threshold)
+                        majority = groups.get(i);
+                    return;
+                }
+            }
+
+            groups.add(values);
+            groupSize.add(1);
+            if(threshold <= 1)
+                majority = values;
+        }
+
+        private void decide() {
+            if(replicas.size() < threshold)
+                decision = MajorityVoting.NOT_ENOUGH_ELEMENTS;
+            else if(majority != null)
+                decision = MajorityVoting.MAJORITY;
+            else
+                decision = countPartitions();
+
+            if(decision == MajorityVoting.MAJORITY)
+                compact();
+        }
+
+        /**
+         * No replicas agree on all partitions; check if there is a majority
+         * in each partition on its own.
+         */
+        private int countPartitions() {
+            return partitionMajority() == null ? MajorityVoting.NO_MAJORITY : MajorityVoting.MAJORITY;
+        }
+
+        /**
+         * The digest that has a majority in each partition, or null if some
+         * partition has none
+         */
+        private DigestWritable[] partitionMajority() {
+            int width = -1;
+            for(DigestWritable[] values : replicas.values()) {
+                width = Math.max(width, values.length);
+            }
+
+            DigestWritable[] result = new DigestWritable[Math.max(width, 0)];
+            for(int part=0; part<width; part++) {
+                for(DigestWritable[] values : replicas.values()) {
+                    if(part >= values.length)
+                        continue;
+
+                    int count = 0;
+                    for(DigestWritable[] other : replicas.values()) {
+                        if(part < other.length && values[part].equals(other[part]))
+                            count++;
+                    }
+
+                    if(count >= threshold) {
+                        result[part] = values[part];
+                        break;
+                    }
+                }
+
+                if(result[part] == null)
+                    return null;
+            }
+
+            return result;
+        }
+
+        /**
+         * Keep the winning digests and the replicas that produced them, and
+         * free the rest
+         */
+        private void compact() {
+            if(majority == null) {
+                majority = partitionMajority();
+                partial = new HashMap<Integer, DigestWritable[]>(4);
+            }
+
+            Iterator<Map.Entry<Integer, TaskID>> iter = tasks.entrySet().iterator();
+            while(iter.hasNext()) {
+                Integer replica = iter.next().getKey();
+                DigestWritable[] values = replicas.get(replica);
+                if(Arrays.equals(majority, values))
+                    continue;
+
+                if(partial != null && agreesOnAPartition(values))
+                    partial.put(replica, values);
+                else
+                    iter.remove();
+            }
+
+            if(Arrays.equals(majority, firstHash))
+                firstHash = majority;
+
+            replicas = null;
+            groups = null;
+            groupSize = null;
+        }
+
+        /**
+         * @return true if the digests are the majority's in some partition
+         */
+        private boolean agreesOnAPartition(DigestWritable[] values) {
+            for(int part=0; part<Math.min(majority.length, values.length); part++) {
+                if(majority[part] != null && majority[part].equals(values[part]))
+                    return true;
+            }
+
+            return false;
+        }
+
+        /**
+         * The digests of a winner of a decided task
+         */
+        private DigestWritable[] getWinner(int replica) {
+            if(partial != null && partial.containsKey(replica))
+                return partial.get(replica);
+
+            return majority;
+        }
+
+        private boolean isDecided() {
+            return replicas == null;
+        }
+
+        synchronized int getDecision() {
+            return decision;
+        }
+
+        synchronized DigestWritable[] getMajority() {
+            return isDecided() ? majority : partitionMajority();
+        }
+
+        synchronized DigestWritable[] get(int replica) {
+            if(isDecided())
+                return tasks.containsKey(replica) ? getWinner(replica) : null;
+
+            return replicas.get(replica);
+        }
+
+        synchronized List<TaskID> getTasks() {
+            return new ArrayList<TaskID>(tasks.values());
+        }
+
+        synchronized boolean allEqual(DigestWritable[] digests) {
+            if(isDecided())
+                return (partial == null || partial.isEmpty()) && Arrays.equals(majority, digests);
+
+            if(replicas.isEmpty())
+                return false;
+
+            for(DigestWritable[] values : replicas.values()) {
+                if(!Arrays.equals(values, digests))
+                    return false;
+            }
+
+            return true;
+        }
+
+        synchronized boolean isEmpty() {
+            return isDecided() ? false : replicas.isEmpty();
+        }
+
+        /**
+         * Number of digests held
+         */
+        synchronized long size() {
+            long size = 0;
+            if(isDecided()) {
+                size = majority.length;
+                if(partial != null) {
+                    for(DigestWritable[] values : partial.values())
+                        size += values.length;
+                }
+            } else {
+                for(DigestWritable[] values : replicas.values())
+                    size += values.length;
+            }
+
+            if(firstHash != null && firstHash != majority)
+                size += firstHash.length;
+
+            return size;
+        }
+
+        synchronized void addEvent(TaskCompletionEvent event) {
+            if(events == null)
+                events = new ArrayList<TaskCompletionEvent>(2);
+
+            events.add(event);
+        }
+
+        synchronized List<TaskCompletionEvent> removeEvents() {
+            List<TaskCompletionEvent> res = events;
+            events = null;
+            return res;
+        }
+
+        synchronized void setFirstHash(DigestWritable[] values) {
+            if(firstHash == null) {
+                long before = size();
+                firstHash = Arrays.equals(majority, values) ? majority : values;
+                stateSize.addAndGet(size() - before);
+            }
+        }
+
+        synchronized DigestWritable[] getFirstHash() {
+            return firstHash;
+        }
+    }
+
+    private Tally getTally(TaskID tid, boolean create) {
+        ConcurrentMap<Integer, Tally> list = tid.isMap() ? mapTally : redTally;
+        Tally tally = list.get(tid.getId());
+
+        if(tally == null && create) {
+            tally = new Tally(getThreshold(), stateSize);
+            Tally old = list.putIfAbsent(tid.getId(), tally);
+            if(old != null)
+                tally = old;
+        }
+
+        return tally;
+    }
+
+    /**
+     * Keep track of the reduce tasks without majority
+     */
+    private void updateReduce(TaskID tid, Tally tally) {
+        if(tid.isMap())
+            return;
+
+        if(tally.getDecision() == MajorityVoting.NO_MAJORITY)
+            redWithoutMajority.add(tid.getId());
+        else
+            redWithoutMajority.remove(tid.getId());
+    }
+
+    public void addKey(String key) {
+        tasksSuccessful.putIfAbsent(key, Collections.synchronizedList(new ArrayList<Integer>()));
+    }
+
+    public void addValue(String key, Integer value) {
+        List<Integer> ids = tasksSuccessful.get(key);
+
+        synchronized (ids) {
+            if(!ids.contains(value))
+                ids.add(value);
+        }
+    }
+
+    public List<Integer> getTask(String taskId) {
+        return tasksSuccessful.get(taskId);
+    }
+
+    public int size() {
+        return tasksSuccessful.size();
+    }
+
+    public void addHash(TaskID tid, boolean map, DigestWritable[] values) {
+        if(tid == null || values == null)
+            return;
+
+        if(tid.isSetupOrCleanup())
+            return;
+
+        Tally tally = getTally(tid, true);
+        tally.add(tid, values);
+        updateReduce(tid, tally);
+
+        if(LOG.isDebugEnabled())
+            LOG.debug("Vote of " + tid + ": " + tally.getDecision());
+    }
+
+    public boolean removeHash(TaskID tid) {
+        if(tid == null)
+            return false;
+
+        if(tid.isSetupOrCleanup())
+            return false;
+
+        Tally tally = getTally(tid, false);
+        if(tally == null)
+            return false;
+
+        boolean removed = tally.remove(tid);
+        updateReduce(tid, tally);
+        return removed;
+    }
+
+    public DigestWritable[] getHash(TaskID tid) {
+        Tally tally = getTally(tid, false);
+
+        return tally == null ? null : tally.get(tid.getReplicaNumber());
+    }
+
+    public int getThreshold() {
+        return ((numReplicas/2)+1);
+    }
+
+    public int hasMajorityOfDigests(TaskID tid) {
+        if(tid == null)
+            return MajorityVoting.NOT_ENOUGH_ELEMENTS;
+
+        Tally tally = getTally(tid, false);
+
+        return tally == null ? MajorityVoting.NOT_ENOUGH_ELEMENTS : tally.getDecision();
+    }
+
+    public DigestWritable[] getMajorityDigests(TaskID tid) {
+        Tally tally = getTally(tid, false);
+
+        return tally == null ? null : tally.getMajority();
+    }
+
+    public int getTaskWithoutMajority() {
+        Iterator<Integer> iter = redWithoutMajority.iterator();
+
+        return iter.hasNext() ? iter.next() : -1;
+    }
+
+    public boolean allEqual(TaskID tid, DigestWritable[] digests) {
+        if(tid == null)
+            return false;
+
+        Tally tally = getTally(tid, false);
+
+        return tally != null && tally.allEqual(digests);
+    }
+
+    public void addTaskCompletionEvent(TaskID tid, TaskCompletionEvent event) {
+        if(event == null || tid == null)
+            return;
+
+        getTally(tid, true).addEvent(event);
+    }
+
+    public List<TaskCompletionEvent> getTaskCompletionEvent(TaskID tid) {
+        if(tid == null)
+            return null;
+
+        Tally tally = getTally(tid, false);
+
+        return tally == null ? null : tally.removeEvents();
+    }
+
+    /**
+     * The first event of a map isn't needed: the events of the replicas are
+     * kept with {@link #addTaskCompletionEvent} until the vote is decided
+     */
+    public void addFirst(TaskCompletionEvent event) {
+    }
+
+    public boolean digestsEquals(DigestWritable[] digest1, DigestWritable[] digest2) {
+        return DigestWritable.equals(digest1, digest2);
+    }
+
+    public void addFirstHash(TaskID tid, DigestWritable[] values) {
+        if(tid == null || values == null)
+            return;
+
+        if(tid.isSetupOrCleanup())
+            return;
+
+        getTally(tid, true).setFirstHash(values);
+    }
+
+    public DigestWritable[] getFirstHash(TaskID tid) {
+        if(tid == null)
+            return null;
+
+        if(tid.isSetupOrCleanup())
+            return null;
+
+        Tally tally = getTally(tid, false);
+
+        return tally == null ? null : tally.getFirstHash();
+    }
+
+    public boolean isEmpty(TaskID tid) {
+        if(tid == null)
+            return false;
+
+        Tally tally = getTally(tid, false);
+
+        return tally == null || tally.isEmpty();
+    }
+
+    public List<TaskID> getTask(TaskID tid) {
+        Tally tally = getTally(tid, false);
+
+        return tally == null ? null : tally.getTasks();
+    }
+
+    public long getStateSize() {
+        return stateSize.get();
+    }
+
+    public void clear() {
+        mapTally.clear();
+        redTally.clear();
+        stateSize.set(0);
+        redWithoutMajority.clear();
+        tasksSuccessful.clear();
+    }
+}
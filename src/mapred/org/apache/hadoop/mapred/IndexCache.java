@@ -55,7 +55,7 @@ class IndexCache {
 	 * @return The Index Information
 	 * @throws IOException
 	 */
-	public IndexRecord getIndexInformation(String mapId, int reduce, Path fileName) 
+	public SpillRecord.IndexRecord getIndexInformation(String mapId, int reduce, Path fileName) 
 			throws IOException {
 		IndexInformation info = cache.get(mapId);
 
@@ -61,8 +61,17 @@ interface InterTrackerProtocol extends VersionedProtocol {
 	 *            (HADOOP-4869) 
 	 * Version 24: Changed format of Task and TaskStatus for HADOOP-4759 
 	 * Version 25: JobIDs are passed in response to JobTracker restart 
+	 * Version 26: TaskStatus carries the progress digests of reduces
+	 * Version 27: Digests of finished tasks are sent in one section of the
+	 *             TaskTrackerStatus instead of in each TaskStatus
+	 * Version 28: Added getVotedMapEvents, TaskCompletionEvent lists the
+	 *             replicas of a voted map
+	 * Version 29: TaskCompletionEvent tells the kept outputs of voted maps,
+	 *             MapTask carries the directory where it keeps its output
+	 * Version 30: TaskStatus and TaskCompletionEvent write their digests as
+	 *             DigestWritables instead of UTF-8 strings
 	 */
-	long versionID = 25L;
+	long versionID = 30L;
 
 	int TRACKERS_OK = 0;
 	int UNKNOWN_TASKTRACKER = 1;
@@ -133,6 +142,20 @@ interface InterTrackerProtocol extends VersionedProtocol {
 	 */
 	TaskCompletionEvent[] getTaskCompletionEvents(JobID jobid, int fromEventId, int maxEvents) throws IOException;
 
+	/**
+	 * Get the events of the voted maps of the jobid, starting from
+	 * fromEventId: one event per map once its replicas were voted, listing
+	 * the replicas that agree with the majority, and the events of the map
+	 * attempts that failed or were killed.
+	 * Returns empty aray if no events are available.
+	 * @param jobid job id
+	 * @param fromEventId event id to start from.
+	 * @param maxEvents the max number of events we want to look at
+	 * @return array of task completion events.
+	 * @throws IOException
+	 */
+	TaskCompletionEvent[] getVotedMapEvents(JobID jobid, int fromEventId, int maxEvents) throws IOException;
+
 	/**
 	 * Force kill task attempt 
 	 * @param taskAttemptId
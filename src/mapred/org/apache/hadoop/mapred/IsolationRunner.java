@@ -50,7 +50,7 @@ public class IsolationRunner {
             LOG.info("Task " + taskid + " request map.");
         }
 
-        public void sendDigest(TaskAttemptID taskid, String[] hash) throws IOException {
+        public void sendDigest(TaskAttemptID taskid, DigestArrayWritable hash) throws IOException {
             LOG.info("Task " + taskid + " send hash.");
         }
 
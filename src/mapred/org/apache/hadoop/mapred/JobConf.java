@@ -346,6 +346,59 @@ public class JobConf extends Configuration {
     public String getDigestType() {
         return get("security.digest.type", "SHA-1");
     }
+
+    /**
+     * Get the {@link DigestProvider} of the digests that the replicas vote
+     * on. Defaults to the SHA engine of {@link #getDigestType()}.
+     *
+     * @return the digest engine class
+     */
+    public Class<? extends DigestProvider> getDigestProviderClass() {
+        Class<? extends DigestProvider> sha =
+            "SHA-256".equals(getDigestType()) ? Sha256Hash.class : Sha1Hash.class;
+        return getClass("security.digest.provider.class", sha, DigestProvider.class);
+    }
+
+    /**
+     * Set the {@link DigestProvider} of the digests that the replicas vote on.
+     *
+     * @param theClass the digest engine class
+     */
+    public void setDigestProviderClass(Class<? extends DigestProvider> theClass) {
+        setClass("security.digest.provider.class", theClass, DigestProvider.class);
+    }
+
+    /**
+     * Get the number of 64KB buffers of a digest that hashes in the
+     * background while the task goes on writing. With 0 the task hashes
+     * the bytes itself.
+     * Defaults to <code>0</code>.
+     *
+     * @return the number of buffers of each digest
+     */
+    public int getDigestPipelineBuffers() {
+        return getInt("security.digest.pipeline.buffers", 0);
+    }
+
+    public void setDigestPipelineBuffers(int buffers) {
+        setInt("security.digest.pipeline.buffers", buffers);
+    }
+
+    /**
+     * Get the bytes of each leaf of a Merkle tree digest, whose leaves are
+     * hashed in parallel. With 0 the digests are plain ones. All the replicas
+     * of a job must use the same value to agree.
+     * Defaults to <code>0</code>.
+     *
+     * @return the bytes of each leaf
+     */
+    public int getDigestTreeChunkSize() {
+        return getInt("security.digest.tree.chunk", 0);
+    }
+
+    public void setDigestTreeChunkSize(int chunkSize) {
+        setInt("security.digest.tree.chunk", chunkSize);
+    }
     
     /**
      * Set the current working directory for the default file system.
@@ -958,6 +1011,152 @@ public class JobConf extends Configuration {
         setBoolean("mapred.map.tasks.deferred.execution", value);
     }
 
+    /**
+     * Should only one replica of each reduce write its output, while the
+     * other replicas only digest it?
+     * Defaults to <code>false</code>.
+     *
+     * @return <code>true</code> if the extra reduce replicas are digest-only
+     */
+    public boolean getDigestOnlyReduces() {
+        return getBoolean("mapred.reduce.tasks.digest.only", false);
+    }
+
+    public void setDigestOnlyReduces(boolean value) {
+        setBoolean("mapred.reduce.tasks.digest.only", value);
+    }
+
+    /**
+     * Should a map output partition be digested over its sorted records,
+     * rather than over the bytes of its IFile segment? The records don't
+     * depend on the codec, the spills or the IFile framing.
+     * Defaults to <code>false</code>.
+     *
+     * @return <code>true</code> if map outputs have a logical digest
+     */
+    public boolean getLogicalMapDigest() {
+        return getBoolean("mapred.map.output.digest.logical", false);
+    }
+
+    public void setLogicalMapDigest(boolean value) {
+        setBoolean("mapred.map.output.digest.logical", value);
+    }
+
+    /**
+     * Get the number of output records between two progress digests of a
+     * reduce. Each progress digest covers the output written so far and is
+     * sent with the status updates, so that a replica that disagrees with
+     * the majority is killed before it finishes. With 0 only the final
+     * digest is voted.
+     * Defaults to <code>0</code>.
+     *
+     * @return the output records between two progress digests
+     */
+    public long getReduceProgressDigestInterval() {
+        return getLong("mapred.reduce.progress.digest.records", 0);
+    }
+
+    public void setReduceProgressDigestInterval(long records) {
+        setLong("mapred.reduce.progress.digest.records", records);
+    }
+
+    /**
+     * Get the number of collected records between two progress digests of
+     * a map. They are taken in the order the map collects its output, and
+     * a replica that disagrees with the majority is killed before it
+     * merges its spills. With 0 only the final digests are voted.
+     * Defaults to <code>0</code>.
+     *
+     * @return the collected records between two progress digests
+     */
+    public long getMapProgressDigestInterval() {
+        return getLong("mapred.map.progress.digest.records", 0);
+    }
+
+    public void setMapProgressDigestInterval(long records) {
+        setLong("mapred.map.progress.digest.records", records);
+    }
+
+    /**
+     * Should the reduces get one event per map once its replicas were
+     * voted, listing the replicas that agree on their partition, rather
+     * than one event per map replica? Only used with deferred execution.
+     * Defaults to <code>false</code>.
+     *
+     * @return <code>true</code> if the reduces get the voted map events
+     */
+    public boolean getVotedMapEvents() {
+        return getBoolean("mapred.reduce.voted.map.events", false);
+    }
+
+    public void setVotedMapEvents(boolean value) {
+        setBoolean("mapred.reduce.voted.map.events", value);
+    }
+
+    /**
+     * Should the replicas of the maps adapt to the agreement history of the
+     * trackers? With deferred execution, the first replica of a map on a
+     * trusted tracker runs alone until it succeeds, and a map with a replica
+     * on a suspect tracker gets one more replica right away. The majority
+     * of matching digests is still needed either way.
+     * Defaults to <code>false</code>.
+     *
+     * @return <code>true</code> if the map replication is adaptive
+     */
+    public boolean getAdaptiveReplication() {
+        return getBoolean("mapred.map.tasks.adaptive.replication", false);
+    }
+
+    public void setAdaptiveReplication(boolean value) {
+        setBoolean("mapred.map.tasks.adaptive.replication", value);
+    }
+
+    /**
+     * Get the replicas a tracker must have run in a row in agreement with
+     * the majority for it to be trusted.
+     * Defaults to <code>20</code>.
+     *
+     * @return the agreements in a row that make a tracker trusted
+     */
+    public int getTrustAgreements() {
+        return getInt("mapred.map.tasks.trust.agreements", 20);
+    }
+
+    public void setTrustAgreements(int agreements) {
+        setInt("mapred.map.tasks.trust.agreements", agreements);
+    }
+
+    /**
+     * Get the directory where the voted outputs of the maps are kept across
+     * jobs. A map whose split, job jar and configuration match a kept
+     * output isn't run, and the reduces read the kept output instead. Only
+     * used with deferred execution and voted map events.
+     * Defaults to <code>null</code>, that keeps no outputs.
+     *
+     * @return the directory of the map result cache, or <code>null</code>
+     */
+    public String getMapResultCacheDir() {
+        return get("mapred.map.result.cache.dir");
+    }
+
+    public void setMapResultCacheDir(String dir) {
+        set("mapred.map.result.cache.dir", dir);
+    }
+
+    /**
+     * Get the configuration keys, besides the ones that always change the
+     * map outputs, whose values must match for a kept map output to be used.
+     *
+     * @return the extra keys of the map result cache
+     */
+    public String[] getMapResultCacheKeys() {
+        return getStrings("mapred.map.result.cache.conf.keys", new String[0]);
+    }
+
+    public void setMapResultCacheKeys(String... keys) {
+        setStrings("mapred.map.result.cache.conf.keys", keys);
+    }
+
     public boolean getMapTasksOrdered() { 
         return getBoolean("mapred.map.tasks.test.ordered.set", true);
     }
@@ -19,6 +19,7 @@ package org.apache.hadoop.mapred;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileChecksum;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.LocalFileSystem;
 import org.apache.hadoop.fs.Path;
@@ -61,6 +62,9 @@ class JobInProgress {
     // Maximum no. of fetch-failure notifications after which
     // the map task is killed
     private static final int MAX_FETCH_FAILURES_NOTIFICATIONS = 3;
+    // the attempt of the event of a kept map output, that the replicas of
+    // the map don't reach, so that it can be made obsolete on its own
+    private static final int CACHED_MAP_ATTEMPT = 999;
     final JobTracker jobtracker;
     private final int maxLevel;
     /**
@@ -101,10 +105,30 @@ class JobInProgress {
     //    int completedMapsForReduceSlowstart = 0;
     //task -> replica number
     private VotingSystem voting;
+    // votes on the progress digests of the running maps and reduces
+    private ProgressVoting mapProgressVoting;
+    private ProgressVoting reduceProgressVoting;
+    // a map whose replicas disagreed on their progress digests got one more replica
+    private boolean[] map_progress_disputed;
     private int tamperedMap = 0;
     private int tamperedReduce = 0;
     private boolean[] map_voters;// array of values of the majority voting results.
     private boolean[] reduce_voters;// array of values of the majority voting results.
+    // with digest-only reduces: a replica that writes the output was launched
+    private boolean[] reduce_writers;
+    // with digest-only reduces: the replicas disagreed, or the winners have no output
+    private boolean[] reduce_disputed;
+    // with digest-only reduces: the output of the replica has been chosen
+    private boolean[] reduce_output_chosen;
+    // when the first replica of a task succeeded, to time its vote
+    private long[] map_first_success;
+    private long[] reduce_first_success;
+    // the vote on the reduce's digests was decided
+    private boolean[] reduce_decided;
+    // the digests the replicas of each reduce agreed on
+    private DigestWritable[][] votedReduceDigests;
+    // the digests of the reduce replicas, for the job's digest manifest
+    private List<DigestManifest.Entry> reduceDigests;
     private int numMapTasks 			= 0;
     private int replicatedNumMapTasks 	= 0;
     private int numReduceTasks 			= 0;
@@ -136,8 +160,6 @@ class JobInProgress {
     private List<TaskID> urgentMapsToRun;
     // A set of running reduce TIPs
     private Set<TaskInProgress> runningReduces;
-    // A set of back running reduce TIPs
-    private Set<TaskInProgress> backuprunningReduces;
     // A list of cleanup tasks for the map task attempts, to be launched
     private List<TaskAttemptID> mapCleanupTasks = new LinkedList<TaskAttemptID>();
     // A list of cleanup tasks for the reduce task attempts, to be launched
@@ -152,6 +174,23 @@ class JobInProgress {
     // used for tentative execution
     private int[] mapTaskCompletionEventTracker;
     private List<TaskCompletionEvent> taskCompletionEvents;
+    // one event per voted map, and the events of failed map attempts, for
+    // the reduces; with the digests of each voted map. null unless the
+    // reduces read them.
+    private List<TaskCompletionEvent> votedMapEvents;
+    private DigestWritable[][] votedMapDigests;
+    // adaptive replication: the replicas each map may have running, 0 until
+    // its first replica is launched, the maps whose first replica runs
+    // alone on a trusted tracker, and the maps whose replicas that never
+    // ran are still to be counted
+    private int[] map_replica_limit;
+    private boolean[] map_trusted_start;
+    private boolean[] map_trusted_deferred;
+    // the map result cache: the key of each map's output, null once it is
+    // kept, and the maps whose output was kept by an earlier job
+    private MapResultCache resultCache;
+    private String[] map_cache_keys;
+    private boolean[] map_cached;
     // No. of tasktrackers in the cluster
     private volatile int clusterSize = 0;
     // The no. of tasktrackers where >= conf.getMaxTaskFailuresPerTracker()
@@ -205,11 +244,29 @@ class JobInProgress {
         redTaskcounter = new TaskCounter(replicatedNumReduceTasks, numReplicas);
         summapTaskcounter = new TaskCounter(replicatedNumMapTasks, numReplicas);
         sumredTaskcounter = new TaskCounter(replicatedNumReduceTasks, numReplicas);
-        launcher = new MapLauncherController();
+        launcher = new MapLauncherController(numMapTasks, numReduceTasks, numReplicas);
 
-        voting          = new MajorityVoting(numReplicas, numReduceTasks);
+        voting          = new IncrementalVoting(numReplicas, numReduceTasks);
+        mapProgressVoting    = new ProgressVoting(voting.getThreshold());
+        reduceProgressVoting = new ProgressVoting(voting.getThreshold());
         map_voters      = new boolean[numMapTasks];
+        map_progress_disputed = new boolean[numMapTasks];
+        if (conf.getDeferredExecution() && conf.getVotedMapEvents()) {
+            votedMapEvents  = new ArrayList<TaskCompletionEvent>(numMapTasks + 10);
+            votedMapDigests = new DigestWritable[numMapTasks][];
+        }
+        map_replica_limit = new int[numMapTasks];
+        map_trusted_start = new boolean[numMapTasks];
+        map_trusted_deferred = new boolean[numMapTasks];
         reduce_voters   = new boolean[numReduceTasks];
+        reduce_writers  = new boolean[numReduceTasks];
+        reduce_disputed = new boolean[numReduceTasks];
+        reduce_output_chosen = new boolean[replicatedNumReduceTasks];
+        map_first_success = new long[numMapTasks];
+        reduce_first_success = new long[numReduceTasks];
+        reduce_decided = new boolean[numReduceTasks];
+        votedReduceDigests = new DigestWritable[numReduceTasks][];
+        reduceDigests = new ArrayList<DigestManifest.Entry>();
 
         endProcess      = new JobEndProcess();
     }
@@ -309,14 +366,31 @@ class JobInProgress {
         this.nonRunningReduces      = new LinkedList<TaskInProgress>();
 
         this.runningReduces = new LinkedHashSet<TaskInProgress>();
-        this.backuprunningReduces = new LinkedHashSet<TaskInProgress>();
         this.resourceEstimator = new ResourceEstimator(this);
 
-        launcher = new MapLauncherController();
+        launcher = new MapLauncherController(numMapTasks, numReduceTasks, numReplicas);
 
-        voting          = new MajorityVoting(numReplicas, numReduceTasks);
+        voting          = new IncrementalVoting(numReplicas, numReduceTasks);
+        mapProgressVoting    = new ProgressVoting(voting.getThreshold());
+        reduceProgressVoting = new ProgressVoting(voting.getThreshold());
         map_voters      = new boolean[numMapTasks];
+        map_progress_disputed = new boolean[numMapTasks];
+        if (conf.getDeferredExecution() && conf.getVotedMapEvents()) {
+            votedMapEvents  = new ArrayList<TaskCompletionEvent>(numMapTasks + 10);
+            votedMapDigests = new DigestWritable[numMapTasks][];
+        }
+        map_replica_limit = new int[numMapTasks];
+        map_trusted_start = new boolean[numMapTasks];
+        map_trusted_deferred = new boolean[numMapTasks];
         reduce_voters   = new boolean[numReduceTasks];
+        reduce_writers  = new boolean[numReduceTasks];
+        reduce_disputed = new boolean[numReduceTasks];
+        reduce_output_chosen = new boolean[replicatedNumReduceTasks];
+        map_first_success = new long[numMapTasks];
+        reduce_first_success = new long[numReduceTasks];
+        reduce_decided = new boolean[numReduceTasks];
+        votedReduceDigests = new DigestWritable[numReduceTasks][];
+        reduceDigests = new ArrayList<DigestManifest.Entry>();
 
         endProcess = new JobEndProcess();
     }
@@ -343,6 +417,13 @@ class JobInProgress {
         urgentMapsToRun.add(taskid);
     }
 
+    /**
+     * Number of digests held by the voting of this job
+     */
+    long getVotingStateSize() {
+        return voting.getStateSize();
+    }
+
     /**
      * Called periodically by JobTrackerMetrics to update the metrics for
      * this job.
@@ -554,6 +635,7 @@ class JobInProgress {
         // numMapTasks be enough
         this.numMapTasks = splits.length;
         this.replicatedNumMapTasks = numMapTasks * numReplicas;
+        launcher = new MapLauncherController(numMapTasks, numReduceTasks, numReplicas);
 
         // if the number of splits is larger than a configured value
         // then fail the job.
@@ -604,6 +686,8 @@ class JobInProgress {
 
         LOG.info("Input size for job " + jobId + " = " + inputLength + ". Number of splits = " + splits.length);
 
+        lookupMapResults(splits);
+
         if (numMapTasks > 0) {
             nonRunningMapCache = createCache(splits, maxLevel);
         }
@@ -676,6 +760,73 @@ class JobInProgress {
         endProcess.start();
     }
 
+    /**
+     * Find the maps whose output was kept by an earlier job. They aren't
+     * run, and the reduces get an event that points at the kept output. The
+     * replicas of the other maps copy their output for it to be kept once
+     * they are voted.
+     */
+    private void lookupMapResults(JobClient.RawSplit[] splits) {
+        String dir = conf.getMapResultCacheDir();
+        if (dir == null || numReduceTasks == 0)
+            return;
+
+        if (!conf.getDeferredExecution() || !conf.getVotedMapEvents()) {
+            LOG.warn("The map result cache needs deferred execution and voted map events");
+            return;
+        }
+
+        if (conf.getJar() == null) {
+            LOG.warn("The map result cache needs a job jar");
+            return;
+        }
+
+        byte[] jarDigest;
+        try {
+            resultCache = new MapResultCache(new Path(dir), conf);
+            jarDigest = resultCache.digestJar(new Path(conf.getJar()));
+        } catch (IOException e) {
+            LOG.warn("Can't use the map result cache " + dir + ": " + StringUtils.stringifyException(e));
+            resultCache = null;
+            return;
+        }
+
+        map_cache_keys = new String[numMapTasks];
+        map_cached = new boolean[numMapTasks];
+        int threshold = voting.getThreshold();
+        Map<Path, FileChecksum> checksums = new HashMap<Path, FileChecksum>();
+        for (int i = 0; i < splits.length; i++) {
+            try {
+                map_cache_keys[i] = resultCache.getKey(splits[i], jarDigest, checksums);
+            } catch (IOException e) {
+                LOG.warn("No key for the output of map " + i + ": " + StringUtils.stringifyException(e));
+            }
+            if (map_cache_keys[i] == null)
+                continue;
+
+            MapResultCache.Entry kept = resultCache.lookup(map_cache_keys[i], numReduceTasks);
+            if (kept == null) {
+                String keyDir = resultCache.getKeyDir(map_cache_keys[i]).toString();
+                for (int j = 0; j < numReplicas; j++)
+                    maps[(i * numReplicas) + j].setResultCache(keyDir);
+                continue;
+            }
+
+            LOG.info("Map " + i + " was kept as " + map_cache_keys[i]);
+            map_cached[i] = true;
+            map_voters[i] = true;
+            votedMapDigests[i] = kept.digests;
+            // the reduces wait for the majority of each map to be launched
+            for (int j = 0; j < threshold; j++)
+                summapTaskcounter.addtask(i);
+
+            TaskAttemptID attempt = new TaskAttemptID(maps[i * numReplicas].getTIPId(), CACHED_MAP_ATTEMPT);
+            votedMapEvents.add(TaskCompletionEvent.cached(votedMapEvents.size(), attempt,
+                    kept.output.toString(), kept.digests));
+            jobCounters.incrCounter(Counter.CACHED_MAPS, 1);
+        }
+    }
+
     private void printMapCache() {
         /*
           Map cache
@@ -999,6 +1150,8 @@ class JobInProgress {
         }
 
         boolean change = tip.updateStatus(status);
+        checkProgressDigests(tip, status);
+
         if (change) {
             TaskStatus.State state = status.getRunState();
 
@@ -1072,6 +1225,8 @@ class JobInProgress {
             if (taskEvent != null) {
                 this.taskCompletionEvents.add(taskEvent);
                 this.taskCompletionEventTracker++;
+                if (votedMapEvents != null && taskEvent.isMapTask() && state != TaskStatus.State.SUCCEEDED)
+                    votedMapEvents.add(taskEvent);
                 if(state==TaskStatus.State.SUCCEEDED)
                     completedTask(tip, status);
             }
@@ -1095,6 +1250,43 @@ class JobInProgress {
         }
     }
 
+    /**
+     * Compares the progress digests of a replica with the other replicas,
+     * position by position. A replica that disagrees with the majority is
+     * failed right away, and its next attempt runs on another tracker,
+     * instead of being found out when it finishes. With deferred execution,
+     * a map whose replicas disagree before there is a majority gets one more
+     * replica, as the final vote would.
+     */
+    private void checkProgressDigests(TaskInProgress tip, TaskStatus status) {
+        DigestWritable[] digests = status.getProgressDigests();
+        if (digests == null || digests.length == 0
+                || tip.isJobCleanupTask() || tip.isJobSetupTask()
+                || tip.wasKilled(status.getTaskID())) {
+            return;
+        }
+
+        int id = tip.getTIPId().getId();
+        ProgressVoting progressVoting = tip.isMapTask() ? mapProgressVoting : reduceProgressVoting;
+        for (int replica : progressVoting.add(tip.getTIPId(), status.getProgressDigestIndex(), digests)) {
+            TaskInProgress diverged = tip.isMapTask()
+                    ? maps[conf.getDeferredExecution() ? (id * numReplicas) + replica : (replica * numMapTasks) + id]
+                    : reduces[(id * numReplicas) + replica];
+            progressVoting.remove(diverged.getTIPId());
+            for (TaskAttemptID attempt : diverged.getActiveTasks().keySet()) {
+                LOG.warn(attempt + " disagrees with the progress digests of the majority of " + tip.getTIPId().toStringWithoutReplica());
+                diverged.killTask(attempt, true);
+            }
+        }
+
+        if (tip.isMapTask() && conf.getDeferredExecution() && !map_progress_disputed[id]
+                && progressVoting.isDisputed(id) && summapTaskcounter.getCount(id) < numReplicas) {
+            LOG.info("Replicas of " + tip.getTIPId().toStringWithoutReplica() + " disagree on their progress digests, launching one more");
+            map_progress_disputed[id] = true;
+            mapTaskcounter.removetask(id);
+        }
+    }
+
     TaskCompletionEvent setStatusFailed(TaskInProgress tip,
             TaskStatus status, boolean wasRunning, boolean wasComplete,
             TaskAttemptID taskid, TaskStatus.State state,
@@ -1146,14 +1338,17 @@ class JobInProgress {
         jobtracker.removeTaskEntry(taskid);
         launcher.removeToRun(tip);
 
-        // add this task, to be rescheduled as cleanup attempt
+        // add this task, to be rescheduled as cleanup attempt, whose next
+        // attempt starts its progress digests over
         if (tip.isMapTask()) {
             mapCleanupTasks.add(taskid);
             mapTaskcounter.removetask(taskid.getTaskID().getId());
+            mapProgressVoting.remove(taskid.getTaskID());
+            releaseMapReplicas(taskid.getTaskID().getId());
         } else {
             reduceCleanupTasks.add(taskid);
             redTaskcounter.removetask(taskid.getTaskID().getId());
-
+            reduceProgressVoting.remove(taskid.getTaskID());
         }
         return taskEvent;
     }
@@ -1820,9 +2015,6 @@ class JobInProgress {
         }
 
         runningReduces.remove(tip);
-
-        if(!conf.getDeferredExecution())
-            backuprunningReduces.add(tip);
     }
 
     /**
@@ -1959,14 +2151,14 @@ class JobInProgress {
                     } else {
                         TaskCounter taskcounter     = tip.isMapTask() ? mapTaskcounter : redTaskcounter;
                         TaskCounter sumtaskcounter  = tip.isMapTask() ? summapTaskcounter : sumredTaskcounter;
-                        int count = taskcounter.getCount(tip.getTIPId().getId());
 
                         // launch two thirds of tasks
-                        boolean threshold = count < voting.getThreshold();
-
-                        if(threshold) {
-                            taskcounter.addtask(tip.getTIPId().getId());
+                        int limit = tip.isMapTask() ? mapReplicaLimit(tip.getTIPId().getId(), ttStatus)
+                                : voting.getThreshold();
+                        if(taskcounter.tryAddtask(tip.getTIPId().getId(), limit)) {
                             sumtaskcounter.addtask(tip.getTIPId().getId());
+                            if (tip.isMapTask())
+                                mapReplicaLaunched(tip.getTIPId().getId(), limit, ttStatus);
                         } else continue;
 
                         launcher.addToRun(tip);
@@ -1989,6 +2181,119 @@ class JobInProgress {
         return null;
     }
 
+    private boolean adaptiveReplication() {
+        return conf.getDeferredExecution() && conf.getAdaptiveReplication() && jobtracker != null;
+    }
+
+    /**
+     * The replicas of a map that may be running when one more is offered to
+     * a tracker. With adaptive replication, the first replica of a map on a
+     * trusted tracker runs alone until it succeeds, and a map offered to a
+     * suspect tracker gets one more replica than the majority, so that the
+     * replica it runs there isn't needed to agree. Nothing is recorded until
+     * the replica is launched, see {@link #mapReplicaLaunched}.
+     */
+    private int mapReplicaLimit(int id, TaskTrackerStatus ttStatus) {
+        if (map_cached != null && map_cached[id])
+            return 0;
+
+        int threshold = voting.getThreshold();
+        if (!adaptiveReplication())
+            return threshold;
+
+        TrackerTrust trust = jobtracker.getTrackerTrust();
+        String tracker = ttStatus.getTrackerName();
+        int limit = map_replica_limit[id];
+        if (limit == 0) {
+            limit = summapTaskcounter.getCount(id) == 0
+                    && trust.isTrusted(tracker, conf.getTrustAgreements()) ? 1 : threshold;
+        }
+
+        int extra = Math.min(threshold + 1, numReplicas);
+        if (limit < extra && trust.isSuspect(tracker, conf.getTrustAgreements()))
+            limit = extra;
+
+        return limit;
+    }
+
+    /**
+     * A replica of a map was launched under the limit
+     * {@link #mapReplicaLimit} gave for its tracker: keep the limit
+     */
+    private void mapReplicaLaunched(int id, int limit, TaskTrackerStatus ttStatus) {
+        int threshold = voting.getThreshold();
+        int previous = map_replica_limit[id];
+        if (!adaptiveReplication() || limit == previous)
+            return;
+
+        map_replica_limit[id] = limit;
+        map_trusted_start[id] = limit < threshold;
+        if (map_trusted_start[id])
+            map_trusted_deferred[id] = true;
+        if (limit > threshold && previous <= threshold) {
+            LOG.info(ttStatus.getTrackerName() + " is suspect, running one more replica of map " + id);
+            jobCounters.incrCounter(Counter.SUSPECT_EXTRA_REPLICAS, 1);
+        }
+    }
+
+    /**
+     * Let the replicas held back behind the first replica of a map run
+     */
+    private void releaseMapReplicas(int id) {
+        if (!map_trusted_start[id])
+            return;
+
+        map_trusted_start[id] = false;
+        map_replica_limit[id] = voting.getThreshold();
+    }
+
+    /**
+     * Count the replicas of a map that started on a trusted tracker and
+     * never ran, once the map is voted or the job is over
+     */
+    private void settleDeferredReplicas(int id) {
+        if (!map_trusted_deferred[id])
+            return;
+
+        map_trusted_deferred[id] = false;
+        int deferred = voting.getThreshold() - summapTaskcounter.getCount(id);
+        if (deferred > 0)
+            jobCounters.incrCounter(Counter.TRUSTED_DEFERRED_REPLICAS, deferred);
+    }
+
+    private void settleDeferredReplicas() {
+        for (int i = 0; i < map_trusted_deferred.length; i++)
+            settleDeferredReplicas(i);
+    }
+
+    /**
+     * Keep the agreement of the voted replicas of a map in the history of
+     * the trackers they ran on
+     * @param events the succeeded replicas
+     * @param majority the digests of the majority
+     */
+    private void recordAgreement(List<TaskCompletionEvent> events, DigestWritable[] majority) {
+        if (jobtracker == null || majority == null)
+            return;
+
+        TrackerTrust trust = jobtracker.getTrackerTrust();
+        for (TaskCompletionEvent event : events) {
+            TaskID tid = event.getTaskAttemptId().getTaskID();
+            int id = tid.getId(), replica = tid.getReplicaNumber();
+            TaskInProgress tip = maps[conf.getDeferredExecution() ? (id * numReplicas) + replica : (replica * numMapTasks) + id];
+            String tracker = tip.machineWhereTaskRan(event.getTaskAttemptId());
+            if (tracker == null)
+                continue;
+
+            if (DigestWritable.equals(event.getDigests(), majority)) {
+                trust.agreed(tracker);
+            } else {
+                LOG.warn(event.getTaskAttemptId() + " on " + tracker + " disagrees with the majority");
+                trust.disagreed(tracker);
+            }
+        }
+    }
+
     /**
      * Find reduce task
      * @param tip
@@ -2350,6 +2655,7 @@ class JobInProgress {
         tip = findTaskFromList(nonRunningReduces, tts, numUniqueHosts, false);
 
         if (tip != null) {
+            chooseReduceOutput(tip);
             scheduleReduce(tip);
             int id = (tip.getIdWithinJob() * conf.getFaultTolerance()) + tip.getTIPId().getReplicaNumber();
 
@@ -2410,6 +2716,7 @@ class JobInProgress {
             TaskInProgress tip = findTaskFromList(aux.get(0), ttStatus, numUniqueHosts, false);
 
             if (tip != null) {	
+                chooseReduceOutput(tip);
                 scheduleReduce(tip);
                 return (tip.getIdWithinJob() * conf.getFaultTolerance()) + tip.getTIPId().getReplicaNumber();
             } else
@@ -2419,6 +2726,87 @@ class JobInProgress {
         return -1;
     }
 
+    /**
+     * With digest-only reduces, only the first replica of a reduce writes its
+     * output and the others just digest it. Once the replicas disagree, every
+     * new replica writes its output, so that a winner of the vote has it.
+     * @param tip the reduce replica to launch
+     */
+    private void chooseReduceOutput(TaskInProgress tip) {
+        if (!conf.getDigestOnlyReduces()) {
+            return;
+        }
+
+        int id = tip.getTIPId().getId();
+        int idx = (id * numReplicas) + tip.getTIPId().getReplicaNumber();
+        // the next attempts of a replica keep its choice
+        if (reduce_output_chosen[idx]) {
+            return;
+        }
+
+        reduce_output_chosen[idx] = true;
+        tip.setDigestOnly(reduce_writers[id] && !reduce_disputed[id]);
+        if (!tip.isDigestOnly()) {
+            reduce_writers[id] = true;
+        }
+        LOG.debug(tip.getTIPId() + (tip.isDigestOnly() ? " only digests its output" : " writes its output"));
+    }
+
+    /**
+     * @param tid a reduce replica of a decided vote
+     * @return true if one of the winners wrote its output
+     */
+    private boolean hasReduceOutput(TaskID tid) {
+        List<TaskID> winners = voting.getTask(tid);
+        if (winners == null) {
+            return false;
+        }
+
+        for (TaskID winner : winners) {
+            if (!reduces[(winner.getId() * numReplicas) + winner.getReplicaNumber()].isDigestOnly()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * The winners of a reduce only digested their output. Waits for a pending
+     * replica that writes the output, or launches one more replica that writes
+     * it and has to agree with the winners.
+     * @param id the reduce
+     */
+    private void materializeReduce(int id) {
+        reduce_disputed[id] = true;
+
+        TaskInProgress spare = null;
+        for (int replica = 0; replica < numReplicas; replica++) {
+            int idx = (id * numReplicas) + replica;
+            TaskInProgress tip = reduces[idx];
+            // a replica that writes the output is running or about to run
+            if (reduce_output_chosen[idx] && !tip.isDigestOnly() && !tip.isComplete()) {
+                return;
+            }
+
+            if (spare == null && tip.isRunnable() && !tip.isRunning() && !tip.isComplete()) {
+                spare = tip;
+            }
+        }
+
+        if (spare == null) {
+            LOG.error("No replica left to write the output of reduce " + id + " of " + profile.getJobID());
+            fail();
+            return;
+        }
+
+        LOG.info("Launching " + spare.getTIPId() + " to write the output of reduce " + id);
+        reduce_output_chosen[(id * numReplicas) + spare.getTIPId().getReplicaNumber()] = true;
+        spare.setDigestOnly(false);
+        reduce_writers[id] = true;
+        redTaskcounter.removetask(id);
+    }
+
     private boolean shouldRunOnTaskTracker(String taskTracker) {
         //
         // Check if too many tasks of this job have failed on this
@@ -2542,12 +2930,14 @@ class JobInProgress {
         } else if (tip.isMapTask()) {
             // save map digests
             if(LOG.isDebugEnabled()) {
-                String[] digests = status.getDigests();
-                for (String d : digests) {
-                    LOG.debug("Add digest to " + tip.getTIPId().toString() + ": " + ShaAbstractHash.convertHashToString(d.getBytes()));
+                DigestWritable[] digests = status.getDigests();
+                for (DigestWritable d : digests) {
+                    LOG.debug("Add digest to " + tip.getTIPId().toString() + ": " + d);
                 }
             }
 
+            int mapId = taskid.getTaskID().getId();
+            replicaSucceeded(status, map_first_success, mapId, map_voters[mapId]);
             voting.addHash(tip.getTIPId(), true, status.getDigests());
 
             runningMapTasks -= 1;
@@ -2561,6 +2951,7 @@ class JobInProgress {
             mapTaskCompletionEventTracker[taskid.getTaskID().getId()]++;
             // if it's deferred execution, check if there is some taskcompletionevent to run
             if(conf.getDeferredExecution()) {
+                releaseMapReplicas(taskid.getTaskID().getId());
                 executionDecision(taskid.getTaskID());
             } else {
                 List<TaskCompletionEvent> events = voting.getTaskCompletionEvent(taskid.getTaskID());
@@ -2572,7 +2963,9 @@ class JobInProgress {
                  *      b) if it's different from the first one
                  *          b1) if it still haven't got a majority of values, and it's the last map task that ran, the job will fail.
                  *          b2) if it still haven't got a majority of values, and there's more task to ran. Wait for more map tasks to finish
-                 *          b3) if we've a majority of values and the new digest is different from the first one, execute the task
+                 *          b3) if we've a majority of values and the new digest is different from the first one, the reduces
+                 *              drop the output they copied from the first one and copy it again from an agreeing replica.
+                 *              They check their copies before leaving the shuffle, so no reduce has to run again.
                  */
                 // there's no map element saved. start passing data to reduce
                 for(TaskCompletionEvent event : events) {
@@ -2582,12 +2975,11 @@ class JobInProgress {
                     } else {
                         int maj = executionDecision(taskid.getTaskID());
 
-                        String[] digest = voting.getFirstHash(taskid.getTaskID());
+                        DigestWritable[] digest = voting.getFirstHash(taskid.getTaskID());
                         if(maj == MajorityVoting.MAJORITY) {
-                            if(!voting.digestsEquals(status.getDigests(), digest)) {
-                                // relaunch all reduce tasks finished
-                                relaunchReduceTask();
-
+                            if(!voting.digestsEquals(getVotedMapDigests(taskid.getTaskID()), digest)) {
+                                LOG.info("The replicas of " + tip.getTIPId() + " outvoted the first one;"
+                                        + " the reduces copy its output again");
                             }
                         }
                     }
@@ -2612,21 +3004,44 @@ class JobInProgress {
             // save reduce digests
             synchronized (reduce_voters) {
                 if(LOG.isDebugEnabled()) {
-                    String[] digests = status.getDigests();
-                    for (String d : digests) {
-                        LOG.debug("Add digest to " + tip.getTIPId().toString() + ": " + ShaAbstractHash.convertHashToString(d.getBytes()));
+                    DigestWritable[] digests = status.getDigests();
+                    for (DigestWritable d : digests) {
+                        LOG.debug("Add digest to " + tip.getTIPId().toString() + ": " + d);
                     }
                 }
 
+                int reduceId = tip.getTIPId().getId();
+                replicaSucceeded(status, reduce_first_success, reduceId, reduce_voters[reduceId]);
                 voting.addHash(tip.getTIPId(), false, status.getDigests());
+                DigestWritable[] replicaDigests = status.getDigests();
+                if(replicaDigests != null && replicaDigests.length > 0 && replicaDigests[0].getLength() > 0)
+                    reduceDigests.add(new DigestManifest.Entry(reduceId,
+                            tip.getTIPId().getReplicaNumber(), replicaDigests[0], null));
 
                 int maj = voting.hasMajorityOfDigests(tip.getTIPId());
                 reduce_voters[tip.getTIPId().getId()] = maj < MajorityVoting.MAJORITY ? false : true;
+                if(maj == MajorityVoting.MAJORITY) {
+                    reduceProgressVoting.clear(tip.getTIPId().getId());
+                    if(!reduce_decided[reduceId]) {
+                        reduce_decided[reduceId] = true;
+                        votedReduceDigests[reduceId] = voting.getMajorityDigests(tip.getTIPId());
+                        decidedVote(tip.getTIPId(), reduce_first_success);
+                    }
+                }
 
 
                 if(maj == MajorityVoting.NO_MAJORITY) {
+                    lostVote(tip.getTIPId());
                     TaskCounter taskcounter = redTaskcounter;
                     taskcounter.removetask(tip.getTIPId().getId());
+                    reduce_disputed[tip.getTIPId().getId()] = true;
+                }
+
+                // a reduce is only done when one of its winners wrote the output
+                if(maj == MajorityVoting.MAJORITY && conf.getDigestOnlyReduces()
+                        && !hasReduceOutput(tip.getTIPId())) {
+                    reduce_voters[tip.getTIPId().getId()] = false;
+                    materializeReduce(tip.getTIPId().getId());
                 }
 
                 runningReduceTasks -= 1;
@@ -2665,18 +3080,6 @@ class JobInProgress {
         return true;
     }
 
-    /**
-     * Re-launching reduce task
-     */
-    private void relaunchReduceTask() {
-        Iterator<TaskInProgress> iter = backuprunningReduces.iterator();
-        while(iter.hasNext()) {
-            TaskInProgress t = iter.next();
-            LOG.info("Relaunching reduce task " + t.getTIPId().toString());
-            scheduleReduce(t);
-        }
-    }
-
     /**
      * Verifies if it got a majority of digests. If so, notifies the completion of the task
      *
@@ -2684,20 +3087,32 @@ class JobInProgress {
      */
     private int executionDecision(TaskID taskid) {
         int maj = voting.hasMajorityOfDigests(taskid);
+        boolean decided = map_voters[taskid.getId()];
 
         map_voters[taskid.getId()] = maj == MajorityVoting.MAJORITY ? true : false;
 
         if(maj == MajorityVoting.MAJORITY) {
+            mapProgressVoting.clear(taskid.getId());
+            settleDeferredReplicas(taskid.getId());
+            if(!decided)
+                decidedVote(taskid, map_first_success);
             List<TaskCompletionEvent> events = voting.getTaskCompletionEvent(taskid);
             if(events != null && events.size() > 0) {
                 for(TaskCompletionEvent event : events) {
                     taskCompletionEvents.add(event);
                     taskCompletionEventTracker++;
                 }
+
+                if(!decided)
+                    outvotedReplicas(events, getVotedMapDigests(taskid));
+                recordAgreement(events, getVotedMapDigests(taskid));
+                addVotedMapEvent(taskid, events);
+                storeMapResult(taskid, events);
             }
         }
         // this is in the case, the digests of the map tasks aren't equals, there's the need to execute more tasks
         else if(maj == MajorityVoting.NO_MAJORITY) {
+            lostVote(taskid);
             TaskCounter sumtaskcounter = summapTaskcounter;
             int count = sumtaskcounter.getCount(taskid.getId());
 
@@ -2713,6 +3128,180 @@ class JobInProgress {
         return maj;
     }
 
+    /**
+     * A replica of a task succeeded: note when the first one did, and the
+     * run time of the ones that succeed after the vote was decided
+     * @param status the status of the replica
+     * @param firstSuccess when the first replica of each task succeeded
+     * @param id the task
+     * @param voted the vote on the task was already decided
+     */
+    private void replicaSucceeded(TaskStatus status, long[] firstSuccess, int id, boolean voted) {
+        if (firstSuccess[id] == 0)
+            firstSuccess[id] = System.currentTimeMillis();
+        if (voted)
+            wastedReplica(status.getTaskID(), status.getFinishTime() - status.getStartTime());
+    }
+
+    /**
+     * The replicas of a task agreed: count the time from the first replica
+     * to succeed to the decision, and the replicas the vote needed
+     * @param taskid a replica of the task
+     * @param firstSuccess when the first replica of each task succeeded
+     */
+    private void decidedVote(TaskID taskid, long[] firstSuccess) {
+        long first = firstSuccess[taskid.getId()];
+        long millis = first == 0 ? 0 : System.currentTimeMillis() - first;
+        jobCounters.incrCounter(Counter.VOTE_DECISION_TIME, millis);
+        jobCounters.incrCounter(Counter.REPLICAS_NEEDED, voting.getThreshold());
+        if (jobtracker != null)
+            jobtracker.getInstrumentation().decidedVote(taskid, voting.getThreshold(), millis);
+    }
+
+    /**
+     * The replicas of a task that succeeded have no majority
+     * @param taskid a replica of the task
+     */
+    private void lostVote(TaskID taskid) {
+        jobCounters.incrCounter(Counter.VOTES_LOST, 1);
+        if (jobtracker != null)
+            jobtracker.getInstrumentation().lostVote(taskid);
+    }
+
+    /**
+     * Count the run time of the replicas that disagreed with the majority
+     * of a map when its vote was decided
+     * @param events the succeeded replicas
+     * @param majority the digests of the majority
+     */
+    private void outvotedReplicas(List<TaskCompletionEvent> events, DigestWritable[] majority) {
+        if (majority == null)
+            return;
+
+        for (TaskCompletionEvent event : events) {
+            if (!DigestWritable.equals(event.getDigests(), majority))
+                wastedReplica(event.getTaskAttemptId(), event.getTaskRunTime());
+        }
+    }
+
+    /**
+     * A replica ran without being needed by the vote on its task
+     * @param attempt the replica
+     * @param millis the run time of the replica
+     */
+    private void wastedReplica(TaskAttemptID attempt, long millis) {
+        if (millis <= 0)
+            return;
+
+        jobCounters.incrCounter(Counter.WASTED_REPLICA_TIME, millis);
+        if (jobtracker != null)
+            jobtracker.getInstrumentation().wastedReplica(attempt, millis);
+    }
+
+    /**
+     * Add the event of a voted map, that lists the replicas agreeing with
+     * the majority. Replicas that succeed after the vote, like the ones
+     * run again after their output was lost, get an event of their own if
+     * they agree.
+     * @param taskid a replica of the map
+     * @param events the events of the replicas that succeeded since the
+     *        last event of the map
+     */
+    private void addVotedMapEvent(TaskID taskid, List<TaskCompletionEvent> events) {
+        if (votedMapEvents == null)
+            return;
+
+        DigestWritable[] majority = getVotedMapDigests(taskid);
+        if (majority == null)
+            return;
+
+        TaskCompletionEvent event = TaskCompletionEvent.voted(votedMapEvents.size(), events, majority);
+        if (event != null)
+            votedMapEvents.add(event);
+    }
+
+    /**
+     * Keep the output of a voted map in the map result cache, from a
+     * replica that agrees with the majority on every partition. The output
+     * is kept in the background, as it takes several calls to the file
+     * system.
+     * @param taskid a replica of the map
+     * @param events the events of the replicas that succeeded
+     */
+    private void storeMapResult(TaskID taskid, List<TaskCompletionEvent> events) {
+        int id = taskid.getId();
+        if (resultCache == null || map_cache_keys[id] == null || map_cached[id])
+            return;
+
+        DigestWritable[] majority = getVotedMapDigests(taskid);
+        List<TaskAttemptID> attempts = new ArrayList<TaskAttemptID>(events.size());
+        for (TaskCompletionEvent event : events) {
+            if (DigestWritable.equals(event.getDigests(), majority))
+                attempts.add(event.getTaskAttemptId());
+        }
+        if (attempts.isEmpty())
+            return;
+
+        resultCache.storeLater(map_cache_keys[id], attempts, majority);
+        // kept once
+        map_cache_keys[id] = null;
+    }
+
+    /**
+     * The reduces failed to read the kept output of a map. Once they failed
+     * enough times the output is dropped, and the map is run.
+     * @param mapTaskId the attempt of the map's cached event
+     */
+    synchronized void cachedMapFetchFailure(TaskAttemptID mapTaskId) {
+        int id = mapTaskId.getTaskID().getId();
+        if (map_cached == null || id >= map_cached.length || !map_cached[id])
+            return;
+
+        Integer fetchFailures = mapTaskIdToFetchFailuresMap.get(mapTaskId);
+        fetchFailures = (fetchFailures == null) ? 1 : (fetchFailures+1);
+        mapTaskIdToFetchFailuresMap.put(mapTaskId, fetchFailures);
+        LOG.info("Failed fetch notification #" + fetchFailures + " for the kept output of map " + id);
+        if (fetchFailures < MAX_FETCH_FAILURES_NOTIFICATIONS)
+            return;
+
+        mapTaskIdToFetchFailuresMap.remove(mapTaskId);
+        map_cached[id] = false;
+        map_voters[id] = false;
+        votedMapDigests[id] = null;
+        for (int j = 0; j < voting.getThreshold(); j++)
+            summapTaskcounter.removetask(id);
+
+        String key = map_cache_keys[id];
+        try {
+            resultCache.evict(key);
+        } catch (IOException e) {
+            LOG.warn("Can't drop the kept map output " + key + ": " + StringUtils.stringifyException(e));
+        }
+
+        String keyDir = resultCache.getKeyDir(key).toString();
+        for (int j = 0; j < numReplicas; j++)
+            maps[(id * numReplicas) + j].setResultCache(keyDir);
+
+        votedMapEvents.add(new TaskCompletionEvent(votedMapEvents.size(), mapTaskId, true,
+                TaskCompletionEvent.Status.OBSOLETE, keyDir, 0));
+        jobCounters.incrCounter(Counter.CACHED_MAPS, -1);
+    }
+
+    /**
+     * @param taskid a replica of a voted map
+     * @return the digests the majority of the replicas agreed on
+     */
+    private DigestWritable[] getVotedMapDigests(TaskID taskid) {
+        if (votedMapDigests == null)
+            return voting.getMajorityDigests(taskid);
+
+        int id = taskid.getId();
+        if (votedMapDigests[id] == null)
+            votedMapDigests[id] = voting.getMajorityDigests(taskid);
+
+        return votedMapDigests[id];
+    }
+
     private boolean valid(boolean[] array) {
         if(array.length == 0)
             return false;
@@ -2734,6 +3323,7 @@ class JobInProgress {
         // All tasks are complete, then the job is done!
         //
         if (this.status.getRunState() == JobStatus.RUNNING ) {
+            settleDeferredReplicas();
             this.status.setRunState(JobStatus.SUCCEEDED);
             this.status.setCleanupProgress(1.0f);
             if (maps.length == 0) {
@@ -2750,6 +3340,7 @@ class JobInProgress {
                     this.finishedMapTasks,
                     this.finishedReduceTasks, failedMapTasks,
                     failedReduceTasks, getCounters());
+            writeDigestManifest();
             // Note that finalize will close the job history handles which garbage collect
             // might try to finalize
             garbageCollect();
@@ -2758,9 +3349,49 @@ class JobInProgress {
         }
     }
 
+    /**
+     * Write the digests of the reduce replicas, and how their votes went,
+     * to the digest manifest of the job's output
+     */
+    private void writeDigestManifest() {
+        String dir = conf.get("mapred.output.digests.dir");
+        if (dir == null || reduces.length == 0)
+            return;
+
+        List<DigestManifest.Entry> entries = new ArrayList<DigestManifest.Entry>();
+        synchronized (reduce_voters) {
+            for (DigestManifest.Entry e : reduceDigests) {
+                DigestWritable[] voted = votedReduceDigests[e.getPartition()];
+                DigestManifest.Outcome outcome;
+                if (voted == null || voted.length == 0)
+                    outcome = DigestManifest.Outcome.UNDECIDED;
+                else if (voted[0].equals(e.getDigest()))
+                    outcome = DigestManifest.Outcome.AGREED;
+                else
+                    outcome = DigestManifest.Outcome.DISAGREED;
+                entries.add(new DigestManifest.Entry(e.getPartition(), e.getReplica(),
+                        e.getDigest(), outcome));
+            }
+        }
+
+        try {
+            Path path = new Path(dir);
+            FileSystem fs = path.getFileSystem(conf);
+            fs.mkdirs(path);
+            DigestManifest.write(fs, path, conf.getDigestProviderClass().getName(),
+                    conf.getDigestTreeChunkSize(), entries);
+            LOG.info("Wrote the digests of " + entries.size() + " reduce replicas of "
+                    + status.getJobID() + " to " + new Path(path, DigestManifest.MANIFEST));
+        } catch (IOException e) {
+            LOG.warn("Can't write the digest manifest of " + status.getJobID() + ": "
+                    + StringUtils.stringifyException(e));
+        }
+    }
+
     private synchronized void terminateJob(int jobTerminationState) {
         if ((status.getRunState() == JobStatus.RUNNING) ||
                 (status.getRunState() == JobStatus.PREP)) {
+            settleDeferredReplicas();
             if (jobTerminationState == JobStatus.FAILED) {
                 this.status = new JobStatus(status.getJobID(),
                         1.0f, 1.0f, 1.0f, JobStatus.FAILED,
@@ -3160,6 +3791,7 @@ class JobInProgress {
 
         cleanUpMetrics();
         // free up the memory used by the data structures
+        voting.clear();
         this.nonRunningMapCache = null;
         this.runningMapCache = null;
         this.nonRunningReduces = null;
@@ -3237,6 +3869,23 @@ class JobInProgress {
         return events;
     }
 
+    /**
+     * Get the events of the voted maps, and of the failed map attempts
+     * @param fromEventId the first event
+     * @param maxEvents the maximum number of events
+     * @return the events
+     */
+    synchronized public TaskCompletionEvent[] getVotedMapEvents(int fromEventId, int maxEvents) {
+        TaskCompletionEvent[] events = TaskCompletionEvent.EMPTY_ARRAY;
+
+        if (votedMapEvents != null && votedMapEvents.size() > fromEventId) {
+            int actualMax = Math.min(maxEvents, (votedMapEvents.size() - fromEventId));
+            events = votedMapEvents.subList(fromEventId, actualMax + fromEventId).toArray(events);
+        }
+
+        return events;
+    }
+
     /*
      *  at org.apache.hadoop.mapred.JobInProgress.fetchFailureNotification(JobInProgress.java:2863)
         at org.apache.hadoop.mapred.JobTracker.updateTaskStatuses(JobTracker.java:3653)
@@ -3500,6 +4149,13 @@ class JobInProgress {
         OTHER_LOCAL_MAPS,
         DATA_LOCAL_MAPS,
         RACK_LOCAL_MAPS,
+        TRUSTED_DEFERRED_REPLICAS,
+        SUSPECT_EXTRA_REPLICAS,
+        CACHED_MAPS,
+        VOTE_DECISION_TIME,
+        REPLICAS_NEEDED,
+        VOTES_LOST,
+        WASTED_REPLICA_TIME,
     }
 
     /**
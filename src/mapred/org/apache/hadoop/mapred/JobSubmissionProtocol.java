@@ -58,8 +58,10 @@ interface JobSubmissionProtocol extends VersionedProtocol {
 	 *             for HADOOP-4807
 	 * Version 20: Modified ClusterStatus to have the tasktracker expiry
 	 *             interval for HADOOP-4939                     
+	 * Version 21: TaskCompletionEvent lists the replicas of a voted map
+	 * Version 22: TaskCompletionEvent tells the kept outputs of voted maps
 	 */
-	long versionID = 20L;
+	long versionID = 22L;
 
 	/**
 	 * Allocate a name for the job.
@@ -200,12 +200,14 @@ JobSubmissionProtocol, TaskTrackerManager, RefreshAuthorizationPolicyProtocol {
         }
         if (result != null) {
             JobEndNotifier.startNotifier();
+            MapResultCache.startStorer();
         }
         return result;
     }
 
     public void stopTracker() throws IOException {
         JobEndNotifier.stopNotifier();
+        MapResultCache.stopStorer();
         close();
     }
 
@@ -1415,6 +1417,9 @@ JobSubmissionProtocol, TaskTrackerManager, RefreshAuthorizationPolicyProtocol {
     // (user -> list of JobInProgress)
     TreeMap<String, ArrayList<JobInProgress>> userToJobsMap = new TreeMap<String, ArrayList<JobInProgress>>();
 
+    // agreement of the replicas each tracker ran with the majority
+    private final TrackerTrust trackerTrust = new TrackerTrust();
+
     // (trackerID --> list of jobs to cleanup)
     private Map<String, Set<JobID>> trackerToJobsToCleanup = new HashMap<String, Set<JobID>>();
 
@@ -3490,6 +3495,22 @@ JobSubmissionProtocol, TaskTrackerManager, RefreshAuthorizationPolicyProtocol {
         return completedJobStatusStore.readJobTaskCompletionEvents(jobid, fromEventId, maxEvents);
     }
 
+    /**
+     * Returns the events of the voted maps of the given job, starting from
+     * fromEventId.
+     * @see org.apache.hadoop.mapred.InterTrackerProtocol#getVotedMapEvents(JobID, int, int)
+     */
+    public synchronized TaskCompletionEvent[] getVotedMapEvents(JobID jobid, int fromEventId, int maxEvents)
+            throws IOException {
+        JobInProgress job = this.jobs.get(jobid);
+
+        if (null != job && job.inited()) {
+            return job.getVotedMapEvents(fromEventId, maxEvents);
+        }
+
+        return EMPTY_EVENTS;
+    }
+
 
     /**
      * Keep track of map tasks launched
@@ -3755,6 +3776,12 @@ JobSubmissionProtocol, TaskTrackerManager, RefreshAuthorizationPolicyProtocol {
                         }
 
                         failedFetchMap.getJob().fetchFailureNotification(failedFetchMap, mapTaskId, failedFetchTrackerName);
+                    } else {
+                        // the output a job kept for the map may be unreadable
+                        JobInProgress mapJob = jobs.get(mapTaskId.getJobID());
+                        if (mapJob != null) {
+                            mapJob.cachedMapFetchFailure(mapTaskId);
+                        }
                     }
                 }
             }
@@ -3908,6 +3935,13 @@ JobSubmissionProtocol, TaskTrackerManager, RefreshAuthorizationPolicyProtocol {
                 new JobStatus[jobStatusList.size()]);
     }
 
+    /**
+     * Returns the agreement history of the trackers
+     */
+    TrackerTrust getTrackerTrust() {
+        return trackerTrust;
+    }
+
     /**
      * Returns the confgiured maximum number of tasks for a single job
      */
@@ -60,4 +60,13 @@ class JobTrackerInstrumentation {
 
   public void decWaiting(JobID id, int tasks)
   { }
+
+  public void decidedVote(TaskID taskID, int replicas, long millis)
+  { }
+
+  public void lostVote(TaskID taskID)
+  { }
+
+  public void wastedReplica(TaskAttemptID taskAttemptID, long millis)
+  { }
 }
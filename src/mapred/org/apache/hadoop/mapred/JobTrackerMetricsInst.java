@@ -37,6 +37,11 @@ class JobTrackerMetricsInst extends JobTrackerInstrumentation implements Updater
   private int numJobsSubmitted = 0;
   private int numJobsCompleted = 0;
   private int numWaitingTasks = 0;
+  private int numVotesDecided = 0;
+  private long voteDecisionMillis = 0;
+  private int numReplicasNeeded = 0;
+  private int numVotesLost = 0;
+  private long wastedReplicaMillis = 0;
     
   public JobTrackerMetricsInst(JobTracker tracker, JobConf conf) {
     super(tracker, conf);
@@ -65,6 +70,11 @@ class JobTrackerMetricsInst extends JobTrackerInstrumentation implements Updater
       metricsRecord.incrMetric("jobs_submitted", numJobsSubmitted);
       metricsRecord.incrMetric("jobs_completed", numJobsCompleted);
       metricsRecord.incrMetric("waiting_tasks", numWaitingTasks);
+      metricsRecord.incrMetric("votes_decided", numVotesDecided);
+      metricsRecord.incrMetric("vote_decision_time", voteDecisionMillis);
+      metricsRecord.incrMetric("replicas_needed", numReplicasNeeded);
+      metricsRecord.incrMetric("votes_lost", numVotesLost);
+      metricsRecord.incrMetric("wasted_replica_time", wastedReplicaMillis);
 
       numMapTasksLaunched = 0;
       numMapTasksCompleted = 0;
@@ -75,14 +85,22 @@ class JobTrackerMetricsInst extends JobTrackerInstrumentation implements Updater
       numWaitingTasks = 0;
       numJobsSubmitted = 0;
       numJobsCompleted = 0;
+      numVotesDecided = 0;
+      voteDecisionMillis = 0;
+      numReplicasNeeded = 0;
+      numVotesLost = 0;
+      wastedReplicaMillis = 0;
     }
-    metricsRecord.update();
 
     if (tracker != null) {
+      long votingDigests = 0;
       for (JobInProgress jip : tracker.getRunningJobs()) {
+        votingDigests += jip.getVotingStateSize();
         jip.updateMetrics();
       }
+      metricsRecord.setMetric("voting_digests", votingDigests);
     }
+    metricsRecord.update();
   }
 
   @Override
@@ -138,4 +156,21 @@ class JobTrackerMetricsInst extends JobTrackerInstrumentation implements Updater
   public synchronized void decWaiting(JobID id, int tasks) {
     numWaitingTasks -= tasks;
   }
+
+  @Override
+  public synchronized void decidedVote(TaskID taskID, int replicas, long millis) {
+    ++numVotesDecided;
+    voteDecisionMillis += millis;
+    numReplicasNeeded += replicas;
+  }
+
+  @Override
+  public synchronized void lostVote(TaskID taskID) {
+    ++numVotesLost;
+  }
+
+  @Override
+  public synchronized void wastedReplica(TaskAttemptID taskAttemptID, long millis) {
+    wastedReplicaMillis += millis;
+  }
 }
@@ -345,7 +345,7 @@ class LocalJobRunner implements JobSubmissionProtocol {
             LOG.debug("DO NOTHING.");
         }
 
-        public void sendDigest(TaskAttemptID taskId, String[] hash) throws IOException {
+        public void sendDigest(TaskAttemptID taskId, DigestArrayWritable hash) throws IOException {
             LOG.debug("DO NOTHING.");
         }
 
@@ -4,6 +4,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class MajorityVoting implements VotingSystem {
     private static final Log LOG = LogFactory.getLog(MajorityVoting.class);
@@ -12,16 +13,18 @@ public class MajorityVoting implements VotingSystem {
 
     private Map<String, List<Integer>> tasksSuccessful = Collections.synchronizedMap(new HashMap<String, List<Integer>>());
 
-    // mapHashList is a list where TaskID is the id and String[] is an array off hashes of a task. The hashes saved
+    // mapHashList is a list where TaskID is the id and DigestWritable[] is an array off hashes of a task. The hashes saved
     // contains the partition
-    private Map<String, List<String>> mapHashList = Collections.synchronizedMap(new HashMap<String, List<String>>());
-    private Map<String, List<String>> redHashList = Collections.synchronizedMap(new HashMap<String, List<String>>());
-    private Map<String, List<String>> firstMapHash= Collections.synchronizedMap(new HashMap<String, List<String>>());
+    private Map<String, List<DigestWritable>> mapHashList = Collections.synchronizedMap(new HashMap<String, List<DigestWritable>>());
+    private Map<String, List<DigestWritable>> redHashList = Collections.synchronizedMap(new HashMap<String, List<DigestWritable>>());
+    private Map<String, List<DigestWritable>> firstMapHash= Collections.synchronizedMap(new HashMap<String, List<DigestWritable>>());
 
     private Map<String, List<TaskCompletionEvent>> buffer = new HashMap<String, List<TaskCompletionEvent>>();
     private Map<String, List<TaskID>> maptaskList = Collections.synchronizedMap(new HashMap<String, List<TaskID>>());
     private Map<String, List<TaskID>> redtaskList = Collections.synchronizedMap(new HashMap<String, List<TaskID>>());
     private List<TaskCompletionEvent> first = new ArrayList<TaskCompletionEvent>();
+    // digests held in mapHashList, redHashList and firstMapHash
+    private final AtomicLong stateSize = new AtomicLong();
 
     public static final int NO_MAJORITY=-1;
     public static final int NOT_ENOUGH_ELEMENTS=-2;
@@ -84,36 +87,31 @@ public class MajorityVoting implements VotingSystem {
     /**
      * Add digest
      */
-    public void addHash(TaskID tid, boolean map, String[] values) {
+    public void addHash(TaskID tid, boolean map, DigestWritable[] values) {
         if(tid == null || values == null)
             return;
 
         if(tid.isSetupOrCleanup())
             return;
 
-        Map<String, List<String>> list = tid.isMap() ? mapHashList : redHashList;
+        Map<String, List<DigestWritable>> list = tid.isMap() ? mapHashList : redHashList;
         String id = tid.isMap() ? tid.toString() : tid.toStringWithoutReplica();
 
         addTask(tid);	
 
         if(!list.containsKey(id)) {
-            List<String> ldigests = new ArrayList<String>();
-
-            for (String digest : values) {
-                ldigests.add(ShaAbstractHash.convertHashToString(digest.getBytes()));
-            }
+            List<DigestWritable> ldigests = new ArrayList<DigestWritable>(Arrays.asList(values));
             list.put(id, ldigests);
         } else {// concat
-            List<String> ldigests = list.get(id);
-            for (String digest : values) {
-                ldigests.add(ShaAbstractHash.convertHashToString(digest.getBytes()));
-            }
+            List<DigestWritable> ldigests = list.get(id);
+            ldigests.addAll(Arrays.asList(values));
 
             list.put(id, ldigests);
         }
+        stateSize.addAndGet(values.length);
     }
 
-    public void addFirstHash(TaskID tid, String[] values) {
+    public void addFirstHash(TaskID tid, DigestWritable[] values) {
         if(tid == null || values == null)
             return;
 
@@ -121,11 +119,15 @@ public class MajorityVoting implements VotingSystem {
             return;
 
         String id = tid.toStringWithoutReplica();
-        if(!firstMapHash.containsKey(id))
-            firstMapHash.put(id, Arrays.asList(values));
+        synchronized (firstMapHash) {
+            if(!firstMapHash.containsKey(id)) {
+                firstMapHash.put(id, Arrays.asList(values));
+                stateSize.addAndGet(values.length);
+            }
+        }
     }
 
-    public String[] getFirstHash(TaskID tid) {
+    public DigestWritable[] getFirstHash(TaskID tid) {
         if(tid == null)
             return null;
 
@@ -134,7 +136,7 @@ public class MajorityVoting implements VotingSystem {
 
         String id = tid.toStringWithoutReplica();
         if(firstMapHash.containsKey(id))
-            return (String[]) firstMapHash.get(id).toArray();
+            return firstMapHash.get(id).toArray(new DigestWritable[firstMapHash.get(id).size()]);
 
         return null;
     }
@@ -149,19 +151,33 @@ public class MajorityVoting implements VotingSystem {
         if(tid.isSetupOrCleanup())
             return false;
 
-        Map<String, List<String>> list = tid.isMap() ? mapHashList : redHashList;
+        Map<String, List<DigestWritable>> list = tid.isMap() ? mapHashList : redHashList;
         String id = tid.isMap() ? tid.toString() : tid.toStringWithoutReplica();
 
         if(tid.isMap()) {
             removeTask(tid.toStringWithoutReplica(), tid);
-        }
+            List<DigestWritable> removed = list.remove(id);
+            if(removed == null)
+                return false;
 
-        if(list.containsKey(id) && tid.isMap()) {
-            list.remove(tid);
+            stateSize.addAndGet(-removed.size());
             return true;
         }
 
-        return false;
+        // the reduce digests are kept in the order of the replicas in redtaskList
+        List<TaskID> tasks = redtaskList.get(id);
+        List<DigestWritable> digests = list.get(id);
+        if(tasks == null || digests == null)
+            return false;
+
+        int index = tasks.indexOf(tid);
+        if(index < 0 || index >= digests.size())
+            return false;
+
+        digests.remove(index);
+        stateSize.decrementAndGet();
+        removeTask(id, tid);
+        return true;
     }
 
     public void addFirst(TaskCompletionEvent event) {
@@ -232,10 +248,10 @@ public class MajorityVoting implements VotingSystem {
     }
 
 
-    public String[] getHash(TaskID tid) {
-        Map<String, List<String>> list = tid.isMap() ? mapHashList : redHashList;
+    public DigestWritable[] getHash(TaskID tid) {
+        Map<String, List<DigestWritable>> list = tid.isMap() ? mapHashList : redHashList;
 
-        return list.get(tid.toString()) == null ? null : list.get(tid.toString()).toArray(new String[list.get(tid.toString()).size()]);
+        return list.get(tid.toString()) == null ? null : list.get(tid.toString()).toArray(new DigestWritable[list.get(tid.toString()).size()]);
     }
 
     /**
@@ -247,7 +263,7 @@ public class MajorityVoting implements VotingSystem {
         if(tid==null)
             return NOT_ENOUGH_ELEMENTS;
 
-        Map<String, List<String>> hlist  = tid.isMap() ? mapHashList : redHashList;
+        Map<String, List<DigestWritable>> hlist  = tid.isMap() ? mapHashList : redHashList;
         String id = tid.isMap() ? tid.toString() : tid.toStringWithoutReplica();
 
         if(tid.isMap()) {
@@ -259,7 +275,7 @@ public class MajorityVoting implements VotingSystem {
                 return NOT_ENOUGH_ELEMENTS;
 
             for(int part=0; part<partitions; part++) {
-                List<String> digests = new ArrayList<String>();
+                List<DigestWritable> digests = new ArrayList<DigestWritable>();
                 for(TaskID t : tasks) {
                     digests.add((hlist.get(t.toString())).get(part));
                 }
@@ -271,22 +287,56 @@ public class MajorityVoting implements VotingSystem {
             return MAJORITY;
         }
 
-        List<String> digests = hlist.get(id);
+        List<DigestWritable> digests = hlist.get(id);
         if(digests.size() < getThreshold())
             return NOT_ENOUGH_ELEMENTS;
 
         return countDigests(digests);
     }
 
-    public boolean allEqual(TaskID tid, String[] digests) {
+    /**
+     * Get the digests a majority of the replicas of a map agree on
+     * @param tid a replica of the map
+     * @return the digest of the majority, by partition, or null if a
+     *         partition has no majority
+     */
+    public DigestWritable[] getMajorityDigests(TaskID tid) {
+        DigestWritable[] majority = new DigestWritable[partitions];
+        List<TaskID> tasks = maptaskList.get(tid.toStringWithoutReplica());
+        if(tasks == null)
+            return null;
+
+        for(int part=0; part<partitions; part++) {
+            List<DigestWritable> digests = new ArrayList<DigestWritable>();
+            for(TaskID t : tasks) {
+                List<DigestWritable> hashes = mapHashList.get(t.toString());
+                if(hashes != null && part < hashes.size())
+                    digests.add(hashes.get(part));
+            }
+
+            for(DigestWritable d : digests) {
+                if(hasMajorityOfDigests(d, digests) >= getThreshold()) {
+                    majority[part] = d;
+                    break;
+                }
+            }
+
+            if(majority[part] == null)
+                return null;
+        }
+
+        return majority;
+    }
+
+    public boolean allEqual(TaskID tid, DigestWritable[] digests) {
         if(tid==null)
             return false;
 
-        Map<String, List<String>> list  = tid.isMap() ? mapHashList : redHashList;
+        Map<String, List<DigestWritable>> list  = tid.isMap() ? mapHashList : redHashList;
 
         if(tid.isMap()) {
             for(int i=0; i<numReplicas; i++) {
-                List<String> tasks = list.get(tid.toStringWithoutReplica() + "_" + i);
+                List<DigestWritable> tasks = list.get(tid.toStringWithoutReplica() + "_" + i);
                 if(tasks == null)
                     return false;
 
@@ -303,31 +353,20 @@ public class MajorityVoting implements VotingSystem {
         return true;
     }
 
-    public boolean digestsEquals(String[] digest1, String[] digest2) {
-        if(digest1 == null || digest2 == null)
-            return false;
-
-        if(digest1.length != digest2.length)
-            return false;
-
-        for(int i=0; i<digest1.length; i++) {
-            if(!digest1[i].equals(digest2[i])) {
-                return false;
-            }
-        }
-        return true;
+    public boolean digestsEquals(DigestWritable[] digest1, DigestWritable[] digest2) {
+        return DigestWritable.equals(digest1, digest2);
     }
 
     public boolean isEmpty(TaskID tid) {
         if(tid==null)
             return false;
 
-        Map<String, List<String>> list  = tid.isMap() ? mapHashList : redHashList;
+        Map<String, List<DigestWritable>> list  = tid.isMap() ? mapHashList : redHashList;
 
         if(tid.isMap()) {
-            List<String> tasks = list.get(tid.toStringWithoutReplica());
+            List<DigestWritable> tasks = list.get(tid.toStringWithoutReplica());
             if(tasks == null) {
-                list.put(tid.toStringWithoutReplica(), new ArrayList<String>());
+                list.put(tid.toStringWithoutReplica(), new ArrayList<DigestWritable>());
                 return true;
             }
 
@@ -343,13 +382,13 @@ public class MajorityVoting implements VotingSystem {
      * @param digests
      * @return
      */
-    private int countDigests(List<String> digests) {
+    private int countDigests(List<DigestWritable> digests) {
         if(digests == null)
             return NOT_ENOUGH_ELEMENTS;
 
         for(int i=0; i<digests.size(); i++) {
             int count = 1;
-            String key = digests.get(i);
+            DigestWritable key = digests.get(i);
 
             for(int j=i+1; j<digests.size(); j++) {
                 if(key.equals(digests.get(j))) {
@@ -365,7 +404,7 @@ public class MajorityVoting implements VotingSystem {
     }
 
 
-    private int hasMajorityOfDigests(String ref, List<String> digests) {
+    private int hasMajorityOfDigests(DigestWritable ref, List<DigestWritable> digests) {
         int count = 0;
 
         for(int i=0; i<digests.size(); i++) {
@@ -386,9 +425,9 @@ public class MajorityVoting implements VotingSystem {
         while(iter.hasNext()) {
             String k = iter.next();
             boolean flag = false;
-            List<String> digests = redHashList.get(k);
+            List<DigestWritable> digests = redHashList.get(k);
             if(digests.size() >= getThreshold()) {
-                for(String d : digests) {
+                for(DigestWritable d : digests) {
                     // if it has an occurrence where it's found a majority
                     if(!(hasMajorityOfDigests(d, digests) < getThreshold())) {
                         break;
@@ -428,4 +467,20 @@ public class MajorityVoting implements VotingSystem {
     public static int getNrReplicatedTasks(int tasks, int replica) {
         return tasks * ((replica * 2) +1);
     }
-}
+
+    public long getStateSize() {
+        return stateSize.get();
+    }
+
+    public void clear() {
+        mapHashList.clear();
+        redHashList.clear();
+        firstMapHash.clear();
+        stateSize.set(0);
+        buffer.clear();
+        maptaskList.clear();
+        redtaskList.clear();
+        first.clear();
+        tasksSuccessful.clear();
+    }
+}
\ No newline at end of file
@@ -2,88 +2,112 @@ package org.apache.hadoop.mapred;
 
 import static org.apache.hadoop.mapred.Util.getTaskID;
 
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import org.apache.commons.logging.Log;
 
+/**
+ * Keeps the state of the replicas of the tasks of a job.
+ *
+ * A map replica is prepared when it's chosen to run on a tracker, launched
+ * once the tracker starts it, and succeeded when it's done; a reduce
+ * replica goes straight to launched. The state of each replica is held in
+ * an array indexed by task and replica, and each logical task counts its
+ * replicas in every state, so both the transitions, done with a
+ * compare-and-set, and the counts are O(1) and don't take a lock in the
+ * heartbeat path.
+ */
 public class MapLauncherController {
     public static final Log LOG = JobInProgress.LOG;
 
-    // it's a temporary list of the map tasks that are ready to be lauched.
-    // this is necessary because, when a task is applied to run, it must be in this list 
-    // before went to the mapsLaunched
-    // I use this list because it exists a time between the call of the shouldRun method 
-    // and the time when the TaskID is added to mapLaunched. The variable is to guarantee
-    // that a request related to this task is already be dealing,
-    // otherwise it could launch more that than the f+1 tasks planned in the beginning of the execution.
-    private Set<TaskID> mapsPrepStage= Collections.synchronizedSet(new TreeSet<TaskID>());
-    private Set<TaskID> mapsLaunched = Collections.synchronizedSet(new TreeSet<TaskID>());
-    private Set<TaskID> succesfulMap = Collections.synchronizedSet(new TreeSet<TaskID>());
-    private Set<TaskID> redLaunched  = Collections.synchronizedSet(new TreeSet<TaskID>());
+    public enum State { NONE, PREPARED, LAUNCHED, SUCCEEDED }
 
-    private Map<String, List<String>> tasktrackerMap = new HashMap<String, List<String>>();
+    private static final State[] STATES = State.values();
 
-    public void addMapsLaunched(TaskAttemptID tid) {
-        if(tid == null)
-            return;
+    private final int numReplicas;
 
-        synchronized (mapsPrepStage) {
-            Iterator<TaskID> iter = mapsPrepStage.iterator();
-            while(iter.hasNext()) {
-                TaskID t = iter.next();
-                if(t.equals(getTaskID(tid))) {
-                    iter.remove();
+    // the state of each replica, at id * numReplicas + replica
+    private final AtomicIntegerArray mapStates;
+    private final AtomicIntegerArray redStates;
 
-                    synchronized (mapsLaunched) {
-                        mapsLaunched.add(getTaskID(tid));
-                        LOG.debug(tid + " added to MAPSLAUNCHED");
-                    }
-                }
+    // the replicas of each logical task in each state, at id * STATES.length + state
+    private final AtomicIntegerArray mapCounts;
+    private final AtomicIntegerArray redCounts;
 
-                //printStatus("addMapsLaunched");
-            }
-        }
+    private final ConcurrentMap<String, Set<String>> tasktrackerMap = new ConcurrentHashMap<String, Set<String>>();
+
+    /**
+     * @param numMapTasks the logical maps of the job
+     * @param numReduceTasks the logical reduces of the job
+     * @param numReplicas the replicas of each task
+     */
+    public MapLauncherController(int numMapTasks, int numReduceTasks, int numReplicas) {
+        this.numReplicas = numReplicas;
+        this.mapStates = new AtomicIntegerArray(numMapTasks * numReplicas);
+        this.redStates = new AtomicIntegerArray(numReduceTasks * numReplicas);
+        this.mapCounts = new AtomicIntegerArray(numMapTasks * STATES.length);
+        this.redCounts = new AtomicIntegerArray(numReduceTasks * STATES.length);
+        for(int i=0; i<numMapTasks; i++)
+            mapCounts.set(i * STATES.length, numReplicas);
+        for(int i=0; i<numReduceTasks; i++)
+            redCounts.set(i * STATES.length, numReplicas);
     }
 
-    public void addSuccessfulMap(TaskID tid) {
-        if(tid == null)
-            return;
+    /**
+     * Move a replica to <code>to</code> if it is in one of the
+     * <code>from</code> states
+     * @return true if the replica moved
+     */
+    private boolean transition(TaskID tid, State to, State... from) {
+        if(tid == null || tid.isSetupOrCleanup())
+            return false;
+
+        AtomicIntegerArray states = tid.isMap() ? mapStates : redStates;
+        AtomicIntegerArray counts = tid.isMap() ? mapCounts : redCounts;
+        int replica = tid.getReplicaNumber();
+        int index = tid.getId() * numReplicas + replica;
+        if(replica < 0 || replica >= numReplicas || index >= states.length())
+            return false;
+
+        while(true) {
+            int current = states.get(index);
+            if(current == to.ordinal() || !contains(from, current))
+                return false;
 
-        synchronized (mapsLaunched) {
-            Iterator<TaskID> iter = mapsLaunched.iterator();
-            while(iter.hasNext()) {
-                TaskID t = iter.next();
-                if(t.equals(tid)) {
-                    iter.remove();
-                    break;
-                }
-            }
-        }
+            if(states.compareAndSet(index, current, to.ordinal())) {
+                int base = tid.getId() * STATES.length;
+                counts.decrementAndGet(base + current);
+                counts.incrementAndGet(base + to.ordinal());
+                if(LOG.isDebugEnabled())
+                    LOG.debug(tid + " " + STATES[current] + " -> " + to);
 
-        synchronized (mapsPrepStage) {
-            Iterator<TaskID> iter = mapsPrepStage.iterator();
-            while(iter.hasNext()) {
-                TaskID t = iter.next();
-                if(t.equals(tid)) {
-                    iter.remove();
-                    break;
-                }
+                return true;
             }
         }
+    }
 
-        synchronized (succesfulMap) {
-            succesfulMap.add(tid);
-            LOG.debug(tid.toString() + " added to SUCCESFULMAP");
+    private static boolean contains(State[] states, int state) {
+        for(State s : states) {
+            if(s.ordinal() == state)
+                return true;
         }
 
-        //printStatus("addSuccessfulMap");
+        return false;
+    }
+
+    public void addMapsLaunched(TaskAttemptID tid) {
+        if(tid == null)
+            return;
+
+        transition(getTaskID(tid), State.LAUNCHED, State.PREPARED);
+    }
+
+    public void addSuccessfulMap(TaskID tid) {
+        transition(tid, State.SUCCEEDED, State.NONE, State.PREPARED, State.LAUNCHED);
     }
 
     /**
@@ -93,73 +117,96 @@ public class MapLauncherController {
      * @return false if the tasktracker ran already the task with the taskID
      */
     public boolean addTaskTrackerMap(String tasktracker, String task) {
-        if(!tasktrackerMap.containsKey(tasktracker))
-            tasktrackerMap.put(tasktracker, new ArrayList<String>());
-
-        List<String> tasks = tasktrackerMap.get(tasktracker);
-        for(String t : tasks)
-            if(t.equals(task))
-                return false;
+        Set<String> tasks = tasktrackerMap.get(tasktracker);
+        if(tasks == null) {
+            tasks = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            Set<String> old = tasktrackerMap.putIfAbsent(tasktracker, tasks);
+            if(old != null)
+                tasks = old;
+        }
 
-                tasks.add(task);
-                tasktrackerMap.put(tasktracker, tasks);
-                return true;
+        return tasks.add(task);
     }
 
     public void removeTaskTrackerMap(String tasktracker, String task) {
-        if(!tasktrackerMap.containsKey(tasktracker))
-            return;
-
-        List<String> tasks = tasktrackerMap.get(tasktracker);
-        tasks.remove(task);
+        Set<String> tasks = tasktrackerMap.get(tasktracker);
+        if(tasks != null)
+            tasks.remove(task);
     }
 
-
     public void addToRun(TaskInProgress tip) {
         if(tip == null) return;
 
-        if(tip.isMapTask()) {
-            synchronized (mapsPrepStage) {
-                mapsPrepStage.add(tip.getTIPId());
-            }
-        } else {
-            synchronized (redLaunched) {
-                redLaunched.add(tip.getTIPId());
-            }
-        }
+        addToRun(tip.getTIPId());
+    }
+
+    /**
+     * A replica was chosen to run
+     */
+    public void addToRun(TaskID tid) {
+        if(tid == null) return;
+
+        if(tid.isMap())
+            transition(tid, State.PREPARED, State.NONE, State.LAUNCHED, State.SUCCEEDED);
+        else
+            transition(tid, State.LAUNCHED, State.NONE, State.PREPARED, State.SUCCEEDED);
     }
 
     public void removeToRun(TaskInProgress tip) {
         if(tip == null) return;
-        
-        if(tip.isMapTask()) {
-            synchronized (mapsPrepStage) {
-                mapsPrepStage.remove(tip.getTIPId());
-            }
-        } else {
-            synchronized (redLaunched) {
-                redLaunched.remove(tip.getTIPId());
-            }
-        }
+
+        removeToRun(tip.getTIPId());
     }
 
-    public void printStatus(String from) {
-        String aux = "TASKS PREP: ";
-        for(TaskID tid : mapsPrepStage) {
-            aux += tid.toString() + ", ";
-        }
+    /**
+     * A replica that was to run failed or was killed before it succeeded
+     */
+    public void removeToRun(TaskID tid) {
+        transition(tid, State.NONE, State.PREPARED, State.LAUNCHED);
+    }
 
+    /**
+     * @param tid a replica
+     * @return the state of the replica
+     */
+    public State getState(TaskID tid) {
+        if(tid == null || tid.isSetupOrCleanup())
+            return State.NONE;
 
-        String aux2 = "TASKS LAUNCHED: ";
-        for(TaskID tid : mapsLaunched) {
-            aux2 += tid.toString() + ", ";
-        }
+        AtomicIntegerArray states = tid.isMap() ? mapStates : redStates;
+        int index = tid.getId() * numReplicas + tid.getReplicaNumber();
+
+        return index < states.length() ? STATES[states.get(index)] : State.NONE;
+    }
+
+    /**
+     * @param tid a replica of the task
+     * @param state the state
+     * @return the replicas of the task in the state
+     */
+    public int getReplicas(TaskID tid, State state) {
+        if(tid == null || tid.isSetupOrCleanup())
+            return 0;
 
-        String aux3 = "MAPS SUCC: ";
-        for(TaskID tid : succesfulMap) {
-            aux3 += tid.toString() + ", ";
+        AtomicIntegerArray counts = tid.isMap() ? mapCounts : redCounts;
+        int index = tid.getId() * STATES.length + state.ordinal();
+
+        return index < counts.length() ? counts.get(index) : 0;
+    }
+
+    public void printStatus(String from) {
+        StringBuilder prep = new StringBuilder("TASKS PREP: ");
+        StringBuilder launched = new StringBuilder("TASKS LAUNCHED: ");
+        StringBuilder succeeded = new StringBuilder("MAPS SUCC: ");
+        for(int i=0; i<mapStates.length(); i++) {
+            State state = STATES[mapStates.get(i)];
+            StringBuilder buf = state == State.PREPARED ? prep
+                    : state == State.LAUNCHED ? launched
+                    : state == State.SUCCEEDED ? succeeded : null;
+            if(buf != null)
+                buf.append(i / numReplicas).append('_').append(i % numReplicas).append(", ");
         }
 
-        LOG.debug("\n" + from + " -------------------------\n" + aux + "\n" + aux2 + "\n" + aux3);
+        LOG.debug("\n" + from + " -------------------------\n" + prep + "\n" + launched + "\n" + succeeded);
     }
 }
@@ -0,0 +1,195 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Chooses the replica of a map that a reduce copies the map output from.
+ *
+ * The replicas whose digest for the reduce's partition is shared by enough
+ * replicas, or that the job tracker already voted, serve the same bytes,
+ * so the output is copied once, from any of them. The chooser keeps the
+ * copies scheduled or in flight from each host and the rate of the copies
+ * that succeeded, and takes the replica on the host expected to serve it
+ * first. It isn't thread-safe: the ReduceCopier calls it under its own lock.
+ */
+class MapReplicaChooser {
+
+    /** A succeeded replica of a map, as the reduce sees it */
+    interface Replica {
+        TaskAttemptID getTaskAttemptId();
+
+        String getHost();
+
+        /** @return the digest of the reduce's partition */
+        DigestWritable getHash();
+
+        /** @return true if the job tracker voted the map and this replica agrees */
+        boolean isVoted();
+    }
+
+    /**
+     * Copies scheduled or in flight from a host, and the rate of the
+     * copies that succeeded
+     */
+    static class HostLoad {
+        // weight of the last copy in the rate
+        private static final double RATE_WEIGHT = 0.3;
+
+        int outstanding = 0;
+
+        // bytes per ms, 0 if no copy succeeded yet
+        double rate = 0;
+
+        void done(long bytes, long time) {
+            outstanding = Math.max(0, outstanding - 1);
+            if (bytes > 0) {
+                double last = (double) bytes / Math.max(1, time);
+                rate = rate == 0 ? last : (1 - RATE_WEIGHT) * rate + RATE_WEIGHT * last;
+            }
+        }
+    }
+
+    private final int reduceReplica;
+    private final int requiredAgreement;
+    private final Map<String, HostLoad> hostLoads = new HashMap<String, HostLoad>();
+
+    /**
+     * @param reduceReplica the replica number of the reduce
+     * @param requiredAgreement the replicas of a map that must report the
+     *        same digest for the partition before its output is copied
+     */
+    MapReplicaChooser(int reduceReplica, int requiredAgreement) {
+        this.reduceReplica = reduceReplica;
+        this.requiredAgreement = requiredAgreement;
+    }
+
+    /**
+     * Choose the replica to copy a map output from: one that isn't
+     * obsolete and whose digest for the partition is shared by
+     * <code>requiredAgreement</code> replicas, or that the job tracker
+     * already voted. Among those, the one on the host expected to serve it
+     * first, given its outstanding copies and rate. On a tie, the one with
+     * the replica number closest to the reduce's, so that the reduce
+     * replicas spread over the map replicas.
+     * @param replicas the succeeded replicas of the map
+     * @param failed a replica whose copy failed, only chosen again if
+     *        there is no other, or null
+     * @param obsolete the attempts whose outputs are lost
+     * @return the replica, or null if none can be chosen yet
+     */
+    <R extends Replica> R choose(List<R> replicas, R failed, Set<TaskAttemptID> obsolete) {
+        double averageRate = averageRate();
+        R chosen = null;
+        double chosenCost = Double.MAX_VALUE;
+        int chosenDistance = Integer.MAX_VALUE;
+        boolean failedAgrees = false;
+
+        for (R loc : replicas) {
+            if (obsolete.contains(loc.getTaskAttemptId())) {
+                continue;
+            }
+
+            int agreeing = 0;
+            for (R other : replicas) {
+                if (loc.getHash() != null && loc.getHash().equals(other.getHash())) {
+                    agreeing++;
+                }
+            }
+
+            if (!loc.isVoted() && agreeing < requiredAgreement) {
+                continue;
+            }
+
+            if (failed != null && loc.getTaskAttemptId().equals(failed.getTaskAttemptId())) {
+                failedAgrees = true;
+                continue;
+            }
+
+            HostLoad load = hostLoads.get(loc.getHost());
+            double cost = load == null ? 1 / averageRate
+                    : (load.outstanding + 1) / (load.rate > 0 ? load.rate : averageRate);
+            int distance = Math.abs(reduceReplica
+                    - loc.getTaskAttemptId().getTaskID().getReplicaNumber());
+            if (cost < chosenCost || (cost == chosenCost && distance < chosenDistance)) {
+                chosen = loc;
+                chosenCost = cost;
+                chosenDistance = distance;
+            }
+        }
+
+        return chosen == null && failedAgrees ? failed : chosen;
+    }
+
+    /**
+     * Get the load of a host
+     */
+    HostLoad getLoad(String host) {
+        HostLoad load = hostLoads.get(host);
+        if (load == null) {
+            load = new HostLoad();
+            hostLoads.put(host, load);
+        }
+        return load;
+    }
+
+    /**
+     * Note that a copy is scheduled from a host
+     */
+    void scheduled(String host) {
+        getLoad(host).outstanding++;
+    }
+
+    /**
+     * Note that a copy scheduled from a host is done
+     * @param host the host
+     * @param bytes bytes copied, 0 if the copy failed
+     * @param time time spent on the copy, in ms
+     */
+    void done(String host, long bytes, long time) {
+        getLoad(host).done(bytes, time);
+    }
+
+    /**
+     * Forget the copies scheduled from every host, keeping their rates
+     */
+    void clearScheduled() {
+        for (HostLoad load : hostLoads.values()) {
+            load.outstanding = 0;
+        }
+    }
+
+    /**
+     * The mean rate of the hosts we copied from, or 1 if none
+     */
+    private double averageRate() {
+        double sum = 0;
+        int hosts = 0;
+        for (HostLoad load : hostLoads.values()) {
+            if (load.rate > 0) {
+                sum += load.rate;
+                hosts++;
+            }
+        }
+        return hosts == 0 ? 1 : sum / hosts;
+    }
+}
@@ -0,0 +1,508 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.UTF8;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * The voted outputs of the maps, kept across jobs. An output is kept under
+ * a key made of the checksum of the split's file, the split, the digest of
+ * the job jar and the configuration that changes the map outputs, so that a
+ * later job with the same key doesn't run the map again.
+ *
+ * Each key has a directory:
+ * <ul>
+ * <li><code>_attempts/&lt;attempt&gt;</code>, where the replicas of a map
+ * copy their output before they finish</li>
+ * <li><code>output.&lt;n&gt;</code>, the output of a replica that agreed
+ * with the majority, moved there by the job tracker</li>
+ * <li><code>manifest.&lt;n&gt;</code>, the key and the digests the majority
+ * agreed on, written by the job tracker once the output is in place</li>
+ * </ul>
+ * An output kept again for a key gets the next generation <code>n</code>,
+ * and the lookups switch to it when its manifest appears, so the key is
+ * never without an output while it is replaced. The previous generation
+ * stays for the reduces that already read it.
+ * Only the job tracker writes the manifests, and the reduces check the
+ * kept outputs against its digests as they read them. It keeps the outputs
+ * in the background ({@link #storeLater}), off the heartbeats.
+ */
+class MapResultCache {
+    private static final Log LOG = LogFactory.getLog(MapResultCache.class);
+
+    static final String ATTEMPTS = "_attempts";
+    static final String OUTPUT = "output";
+    static final String MANIFEST = "manifest";
+    static final String OUTPUT_FILE = "file.out";
+    static final String INDEX_FILE = "file.out.index";
+
+    /** The configuration that changes the outputs of the maps */
+    static final String[] CONF_KEYS = {
+        "mapred.mapper.class",
+        "mapreduce.map.class",
+        "mapred.map.runner.class",
+        "mapred.input.format.class",
+        "mapreduce.inputformat.class",
+        "mapred.mapoutput.key.class",
+        "mapred.mapoutput.value.class",
+        "mapred.output.key.class",
+        "mapred.output.value.class",
+        "mapred.partitioner.class",
+        "mapreduce.partitioner.class",
+        "mapred.combiner.class",
+        "mapreduce.combine.class",
+        "mapred.output.key.comparator.class",
+        "mapred.reduce.tasks",
+        "mapred.compress.map.output",
+        "mapred.map.output.compression.codec",
+        "io.serializations",
+        "security.digest.type",
+        "security.digest.provider.class",
+        "security.digest.tree.chunk",
+        "mapred.map.output.digest.logical",
+    };
+
+    private static final Charset UTF8_CHARSET = Charset.forName("UTF-8");
+
+    // the outputs to keep, and the thread of the job tracker that keeps them
+    private static Thread storer;
+    private static volatile boolean storing;
+    private static final BlockingQueue<StoreRequest> queue = new LinkedBlockingQueue<StoreRequest>();
+
+    /** A kept output of a map */
+    static class Entry {
+        /** the directory of the output and index files */
+        final Path output;
+        /** the digests the replicas agreed on, by partition */
+        final DigestWritable[] digests;
+
+        Entry(Path output, DigestWritable[] digests) {
+            this.output = output;
+            this.digests = digests;
+        }
+    }
+
+    /** The output of a voted map to keep, from one of its replicas */
+    private static class StoreRequest {
+        final MapResultCache cache;
+        final String key;
+        final List<TaskAttemptID> attempts;
+        final DigestWritable[] digests;
+
+        StoreRequest(MapResultCache cache, String key, List<TaskAttemptID> attempts,
+                DigestWritable[] digests) {
+            this.cache = cache;
+            this.key = key;
+            this.attempts = attempts;
+            this.digests = digests;
+        }
+
+        void keep() {
+            for (TaskAttemptID attempt : attempts) {
+                try {
+                    if (cache.store(key, attempt, digests))
+                        return;
+                } catch (IOException e) {
+                    LOG.warn("Can't keep the output of " + attempt + ": " + StringUtils.stringifyException(e));
+                }
+            }
+        }
+    }
+
+    private final Path dir;
+    private final FileSystem fs;
+    private final JobConf conf;
+
+    MapResultCache(Path dir, JobConf conf) throws IOException {
+        this.fs = dir.getFileSystem(conf);
+        this.dir = fs.makeQualified(dir);
+        this.conf = conf;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param jar the job jar
+     * @return the digest of the job jar
+     */
+    byte[] digestJar(Path jar) throws IOException {
+        MessageDigest md = newDigest();
+        InputStream in = jar.getFileSystem(conf).open(jar);
+        try {
+            byte[] buf = new byte[64 * 1024];
+            int n = in.read(buf, 0, buf.length);
+            while (n > 0) {
+                md.update(buf, 0, n);
+                n = in.read(buf, 0, buf.length);
+            }
+        } finally {
+            in.close();
+        }
+
+        return md.digest();
+    }
+
+    /**
+     * @param split the split of a map
+     * @param jarDigest the digest of the job jar
+     * @param checksums the checksums of the files of the splits already
+     *        seen, since a file checksum reads the whole file
+     * @return the key of the map's output, or null if the split isn't a
+     *         file split or its file system has no checksums
+     */
+    String getKey(JobClient.RawSplit split, byte[] jarDigest, Map<Path, FileChecksum> checksums)
+            throws IOException {
+        Path file = getSplitPath(split);
+        if (file == null)
+            return null;
+
+        FileChecksum checksum;
+        if (checksums.containsKey(file)) {
+            checksum = checksums.get(file);
+        } else {
+            checksum = file.getFileSystem(conf).getFileChecksum(file);
+            checksums.put(file, checksum);
+        }
+        if (checksum == null)
+            return null;
+
+        return getKey(split.getClassName(), split.getBytes().getBytes(), split.getBytes().getLength(),
+                checksum, jarDigest, conf);
+    }
+
+    /**
+     * @param splitClass the class of the split
+     * @param split the serialized split, with its file, start and length
+     * @param length the length of the serialized split
+     * @param checksum the checksum of the split's file
+     * @param jarDigest the digest of the job jar
+     * @param conf the configuration of the job
+     * @return the hexadecimal key of the map's output
+     */
+    static String getKey(String splitClass, byte[] split, int length, FileChecksum checksum,
+            byte[] jarDigest, JobConf conf) {
+        MessageDigest md = newDigest();
+        update(md, splitClass);
+        md.update(split, 0, length);
+        update(md, checksum.getAlgorithmName());
+        md.update(checksum.getBytes());
+        md.update(jarDigest);
+        for (String key : CONF_KEYS) {
+            update(md, key);
+            update(md, conf.get(key));
+        }
+        for (String key : conf.getMapResultCacheKeys()) {
+            update(md, key);
+            update(md, conf.get(key));
+        }
+
+        return StringUtils.byteToHexString(md.digest());
+    }
+
+    private static void update(MessageDigest md, String value) {
+        // the length keeps consecutive values apart, and tells null from ""
+        byte[] bytes = value == null ? null : value.getBytes(UTF8_CHARSET);
+        int length = bytes == null ? -1 : bytes.length;
+        md.update(new byte[] { (byte) (length >>> 24), (byte) (length >>> 16),
+                (byte) (length >>> 8), (byte) length });
+        if (bytes != null)
+            md.update(bytes);
+    }
+
+    /**
+     * @return the file of a split of the file input formats, or null
+     */
+    private static Path getSplitPath(JobClient.RawSplit split) throws IOException {
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(split.getBytes().getBytes(), split.getBytes().getLength());
+        if (FileSplit.class.getName().equals(split.getClassName()))
+            return new Path(UTF8.readString(in));
+        if (org.apache.hadoop.mapreduce.lib.input.FileSplit.class.getName().equals(split.getClassName()))
+            return new Path(Text.readString(in));
+
+        return null;
+    }
+
+    Path getKeyDir(String key) {
+        return new Path(dir, key);
+    }
+
+    /**
+     * @param keyDir the directory of a key
+     * @param outputs true to count the outputs too, not only the manifests
+     * @return the last generation of the key, or -1 if none
+     */
+    private long lastGeneration(Path keyDir, boolean outputs) throws IOException {
+        FileStatus[] files = fs.listStatus(keyDir);
+        long last = -1;
+        if (files == null)
+            return last;
+
+        for (FileStatus file : files) {
+            String name = file.getPath().getName();
+            last = Math.max(last, getGeneration(name, MANIFEST));
+            if (outputs)
+                last = Math.max(last, getGeneration(name, OUTPUT));
+        }
+        return last;
+    }
+
+    /**
+     * @return the generation of a manifest or output, or -1 if the name
+     *         isn't one of <code>prefix</code>
+     */
+    private static long getGeneration(String name, String prefix) {
+        if (!name.startsWith(prefix + "."))
+            return -1;
+        try {
+            return Long.parseLong(name.substring(prefix.length() + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Drop the manifests and outputs of a key older than a generation
+     */
+    private void deleteGenerations(Path keyDir, long generation) throws IOException {
+        FileStatus[] files = fs.listStatus(keyDir);
+        if (files == null)
+            return;
+
+        for (FileStatus file : files) {
+            String name = file.getPath().getName();
+            long older = Math.max(getGeneration(name, MANIFEST), getGeneration(name, OUTPUT));
+            if (older >= 0 && older < generation)
+                fs.delete(file.getPath(), true);
+        }
+    }
+
+    /**
+     * Look up the output of a map, checking that the job tracker wrote its
+     * manifest and that the kept files hold every partition
+     * @param key the key of the map's output
+     * @param partitions the partitions of the map's output
+     * @return the kept output, or null if there's no valid output for the key
+     */
+    Entry lookup(String key, int partitions) {
+        Path keyDir = getKeyDir(key);
+        try {
+            long generation = lastGeneration(keyDir, false);
+            if (generation < 0)
+                return null;
+
+            Path manifest = new Path(keyDir, MANIFEST + "." + generation);
+            DigestWritable[] digests;
+            DataInputStream in = fs.open(manifest);
+            try {
+                if (!key.equals(Text.readString(in)))
+                    return null;
+                digests = DigestWritable.readArray(in);
+            } finally {
+                in.close();
+            }
+
+            if (digests == null || digests.length != partitions)
+                return null;
+            for (DigestWritable digest : digests) {
+                if (digest == null)
+                    return null;
+            }
+
+            Path output = new Path(keyDir, OUTPUT + "." + generation);
+            FileStatus file = fs.getFileStatus(new Path(output, OUTPUT_FILE));
+            SpillRecord index = new SpillRecord(new Path(output, INDEX_FILE), fs, new CRC32());
+            if (index.size() != partitions)
+                return null;
+            for (int p = 0; p < partitions; p++) {
+                SpillRecord.IndexRecord rec = index.getIndex(p);
+                if (rec.startOffset < 0 || rec.partLength < 0
+                        || rec.startOffset + rec.partLength > file.getLen())
+                    return null;
+            }
+
+            return new Entry(output, digests);
+        } catch (IOException e) {
+            LOG.warn("Can't use the kept map output " + key + ": " + StringUtils.stringifyException(e));
+            return null;
+        }
+    }
+
+    /**
+     * Copy the output of a map replica next to the other replicas', for the
+     * job tracker to keep it if it agrees with the majority
+     * @param job the configuration of the task
+     * @param keyDir the directory of the key of the map's output
+     * @param attempt the replica
+     * @param file the map output file
+     * @param index the index of the map output file
+     */
+    static void stage(JobConf job, Path keyDir, TaskAttemptID attempt, Path file, Path index)
+            throws IOException {
+        FileSystem rfs = FileSystem.getLocal(job).getRaw();
+        FileSystem fs = keyDir.getFileSystem(job);
+        Path staged = new Path(new Path(keyDir, ATTEMPTS), attempt.toString());
+        FileUtil.copy(rfs, file, fs, new Path(staged, OUTPUT_FILE), false, job);
+        FileUtil.copy(rfs, index, fs, new Path(staged, INDEX_FILE), false, job);
+    }
+
+    /**
+     * Keep the output of a replica that agrees with the majority, and drop
+     * the outputs of the other replicas
+     * @param key the key of the map's output
+     * @param attempt the replica
+     * @param digests the digests of the majority, by partition
+     * @return true if the output was kept, false if the replica didn't
+     *         copy it
+     */
+    boolean store(String key, TaskAttemptID attempt, DigestWritable[] digests) throws IOException {
+        Path keyDir = getKeyDir(key);
+        Path staged = new Path(new Path(keyDir, ATTEMPTS), attempt.toString());
+        if (!fs.exists(new Path(staged, OUTPUT_FILE)) || !fs.exists(new Path(staged, INDEX_FILE)))
+            return false;
+
+        // another job may have kept it first: its output stays until the
+        // manifest of the next generation takes over
+        long generation = lastGeneration(keyDir, true) + 1;
+        Path output = new Path(keyDir, OUTPUT + "." + generation);
+        if (!fs.rename(staged, output))
+            return false;
+
+        Path tmp = new Path(keyDir, "_" + MANIFEST);
+        FSDataOutputStream out = fs.create(tmp, true);
+        try {
+            Text.writeString(out, key);
+            DigestWritable.writeArray(out, digests);
+        } finally {
+            out.close();
+        }
+        if (!fs.rename(tmp, new Path(keyDir, MANIFEST + "." + generation)))
+            return false;
+
+        fs.delete(new Path(keyDir, ATTEMPTS), true);
+        deleteGenerations(keyDir, generation - 1);
+        LOG.info("Kept the output of " + attempt + " as " + key);
+        return true;
+    }
+
+    /**
+     * Keep the output of a voted map in the background, from the first of
+     * the replicas that copied it. Without the thread of the job tracker
+     * the output is kept right away.
+     * @param key the key of the map's output
+     * @param attempts the replicas that agree with the majority
+     * @param digests the digests of the majority, by partition
+     */
+    void storeLater(String key, List<TaskAttemptID> attempts, DigestWritable[] digests) {
+        StoreRequest request = new StoreRequest(this, key, attempts, digests);
+        if (!storing) {
+            request.keep();
+            return;
+        }
+
+        try {
+            queue.put(request);
+        } catch (InterruptedException e) {
+            LOG.error("Can't queue the output of " + key + " to keep", e);
+        }
+    }
+
+    static synchronized void startStorer() {
+        storing = true;
+        storer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (storing) {
+                        queue.take().keep();
+                    }
+                } catch (InterruptedException e) {
+                    if (storing)
+                        LOG.error("Thread has ended unexpectedly", e);
+                }
+            }
+        }, "MapResultCache storer");
+        storer.setDaemon(true);
+        storer.start();
+    }
+
+    static synchronized void stopStorer() {
+        storing = false;
+        if (storer != null)
+            storer.interrupt();
+    }
+
+    /**
+     * Drop a kept output, that can't be read
+     * @param key the key of the map's output
+     */
+    void evict(String key) throws IOException {
+        fs.delete(getKeyDir(key), true);
+        LOG.info("Dropped the kept map output " + key);
+    }
+
+    /**
+     * Open the partition of a kept output that a reduce reads
+     * @param fs the file system of the output
+     * @param output the output directory of a key
+     * @param partition the partition of the reduce
+     * @param info set to the offset and lengths of the partition
+     * @return the output file, at the start of the partition
+     */
+    static FSDataInputStream open(FileSystem fs, Path output, int partition, SpillRecord.IndexRecord info)
+            throws IOException {
+        SpillRecord index = new SpillRecord(new Path(output, INDEX_FILE), fs, new CRC32());
+        SpillRecord.IndexRecord rec = index.getIndex(partition);
+        info.startOffset = rec.startOffset;
+        info.rawLength = rec.rawLength;
+        info.partLength = rec.partLength;
+
+        FSDataInputStream in = fs.open(new Path(output, OUTPUT_FILE));
+        in.seek(rec.startOffset);
+        return in;
+    }
+}
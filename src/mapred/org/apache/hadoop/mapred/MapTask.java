@@ -42,8 +42,7 @@ import org.apache.hadoop.util.*;
 import java.io.*;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.locks.Condition;
@@ -71,6 +70,10 @@ class MapTask extends Task {
     private String fileName;
     private String[] locations;
 
+    // the directory of the map result cache where the output is copied for
+    // the job tracker to keep, or null
+    private String resultCache;
+
     private static final Log LOG = LogFactory.getLog(MapTask.class.getName());
 
     {   // set phase for this task
@@ -116,6 +119,10 @@ class MapTask extends Task {
         return spillOutputFile;
     }
 
+    public void setResultCache(String resultCache) {
+        this.resultCache = resultCache;
+    }
+
     @Override
     public boolean isMapTask() {
         return true;
@@ -152,6 +159,9 @@ class MapTask extends Task {
             split = null;
             out.writeUTF(fileName);
             out.writeUTF(getLocationsAsString());
+            out.writeBoolean(resultCache != null);
+            if (resultCache != null)
+                Text.writeString(out, resultCache);
         }
     }
 
@@ -163,6 +173,7 @@ class MapTask extends Task {
             split.readFields(in);
             fileName = in.readUTF();
             setLocations(in.readUTF());
+            resultCache = in.readBoolean() ? Text.readString(in) : null;
         }
     }
 
@@ -333,9 +344,28 @@ class MapTask extends Task {
             runOldMapper(job, split, umbilical, reporter);
         }
 
+        if (resultCache != null && job.getNumReduceTasks() > 0)
+            stageResult(job);
+
         done(umbilical, reporter);
     }
 
+    /**
+     * Copy the map output to the map result cache, where the job tracker
+     * keeps it if it agrees with the majority. The job doesn't need it, so
+     * a failed copy only means the output isn't kept.
+     */
+    private void stageResult(JobConf job) {
+        try {
+            MapResultCache.stage(job, new Path(resultCache), getTaskID(),
+                    mapOutputFile.getOutputFile(getTaskID()),
+                    mapOutputFile.getOutputIndexFile(getTaskID()));
+        } catch (IOException e) {
+            LOG.warn("Can't copy the output of " + getTaskID() + " to " + resultCache + ": "
+                    + StringUtils.stringifyException(e));
+        }
+    }
+
     @SuppressWarnings("unchecked")
     private <INKEY,INVALUE,OUTKEY,OUTVALUE>
     void runOldMapper(final JobConf job,
@@ -708,6 +738,13 @@ class MapTask extends Task {
         private final CombinerRunner<K,V> combinerRunner;
         private final CombineOutputCollector<K, V> combineCollector;
 
+        // progress digests of the collected records, which are serialized
+        // apart as spill boundaries depend on the spill thread
+        private final ProgressDigest progress;
+        private DataOutputBuffer progressBuffer = null;
+        private Serializer<K> progressKeySerializer = null;
+        private Serializer<V> progressValSerializer = null;
+
         // Compression for map-outputs
         private CompressionCodec codec = null;
         private Decompressor decompressor = null;
@@ -753,6 +790,10 @@ class MapTask extends Task {
         private final Counters.Counter combineOutputCounter;
 
         private ArrayList<SpillRecord> indexCacheList;
+        // per-partition digests of each spill, taken while the spill is written
+        private ArrayList<DigestWritable[]> spillDigests;
+        // digest the records of a partition instead of its segment bytes
+        private final boolean logicalDigest;
         private int totalIndexCacheMemory;
         private static final int INDEX_CACHE_MEMORY_LIMIT = 1024 * 1024;
 
@@ -767,6 +808,8 @@ class MapTask extends Task {
             rfs = ((LocalFileSystem)localFs).getRaw();
 
             indexCacheList = new ArrayList<SpillRecord>();
+            spillDigests = new ArrayList<DigestWritable[]>();
+            logicalDigest = job.getLogicalMapDigest();
 
             //sanity checks
             final float spillper = job.getFloat("io.sort.spill.percent",(float)0.8);
@@ -815,6 +858,15 @@ class MapTask extends Task {
             valSerializer = serializationFactory.getSerializer(valClass);
             valSerializer.open(bb);
 
+            progress = newProgressDigest(job.getMapProgressDigestInterval());
+            if (progress != null) {
+                progressBuffer = new DataOutputBuffer();
+                progressKeySerializer = serializationFactory.getSerializer(keyClass);
+                progressKeySerializer.open(progressBuffer);
+                progressValSerializer = serializationFactory.getSerializer(valClass);
+                progressValSerializer.open(progressBuffer);
+            }
+
             LOG.debug("keySerializer: " + keySerializer.getClass() + " - valSerializer: " + valSerializer.getClass());
             // counters
             mapOutputByteCounter   = reporter.getCounter(MAP_OUTPUT_BYTES);
@@ -877,6 +929,10 @@ class MapTask extends Task {
                         + value.getClass().getName());
             }
 
+            if (progress != null) {
+                digestRecord(key, value, partition);
+            }
+
             final int kvnext = (kvindex + 1) % kvoffsets.length;
             spillLock.lock();
 
@@ -954,6 +1010,27 @@ class MapTask extends Task {
 
         }
 
+        /**
+         * Give a collected record to the progress digests, as its partition,
+         * the length of its key and its serialized key and value
+         */
+        private void digestRecord(K key, V value, int partition) throws IOException {
+            progressBuffer.reset();
+            progressBuffer.writeInt(partition);
+            progressBuffer.writeInt(0);
+            progressKeySerializer.serialize(key);
+            int keyLength = progressBuffer.getLength() - 8;
+            progressValSerializer.serialize(value);
+
+            byte[] b = progressBuffer.getData();
+            b[4] = (byte) (keyLength >>> 24);
+            b[5] = (byte) (keyLength >>> 16);
+            b[6] = (byte) (keyLength >>> 8);
+            b[7] = (byte) keyLength;
+            progress.getDigest().update(b, 0, progressBuffer.getLength());
+            progress.endRecord();
+        }
+
         /**
          * Compare logical range, st i, j MOD offset capacity.
          * Compare by partition, then by key.
@@ -1251,20 +1328,22 @@ class MapTask extends Task {
                 final Path filename 		= mapOutputFile.getSpillFileForWrite(getTaskID(), numSpills, size);
 
                 spillOutputFile = "" + filename.toUri();
-                out = rfs.create(filename);
+                SegmentDigestOutputStream digestOut = new SegmentDigestOutputStream(rfs.create(filename), hashGen.newInstance());
+                out = new FSDataOutputStream(digestOut, null);
 
                 final int endPosition = (kvend > kvstart) ? kvend : kvoffsets.length + kvend;
 
                 sorter.sort(MapOutputBuffer.this, kvstart, endPosition, reporter);
                 int spindex = kvstart;
 
-                IndexRecord rec = new IndexRecord();
-                String[] hashList = new String[partitions];
+                SpillRecord.IndexRecord rec = new SpillRecord.IndexRecord();
+                DigestWritable[] hashList = new DigestWritable[partitions];
+                MessageDigest recordDigest = logicalDigest ? hashGen.newInstance() : null;
                 for (int parts = 0; parts < partitions; ++parts) {
                     IFile.Writer<K, V> writer = null;
                     try {
                         long segmentStart = out.getPos();
-                        writer = new Writer<K, V>(job, out, keyClass, valClass, codec, spilledRecordsCounter);
+                        writer = startPartition(out, digestOut, recordDigest, spilledRecordsCounter);
 
                         if (combinerRunner == null) {
                             //							try {
@@ -1307,6 +1386,7 @@ class MapTask extends Task {
 
                         // close the writer
                         writer.close();
+                        hashList[parts] = endPartition(digestOut, recordDigest);
 
                         // record offsets
                         rec.startOffset = segmentStart;
@@ -1340,6 +1420,7 @@ class MapTask extends Task {
                     totalIndexCacheMemory += spillRec.size() * MAP_OUTPUT_INDEX_RECORD_LENGTH;
                 }
 
+                spillDigests.add(hashList);
                 ++numSpills;
             } catch(IOException ioe) {
                 LOG.debug("Exception at the task " + getTaskID() + " - " + ioe.getMessage());
@@ -1358,40 +1439,41 @@ class MapTask extends Task {
             }
         }
 
-        private String[] generateHash(Path finalOutputFile, SpillRecord spillRec) throws IOException {
+        /**
+         * Open the writer of a partition and start its digest
+         * @param out the output of the segment
+         * @param digestOut digests the bytes of the segment
+         * @param recordDigest digests the records instead, if not null
+         * @param counter counts the records written
+         * @return the writer of the partition
+         * @throws IOException
+         */
+        private Writer<K, V> startPartition(FSDataOutputStream out, SegmentDigestOutputStream digestOut,
+                MessageDigest recordDigest, Counters.Counter counter) throws IOException {
+            if (recordDigest != null) {
+                recordDigest.reset();
+            } else {
+                digestOut.startSegment();
+            }
 
-            LOG.debug("FinalOutputFile: " + finalOutputFile.toString());
-            byte[] bytes = Files.readAllBytes(Paths.get(finalOutputFile.toString()));
-            return generateHash(bytes, spillRec);
+            return new Writer<K, V>(job, out, keyClass, valClass, codec, counter, recordDigest);
         }
 
+        /**
+         * End the digest of a partition, once its writer is closed
+         * @return the digest of the records or of the segment bytes
+         */
+        private DigestWritable endPartition(SegmentDigestOutputStream digestOut, MessageDigest recordDigest) {
+            return new DigestWritable(recordDigest != null ? recordDigest.digest() : digestOut.endSegment());
+        }
 
         /**
-         * Generate hash of the output
-         * @param bytes Bytes used to generate the digest
-         * @param spillRec
+         * Finish the digests of the map output
+         * @param hashList Digests of each partition, taken while the output was written
          * @return
          * @throws IOException
          */
-        private String[] generateHash(byte[] bytes, SpillRecord spillRec) throws IOException {
-            String[] hashList = new String[spillRec.size()];
-            ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
-
-            for(int spillIdx=0; spillIdx<spillRec.size(); spillIdx++) {
-                IndexRecord index = spillRec.getIndex(spillIdx);
-                LOG.debug("1: HASHING: raw size: " + index.rawLength + " bytes / offset: " + index.startOffset + " partition length: " + index.partLength);
-
-                if(codec != null) {
-                    byte[] hash = hashGen.generateHash(bis, (int) index.startOffset, (int) index.partLength);
-                    hashList[spillIdx] = new String(hash, "UTF-8");
-//                            ShaAbstractHash.convertHashToString(hash);
-                } else {
-                    byte[] hash = hashGen.generateHash(bis, (int) index.startOffset, (int) index.rawLength);
-                    hashList[spillIdx] = new String(hash, "UTF-8");
-//                            ShaAbstractHash.convertHashToString(hash);
-                }
-            }
-
+        private DigestWritable[] finishDigests(DigestWritable[] hashList) throws IOException {
             if(umbilical.shouldTamper(getTaskID(), TAMPERDIGEST)) {
                 int replicatedTasks = MajorityVoting.getNrReplicatedTasks(conf.getNumMapTasks(), conf.getFaultTolerance());
 
@@ -1400,7 +1482,7 @@ class MapTask extends Task {
             }
 
             if(LOG.isDebugEnabled()) {
-                for (String hash : hashList) {
+                for (DigestWritable hash : hashList) {
                     LOG.debug("Map digest: " + hash);
                 }
             }
@@ -1414,9 +1496,9 @@ class MapTask extends Task {
          * @param digest
          * @throws IOException
          */
-        private void sendDigest(String[] digest) throws IOException {
+        private void sendDigest(DigestWritable[] digest) throws IOException {
             if(digest != null)
-                umbilical.sendDigest(getTaskID(), digest);
+                umbilical.sendDigest(getTaskID(), new DigestArrayWritable(digest));
         }
 
         /**
@@ -1433,17 +1515,20 @@ class MapTask extends Task {
                 // create spill file
                 final SpillRecord spillRec = new SpillRecord(partitions);
                 final Path filename = mapOutputFile.getSpillFileForWrite(getTaskID(), numSpills, size);
-                out = rfs.create(filename);
+                SegmentDigestOutputStream digestOut = new SegmentDigestOutputStream(rfs.create(filename), hashGen.newInstance());
+                out = new FSDataOutputStream(digestOut, null);
 
                 // we don't run the combiner for a single record
-                IndexRecord rec = new IndexRecord();
+                SpillRecord.IndexRecord rec = new SpillRecord.IndexRecord();
+                DigestWritable[] hashList = new DigestWritable[partitions];
+                MessageDigest recordDigest = logicalDigest ? hashGen.newInstance() : null;
                 for (int parts = 0; parts < partitions; ++parts) {
                     IFile.Writer<K, V> writer = null;
 
                     try {
                         long segmentStart = out.getPos();
                         // Create a new codec, don't care!
-                        writer = new IFile.Writer<K,V>(job, out, keyClass, valClass, codec, spilledRecordsCounter);
+                        writer = startPartition(out, digestOut, recordDigest, spilledRecordsCounter);
 
                         if (parts == partition) {
                             final long recordStart = out.getPos();
@@ -1453,6 +1538,7 @@ class MapTask extends Task {
                             mapOutputByteCounter.increment(out.getPos() - recordStart);
                         }
                         writer.close();
+                        hashList[parts] = endPartition(digestOut, recordDigest);
 
                         // record offsets
                         rec.startOffset = segmentStart;
@@ -1485,6 +1571,7 @@ class MapTask extends Task {
                     indexCacheList.add(spillRec);
                     totalIndexCacheMemory += spillRec.size() * MAP_OUTPUT_INDEX_RECORD_LENGTH;
                 }
+                spillDigests.add(hashList);
                 ++numSpills;
             } finally {
                 if (out != null) out.close();
@@ -1566,7 +1653,7 @@ class MapTask extends Task {
             long finalOutFileSize = 0;
             long finalIndexFileSize = 0;
             final Path[] filename = new Path[numSpills];
-            String[] hash = null;
+            DigestWritable[] hash = null;
             final TaskAttemptID mapId = getTaskID();
 
             LOG.debug("Merging parts");
@@ -1591,8 +1678,6 @@ class MapTask extends Task {
                     LOG.debug("FINALOUT: " + finalOutputFile.toString());
                     LOG.debug("SPILLINDEXFILE: " + spillIndexFile.toString());
 
-                    hash = generateHash(finalOutputFile, spillRec);
-
                     // create index files
                     Path finalIndexFile = new Path(filename[0].getParent(), MapOutputFile.getFileOutIndex());
                     rfs.copyFromLocalFile(spillIndexFile, finalIndexFile);
@@ -1605,10 +1690,10 @@ class MapTask extends Task {
                     Path spillIndexFile = new Path(filename[0].getParent(), MapOutputFile.getFileOutIndex());
                     spillRec.writeToFile(spillIndexFile, job);
                     LOG.debug("SPILLINDEXFILE2: " + spillIndexFile.toString());
-                    hash = generateHash(finalOutputFile, spillRec);
                 }
 
-
+                // the digests were taken while the spill was written
+                hash = finishDigests(spillDigests.get(0));
                 sendDigest(hash);
 
 
@@ -1640,16 +1725,20 @@ class MapTask extends Task {
             Path finalIndexFile = mapOutputFile.getOutputIndexFileForWrite(mapId, finalIndexFileSize);
 
             //The output stream for the final single output file
-            FSDataOutputStream finalOut = rfs.create(finalOutputFile, true, 4096);
+            SegmentDigestOutputStream digestOut = new SegmentDigestOutputStream(rfs.create(finalOutputFile, true, 4096), hashGen.newInstance());
+            FSDataOutputStream finalOut = new FSDataOutputStream(digestOut, null);
 
             if (numSpills == 0) {
-                IndexRecord rec = new IndexRecord();
+                SpillRecord.IndexRecord rec = new SpillRecord.IndexRecord();
                 SpillRecord sr = new SpillRecord(partitions);
+                DigestWritable[] hashList = new DigestWritable[partitions];
+                MessageDigest recordDigest = logicalDigest ? hashGen.newInstance() : null;
                 try {
                     for (int parts = 0; parts < partitions; parts++) {
                         long segmentStart = finalOut.getPos();
-                        Writer<K, V> writer = new Writer<K, V>(job, finalOut, keyClass, valClass, codec, null);
+                        Writer<K, V> writer = startPartition(finalOut, digestOut, recordDigest, null);
                         writer.close();
+                        hashList[parts] = endPartition(digestOut, recordDigest);
                         rec.startOffset = segmentStart;
                         rec.rawLength = writer.getRawLength();
                         rec.partLength = writer.getCompressedLength();
@@ -1668,7 +1757,7 @@ class MapTask extends Task {
 
                     sr.writeToFile(finalIndexFile, job);
 
-                    hash = generateHash(new byte[0], sr);
+                    hash = finishDigests(hashList);
                     sendDigest(hash); // send digests to the job tracker
                 } finally {
                     finalOut.close();
@@ -1687,18 +1776,19 @@ class MapTask extends Task {
 
             // Writing map output
             {
-                IndexRecord rec = new IndexRecord();
+                SpillRecord.IndexRecord rec = new SpillRecord.IndexRecord();
                 final SpillRecord spillRec = new SpillRecord(partitions);
                 LOG.debug("3 - Got " + spillRec.size()  + " partitions");
 
-                ByteArrayOutputStream streamForDigest = new ByteArrayOutputStream();
+                DigestWritable[] hashList = new DigestWritable[partitions];
+                MessageDigest recordDigest = logicalDigest ? hashGen.newInstance() : null;
 
                 for (int parts = 0; parts < partitions; parts++) {
                     //create the segments to be merged
                     List<Segment<K,V>> segmentList = new ArrayList<Segment<K, V>>(numSpills);
 
                     for(int i = 0; i < numSpills; i++) {
-                        IndexRecord indexRecord = indexCacheList.get(i).getIndex(parts);
+                        SpillRecord.IndexRecord indexRecord = indexCacheList.get(i).getIndex(parts);
 
                         Segment<K,V> s = new Segment<K,V>(job, rfs, filename[i], indexRecord.startOffset, indexRecord.partLength, codec, true);
                         segmentList.add(i, s);
@@ -1712,52 +1802,9 @@ class MapTask extends Task {
                             job.getOutputKeyComparator(), reporter,
                             null, spilledRecordsCounter);
 
-                    // ###################################################################
-                    // PSC CODE
-                    List<Segment<K,V>> segmentListForDigest = new ArrayList<Segment<K, V>>(numSpills);
-
-                    for(int i = 0; i < numSpills; i++) {
-                        IndexRecord indexRecord = indexCacheList.get(i).getIndex(parts);
-
-                        Segment<K,V> s = new Segment<K,V>(job, rfs, filename[i], indexRecord.startOffset, indexRecord.partLength, codec, true);
-                        segmentListForDigest.add(i, s);
-                    }
-                    RawKeyValueIterator kvIterForDigests = Merger.merge(job, rfs,
-                            keyClass, valClass, codec,
-                            segmentListForDigest, job.getInt("io.sort.factor", 100),
-                            new Path(mapId.toString()),
-                            job.getOutputKeyComparator(), reporter,
-                            null, spilledRecordsCounter);
-
-
-                    DataOutputStream digestDataOut = new DataOutputStream(streamForDigest);
-
-                    while(kvIterForDigests.next()) {
-                        DataInputBuffer key = kvIterForDigests.getKey();
-                        DataInputBuffer value = kvIterForDigests.getValue();
-
-                        int keyLength = key.getLength() - key.getPosition();
-                        if (keyLength < 0) {
-                            throw new IOException("Negative key-length not allowed: " + keyLength + " for " + key);
-                        }
-
-                        int valueLength = value.getLength() - value.getPosition();
-                        if (valueLength < 0) {
-                            throw new IOException("Negative value-length not allowed: " + valueLength + " for " + value);
-                        }
-
-
-                        WritableUtils.writeVInt(digestDataOut, keyLength);
-                        WritableUtils.writeVInt(digestDataOut, valueLength);
-                        streamForDigest.write(key.getData(), key.getPosition(), keyLength);
-                        streamForDigest.write(value.getData(), value.getPosition(), valueLength);
-                    }
-
-                    // ###################################################################3
-
                     //write merged output to disk
                     long segmentStart = finalOut.getPos();
-                    Writer<K, V> writer = new Writer<K, V>(job, finalOut, keyClass, valClass, codec, spilledRecordsCounter);
+                    Writer<K, V> writer = startPartition(finalOut, digestOut, recordDigest, spilledRecordsCounter);
                     if (combinerRunner == null || numSpills < minSpillsForCombine) {
                         Merger.writeFile(kvIter, writer, reporter, job);
                     } else {
@@ -1767,6 +1814,7 @@ class MapTask extends Task {
 
                     //close
                     writer.close();
+                    hashList[parts] = endPartition(digestOut, recordDigest);
 
                     // record offsets
                     rec.startOffset = segmentStart;
@@ -1797,7 +1845,7 @@ class MapTask extends Task {
 
 
 
-                hash = generateHash(streamForDigest.toByteArray(), spillRec);
+                hash = finishDigests(hashList);
 
                 if(umbilical.shouldTamper(getTaskID(), TAMPERDATA)) {
                     LOG.debug(getTaskID().getTaskID().toString() + " has file tampered.");
@@ -0,0 +1,179 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.security.MessageDigest;
+
+/**
+ * 128-bit MurmurHash3 (x64 variant, seed 0) digests, in pure Java.
+ *
+ * It is several times faster than SHA-1 and catches accidental corruption
+ * as well, but it is not cryptographic: a faulty replica can forge an output
+ * with the digest of another one. Only use it where the replicas are trusted
+ * not to be malicious.
+ */
+public class Murmur3Hash implements DigestProvider {
+
+	public MessageDigest newInstance() {
+		return new Digest();
+	}
+
+	/**
+	 * A streaming MurmurHash3_x64_128
+	 */
+	static class Digest extends MessageDigest {
+		private static final long C1 = 0x87c37b91114253d5L;
+		private static final long C2 = 0x4cf5ad432745937fL;
+
+		private final long seed;
+		private long h1;
+		private long h2;
+		private long length;
+		// bytes of an incomplete 16-byte block
+		private final byte[] tail = new byte[16];
+		private int tailLength;
+
+		Digest() {
+			this(0);
+		}
+
+		Digest(long seed) {
+			super("MurmurHash3-128");
+			this.seed = seed;
+			engineReset();
+		}
+
+		@Override
+		protected void engineUpdate(byte input) {
+			tail[tailLength++] = input;
+			if (tailLength == 16) {
+				block(tail, 0);
+				tailLength = 0;
+			}
+			length++;
+		}
+
+		@Override
+		protected void engineUpdate(byte[] input, int offset, int len) {
+			length += len;
+			if (tailLength > 0) {
+				int n = Math.min(len, 16 - tailLength);
+				System.arraycopy(input, offset, tail, tailLength, n);
+				tailLength += n;
+				offset += n;
+				len -= n;
+				if (tailLength < 16) {
+					return;
+				}
+				block(tail, 0);
+				tailLength = 0;
+			}
+
+			while (len >= 16) {
+				block(input, offset);
+				offset += 16;
+				len -= 16;
+			}
+
+			System.arraycopy(input, offset, tail, 0, len);
+			tailLength = len;
+		}
+
+		@Override
+		protected byte[] engineDigest() {
+			long k1 = 0;
+			long k2 = 0;
+			for (int i = tailLength - 1; i >= 8; i--) {
+				k2 ^= (tail[i] & 0xffL) << ((i - 8) * 8);
+			}
+			if (tailLength > 8) {
+				h2 ^= Long.rotateLeft(k2 * C2, 33) * C1;
+			}
+			for (int i = Math.min(tailLength, 8) - 1; i >= 0; i--) {
+				k1 ^= (tail[i] & 0xffL) << (i * 8);
+			}
+			if (tailLength > 0) {
+				h1 ^= Long.rotateLeft(k1 * C1, 31) * C2;
+			}
+
+			h1 ^= length;
+			h2 ^= length;
+			h1 += h2;
+			h2 += h1;
+			h1 = fmix(h1);
+			h2 = fmix(h2);
+			h1 += h2;
+			h2 += h1;
+
+			byte[] digest = new byte[16];
+			for (int i = 0; i < 8; i++) {
+				digest[i] = (byte) (h1 >>> (i * 8));
+				digest[i + 8] = (byte) (h2 >>> (i * 8));
+			}
+
+			engineReset();
+			return digest;
+		}
+
+		@Override
+		protected void engineReset() {
+			h1 = seed;
+			h2 = seed;
+			length = 0;
+			tailLength = 0;
+		}
+
+		@Override
+		protected int engineGetDigestLength() {
+			return 16;
+		}
+
+		private void block(byte[] b, int off) {
+			long k1 = getLong(b, off);
+			long k2 = getLong(b, off + 8);
+
+			h1 ^= Long.rotateLeft(k1 * C1, 31) * C2;
+			h1 = Long.rotateLeft(h1, 27) + h2;
+			h1 = h1 * 5 + 0x52dce729;
+
+			h2 ^= Long.rotateLeft(k2 * C2, 33) * C1;
+			h2 = Long.rotateLeft(h2, 31) + h1;
+			h2 = h2 * 5 + 0x38495ab5;
+		}
+
+		private static long getLong(byte[] b, int off) {
+			return (b[off] & 0xffL)
+				| (b[off + 1] & 0xffL) << 8
+				| (b[off + 2] & 0xffL) << 16
+				| (b[off + 3] & 0xffL) << 24
+				| (b[off + 4] & 0xffL) << 32
+				| (b[off + 5] & 0xffL) << 40
+				| (b[off + 6] & 0xffL) << 48
+				| (b[off + 7] & 0xffL) << 56;
+		}
+
+		private static long fmix(long k) {
+			k ^= k >>> 33;
+			k *= 0xff51afd7ed558ccdL;
+			k ^= k >>> 33;
+			k *= 0xc4ceb9fe1a85ec53L;
+			k ^= k >>> 33;
+			return k;
+		}
+	}
+}
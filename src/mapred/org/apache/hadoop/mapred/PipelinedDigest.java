@@ -0,0 +1,211 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.security.MessageDigest;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A message digest that hashes in the background.
+ *
+ * The bytes given to {@link #update(byte[], int, int)} are copied into a
+ * bounded number of buffers, and each full buffer is hashed by a background
+ * thread while the caller goes on writing. The caller blocks when all the
+ * buffers are waiting to be hashed, so the memory used stays bounded, and
+ * {@link #digest()} waits for the last buffers before returning the same
+ * digest the wrapped one would.
+ */
+class PipelinedDigest extends MessageDigest implements Runnable {
+	static final int BUFFER_SIZE = 64 * 1024;
+
+	// threads hashing the buffers, at most one for each digest at a time
+	private static final ExecutorService hashers = Executors.newCachedThreadPool(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "PipelinedDigest");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private static class Buffer {
+		final byte[] data = new byte[BUFFER_SIZE];
+		int length = 0;
+	}
+
+	private final MessageDigest md;
+	// buffers that can be filled
+	private final BlockingQueue<Buffer> free;
+	// buffers waiting to be hashed, in order
+	private final Queue<Buffer> full = new LinkedList<Buffer>();
+	// buffer being filled
+	private Buffer current = null;
+	// a hasher is draining the full buffers
+	private boolean hashing = false;
+
+	/**
+	 * @param md the digest that hashes the bytes
+	 * @param buffers the number of buffers, at least 1
+	 */
+	PipelinedDigest(MessageDigest md, int buffers) {
+		super(md.getAlgorithm());
+		this.md = md;
+		this.free = new ArrayBlockingQueue<Buffer>(buffers);
+		for (int i = 0; i < buffers; i++) {
+			free.add(new Buffer());
+		}
+	}
+
+	@Override
+	protected void engineUpdate(byte input) {
+		if (current == null) {
+			current = takeFree();
+		}
+
+		current.data[current.length++] = input;
+		if (current.length == BUFFER_SIZE) {
+			submit();
+		}
+	}
+
+	@Override
+	protected void engineUpdate(byte[] input, int offset, int len) {
+		while (len > 0) {
+			if (current == null) {
+				current = takeFree();
+			}
+
+			int n = Math.min(len, BUFFER_SIZE - current.length);
+			System.arraycopy(input, offset, current.data, current.length, n);
+			current.length += n;
+			offset += n;
+			len -= n;
+			if (current.length == BUFFER_SIZE) {
+				submit();
+			}
+		}
+	}
+
+	@Override
+	protected byte[] engineDigest() {
+		drain();
+		return md.digest();
+	}
+
+	@Override
+	protected void engineReset() {
+		drain();
+		md.reset();
+	}
+
+	@Override
+	protected int engineGetDigestLength() {
+		return md.getDigestLength();
+	}
+
+	/**
+	 * Hash the full buffers in order
+	 */
+	public void run() {
+		while (true) {
+			Buffer buffer;
+			synchronized (this) {
+				buffer = full.poll();
+				if (buffer == null) {
+					hashing = false;
+					notifyAll();
+					return;
+				}
+			}
+
+			md.update(buffer.data, 0, buffer.length);
+			buffer.length = 0;
+			free.add(buffer);
+		}
+	}
+
+	/**
+	 * Hand the current buffer to the hashers
+	 */
+	private void submit() {
+		synchronized (this) {
+			full.add(current);
+			if (!hashing) {
+				hashing = true;
+				hashers.execute(this);
+			}
+		}
+
+		current = null;
+	}
+
+	/**
+	 * Wait until every byte given so far is hashed
+	 */
+	private void drain() {
+		if (current != null) {
+			if (current.length > 0) {
+				submit();
+			} else {
+				free.add(current);
+				current = null;
+			}
+		}
+
+		boolean interrupted = false;
+		synchronized (this) {
+			while (hashing) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Take a free buffer, waiting for the hashers if there is none
+	 */
+	private Buffer takeFree() {
+		boolean interrupted = false;
+		Buffer buffer = null;
+		while (buffer == null) {
+			try {
+				buffer = free.take();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		return buffer;
+	}
+}
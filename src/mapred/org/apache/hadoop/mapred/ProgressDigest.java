@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rolling digests of the records a task outputs, taken every few records.
+ *
+ * The bytes of the records are given to {@link #getDigest()}. Every
+ * <code>interval</code> records a progress digest is taken, and chained to
+ * the records that follow, so the i-th progress digest covers the first
+ * <code>(i+1)*interval</code> records. Replicas that output the same records
+ * have the same progress digests, which are sent with the status updates
+ * and compared while the replicas run.
+ */
+class ProgressDigest {
+	private final MessageDigest md;
+	private final long interval;
+	private long records = 0;
+	// progress digests not taken yet
+	private List<DigestWritable> digests = new ArrayList<DigestWritable>();
+
+	/**
+	 * @param md the message digest
+	 * @param interval the records between two progress digests
+	 */
+	ProgressDigest(MessageDigest md, long interval) {
+		this.md = md;
+		this.interval = interval;
+	}
+
+	/**
+	 * @return the message digest the records are given to
+	 */
+	MessageDigest getDigest() {
+		return md;
+	}
+
+	/**
+	 * A record was given to the digest
+	 */
+	void endRecord() {
+		if(++records % interval == 0) {
+			byte[] d = md.digest();
+			// the next progress digest covers this one and the next records
+			md.update(d);
+			synchronized (this) {
+				digests.add(new DigestWritable(d));
+			}
+		}
+	}
+
+	/**
+	 * Take the progress digests made since the last call
+	 * @return the progress digests, in order
+	 */
+	synchronized DigestWritable[] take() {
+		DigestWritable[] taken = digests.toArray(new DigestWritable[digests.size()]);
+		digests = new ArrayList<DigestWritable>();
+		return taken;
+	}
+}
@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Votes on the progress digests of the replicas of a task.
+ *
+ * The i-th progress digest of a replica covers its first
+ * <code>(i+1)*interval</code> output records, so the replicas of a task
+ * can be compared position by position while they run. Once f+1 replicas
+ * agree on a position, only the winning digest is kept for it, and any
+ * replica that reported or reports another digest there has diverged.
+ */
+class ProgressVoting {
+    private final int threshold;
+
+    // positions of each task, by task id within the job
+    private final Map<Integer, Map<Integer, Position>> tasks = new HashMap<Integer, Map<Integer, Position>>();
+    // tasks whose replicas disagree on a position without a majority
+    private final Set<Integer> disputed = new HashSet<Integer>();
+
+    /**
+     * Votes on one position of a task
+     */
+    private static class Position {
+        // the digests by replica number, null once decided
+        Map<Integer, DigestWritable> votes = new HashMap<Integer, DigestWritable>(4);
+        DigestWritable majority = null;
+    }
+
+    /**
+     * @param threshold the replicas that must agree on a position
+     */
+    ProgressVoting(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Add the progress digests of a replica
+     * @param tid the replica
+     * @param index the position of the first digest
+     * @param digests the progress digests, in order
+     * @return the replica numbers of the task that disagree with a majority
+     */
+    synchronized Set<Integer> add(TaskID tid, int index, DigestWritable[] digests) {
+        Map<Integer, Position> positions = tasks.get(tid.getId());
+        if(positions == null) {
+            positions = new HashMap<Integer, Position>();
+            tasks.put(tid.getId(), positions);
+        }
+
+        Set<Integer> diverged = new TreeSet<Integer>();
+        int replica = tid.getReplicaNumber();
+        for(int i=0; i<digests.length; i++) {
+            Position p = positions.get(index + i);
+            if(p == null) {
+                p = new Position();
+                positions.put(index + i, p);
+            }
+
+            if(p.majority != null) {
+                if(!p.majority.equals(digests[i]))
+                    diverged.add(replica);
+
+                continue;
+            }
+
+            p.votes.put(replica, digests[i]);
+            int count = 0;
+            for(DigestWritable d : p.votes.values()) {
+                if(d.equals(digests[i]))
+                    count++;
+            }
+
+            if(count >= threshold) {
+                p.majority = digests[i];
+                for(Map.Entry<Integer, DigestWritable> vote : p.votes.entrySet()) {
+                    if(!p.majority.equals(vote.getValue()))
+                        diverged.add(vote.getKey());
+                }
+                p.votes = null;
+            } else if(count < p.votes.size()) {
+                disputed.add(tid.getId());
+            }
+        }
+
+        return diverged;
+    }
+
+    /**
+     * Drop the undecided votes of a replica, whose next attempt starts over
+     * @param tid the replica
+     */
+    synchronized void remove(TaskID tid) {
+        Map<Integer, Position> positions = tasks.get(tid.getId());
+        if(positions == null)
+            return;
+
+        for(Iterator<Position> iter = positions.values().iterator(); iter.hasNext(); ) {
+            Position p = iter.next();
+            if(p.votes != null) {
+                p.votes.remove(tid.getReplicaNumber());
+                if(p.votes.isEmpty())
+                    iter.remove();
+            }
+        }
+    }
+
+    /**
+     * @param id the task
+     * @return true if replicas of the task disagreed on a position before a
+     *         majority agreed on it
+     */
+    synchronized boolean isDisputed(int id) {
+        return disputed.contains(id);
+    }
+
+    /**
+     * Forget a task whose final digests were voted
+     * @param id the task
+     */
+    synchronized void clear(int id) {
+        tasks.remove(id);
+        disputed.remove(id);
+    }
+
+    /**
+     * @return the number of positions kept
+     */
+    synchronized int getStateSize() {
+        int size = 0;
+        for(Map<Integer, Position> positions : tasks.values())
+            size += positions.size();
+
+        return size;
+    }
+}
@@ -43,13 +43,17 @@ import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.hadoop.util.StringUtils;
 
 import java.io.*;
+import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.net.URLConnection;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.text.DecimalFormat;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /** A Reduce task. */
 class ReduceTask extends Task {
@@ -68,6 +72,10 @@ class ReduceTask extends Task {
 
     private CompressionCodec codec;
     private final int TAMPERDIGEST = 3;
+    // digest of the reduce output, taken while the output is written
+    private byte[] outputDigest = null;
+    // only digest the output, without writing it to the output filesystem
+    private boolean digestOnly = false;
     {
         getProgress().setStatus("reduce");
         setPhase(TaskStatus.Phase.SHUFFLE);        // phase to start with
@@ -81,6 +89,8 @@ class ReduceTask extends Task {
 
     private Counters.Counter reduceShuffleBytes =
             getCounters().findCounter(Counter.REDUCE_SHUFFLE_BYTES);
+    private Counters.Counter redundantShuffleBytes =
+            getCounters().findCounter(Counter.REDUNDANT_SHUFFLE_BYTES);
     private Counters.Counter reduceInputKeyCounter =
             getCounters().findCounter(Counter.REDUCE_INPUT_GROUPS);
     private Counters.Counter reduceInputValueCounter =
@@ -180,6 +190,10 @@ class ReduceTask extends Task {
 
     public int getNumMaps() { return numMaps; }
 
+    public boolean isDigestOnly() { return digestOnly; }
+
+    public void setDigestOnly(boolean digestOnly) { this.digestOnly = digestOnly; }
+
     /**
      * Localize the given JobConf to be specific for this task.
      */
@@ -193,12 +207,14 @@ class ReduceTask extends Task {
     public void write(DataOutput out) throws IOException {
         super.write(out);
         out.writeInt(numMaps);                        // write the number of maps
+        out.writeBoolean(digestOnly);
     }
 
     @Override
     public void readFields(DataInput in) throws IOException {
         super.readFields(in);
         numMaps = in.readInt();
+        digestOnly = in.readBoolean();
     }
 
     // Get the input files for the reducer.
@@ -458,9 +474,9 @@ class ReduceTask extends Task {
         // set the task is done
         done(umbilical, reporter, true);
 
-        String digest = ShaAbstractHash.convertHashToString(generateDigest());
+        DigestWritable digest = new DigestWritable(generateDigest());
         LOG.info("Final digest " + digest);
-        umbilical.sendDigest(getTaskID(), new String[]{digest});
+        umbilical.sendDigest(getTaskID(), new DigestArrayWritable(new DigestWritable[]{digest}));
         sendLastDone(umbilical, reporter);
     }
 
@@ -477,11 +493,16 @@ class ReduceTask extends Task {
         Reducer<INKEY,INVALUE,OUTKEY,OUTVALUE> reducer = ReflectionUtils.newInstance(job.getReducerClass(), job);
 
         // make output collector
-        String finalName = getOutputName(getPartition(), Util.getReplicaNumber(getTaskID()));
-        FileSystem fs = FileSystem.get(job);
-        fs.setReplication(new Path(finalName), (short) 1);
-
-        final RecordWriter<OUTKEY,OUTVALUE> out = job.getOutputFormat().getRecordWriter(fs, job, finalName, reporter);
+        // the output is digested as it is written. A digest-only replica
+        // digests the same records without writing them.
+        RecordWriter<OUTKEY,OUTVALUE> real = null;
+        if (!digestOnly) {
+            String finalName = getOutputName(getPartition(), Util.getReplicaNumber(getTaskID()));
+            FileSystem fs = FileSystem.get(job);
+            fs.setReplication(new Path(finalName), (short) 1);
+            real = job.getOutputFormat().getRecordWriter(fs, job, finalName, reporter);
+        }
+        final DigestRecordWriter<OUTKEY,OUTVALUE> out = newDigestRecordWriter(real, job);
 
         OutputCollector<OUTKEY,OUTVALUE> collector = new OutputCollector<OUTKEY,OUTVALUE>() {
             public void collect(OUTKEY key, OUTVALUE value)
@@ -527,74 +548,31 @@ class ReduceTask extends Task {
             //Clean up: repeated in catch block below
             if(reducer != null)
                 reducer.close();
-            if(out != null)
+            if(out != null) {
                 out.close(reporter);
+                outputDigest = out.getDigest();
+            }
             //End of clean up.
         }
     }
 
-    public byte[] generateDigest() {
-        String filename = getOutputName(getPartition(), Util.getReplicaNumber(getTaskID()));
-
-        String extension = "";
-        FileSystem dfs = null;
-        try {
-            dfs = FileSystem.get(conf);
-        } catch (IOException e1) {
-            // TODO Auto-generated catch block
-            e1.printStackTrace();
-        }
-        if(conf.getBoolean("mapred.output.compress", false)) {
-            Class<? extends CompressionCodec> codecClass =
-                    FileOutputFormat.getOutputCompressorClass(conf, GzipCodec.class);
-            // create the named codec
-            CompressionCodec codec = ReflectionUtils.newInstance(codecClass, conf);
-            extension = codec.getDefaultExtension();
-
-            try {
-                if(!dfs.exists(new Path(conf.get("mapred.output.dir") + "/" + filename + extension))) {
-                    LOG.warn("Compressed output is enabled but extension file isn't " + extension);
-                    extension = "";
-                }
-            } catch (IOException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
-            }
-        }
-
-        String path = conf.get("mapred.output.dir") + "/" + filename + extension;
-        byte[] digest = null;
-        try {
-            if(shaname.equals("SHA-1"))
-                digest = ((Sha1Hash) hashGen).text(dfs, conf, path);
-            else
-                digest = ((Sha256Hash) hashGen).text(dfs, conf, path);
-        } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        }
-
-        if(digest != null) {
-            FSDataOutputStream fout = null;
-
-            try {
-                fout = dfs.create(new Path(conf.get("mapred.output.digests.dir") + "/" + Util.getOutputFileHash(new Path(filename))), (short) 1);
-                fout.write(digest, 0, digest.length);
-            } catch (IOException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
-            } finally {
-                if(fout != null)
-                    try {
-                        fout.close();
-                    } catch (IOException e) {
-                        // TODO Auto-generated catch block
-                        e.printStackTrace();
-                    }
-            }
-        }
+    /**
+     * @return the writer that digests the reduce output, and takes the
+     *         progress digests sent with the status updates
+     */
+    private <K,V> DigestRecordWriter<K,V> newDigestRecordWriter(RecordWriter<K,V> real, JobConf job) {
+        return new DigestRecordWriter<K,V>(real, job, hashGen.newInstance(),
+                newProgressDigest(job.getReduceProgressDigestInterval()));
+    }
 
-        return digest;
+    /**
+     * The digest of the reduce output, taken while the output was written.
+     * The job tracker keeps it, with the outcome of the vote, in the
+     * {@link DigestManifest} of the job.
+     * @return digest
+     */
+    public byte[] generateDigest() {
+        return outputDigest;
     }
 
     // NewTrackingRecordWriter
@@ -622,6 +600,40 @@ class ReduceTask extends Task {
     }
     // end NewTrackingRecordWriter
 
+    // NewDigestRecordWriter
+    static class NewDigestRecordWriter<K,V> extends org.apache.hadoop.mapreduce.RecordWriter<K,V> {
+        private final org.apache.hadoop.mapreduce.RecordWriter<K,V> real;
+        private final DigestRecordWriter<K,V> digester;
+
+        NewDigestRecordWriter(org.apache.hadoop.mapreduce.RecordWriter<K,V> real,
+                              DigestRecordWriter<K,V> digester) {
+            this.real = real;
+            this.digester = digester;
+        }
+
+        @Override
+        public void close(TaskAttemptContext context) throws IOException,
+                InterruptedException {
+            if (real != null) {
+                real.close(context);
+            }
+            digester.close(null);
+        }
+
+        @Override
+        public void write(K key, V value) throws IOException, InterruptedException {
+            if (real != null) {
+                real.write(key,value);
+            }
+            digester.write(key, value);
+        }
+
+        byte[] getDigest() {
+            return digester.getDigest();
+        }
+    }
+    // end NewDigestRecordWriter
+
     @SuppressWarnings("unchecked")
     private <INKEY,INVALUE,OUTKEY,OUTVALUE> void runNewReducer(JobConf job,
                                                                final TaskUmbilicalProtocol umbilical,
@@ -663,9 +675,11 @@ class ReduceTask extends Task {
                 (org.apache.hadoop.mapreduce.Reducer<INKEY,INVALUE,OUTKEY,OUTVALUE>)
                         ReflectionUtils.newInstance(taskContext.getReducerClass(), job);
 
-        org.apache.hadoop.mapreduce.RecordWriter<OUTKEY,OUTVALUE> output =
-                (org.apache.hadoop.mapreduce.RecordWriter<OUTKEY,OUTVALUE>)
-                        outputFormat.getRecordWriter(taskContext);
+        // the output is digested as it is written
+        NewDigestRecordWriter<OUTKEY,OUTVALUE> output = new NewDigestRecordWriter<OUTKEY,OUTVALUE>(
+                digestOnly ? null : (org.apache.hadoop.mapreduce.RecordWriter<OUTKEY,OUTVALUE>)
+                        outputFormat.getRecordWriter(taskContext),
+                this.<OUTKEY,OUTVALUE>newDigestRecordWriter(null, job));
 
         job.setBoolean("mapred.skip.on", isSkipping());
         org.apache.hadoop.mapreduce.Reducer.Context reducerContext = createReduceContext(
@@ -676,6 +690,23 @@ class ReduceTask extends Task {
                 valueClass);
         reducer.run(reducerContext);
         output.close(reducerContext);
+        outputDigest = output.getDigest();
+    }
+
+    /**
+     * Check the digest of the bytes copied from a map output against
+     * the digest that the map reported for this partition.
+     * @param loc the replica the map output was copied from
+     * @param md the digest of the copied bytes
+     * @throws IOException if the digests differ
+     */
+    static void checkDigest(MapReplicaChooser.Replica loc, MessageDigest md) throws IOException {
+        byte[] digest = md.digest();
+        if (loc.getHash() != null && !Arrays.equals(digest, loc.getHash().get())) {
+            throw new IOException("Digest of the map output copied from " +
+                    loc.getTaskAttemptId() + " is " + new DigestWritable(digest) +
+                    " instead of " + loc.getHash());
+        }
     }
 
     /**
@@ -714,8 +745,6 @@ class ReduceTask extends Task {
         /** the results of dispatched copy attempts */
         private List<CopyResult> copyResults;
 
-        /** Keeps the history of the received digests */
-        private List<String> digestsHistory;
         /**
          *  the number of outputs to copy in parallel
          */
@@ -740,10 +769,10 @@ class ReduceTask extends Task {
         private Map<String, Long> penaltyBox;
 
         /**
-         * the set of unique hosts from which we are copying
+         * Chooses the replica of each map to copy the map output from.
+         * Guarded by mapReplicas.
          */
-        private Set<String> uniqueHosts;
-        private Set<String> uniqueTasks;
+        private MapReplicaChooser replicaChooser;
 
         /**
          * A reference to the RamManager for writing the map outputs to.
@@ -797,12 +826,6 @@ class ReduceTask extends Task {
          * The threads for fetching the files.
          */
         private List<MapOutputCopier> copiers = null;
-        private int[] counter = new int[numMaps];
-
-        private int distance[] = new int[numMaps];
-        private String selectedTasks[] = new String[numMaps];
-        private List<MapOutputLocation> backup =
-                Collections.synchronizedList(new ArrayList<ReduceTask.ReduceCopier<K,V>.MapOutputLocation>());
 
         /**
          * The object for metrics reporting.
@@ -820,9 +843,68 @@ class ReduceTask extends Task {
         private List<MapOutputLocation> retryFetches = Collections.synchronizedList(new ArrayList<MapOutputLocation>());
 
         /**
-         * The set of required map outputs
+         * The set of required map outputs, by map id within the job,
+         * whichever replica they were copied from
+         */
+        private Set <Integer> copiedMapOutputs = Collections.synchronizedSet(new TreeSet<Integer>());
+
+        /**
+         * The digests of the copied map outputs, measured apart from the
+         * digest of the reduce output.
+         */
+        private final DigestFactory shuffleHashGen;
+
+        /**
+         * The succeeded replicas of each map output not copied yet, by map id
+         * within the job, or of every map output in tentative execution. Each
+         * map output is fetched once, from one replica; the others are only
+         * used if that copy fails or, in tentative execution, to vote on the
+         * copy.
+         */
+        private final Map<Integer, List<MapOutputLocation>> mapReplicas =
+                new HashMap<Integer, List<MapOutputLocation>>();
+
+        /**
+         * The maps with a copy scheduled or in flight
+         */
+        private final Set<Integer> fetchingMaps = new HashSet<Integer>();
+
+        /**
+         * In tentative execution, a map output is copied from the first
+         * replica and checked once a majority of the replicas agree on a
+         * digest for this partition. The shuffle only ends when every copy
+         * is checked.
+         */
+        private boolean verifyCopies;
+
+        /**
+         * The replicas that must agree on a digest to check a copy with it
+         */
+        private int majority;
+
+        /**
+         * The copy kept of each map output, by map id within the job.
+         * Guarded by ReduceTask.this.
+         */
+        private final Map<Integer, MapCopy> mapCopies = new HashMap<Integer, MapCopy>();
+
+        /**
+         * The maps whose copy wasn't checked yet, in tentative execution.
+         * Guarded by ReduceTask.this.
+         */
+        private final Set<Integer> uncheckedMaps = new HashSet<Integer>();
+
+        /**
+         * The copies in each map output file on disk, including the outputs
+         * of merges. Guarded by mapOutputFilesOnDisk.
+         */
+        private final Map<Path, List<MapCopy>> copiesOnDisk = new HashMap<Path, List<MapCopy>>();
+
+        /**
+         * Dropped copies that were being merged, whose merge output must
+         * be deleted. Guarded by mapOutputFilesOnDisk.
          */
-        private Set <TaskID> copiedMapOutputs = Collections.synchronizedSet(new TreeSet<TaskID>());
+        private final Set<MapCopy> droppedInMerge = new HashSet<MapCopy>();
 
         /**
          * The set of obsolete map taskids.
@@ -909,7 +991,7 @@ class ReduceTask extends Task {
          * The map for (Hosts, List of MapIds from this Host) maintaining
          * map output locations
          */
-        private final Map<String, List<MapOutputLocation>> mapLocations =
+        private final ConcurrentMap<String, List<MapOutputLocation>> mapLocations =
                 new ConcurrentHashMap<String, List<MapOutputLocation>>();
 
         /**
@@ -978,21 +1060,24 @@ class ReduceTask extends Task {
             // the size of the file copied, -1 if the transfer failed
             private final long size;
 
+            // the time spent on the copy attempt, in ms
+            private final long time;
+
             //a flag signifying whether a copy result is obsolete
             private static final int OBSOLETE = -2;
-            private static final int KILL = -5;
 
-            CopyResult(MapOutputLocation loc, long size) {
+            CopyResult(MapOutputLocation loc, long size, long time) {
                 this.loc = loc;
                 this.size = size;
+                this.time = time;
             }
 
             public boolean getSuccess() { return size >= 0; }
             public boolean isObsolete() {
                 return size == OBSOLETE;
             }
-            public boolean getKill() { return size == KILL; }
             public long getSize() { return size; }
+            public long getTime() { return time; }
             public String getHost() { return loc.getHost(); }
             public MapOutputLocation getLocation() { return loc; }
         }
@@ -1002,19 +1087,38 @@ class ReduceTask extends Task {
         /**
          * Abstraction to track a map-output.
          */
-        public class MapOutputLocation {
+        public class MapOutputLocation implements MapReplicaChooser.Replica {
             TaskAttemptID taskAttemptId;
             TaskID taskId;
             String ttHost;
             URL taskOutput;
-            String hash;
+            DigestWritable hash;
+            // the job tracker voted the map, and this replica agrees
+            boolean voted;
+            // the output of the map kept by an earlier job, read from its
+            // file system instead of a tracker
+            Path cachedOutput;
 
             public MapOutputLocation(TaskAttemptID taskAttemptId,
-                                     String ttHost, URL taskOutput, String hash) {
+                                     String ttHost, URL taskOutput, DigestWritable hash) {
+                this(taskAttemptId, ttHost, taskOutput, hash, false);
+            }
+
+            public MapOutputLocation(TaskAttemptID taskAttemptId,
+                                     String ttHost, URL taskOutput, DigestWritable hash,
+                                     boolean voted) {
                 this.taskAttemptId = taskAttemptId;
                 this.ttHost = ttHost;
                 this.taskOutput = taskOutput;
                 this.hash = hash;
+                this.voted = voted;
+            }
+
+            public MapOutputLocation(TaskAttemptID taskAttemptId, Path cachedOutput,
+                                     DigestWritable hash) {
+                // kept outputs are scheduled each on their own
+                this(taskAttemptId, cachedOutput.toString(), null, hash, true);
+                this.cachedOutput = cachedOutput;
             }
 
             public TaskAttemptID getTaskAttemptId() {
@@ -1025,23 +1129,56 @@ class ReduceTask extends Task {
                 return Util.getTaskID(taskAttemptId);
             }
 
+            public int getMapId() {
+                return taskAttemptId.getTaskID().getId();
+            }
+
             public String getHost() {
                 return ttHost;
             }
 
-            public String getHash() {
+            public DigestWritable getHash() {
                 return hash;
             }
 
+            public boolean isVoted() {
+                return voted;
+            }
+
             public URL getOutputLocation() {
                 return taskOutput;
             }
+
+            public Path getCachedOutput() {
+                return cachedOutput;
+            }
+        }
+
+        /**
+         * A copy of a map output, kept in memory, in a file on disk or in
+         * the output of a merge, until the copy is dropped
+         */
+        private class MapCopy {
+            final int mapId;
+            final MapOutputLocation source;
+            // the output was empty, nothing is kept
+            final boolean empty;
+            // guarded by mapOutputFilesOnDisk
+            boolean dropped = false;
+
+            MapCopy(MapOutputLocation source, boolean empty) {
+                this.mapId = source.getMapId();
+                this.source = source;
+                this.empty = empty;
+            }
         }
 
         /** Describes the output of a map; could either be on disk or in-memory. */
         private class MapOutput {
             final TaskID mapId;
             final TaskAttemptID mapAttemptId;
+            // set once the output is kept
+            MapCopy copy;
 
             private final Path file;
             final Configuration conf;
@@ -1247,10 +1384,13 @@ class ReduceTask extends Task {
             private final static int DEFAULT_READ_TIMEOUT = 3 * 60 * 1000;
 
             private MapOutputLocation currentLocation = null;
+            private long currentStart = 0;
 
             private int id = nextMapOutputCopierId++;
             private Reporter reporter;
             private boolean forceShuffleInDisk;
+            // the maps digested their records instead of the segment bytes
+            private boolean logicalDigest;
 
             // Decompression of map-outputs
             //			private CompressionCodec codec = null;
@@ -1261,6 +1401,7 @@ class ReduceTask extends Task {
                 LOG.debug(getName() + " created");
                 this.reporter = reporter;
                 forceShuffleInDisk = job.getForceShuffleInDisk();
+                logicalDigest = job.getLogicalMapDigest();
 
                 if (job.getCompressMapOutput()) {
                     Class<? extends CompressionCodec> codecClass = job.getMapOutputCompressorClass(DefaultCodec.class);
@@ -1282,10 +1423,6 @@ class ReduceTask extends Task {
                 }
             }
 
-            public synchronized boolean forceFail() {
-                finish(-5);
-                return true;
-            }
             /**
              * Get the current map output location.
              */
@@ -1295,85 +1432,55 @@ class ReduceTask extends Task {
 
             private synchronized void start(MapOutputLocation loc) {
                 currentLocation = loc;
+                currentStart = System.currentTimeMillis();
             }
 
             private synchronized void finish(long size) {
                 if (currentLocation != null) {
                     LOG.debug(getName() + " finishing " + currentLocation.getTaskAttemptId() + " =" + size);
                     synchronized (copyResults) {
-                        copyResults.add(new CopyResult(currentLocation, size));
+                        copyResults.add(new CopyResult(currentLocation, size,
+                                System.currentTimeMillis() - currentStart));
                         copyResults.notify();
                     }
                     currentLocation = null;
                 }
             }
 
-            private boolean shouldWait(int limit) {
-                String str = "";
-                if(LOG.isDebugEnabled()) {
-                    for(int i=0; i<counter.length; i++) {
-                        str += counter[i] + ", ";
-                    }
-                }
-
-                boolean res = false;
-                for(int i=0; i<counter.length; i++)
-                    if(counter[i] < limit)
-                        res |= true;
-
-                LOG.debug("[" + str + "] - " + limit + " result: " + res);
-                return res;
-            }
-
             /** Loop forever and fetch map outputs as they become available.
              * The thread exits when it is interrupted by {@link ReduceTaskRunner}
              */
             @Override
             public void run() {
-                int limit = conf.getDeferredExecution() ? conf.getFaultToleranceLimit()+1 : 1;
-
-                boolean lock = true;
-                while (lock) {
+                while (true) {
                     try {
                         MapOutputLocation loc = null;
+                        long size = -1;
 
                         synchronized (scheduledCopies) {
-                            while(true) {
-                                while (scheduledCopies.isEmpty()) {
-                                    scheduledCopies.wait();
-                                }
-
-                                loc = scheduledCopies.remove(0);
-                                int mid = loc.getTaskAttemptId().getTaskID().getId();
-                                LOG.debug("Backing up " + loc.getTaskAttemptId().getTaskID().toString());
-                                backup.add(loc);
-                                counter[mid]++;
-
-                                // wait for a limit map tasks finish
-                                if(!shouldWait(limit))
-                                    break;
-                            }
-
-                            if(LOG.isDebugEnabled()) {
-                                String str = "";
-                                for(int i=0; i<backup.size(); i++) {
-                                    str += backup.get(i).getTaskAttemptId().toString() + ", ";
-                                }
-                                LOG.debug("Scheduled result: ["+str+"]");
+                            while (scheduledCopies.isEmpty()) {
+                                scheduledCopies.wait();
                             }
+                            loc = scheduledCopies.remove(0);
                         }
 
-                        LOG.debug("Start fetching");
-                        //                        if(conf.getDeferredExecution()) {
-                        fetchMapOutputsDeferred(backup);
-                        //                        }
-                        //                        else {
-                        //                            fetchMapOutputsTentative(backup);
-                        //                        }
+                        try {
+                            shuffleClientMetrics.threadBusy();
+                            start(loc);
+                            size = copyOutput(loc);
+                            shuffleClientMetrics.successFetch();
+                        } catch (IOException e) {
+                            LOG.warn(reduceTask.getTaskID() + " copy failed: " + loc.getTaskAttemptId() + " from " + loc.getHost());
+                            LOG.warn(StringUtils.stringifyException(e));
+                            shuffleClientMetrics.failedFetch();
 
-                        backup.clear();
+                            // Reset
+                            size = -1;
+                        } finally {
+                            shuffleClientMetrics.threadFree();
+                            finish(size);
+                        }
                     } catch (InterruptedException e) {
-                        lock = false;
                         break; // ALL DONE
                     } catch (FSError e) {
                         LOG.error("Task: " + reduceTask.getTaskID() + " - FSError: " +
@@ -1396,112 +1503,6 @@ class ReduceTask extends Task {
                 }
             }
 
-            private void fetchMapOutputsDeferred(List<MapOutputLocation> backup) throws InterruptedException {
-                MapOutputLocation loc;
-                long size = -1;
-
-                if(LOG.isDebugEnabled()) {
-                    String str = "";
-                    for(int i=0; i<backup.size(); i++)
-                        str += backup.get(i).getTaskAttemptId().getTaskID().toString() + ", ";
-                    LOG.debug("==> [" + str + "]");
-                }
-
-                // create a vector distance with min values
-                int rreplica = getTaskID().getTaskID().getReplicaNumber();
-                for(int i=0; i<backup.size(); i++) {
-                    int mid = backup.get(i).getTaskId().getId();
-                    int mreplica = backup.get(i).getTaskId().getReplicaNumber();
-
-                    int res = Math.abs(rreplica - mreplica);
-                    if(res < distance[mid]) {
-                        distance[mid] = res;
-                        selectedTasks[mid] = backup.get(i).getTaskAttemptId().toString();
-                    }
-                }
-
-                if(LOG.isDebugEnabled()) {
-                    String str3 = "";
-                    for(int i=0; i<distance.length; i++)
-                        str3 += distance[i] + ", ";
-                    LOG.debug("Distance - [" + str3 + "]");
-
-                    String str4 = "";
-                    for(int i=0; i<selectedTasks.length; i++)
-                        str4 += selectedTasks[i] + ", ";
-                    LOG.debug("Selected - [" + str4 + "]");
-                }
-
-                for(int i=0; i<selectedTasks.length; i++) {
-                    for(int j=0; j<backup.size(); j++) {
-                        loc = backup.get(j);
-                        String tid = loc.getTaskAttemptId().toString();
-
-                        if(!tid.equals(selectedTasks[i]))
-                            continue;
-
-                        LOG.debug("Selected: " + tid);
-                        int mid = loc.getTaskAttemptId().getTaskID().getId();
-                        LOG.debug("Diminuishing counter");
-                        counter[mid]--;
-
-                        try {
-                            shuffleClientMetrics.threadBusy();
-                            start(loc);
-                            size = copyOutput(loc);
-
-                            if(size==-2)
-                                continue;
-
-                            shuffleClientMetrics.successFetch();
-                        } catch (IOException e) {
-                            LOG.warn(reduceTask.getTaskID() + " copy failed: " + loc.getTaskAttemptId() + " from " + loc.getHost());
-                            LOG.warn(StringUtils.stringifyException(e));
-                            shuffleClientMetrics.failedFetch();
-
-                            // Reset
-                            size = -1;
-                        } finally {
-                            shuffleClientMetrics.threadFree();
-                            finish(size);
-                        }
-                    }
-                }
-            }
-
-
-            private void fetchMapOutputsTentative(List<MapOutputLocation> backup) throws InterruptedException {
-                MapOutputLocation loc;
-                long size = -1;
-                synchronized (backup) {
-                    Iterator<ReduceTask.ReduceCopier<K,V>.MapOutputLocation> iter = backup.iterator();
-
-                    while(iter.hasNext()) {
-                        loc = iter.next();
-                        try {
-                            shuffleClientMetrics.threadBusy();
-                            start(loc);
-                            size = copyOutput(loc);
-
-                            if(size==-2)
-                                continue;
-
-                            shuffleClientMetrics.successFetch();
-                        } catch (IOException e) {
-                            LOG.warn(reduceTask.getTaskID() + " copy failed: " + loc.getTaskAttemptId() + " from " + loc.getHost());
-                            LOG.warn(StringUtils.stringifyException(e));
-                            shuffleClientMetrics.failedFetch();
-
-                            // Reset
-                            size = -1;
-                        } finally {
-                            shuffleClientMetrics.threadFree();
-                            finish(size);
-                        }
-                    }
-                }
-            }
-
             /** Copies a a map output from a remote host, via HTTP.
              * @param loc the map output location to be copied
              * @return the path (fully qualified) of the copied file
@@ -1510,23 +1511,21 @@ class ReduceTask extends Task {
              */
             private long copyOutput(MapOutputLocation loc) throws IOException, InterruptedException {
                 // check if we still need to copy the output from this location
-                if (copiedMapOutputs.contains(loc.getTaskId()) ||
+                if (copiedMapOutputs.contains(loc.getMapId()) ||
                         obsoleteMapIds.contains(loc.getTaskAttemptId())) {
                     return CopyResult.OBSOLETE;
                 }
 
-                synchronized (digestsHistory) {
-                    if(!digestsHistory.contains(loc.getHash()))
-                        digestsHistory.add(loc.getHash());
-                }
-
                 // a temp filename. If this file gets created in ramfs, we're fine,
                 // else, we will check the localFS to find a suitable final location
                 // for this path
+                // in tentative execution a map output may be copied again from
+                // another replica while the first copy is still being merged
                 TaskAttemptID reduceId = reduceTask.getTaskID();
                 Path filename = new Path("/"
                         + TaskTracker.getIntermediateOutputDir(reduceId.getJobID().toString(), reduceId.toString())
-                        + "/map" + loc.getTaskId().getId() + ".out");
+                        + "/map" + loc.getTaskId().getId()
+                        + (verifyCopies ? "_" + loc.getTaskId().getReplicaNumber() : "") + ".out");
                 LOG.debug("Path -> Reduce: " + filename.toString());
 
                 // Copy the map output to a temp file whose name is unique to this attempt
@@ -1535,9 +1534,8 @@ class ReduceTask extends Task {
                 // Copy the map output
                 MapOutput mapOutput = getMapOutput(loc, tmpMapOutput, reduceId.getTaskID().getId());
                 if (mapOutput == null) {
-                    scheduledCopies.add(loc);// put again on the list
-                    LOG.warn("Failed to fetch map-output for " + loc.getTaskAttemptId() + " from " + loc.getHost());
-                    return -2;
+                    throw new IOException("Failed to fetch map-output for " +
+                            loc.getTaskAttemptId() + " from " + loc.getHost());
                 }
 
                 // The size of the map-output
@@ -1545,7 +1543,8 @@ class ReduceTask extends Task {
 
                 // lock the ReduceTask while we do the rename
                 synchronized (ReduceTask.this) {
-                    if (copiedMapOutputs.contains(loc.getTaskId())) {
+                    if (copiedMapOutputs.contains(loc.getMapId())) {
+                        redundantShuffleBytes.increment(bytes);
                         mapOutput.discard();
                         return CopyResult.OBSOLETE;
                     }
@@ -1559,12 +1558,13 @@ class ReduceTask extends Task {
                         }
 
                         // Note that we successfully copied the map-output
-                        noteCopiedMapOutput(loc.getTaskId());
+                        noteCopiedMapOutput(new MapCopy(loc, true));
 
                         return bytes;
                     }
 
                     // Process map-output
+                    mapOutput.copy = new MapCopy(loc, false);
                     if (mapOutput.inMemory) {
                         LOG.debug("Map output in memory - " + mapOutput.mapId + " - " + mapOutput.mapId.getId());
                         // Save it in the synchronized list of map-outputs
@@ -1581,27 +1581,48 @@ class ReduceTask extends Task {
                             throw new IOException("Failed to rename map output " + tmpMapOutput + " to " + filename);
                         }
 
+                        FileStatus status = localFileSys.getFileStatus(filename);
                         synchronized (mapOutputFilesOnDisk) {
-                            addToMapOutputFilesOnDisk(localFileSys.getFileStatus(filename));
+                            copiesOnDisk.put(status.getPath(), Collections.singletonList(mapOutput.copy));
+                            addToMapOutputFilesOnDisk(status);
                         }
                     }
 
                     // Note that we successfully copied the map-output
-                    noteCopiedMapOutput(loc.getTaskId());
+                    noteCopiedMapOutput(mapOutput.copy);
                 }
 
                 return bytes;
             }
 
             /**
-             * Save the map taskid whose output we just copied.
+             * Save the copy of the map output we just copied, and check it
+             * if the replicas of the map already voted.
              * This function assumes that it has been synchronized on ReduceTask.this.
              *
-             * @param taskId map taskid
+             * @param copy the copy of the map output
              */
-            private void noteCopiedMapOutput(TaskID taskId) {
-                copiedMapOutputs.add(taskId);
+            private void noteCopiedMapOutput(MapCopy copy) {
+                int mapId = copy.mapId;
+                copiedMapOutputs.add(mapId);
                 ramManager.setNumCopiedMapOutputs(numMaps - copiedMapOutputs.size());
+
+                List<MapOutputLocation> sources;
+                synchronized (mapReplicas) {
+                    fetchingMaps.remove(mapId);
+                    if (!verifyCopies) {
+                        mapReplicas.remove(mapId);
+                        return;
+                    }
+
+                    mapCopies.put(mapId, copy);
+                    uncheckedMaps.add(mapId);
+                    sources = checkMapCopy(mapId);
+                }
+
+                for (MapOutputLocation source : sources) {
+                    addMapLocation(source, true);
+                }
             }
 
             /**
@@ -1626,15 +1647,17 @@ class ReduceTask extends Task {
                         break;
                 }
 
-                // If it couldn't be found a majority of digests, abort the task and start again.
-                if(result == null)
-                    forceFail();
-
+                // The copy fails and the map output is tried again, from another
+                // replica if there is one that agrees, or from the replica that
+                // replaces this map. The outputs already copied are kept.
                 return result;
             }
 
             private MapOutput getMapOutput(MapOutputLocation mapOutputLoc, Path filename, int reduce, boolean a)
                     throws IOException, InterruptedException {
+                if (mapOutputLoc.getCachedOutput() != null)
+                    return getCachedMapOutput(mapOutputLoc, filename, reduce);
+
                 // Connect
                 URLConnection connection = mapOutputLoc.getOutputLocation().openConnection();
                 LOG.debug("URL Class: " + connection.getClass().toString());
@@ -1688,7 +1711,6 @@ class ReduceTask extends Task {
 
                 // Check if this map-output can be saved in-memory
                 boolean shuffleInMemory = ramManager.canFitInMemory(decompressedLength);
-                byte[] digest = new byte[0];
 
                 // Shuffle
                 MapOutput mapOutput = null;
@@ -1711,14 +1733,6 @@ class ReduceTask extends Task {
                             + "\nMAPOUTPUT DECOMPRESSED: " + decompressedLength
                             + "\nMAPOUTPUT STARTOFFSET: " + startOffset
                             + "\nSHANAME: " + shaname);
-
-                    if(mapOutput != null && mapOutput.data != null && mapOutput.data.length > 0) {
-                        if(codec == null) {
-                            digest = hashGen.generateHash(new ByteArrayInputStream(mapOutput.data), 0, (int) decompressedLength); // OK
-                        } else {
-                            digest = hashGen.generateHash(new ByteArrayInputStream(mapOutput.data), 0, (int) compressedLength);
-                        }
-                    }
                 } else {
                     LOG.info("Shuffling " + decompressedLength + " bytes (" +
                             compressedLength + " part bytes) " +
@@ -1728,18 +1742,65 @@ class ReduceTask extends Task {
 
                     if(mapOutput == null)
                         return null;
+                }
 
-                    LOG.debug("Generate digest from file: " + mapOutput.getFile().toString());
+                return mapOutput;
+            }
 
-                    if(codec == null) {
-                        digest = hashGen.generateHash(rfs, mapOutput.getFile(), 0, (int) decompressedLength);// OK
-                    } else {
-                        digest = hashGen.generateHash(rfs, mapOutput.getFile(), 0, (int) compressedLength);// OK
+            /**
+             * Read the partition of a map output kept by an earlier job from
+             * its file system. It is checked against the digest the replicas
+             * of the earlier job agreed on, like the outputs of the trackers.
+             */
+            private MapOutput getCachedMapOutput(MapOutputLocation mapOutputLoc, Path filename, int reduce)
+                    throws IOException, InterruptedException {
+                Path output = mapOutputLoc.getCachedOutput();
+                SpillRecord.IndexRecord info = new SpillRecord.IndexRecord();
+                InputStream input = MapResultCache.open(output.getFileSystem(conf), output, reduce, info);
+                LOG.info("kept output: " + output + ", compressed len: " + info.partLength +
+                        ", decompressed len: " + info.rawLength);
+
+                if (ramManager.canFitInMemory(info.rawLength) && !forceShuffleInDisk) {
+                    LOG.info("Shuffling " + info.rawLength + " bytes (" + info.partLength +
+                            " part bytes) into RAM from " + output);
+                    return shuffleInMemory(mapOutputLoc, null, input, (int) info.rawLength,
+                            (int) info.partLength);
+                }
+
+                LOG.info("Shuffling " + info.rawLength + " bytes (" + info.partLength +
+                        " part bytes) into Local-FS from " + output);
+                return shuffleToDisk(mapOutputLoc, input, filename, info.partLength);
+            }
+
+            /**
+             * Digest the records of a map output copied to disk, which is
+             * only possible once they are decompressed
+             * @param file the copied map output
+             * @param compressedLength the length of the file
+             * @return the digest of the records
+             * @throws IOException
+             */
+            private MessageDigest digestRecords(Path file, long compressedLength) throws IOException {
+                MessageDigest md = shuffleHashGen.newInstance();
+                InputStream in = new IFileInputStream(rfs.open(file), compressedLength);
+                if (codec != null) {
+                    decompressor.reset();
+                    in = codec.createInputStream(in, decompressor);
+                }
+
+                try {
+                    byte[] buf = new byte[64 * 1024];
+                    int n = in.read(buf, 0, buf.length);
+                    while (n > 0) {
+                        md.update(buf, 0, n);
+                        reporter.progress();
+                        n = in.read(buf, 0, buf.length);
                     }
+                } finally {
+                    in.close();
                 }
 
-                LOG.debug("DIGEST: " + digest.toString());
-                return mapOutput;
+                return md;
             }
 
             /**
@@ -1806,8 +1867,14 @@ class ReduceTask extends Task {
                 if (!createdNow) {
                     // Reconnect
                     try {
-                        connection = mapOutputLoc.getOutputLocation().openConnection();
-                        input = getInputStream(connection, STALLED_COPY_TIMEOUT, DEFAULT_READ_TIMEOUT);
+                        if (mapOutputLoc.getCachedOutput() != null) {
+                            Path output = mapOutputLoc.getCachedOutput();
+                            input = MapResultCache.open(output.getFileSystem(conf), output,
+                                    getPartition(), new SpillRecord.IndexRecord());
+                        } else {
+                            connection = mapOutputLoc.getOutputLocation().openConnection();
+                            input = getInputStream(connection, STALLED_COPY_TIMEOUT, DEFAULT_READ_TIMEOUT);
+                        }
                     } catch (IOException ioe) {
                         LOG.info("Failed reopen connection to fetch map-output from " +
                                 mapOutputLoc.getHost());
@@ -1820,6 +1887,13 @@ class ReduceTask extends Task {
                     }
                 }
 
+                // digest the bytes as they are copied, or the records once
+                // they are decompressed
+                DigestInputStream digestIn = null;
+                if (!logicalDigest) {
+                    digestIn = new DigestInputStream(input, shuffleHashGen.newInstance());
+                    input = digestIn;
+                }
                 IFileInputStream checksumIn = new IFileInputStream(input,compressedLength);
                 input = checksumIn;
 
@@ -1830,6 +1904,11 @@ class ReduceTask extends Task {
                     input = codec.createInputStream(input, decompressor);
                 }
 
+                if (logicalDigest) {
+                    digestIn = new DigestInputStream(input, shuffleHashGen.newInstance());
+                    input = digestIn;
+                }
+
                 // Copy map-output into an in-memory buffer
                 byte[] shuffleData  = new byte[mapOutputLength];
                 MapOutput mapOutput = new MapOutput(mapOutputLoc.getTaskId(), mapOutputLoc.getTaskAttemptId(), shuffleData, compressedLength);
@@ -1900,6 +1979,17 @@ class ReduceTask extends Task {
                     );
                 }
 
+                // Reject the map-output before it is used if it isn't the one
+                // that was voted
+                try {
+                    checkDigest(mapOutputLoc, digestIn.getMessageDigest());
+                } catch (IOException ioe) {
+                    ramManager.unreserve(mapOutputLength);
+                    redundantShuffleBytes.increment(mapOutputLength);
+                    mapOutput.discard();
+                    throw ioe;
+                }
+
                 // TODO: Remove this after a 'fix' for HADOOP-3647
                 if (mapOutputLength > 0) {
                     DataInputBuffer dib = new DataInputBuffer();
@@ -1910,7 +2000,6 @@ class ReduceTask extends Task {
                             mapOutputLoc.getHost());
                 }
 
-                LOG.debug("Map Output data: " + Util.bytesToHex(mapOutput.data));
                 return mapOutput;
             }
 
@@ -1927,14 +2016,20 @@ class ReduceTask extends Task {
                                 conf, localFilename, mapOutputLength);
 
 
-                // Copy data to local-disk
+                // Copy data to local-disk, digesting it on the way
+                DigestInputStream digestIn = null;
+                if (!logicalDigest) {
+                    digestIn = new DigestInputStream(input, shuffleHashGen.newInstance());
+                    input = digestIn;
+                }
                 OutputStream output = null;
                 long bytesRead = 0;
                 try {
                     output = rfs.create(localFilename);
 
+                    // a kept output file has the other partitions after this one
                     byte[] buf = new byte[64 * 1024];
-                    int n = input.read(buf, 0, buf.length);
+                    int n = input.read(buf, 0, (int) Math.min(buf.length, mapOutputLength));
                     while (n > 0) {
                         bytesRead += n;
                         shuffleClientMetrics.inputBytes(n);
@@ -1942,8 +2037,9 @@ class ReduceTask extends Task {
 
                         // indicate we're making progress
                         reporter.progress();
-                        n = input.read(buf, 0, buf.length);
+                        n = input.read(buf, 0, (int) Math.min(buf.length, mapOutputLength - bytesRead));
                     }
+                    input.close();
                 } catch (IOException ioe) {
                     LOG.info("Failed to shuffle from " + mapOutputLoc.getTaskAttemptId(),
                             ioe);
@@ -1989,6 +2085,18 @@ class ReduceTask extends Task {
                     );
                 }
 
+                // Reject the map-output before it is used if it isn't the one
+                // that was voted
+                try {
+                    checkDigest(mapOutputLoc, logicalDigest
+                            ? digestRecords(localFilename, mapOutputLength)
+                            : digestIn.getMessageDigest());
+                } catch (IOException ioe) {
+                    redundantShuffleBytes.increment(mapOutputLength);
+                    mapOutput.discard();
+                    throw ioe;
+                }
+
                 LOG.info("Read " + bytesRead + " bytes from map-output for " +
                         mapOutputLoc.getTaskAttemptId() + " shuffled to " + localFilename.toString());
 
@@ -2042,6 +2150,7 @@ class ReduceTask extends Task {
             this.shuffleClientMetrics = new ShuffleClientMetrics(conf);
             this.umbilical = umbilical;
             this.reduceTask = ReduceTask.this;
+            this.shuffleHashGen = new DigestFactory(conf).meteredBy(shuffleDigestMeter);
 
             this.scheduledCopies = Collections.synchronizedList(new ArrayList<MapOutputLocation>(100));
             this.copyResults = new ArrayList<CopyResult>(100);
@@ -2053,7 +2162,6 @@ class ReduceTask extends Task {
                     combineInputCounter,
                     reporter, null);
 
-            this.digestsHistory = new ArrayList<String>();
             if (combinerRunner != null) {
                 combineCollector =
                         new CombineOutputCollector(reduceCombineOutputCounter);
@@ -2096,9 +2204,15 @@ class ReduceTask extends Task {
             // hosts -> next contact time
             this.penaltyBox = new LinkedHashMap<String, Long>();
 
-            // hostnames
-            this.uniqueHosts = new HashSet<String>();
-            this.uniqueTasks = new HashSet<String>();
+            // in deferred execution, only fetch the outputs that a majority
+            // of the map replicas agree on
+            this.replicaChooser = new MapReplicaChooser(getTaskID().getTaskID().getReplicaNumber(),
+                    conf.getDeferredExecution() ? numReplicas / 2 + 1 : 1);
+
+            // in tentative execution, the outputs are copied from the first
+            // replica and checked once a majority of the replicas agree
+            this.verifyCopies = !conf.getDeferredExecution() && numReplicas > 1;
+            this.majority = numReplicas / 2 + 1;
 
             // Seed the random number generator with a reasonably globally unique seed
             long randomSeed = System.nanoTime() +
@@ -2107,8 +2221,6 @@ class ReduceTask extends Task {
                     );
             this.random = new Random(randomSeed);
             this.maxMapRuntime = 0;
-
-            Arrays.fill(distance, Integer.MAX_VALUE);
         }
 
         private boolean busyEnough(int numInFlight) {
@@ -2155,11 +2267,9 @@ class ReduceTask extends Task {
             long lastProgressTime = startTime;
             long lastOutputTime = 0;
 
-            List<MapOutputLocation> savedEvents = Collections.synchronizedList(new ArrayList<MapOutputLocation>());
-            int[] occurrences = new int[numMaps];
-
             // ----------------------- Begin of LOOP until we get all required outputs --------------------------
-            while (copiedMapOutputs.size() < numMaps && mergeThrowable == null) {
+            while ((copiedMapOutputs.size() < numMaps || !copiesChecked())
+                    && mergeThrowable == null) {
                 currentTime = System.currentTimeMillis();
                 boolean logNow = false;
                 if (currentTime - lastOutputTime > MIN_LOG_TIME) {
@@ -2171,33 +2281,32 @@ class ReduceTask extends Task {
                             + (numMaps - copiedMapOutputs.size()) + " map output(s) "
                             + "where " + numInFlight + " is already in progress");
                     LOG.debug("Copied: " + copiedMapOutputs.size() + " / " + numMaps);
+                    if (copiedMapOutputs.size() >= numMaps) {
+                        LOG.info(reduceTask.getTaskID() + " Waiting for the replicas of the maps" +
+                                " to vote on the copied outputs");
+                    }
                 }
 
-                // Put the hash entries for the failed fetches.
-                Iterator<MapOutputLocation> locItr = retryFetches.iterator();
-                while (locItr.hasNext()) {
-                    MapOutputLocation loc = locItr.next();
-                    List<MapOutputLocation> locList = mapLocations.get(loc.getHost());
-
-
-                    // Check if the list exists. Map output location mapping is cleared
-                    // once the jobtracker restarts and is rebuilt from scratch.
-                    // Note that map-output-location mapping will be recreated and hence
-                    // we continue with the hope that we might find some locations
-                    // from the rebuild map.
-                    if (locList != null) {
-                        // Add to the beginning of the list so that this map is
-                        //tried again before the others and we can hasten the
-                        //re-execution of this map should there be a problem
-                        locList.add(0, loc);
+                // Put the hash entries for the failed fetches, from another
+                // agreeing replica if there is one.
+                synchronized (retryFetches) {
+                    Iterator<MapOutputLocation> locItr = retryFetches.iterator();
+                    while (locItr.hasNext()) {
+                        MapOutputLocation loc = nextMapReplica(locItr.next());
+                        if (loc != null) {
+                            // Add to the beginning of the list so that this map is
+                            //tried again before the others and we can hasten the
+                            //re-execution of this map should there be a problem
+                            addMapLocation(loc, true);
+                        }
                     }
-                }
 
-                if (retryFetches.size() > 0) {
-                    LOG.info(reduceTask.getTaskID() + ": " + "Got " + retryFetches.size() + " map-outputs from previous failures");
+                    if (retryFetches.size() > 0) {
+                        LOG.info(reduceTask.getTaskID() + ": " + "Got " + retryFetches.size() + " map-outputs from previous failures");
+                    }
+                    // clear the "failed" fetches hashmap
+                    retryFetches.clear();
                 }
-                // clear the "failed" fetches hashmap
-                retryFetches.clear();
 
                 // now walk through the cache and schedule what we can
                 int numScheduled = 0;
@@ -2249,7 +2358,7 @@ class ReduceTask extends Task {
                             continue;
 
                         synchronized (knownOutputsByLoc) {
-                            locItr = knownOutputsByLoc.iterator();
+                            Iterator<MapOutputLocation> locItr = knownOutputsByLoc.iterator();
                             while (locItr.hasNext()) {
                                 MapOutputLocation loc = locItr.next();
 
@@ -2257,29 +2366,16 @@ class ReduceTask extends Task {
                                     locItr.remove(); continue;
                                 }
 
-                                if(uniqueTasks.contains(loc.getTaskAttemptId().toString())) {
-                                    if(LOG.isDebugEnabled()) {
-                                        LOG.debug("Ignoring " + loc.getTaskAttemptId().toString());
-                                        String str = "";
-                                        Iterator<String> iter = uniqueTasks.iterator();
-                                        while(iter.hasNext())
-                                            str += iter.next() + ", ";
-                                        LOG.debug("Ignoring  [" + str + "]");
-                                    }
-
-                                    locItr.remove();
-                                    continue;
-                                }
-
-                                // Do not schedule fetches from OBSOLETE maps
+                                // Do not schedule fetches from OBSOLETE maps, but
+                                // look for another replica of them
                                 if (obsoleteMapIds.contains(loc.getTaskAttemptId())) {
+                                    hostDone(host, 0, 0);
+                                    retryFetches.add(loc);
                                     locItr.remove();
                                     continue;
                                 }
 
                                 LOG.debug("Adding host: " + host + " in " + loc.getTaskAttemptId().toString());
-                                uniqueHosts.add(host);
-                                uniqueTasks.add(loc.getTaskAttemptId().toString());
                                 scheduledCopies.add(loc);
                                 locItr.remove();  // remove from knownOutputs
                                 numInFlight++; numScheduled++;
@@ -2333,16 +2429,7 @@ class ReduceTask extends Task {
                         break;
                     }
 
-                    if(cr.getKill()) {
-                        LOG.fatal("Shuffle failed with too many fetch failures " +
-                                "and insufficient progress!" +
-                                "Killing task " + getTaskID() + ".");
-                        umbilical.shuffleError(getTaskID(), "Exceeded corrected fetches of map-ouput; bailing-out.");
-                        //                        uniqueHosts.remove(cr.getHost());
-                        numInFlight--;
-                        break;
-                    }
-
+                    hostDone(cr.getHost(), cr.getSuccess() ? cr.getSize() : 0, cr.getTime());
 
                     if (cr.getSuccess()) {  // a successful copy
                         numCopied++;
@@ -2353,7 +2440,10 @@ class ReduceTask extends Task {
                         float mbs = ((float)reduceShuffleBytes.getCounter())/(1024*1024);
                         float transferRate = mbs/secsSinceStart;
 
-                        copyPhase.startNextPhase();
+                        // a map output copied again doesn't take a phase
+                        if (numCopied <= numMaps) {
+                            copyPhase.startNextPhase();
+                        }
                         copyPhase.setStatus("copy (" + numCopied + " of " + numMaps
                                 + " at " +
                                 mbpsFormat.format(transferRate) +  " MB/s)");
@@ -2370,6 +2460,11 @@ class ReduceTask extends Task {
                                 " Ignoring obsolete copy result for Map Task: " +
                                 cr.getLocation().getTaskAttemptId() + " from host: " +
                                 cr.getHost());
+
+                        // the replica is gone, but the map output is still needed
+                        if (!copiedMapOutputs.contains(cr.getLocation().getMapId())) {
+                            retryFetches.add(cr.getLocation());
+                        }
                     } else {
                         synchronized (retryFetches) {
                             retryFetches.add(cr.getLocation());
@@ -2517,8 +2612,359 @@ class ReduceTask extends Task {
             return mergeThrowable == null && copiedMapOutputs.size() >= numMaps;
         }
 
+        /**
+         * Add a map output location to the ones to be scheduled for its host
+         * @param loc the location
+         * @param first put it before the other locations of the host
+         */
+        private void addMapLocation(MapOutputLocation loc, boolean first) {
+            List<MapOutputLocation> locList = mapLocations.get(loc.getHost());
+            if (locList == null) {
+                locList = Collections.synchronizedList(new LinkedList<MapOutputLocation>());
+                List<MapOutputLocation> old = mapLocations.putIfAbsent(loc.getHost(), locList);
+                if (old != null) {
+                    locList = old;
+                }
+            }
+
+            if (first) {
+                locList.add(0, loc);
+            } else {
+                locList.add(loc);
+            }
+        }
+
+        /**
+         * Save a succeeded replica of a map, and schedule the copy of the map
+         * output if it wasn't scheduled yet and enough replicas agree on it.
+         * In tentative execution, check the copy of the map output if there
+         * is one.
+         * @param loc the location of the replica's output
+         */
+        private void addMapReplica(MapOutputLocation loc) {
+            int mapId = loc.getMapId();
+            List<MapOutputLocation> sources;
+
+            // checking the copy may drop it
+            synchronized (ReduceTask.this) {
+                synchronized (mapReplicas) {
+                    boolean copied = copiedMapOutputs.contains(mapId);
+                    if (copied && !verifyCopies) {
+                        return;
+                    }
+
+                    List<MapOutputLocation> replicas = mapReplicas.get(mapId);
+                    if (replicas == null) {
+                        replicas = new ArrayList<MapOutputLocation>(numReplicas);
+                        mapReplicas.put(mapId, replicas);
+                    }
+                    // a replica is also listed by the voted event of its map
+                    for (Iterator<MapOutputLocation> it = replicas.iterator(); it.hasNext();) {
+                        if (it.next().getTaskAttemptId().equals(loc.getTaskAttemptId())) {
+                            it.remove();
+                        }
+                    }
+                    replicas.add(loc);
+
+                    if (copied) {
+                        sources = checkMapCopy(mapId);
+                    } else if (fetchingMaps.contains(mapId)) {
+                        return;
+                    } else {
+                        sources = scheduleMapCopy(mapId);
+                    }
+                }
+            }
+
+            for (MapOutputLocation source : sources) {
+                addMapLocation(source, false);
+            }
+        }
+
+        /**
+         * Choose the replica to copy a map output from, if enough replicas
+         * agree on it. Called with mapReplicas held.
+         * @return the replica, or nothing if none can be chosen yet
+         */
+        private List<MapOutputLocation> scheduleMapCopy(int mapId) {
+            List<MapOutputLocation> replicas = mapReplicas.get(mapId);
+            MapOutputLocation source = replicas == null ? null
+                    : replicaChooser.choose(replicas, null, obsoleteMapIds);
+            if (source == null) {
+                return Collections.emptyList();
+            }
+
+            fetchingMaps.add(mapId);
+            replicaChooser.scheduled(source.getHost());
+            return Collections.singletonList(source);
+        }
+
+        /**
+         * The digest for this partition that the replicas of a map voted:
+         * the one of a replica voted by the job tracker, or the one a
+         * majority of the replicas agree on.
+         * @return the digest, or null if there is no majority yet
+         */
+        private DigestWritable votedDigest(List<MapOutputLocation> replicas) {
+            for (MapOutputLocation loc : replicas) {
+                if (loc.getHash() == null) {
+                    continue;
+                }
+                if (loc.isVoted()) {
+                    return loc.getHash();
+                }
+
+                int agreeing = 0;
+                for (MapOutputLocation other : replicas) {
+                    if (loc.getHash().equals(other.getHash())) {
+                        agreeing++;
+                    }
+                }
+                if (agreeing >= majority) {
+                    return loc.getHash();
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * Check the copy of a map output in tentative execution, once the
+         * replicas of the map voted a digest for this partition. The
+         * replicas with another digest become obsolete. If the copy came from
+         * one of them, it is dropped and copied again from an agreeing
+         * replica, instead of failing the reduce.
+         * Called with ReduceTask.this and mapReplicas held.
+         * @return the replicas to copy the dropped map outputs from
+         */
+        private List<MapOutputLocation> checkMapCopy(int mapId) {
+            MapCopy copy = mapCopies.get(mapId);
+            List<MapOutputLocation> replicas = mapReplicas.get(mapId);
+            DigestWritable voted = replicas == null ? null : votedDigest(replicas);
+            if (copy == null || voted == null) {
+                return Collections.emptyList();
+            }
+
+            for (MapOutputLocation loc : replicas) {
+                if (!voted.equals(loc.getHash())) {
+                    obsoleteMapIds.add(loc.getTaskAttemptId());
+                }
+            }
+
+            if (!uncheckedMaps.remove(mapId) || copy.source.getHash() == null
+                    || voted.equals(copy.source.getHash())) {
+                return Collections.emptyList();
+            }
+
+            LOG.info(reduceTask.getTaskID() + " The replicas of map " + mapId +
+                    " outvoted the output copied from " + copy.source.getTaskAttemptId() +
+                    ", copying it again");
+            return dropMapCopy(copy);
+        }
+
+        /**
+         * Drop the copy of a map output so that it is copied again, with the
+         * copies merged with it. A copy that is being merged is dropped once
+         * the merge is done, by {@link #addMergedFile}.
+         * Called with ReduceTask.this and mapReplicas held.
+         * @return the replicas to copy the dropped map outputs from
+         */
+        private List<MapOutputLocation> dropMapCopy(MapCopy copy) {
+            boolean found = copy.empty;
+            if (!copy.empty) {
+                synchronized (mapOutputsFilesInMemory) {
+                    for (Iterator<MapOutput> it = mapOutputsFilesInMemory.iterator(); it.hasNext();) {
+                        MapOutput mo = it.next();
+                        if (mo.copy == copy) {
+                            it.remove();
+                            ramManager.unreserve(mo.data.length);
+                            mo.data = null;
+                            found = true;
+                        }
+                    }
+                }
+            }
+
+            List<MapCopy> dropped = new ArrayList<MapCopy>();
+            List<Path> files = new ArrayList<Path>();
+            synchronized (mapOutputFilesOnDisk) {
+                copy.dropped = true;
+                dropped.add(copy);
+                for (Iterator<FileStatus> it = mapOutputFilesOnDisk.iterator(); !found && it.hasNext();) {
+                    Path file = it.next().getPath();
+                    List<MapCopy> copies = copiesOnDisk.get(file);
+                    if (copies == null || !copies.contains(copy)) {
+                        continue;
+                    }
+
+                    it.remove();
+                    copiesOnDisk.remove(file);
+                    files.add(file);
+                    for (MapCopy merged : copies) {
+                        if (!merged.dropped) {
+                            merged.dropped = true;
+                            dropped.add(merged);
+                        }
+                    }
+                    found = true;
+                }
+
+                if (!found) {
+                    droppedInMerge.add(copy);
+                }
+            }
+
+            for (Path file : files) {
+                try {
+                    localFileSys.delete(file, true);
+                } catch (IOException ioe) {
+                    LOG.warn("Can't delete the dropped map outputs in " + file, ioe);
+                }
+            }
+
+            return forgetMapCopies(dropped);
+        }
+
+        /**
+         * Forget dropped copies of map outputs, and choose the replicas to
+         * copy them again from.
+         * Called with ReduceTask.this and mapReplicas held.
+         * @return the replicas to copy the map outputs from
+         */
+        private List<MapOutputLocation> forgetMapCopies(List<MapCopy> dropped) {
+            List<MapOutputLocation> sources = new ArrayList<MapOutputLocation>();
+            for (MapCopy copy : dropped) {
+                if (mapCopies.get(copy.mapId) != copy) {
+                    continue;
+                }
+
+                mapCopies.remove(copy.mapId);
+                uncheckedMaps.remove(copy.mapId);
+                copiedMapOutputs.remove(copy.mapId);
+                sources.addAll(scheduleMapCopy(copy.mapId));
+            }
+            ramManager.setNumCopiedMapOutputs(numMaps - copiedMapOutputs.size());
+
+            if (dropped.size() > 1) {
+                LOG.info(reduceTask.getTaskID() + " Copying " + (dropped.size() - 1) +
+                        " map outputs again, merged with a dropped one");
+            }
+            return sources;
+        }
+
+        /**
+         * Add the output of a merge to the map outputs on disk, unless one
+         * of the copies merged into it was dropped meanwhile. Then the output
+         * is deleted, and the other copies in it are copied again.
+         * @param status the output of the merge
+         * @param copies the copies merged into it
+         */
+        private void addMergedFile(FileStatus status, List<MapCopy> copies) throws IOException {
+            List<MapOutputLocation> sources;
+            synchronized (ReduceTask.this) {
+                synchronized (mapReplicas) {
+                    List<MapCopy> dropped = new ArrayList<MapCopy>();
+                    synchronized (mapOutputFilesOnDisk) {
+                        boolean stale = false;
+                        for (MapCopy copy : copies) {
+                            stale |= droppedInMerge.remove(copy);
+                        }
+
+                        if (!stale) {
+                            copiesOnDisk.put(status.getPath(), copies);
+                            addToMapOutputFilesOnDisk(status);
+                            return;
+                        }
+
+                        for (MapCopy copy : copies) {
+                            if (!copy.dropped) {
+                                copy.dropped = true;
+                                dropped.add(copy);
+                            }
+                        }
+                    }
+
+                    localFileSys.delete(status.getPath(), true);
+                    sources = forgetMapCopies(dropped);
+                }
+            }
+
+            for (MapOutputLocation source : sources) {
+                addMapLocation(source, true);
+            }
+        }
+
+        /**
+         * @return true if the copied map outputs are all checked, or don't
+         * need to be
+         */
+        private boolean copiesChecked() {
+            synchronized (ReduceTask.this) {
+                if (!uncheckedMaps.isEmpty()) {
+                    return false;
+                }
+                synchronized (mapOutputFilesOnDisk) {
+                    return droppedInMerge.isEmpty();
+                }
+            }
+        }
+
+        /**
+         * Get the replica to copy a map output from after a copy from
+         * <code>failed</code> didn't succeed.
+         * @return the replica, or null if there isn't any left. The map is
+         * scheduled again when another replica succeeds.
+         */
+        private MapOutputLocation nextMapReplica(MapOutputLocation failed) {
+            int mapId = failed.getMapId();
+
+            synchronized (mapReplicas) {
+                List<MapOutputLocation> replicas = mapReplicas.get(mapId);
+                MapOutputLocation source = null;
+                if (replicas != null && !copiedMapOutputs.contains(mapId)) {
+                    source = replicaChooser.choose(replicas, failed, obsoleteMapIds);
+                }
+
+                if (source == null) {
+                    fetchingMaps.remove(mapId);
+                    return null;
+                }
+
+                replicaChooser.scheduled(source.getHost());
+                if (source != failed) {
+                    LOG.info(reduceTask.getTaskID() + " Copying output of map " + mapId +
+                            " from " + source.getTaskAttemptId() + " instead of " +
+                            failed.getTaskAttemptId());
+                }
+
+                return source;
+            }
+        }
+
+        /**
+         * Note that a copy scheduled from a host is done
+         * @param host the host
+         * @param bytes bytes copied, 0 if the copy failed
+         * @param time time spent on the copy, in ms
+         */
+        private void hostDone(String host, long bytes, long time) {
+            synchronized (mapReplicas) {
+                replicaChooser.done(host, bytes, time);
+            }
+        }
+
         private long createInMemorySegments(List<Segment<K, V>> inMemorySegments, long leaveBytes)
                 throws IOException {
+            return createInMemorySegments(inMemorySegments, leaveBytes, null);
+        }
+
+        /**
+         * @param copies the copies of the map outputs taken from memory, or
+         * null
+         */
+        private long createInMemorySegments(List<Segment<K, V>> inMemorySegments, long leaveBytes,
+                                            List<MapCopy> copies)
+                throws IOException {
             long totalSize = 0L;
             synchronized (mapOutputsFilesInMemory) {
                 // fullSize could come from the RamManager, but files can be
@@ -2529,6 +2975,9 @@ class ReduceTask extends Task {
                 }
                 while(fullSize > leaveBytes) {
                     MapOutput mo = mapOutputsFilesInMemory.remove(0);
+                    if (copies != null) {
+                        copies.add(mo.copy);
+                    }
                     totalSize += mo.data.length;
                     fullSize -= mo.data.length;
                     Reader<K, V> reader   = new InMemoryReader<K, V>(ramManager, mo.mapAttemptId, mo.data, 0, mo.data.length);
@@ -2749,6 +3198,7 @@ class ReduceTask extends Task {
                             break;
                         }
                         List<Path> mapFiles = new ArrayList<Path>();
+                        List<MapCopy> copies = new ArrayList<MapCopy>();
                         long approxOutputSize = 0;
                         int bytesPerSum =
                                 reduceTask.getConf().getInt("io.bytes.per.checksum", 512);
@@ -2763,6 +3213,10 @@ class ReduceTask extends Task {
                                 FileStatus filestatus = mapOutputFilesOnDisk.first();
                                 mapOutputFilesOnDisk.remove(filestatus);
                                 mapFiles.add(filestatus.getPath());
+                                List<MapCopy> merged = copiesOnDisk.remove(filestatus.getPath());
+                                if (merged != null) {
+                                    copies.addAll(merged);
+                                }
                                 approxOutputSize += filestatus.getLen();
                             }
                         }
@@ -2805,16 +3259,14 @@ class ReduceTask extends Task {
                             throw new IOException (StringUtils.stringifyException(e));
                         }
 
-                        synchronized (mapOutputFilesOnDisk) {
-                            addToMapOutputFilesOnDisk(localFileSys.getFileStatus(outputPath));
-                        }
-
+                        FileStatus status = localFileSys.getFileStatus(outputPath);
                         LOG.info(reduceTask.getTaskID() +
                                 " Finished merging " + mapFiles.size() +
                                 " map output files on disk of total-size " +
                                 approxOutputSize + "." +
                                 " Local output file is " + outputPath + " of size " +
-                                localFileSys.getFileStatus(outputPath).getLen());
+                                status.getLen());
+                        addMergedFile(status, copies);
                     }
                 } catch (Exception e) {
                     LOG.warn(reduceTask.getTaskID()
@@ -2876,7 +3328,8 @@ class ReduceTask extends Task {
                 TaskID mapId = mapOutputsFilesInMemory.get(0).mapId;
 
                 List<Segment<K, V>> inMemorySegments = new ArrayList<Segment<K,V>>();
-                long mergeOutputSize = createInMemorySegments(inMemorySegments, 0);
+                List<MapCopy> copies = new ArrayList<MapCopy>();
+                long mergeOutputSize = createInMemorySegments(inMemorySegments, 0, copies);
                 int noInMemorySegments = inMemorySegments.size();
 
                 Path outputPath = mapOutputFile.getInputFileForWrite(mapId, numReplicas, reduceTask.getTaskID(), mergeOutputSize);
@@ -2922,19 +3375,7 @@ class ReduceTask extends Task {
                 }
 
                 // Note the output of the merge
-                FileStatus status = localFileSys.getFileStatus(outputPath);
-                synchronized (mapOutputFilesOnDisk) {
-                    addToMapOutputFilesOnDisk(status);
-                }
-
-                if(LOG.isDebugEnabled()) {
-                    byte[] digest = new byte[0];
-                    if (shaname.equals("SHA-1"))
-                        digest = ((Sha1Hash) hashGen).generateHashForReduce(rfs, outputPath);
-                    else
-                        digest = ((Sha256Hash) hashGen).generateHashForReduce(rfs, outputPath);
-                    LOG.debug("Digest for " + mapId.toString() + " ( " + outputPath.toString() + " ) = " + ShaAbstractHash.convertHashToString(digest));
-                }
+                addMergedFile(localFileSys.getFileStatus(outputPath), copies);
             }
         }
 
@@ -3005,6 +3446,11 @@ class ReduceTask extends Task {
                     fromEventId.set(0);
                     obsoleteMapIds.clear(); // clear the obsolete map
                     mapLocations.clear(); // clear the map locations mapping
+                    synchronized (mapReplicas) {
+                        mapReplicas.clear();
+                        fetchingMaps.clear();
+                        replicaChooser.clearScheduled();
+                    }
                 }
 
                 // Update the last seen event ID
@@ -3020,8 +3466,6 @@ class ReduceTask extends Task {
                     switch (event.getTaskStatus()) {
                         case SUCCEEDED:
                         {
-                            URI u                   = URI.create(event.getTaskTrackerHttp());
-                            String host             = u.getHost();
                             TaskAttemptID taskId    = event.getTaskAttemptId();
                             int duration            = event.getTaskRunTime();
                             LOG.debug("Received successful event for " + taskId.toString());
@@ -3037,34 +3481,37 @@ class ReduceTask extends Task {
                                         getClosestPowerOf2((maxMapRuntime / BACKOFF_INIT) + 1));
                             }
 
-                            URL mapOutputLocation = new URL(event.getTaskTrackerHttp() +
-                                    "/mapOutput?job=" + taskId.getJobID() +
-                                    "&map="  + taskId +
-                                    "&part=" + getPartition() +
-                                    "&reduce=" + getTaskID());
-
-                            List<MapOutputLocation> loc = mapLocations.get(host);
-                            if (loc == null) {
-                                loc = Collections.synchronizedList(new LinkedList<MapOutputLocation>());
-                                mapLocations.put(host, loc);
-                            }
-
                             // the partition that contains the digest, is defined by the id of the reduce tasks.
                             // the number of partitions is equal to the number of reduces.
                             if(LOG.isDebugEnabled()) {
-                                String[] digest = event.getDigests();
+                                DigestWritable[] digest = event.getDigests();
                                 if(digest == null)
                                     LOG.debug("NULL");
                                 else {
-                                    LOG.debug(Arrays.deepToString(digest));
+                                    LOG.debug(Arrays.toString(digest));
                                 }
                             }
 
-                            String chosen_hash = event.getDigests()[getPartition()];
+                            DigestWritable chosen_hash = event.getDigest(getPartition());
 
-                            MapOutputLocation mol = new MapOutputLocation(taskId, host, mapOutputLocation, chosen_hash);
                             numNewMaps ++;
-                            loc.add(mol);
+                            if (event.isCached()) {
+                                addMapReplica(new MapOutputLocation(taskId,
+                                        new Path(event.getTaskTrackerHttp()), chosen_hash));
+                            } else if (event.isVoted()) {
+                                // the replicas that agree on this partition
+                                TaskAttemptID[] replicas = event.getReplicas();
+                                String[] https = event.getReplicaHttps();
+                                for (int i = 0; i < replicas.length; i++) {
+                                    addMapReplica(new MapOutputLocation(replicas[i],
+                                            URI.create(https[i]).getHost(),
+                                            mapOutputURL(https[i], replicas[i]), chosen_hash, true));
+                                }
+                            } else {
+                                addMapReplica(new MapOutputLocation(taskId,
+                                        URI.create(event.getTaskTrackerHttp()).getHost(),
+                                        mapOutputURL(event.getTaskTrackerHttp(), taskId), chosen_hash));
+                            }
 
                             break;
                         }
@@ -3079,7 +3526,7 @@ class ReduceTask extends Task {
                         break;
                         case TIPFAILED:
                         {
-                            copiedMapOutputs.add(event.getTaskAttemptId().getTaskID());
+                            copiedMapOutputs.add(event.getTaskAttemptId().getTaskID().getId());
                             LOG.info("Ignoring output of failed map TIP: '" +
                                     event.getTaskAttemptId() + "'");
                         }
@@ -3088,6 +3535,15 @@ class ReduceTask extends Task {
                 }
                 return numNewMaps;
             }
+
+            private URL mapOutputURL(String taskTrackerHttp, TaskAttemptID taskId)
+                    throws MalformedURLException {
+                return new URL(taskTrackerHttp +
+                        "/mapOutput?job=" + taskId.getJobID() +
+                        "&map="  + taskId +
+                        "&part=" + getPartition() +
+                        "&reduce=" + getTaskID());
+            }
         }
     }
     // end of ReduceCopier
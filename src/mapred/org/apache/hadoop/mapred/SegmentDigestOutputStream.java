@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+
+/**
+ * An output stream that digests the bytes of each segment as they are
+ * written to the underlying map output file.
+ *
+ * A segment is delimited by {@link #startSegment()} and
+ * {@link #endSegment()}, so one stream placed under the
+ * <code>IFile.Writer</code>s of a spill yields one digest per partition,
+ * covering exactly the <code>partLength</code> bytes that the reducers fetch.
+ */
+class SegmentDigestOutputStream extends FilterOutputStream {
+	private final MessageDigest md;
+	private boolean inSegment = false;
+
+	/**
+	 * Create a digesting stream that writes the bytes to the given stream.
+	 * @param out the underlying stream
+	 * @param md the digest used for every segment
+	 */
+	public SegmentDigestOutputStream(OutputStream out, MessageDigest md) {
+		super(out);
+		this.md = md;
+	}
+
+	/**
+	 * Start a new segment. Bytes written from now on are digested.
+	 */
+	public void startSegment() {
+		md.reset();
+		inSegment = true;
+	}
+
+	/**
+	 * End the current segment.
+	 * @return the digest of the bytes written since {@link #startSegment()}
+	 */
+	public byte[] endSegment() {
+		inSegment = false;
+		return md.digest();
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if(inSegment)
+			md.update(b, off, len);
+		out.write(b, off, len);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if(inSegment)
+			md.update((byte) b);
+		out.write(b);
+	}
+}
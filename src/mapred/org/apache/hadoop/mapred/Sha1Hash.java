@@ -22,27 +22,6 @@ public class Sha1Hash extends ShaAbstractHash {
 
 	private static final Log LOG = LogFactory.getLog(Sha1Hash.class.getName());
 
-	public byte[] generateHashForReduce(FileSystem rfs, Path pi) {
-		byte[] digest = null;
-		MessageDigest md = newInstance();
-		try {
-			FSDataInputStream input = rfs.open(pi);
-
-			byte[] buffer = new byte[10];
-
-			while(input.read(buffer, 0, 10) > 0) {
-				md.update(buffer);    
-			}
-
-			digest = hashIt(md);
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-
-		return digest;
-	}
-
 	//    /**
 	//     * Generate the digest from the reduce output
 	//     * @param className
@@ -251,7 +230,7 @@ public class Sha1Hash extends ShaAbstractHash {
 		return hash;
 	}
 
-	private MessageDigest newInstance() {
+	public MessageDigest newInstance() {
 		return super.newInstance(Digest.SHA1);
 	}
 
@@ -18,27 +18,6 @@ public class Sha256Hash extends ShaAbstractHash {
 
 	private static final Log LOG = LogFactory.getLog(Sha256Hash.class.getName());
 
-	public byte[] generateHashForReduce(FileSystem rfs, Path pi) {
-		byte[] digest = null;
-		MessageDigest md = newInstance();
-		try {
-			FSDataInputStream input = rfs.open(pi);
-
-			byte[] buffer = new byte[10];
-
-			while(input.read(buffer, 0, 10) > 0) {
-				md.update(buffer);    
-			}
-
-			digest = hashIt(md);
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-
-		return digest;
-	}
-
 	public byte[] generateHash(FileSystem rfs, Path filename, int offset, int mapOutputLength) {
 		LOG.debug("Opening file2: " + filename);
 		LOG.debug("offset: " + offset + " length: " + mapOutputLength + " offset: " + offset);
@@ -152,7 +131,7 @@ public class Sha256Hash extends ShaAbstractHash {
 		return hash;
 	}
 
-	private MessageDigest newInstance() {
+	public MessageDigest newInstance() {
 		return super.newInstance(Digest.SHA256);
 	}
 
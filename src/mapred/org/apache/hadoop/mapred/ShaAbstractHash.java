@@ -7,7 +7,7 @@ import java.io.InputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
-public abstract class ShaAbstractHash {
+public abstract class ShaAbstractHash implements DigestProvider {
 	MessageDigest newInstance(Digest type) {
 		MessageDigest md = null;
 		try {
@@ -20,6 +20,12 @@ public abstract class ShaAbstractHash {
 		return md;
 	}
 
+	/**
+	 * New message digest of the type used by this generator
+	 * @return MessageDigest
+	 */
+	public abstract MessageDigest newInstance();
+
 	/**
 	 * Digest enum type
 	 * @author xeon
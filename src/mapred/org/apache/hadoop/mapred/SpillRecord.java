@@ -50,8 +50,14 @@ class SpillRecord {
 
 	public SpillRecord(Path indexFileName, JobConf job, Checksum crc)
 	throws IOException {
+		this(indexFileName, FileSystem.getLocal(job).getRaw(), crc);
+	}
 
-		final FileSystem rfs = FileSystem.getLocal(job).getRaw();
+	/**
+	 * Read an index file kept in another file system than the local one
+	 */
+	public SpillRecord(Path indexFileName, FileSystem rfs, Checksum crc)
+	throws IOException {
 		final FSDataInputStream in = rfs.open(indexFileName);
 		try {
 			final long length = rfs.getFileStatus(indexFileName).getLen();
@@ -131,20 +137,22 @@ class SpillRecord {
 		}
 	}
 
-}
-
-class IndexRecord {
-	long startOffset;
-	long rawLength;
-	long partLength;
-	boolean compressOutput;
-	String compressType;
-
-	public IndexRecord() { }
-
-	public IndexRecord(long startOffset, long rawLength, long partLength) {
-		this.startOffset = startOffset;
-		this.rawLength = rawLength;
-		this.partLength = partLength;
+	/**
+	 * The offset and lengths of a partition in a spill or map output file
+	 */
+	static class IndexRecord {
+		long startOffset;
+		long rawLength;
+		long partLength;
+		boolean compressOutput;
+		String compressType;
+
+		public IndexRecord() { }
+
+		public IndexRecord(long startOffset, long rawLength, long partLength) {
+			this.startOffset = startOffset;
+			this.rawLength = rawLength;
+			this.partLength = partLength;
+		}
 	}
 }
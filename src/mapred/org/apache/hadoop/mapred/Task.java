@@ -56,8 +56,16 @@ abstract class Task implements Writable, Configurable {
     private static final Log LOG = LogFactory.getLog("org.apache.hadoop.mapred.TaskRunner");
     private static final String SHA_EXTENSION = ".sha";
     private static final String SHA_DIR_NAME  = "_sha";
-    ShaAbstractHash hashGen;
+    DigestFactory hashGen;
     String shaname = "";
+    // time and bytes of the digests of the task's output, and of the map
+    // outputs a reduce copies
+    final DigestMeter digestMeter = new DigestMeter();
+    final DigestMeter shuffleDigestMeter = new DigestMeter();
+    // the progress digests of the output, and the number of them added to
+    // the status
+    private volatile ProgressDigest progressDigest = null;
+    private int progressDigestsSent = 0;
 
     // Counters used by Task subclasses
     protected enum Counter {
@@ -76,7 +84,12 @@ abstract class Task implements Writable, Configurable {
         REDUCE_SKIPPED_RECORDS,
         SPILLED_RECORDS,
         SHUFFLE_TIME,
-        REDUCE_TIME
+        REDUCE_TIME,
+        MAP_DIGEST_TIME,
+        SHUFFLE_DIGEST_TIME,
+        REDUCE_DIGEST_TIME,
+        DIGESTED_BYTES,
+        REDUNDANT_SHUFFLE_BYTES
     }
 
     /**
@@ -462,14 +475,10 @@ abstract class Task implements Writable, Configurable {
         jobContext  = new JobContext(job, id, reporter);
         taskContext = new TaskAttemptContext(job, taskId, reporter);
 
-        shaname = conf.getDigestType();
-        if (shaname.equals("SHA-1")) {
-        	LOG.info("Using SHA-1 digest");
-        	hashGen = new Sha1Hash();
-        } else if (shaname.equals("SHA-256")) {
-        	LOG.info("Using SHA-256 digest");
-        	hashGen = new Sha256Hash();
-        }
+        DigestFactory digests = new DigestFactory(conf);
+        shaname = digests.toString();
+        hashGen = digests.meteredBy(digestMeter);
+        LOG.info("Using " + shaname + " digest");
         
         if (getState() == TaskStatus.State.UNASSIGNED) {
             setState(TaskStatus.State.RUNNING);
@@ -634,6 +643,7 @@ abstract class Task implements Writable, Configurable {
                     if (sendProgress) {
                         // we need to send progress update
                         updateCounters();
+                        updateProgressDigests();
 
                         taskStatus.statusUpdate(taskProgress.get(), taskProgress.toString(), counters);
                         taskFound = umbilical.statusUpdate(taskId, taskStatus);
@@ -758,6 +768,22 @@ abstract class Task implements Writable, Configurable {
 
             updater.updateCounters();
         }
+        updateDigestCounters();
+    }
+
+    private void updateDigestCounters() {
+        long bytes = digestMeter.getBytes() + shuffleDigestMeter.getBytes();
+        if (bytes == 0) {
+            return;
+        }
+
+        if (isMapTask()) {
+            counters.setCounter(Counter.MAP_DIGEST_TIME, digestMeter.getMillis());
+        } else {
+            counters.setCounter(Counter.SHUFFLE_DIGEST_TIME, shuffleDigestMeter.getMillis());
+            counters.setCounter(Counter.REDUCE_DIGEST_TIME, digestMeter.getMillis());
+        }
+        counters.setCounter(Counter.DIGESTED_BYTES, bytes);
     }
 
     /**
@@ -887,9 +913,34 @@ abstract class Task implements Writable, Configurable {
         }
     }
 
+    /**
+     * Start the progress digests of the task output
+     * @param interval the output records between two progress digests
+     * @return the progress digests, or null if there are none
+     */
+    ProgressDigest newProgressDigest(long interval) {
+        if (interval > 0) {
+            progressDigest = new ProgressDigest(hashGen.getProvider().newInstance(), interval);
+        }
+        return progressDigest;
+    }
+
+    /**
+     * Add the progress digests taken since the last status update to the
+     * task status
+     */
+    private synchronized void updateProgressDigests() {
+        if (progressDigest != null) {
+            DigestWritable[] digests = progressDigest.take();
+            taskStatus.addProgressDigests(progressDigestsSent, digests);
+            progressDigestsSent += digests.length;
+        }
+    }
+
     private void sendLastUpdate(TaskUmbilicalProtocol umbilical) 
             throws IOException {
         // send a final status report
+        updateProgressDigests();
         taskStatus.statusUpdate(taskProgress.get(), taskProgress.toString(), counters);
         statusUpdate(umbilical);
     }
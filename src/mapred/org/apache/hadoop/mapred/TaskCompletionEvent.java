@@ -25,6 +25,8 @@ import org.apache.log4j.Logger;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.apache.hadoop.mapred.Util.getId;
 import static org.apache.hadoop.mapred.Util.getReplicaNumber;
@@ -42,7 +44,18 @@ implements Writable {
 	private String taskTrackerHttp;
 	private int taskRunTime; // using int since runtime is the time difference
 	private TaskAttemptID taskId;
-	private String[] digests = null;
+	private DigestWritable[] digests = null;
+	// the replicas of a voted map event, the first one being taskId, and for
+	// each partition the bits of the replicas that agree on it; null for the
+	// events of single replicas
+	private TaskAttemptID[] replicas = null;
+	private String[] replicaHttps = null;
+	private int[] agreement = null;
+	// the partition of the only digest kept, or -1 if there is one per partition
+	private int partition = -1;
+	// the output of a voted map kept by an earlier job, whose location is a
+	// directory of the map result cache rather than a tracker
+	private boolean cached = false;
 
 	// Group has the purpose to identify
 	// to which group belongs a taskId
@@ -75,7 +88,7 @@ implements Writable {
 			boolean isMap,
 			Status status, 
 			String taskTrackerHttp,
-			String[] digests,
+			DigestWritable[] digests,
 			int numReplicas){
 
 		this.taskId = taskId;
@@ -260,10 +273,159 @@ implements Writable {
 		return replicaWithinJob;
 	}
 
-	public String[] getDigests() {
+	public DigestWritable[] getDigests() {
 		return digests;
 	}
 
+	/**
+	 * @param partition the partition
+	 * @return the digest of the partition, or null if it isn't known
+	 */
+	public DigestWritable getDigest(int partition) {
+		if(this.partition != -1)
+			return partition == this.partition ? digests[0] : null;
+
+		return digests == null || partition >= digests.length ? null : digests[partition];
+	}
+
+	/**
+	 * @return true if this is the event of a voted map, listing its replicas
+	 */
+	public boolean isVoted() {
+		return replicas != null;
+	}
+
+	/**
+	 * @return true if this is the event of a map whose output was kept by an
+	 *         earlier job. Its location is then the directory of the output
+	 *         in the map result cache.
+	 */
+	public boolean isCached() {
+		return cached;
+	}
+
+	/**
+	 * @return the replicas of a voted map, the first one being
+	 *         {@link #getTaskAttemptId()}
+	 */
+	public TaskAttemptID[] getReplicas() {
+		return replicas;
+	}
+
+	/**
+	 * @return the http addresses of the trackers of {@link #getReplicas()}
+	 */
+	public String[] getReplicaHttps() {
+		return replicaHttps;
+	}
+
+	/**
+	 * Make the event of a map whose replicas were voted. It lists the
+	 * replicas that agree with the majority on at least one partition, and
+	 * keeps the digests of the majority.
+	 * @param eventId the id of the event
+	 * @param events the succeeded events of the replicas of the map
+	 * @param majority the digest the majority agreed on, by partition
+	 * @return the event, or null if no replica agrees with the majority
+	 */
+	public static TaskCompletionEvent voted(int eventId, List<TaskCompletionEvent> events,
+			DigestWritable[] majority) {
+		List<TaskCompletionEvent> agreeing = new ArrayList<TaskCompletionEvent>(events.size());
+		int[] agreement = new int[majority.length];
+		for(TaskCompletionEvent e : events) {
+			// the agreement is kept in the bits of an int
+			if(agreeing.size() == Integer.SIZE - 1)
+				break;
+
+			int bit = 1 << agreeing.size();
+			for(int p=0; p<majority.length; p++) {
+				if(majority[p] != null && majority[p].equals(e.getDigest(p)))
+					agreement[p] |= bit;
+			}
+
+			for(int p=0; p<majority.length; p++) {
+				if((agreement[p] & bit) != 0) {
+					agreeing.add(e);
+					break;
+				}
+			}
+		}
+
+		if(agreeing.isEmpty())
+			return null;
+
+		TaskCompletionEvent event = voted(eventId, agreeing, majority, -1);
+		event.agreement = agreement;
+		return event;
+	}
+
+	/**
+	 * Make the event of a map whose output was kept by an earlier job. It is
+	 * a voted event with a single replica, that agrees on every partition.
+	 * @param eventId the id of the event
+	 * @param taskId the attempt the output stands for
+	 * @param output the directory of the output in the map result cache
+	 * @param digests the digests the replicas of the earlier job agreed on
+	 * @return the event
+	 */
+	public static TaskCompletionEvent cached(int eventId, TaskAttemptID taskId, String output,
+			DigestWritable[] digests) {
+		List<TaskCompletionEvent> kept = new ArrayList<TaskCompletionEvent>(1);
+		kept.add(new TaskCompletionEvent(eventId, taskId, true, Status.SUCCEEDED, output, 0));
+		TaskCompletionEvent event = voted(eventId, kept, digests, -1);
+		event.agreement = new int[digests.length];
+		for(int p=0; p<digests.length; p++)
+			event.agreement[p] = 1;
+		event.cached = true;
+		return event;
+	}
+
+	/**
+	 * Keep only what a reduce needs of a voted map event: the replicas that
+	 * agree on its partition, and the digest they agree on.
+	 * @param partition the partition of the reduce
+	 * @return the event for the partition, or null if no replica agrees on
+	 *         it. Other events are returned as they are.
+	 */
+	public TaskCompletionEvent forPartition(int partition) {
+		if(replicas == null || this.partition != -1)
+			return this;
+
+		List<TaskCompletionEvent> agreeing = new ArrayList<TaskCompletionEvent>(replicas.length);
+		for(int i=0; i<replicas.length; i++) {
+			if((agreement[partition] & (1 << i)) != 0) {
+				TaskCompletionEvent e = new TaskCompletionEvent(eventId, replicas[i], true,
+						Status.SUCCEEDED, replicaHttps[i], 0);
+				e.taskRunTime = taskRunTime;
+				agreeing.add(e);
+			}
+		}
+
+		if(agreeing.isEmpty())
+			return null;
+
+		TaskCompletionEvent event = voted(eventId, agreeing, new DigestWritable[] { digests[partition] }, partition);
+		event.cached = cached;
+		return event;
+	}
+
+	private static TaskCompletionEvent voted(int eventId, List<TaskCompletionEvent> agreeing,
+			DigestWritable[] digests, int partition) {
+		TaskCompletionEvent first = agreeing.get(0);
+		TaskCompletionEvent event = new TaskCompletionEvent(eventId, first.taskId, true,
+				Status.SUCCEEDED, first.taskTrackerHttp, digests, 0);
+		event.taskRunTime = first.taskRunTime;
+		event.partition = partition;
+		event.replicas = new TaskAttemptID[agreeing.size()];
+		event.replicaHttps = new String[agreeing.size()];
+		for(int i=0; i<agreeing.size(); i++) {
+			event.replicas[i] = agreeing.get(i).taskId;
+			event.replicaHttps[i] = agreeing.get(i).taskTrackerHttp;
+		}
+
+		return event;
+	}
+
 	//////////////////////////////////////////////
 	// Writable
 	//////////////////////////////////////////////
@@ -278,12 +440,23 @@ implements Writable {
 		WritableUtils.writeVInt(out, taskRunTime);
 		WritableUtils.writeVInt(out, eventId);
 
-		if(digests != null) {
-			WritableUtils.writeVInt(out, 1);
-			WritableUtils.writeStringArray(out, digests);
-		} 
-		else 
-			WritableUtils.writeVInt(out, 0);
+		DigestWritable.writeArray(out, digests);
+
+		out.writeBoolean(replicas != null);
+		if(replicas != null) {
+			WritableUtils.writeVInt(out, replicas.length);
+			for(int i=0; i<replicas.length; i++) {
+				replicas[i].write(out);
+				WritableUtils.writeString(out, replicaHttps[i]);
+			}
+
+			WritableUtils.writeVInt(out, partition + 1);
+			if(partition == -1) {
+				for(int bits : agreement)
+					WritableUtils.writeVInt(out, bits);
+			}
+			out.writeBoolean(cached);
+		}
 	}
 
 	public void readFields(DataInput in) throws IOException {
@@ -307,8 +480,30 @@ implements Writable {
 		this.taskRunTime = WritableUtils.readVInt(in);
 		this.eventId = WritableUtils.readVInt(in);
 
-		int n = WritableUtils.readVInt(in);
-		if(n == 1)
-			this.digests = WritableUtils.readStringArray(in);
+		this.digests = DigestWritable.readArray(in);
+
+		this.replicas = null;
+		this.replicaHttps = null;
+		this.agreement = null;
+		this.partition = -1;
+		this.cached = false;
+		if(in.readBoolean()) {
+			int n = WritableUtils.readVInt(in);
+			this.replicas = new TaskAttemptID[n];
+			this.replicaHttps = new String[n];
+			for(int i=0; i<n; i++) {
+				replicas[i] = new TaskAttemptID();
+				replicas[i].readFields(in);
+				replicaHttps[i] = WritableUtils.readString(in);
+			}
+
+			this.partition = WritableUtils.readVInt(in) - 1;
+			if(partition == -1) {
+				this.agreement = new int[digests.length];
+				for(int p=0; p<agreement.length; p++)
+					agreement[p] = WritableUtils.readVInt(in);
+			}
+			this.cached = in.readBoolean();
+		}
 	}
 }
@@ -1,41 +1,64 @@
 package org.apache.hadoop.mapred;
 
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
- * Count number of tasks launched 
+ * Count number of tasks launched
  *
  */
 public class TaskCounter {
 	int partition;
-	int[] taskcounter;
+	AtomicIntegerArray taskcounter;
 
 	public TaskCounter(int tasks, int replicas) {
 		this.partition = tasks/replicas;
-		this.taskcounter = new int[partition];
+		this.taskcounter = new AtomicIntegerArray(partition);
 	}
 
-	public synchronized void addtask(int id) {
-		taskcounter[id]+=1;
+	public void addtask(int id) {
+		taskcounter.incrementAndGet(id);
+	}
+
+	/**
+	 * Count one more replica of the task if less than <code>limit</code>
+	 * were counted, as one step
+	 * @param id the task
+	 * @param limit the replicas that may be counted
+	 * @return true if the replica was counted
+	 */
+	public boolean tryAddtask(int id, int limit) {
+		while(true) {
+			int count = taskcounter.get(id);
+			if(count >= limit)
+				return false;
+
+			if(taskcounter.compareAndSet(id, count, count + 1))
+				return true;
+		}
 	}
 
 	public void removetask(int id) {
-		taskcounter[id]-=1;
+		taskcounter.decrementAndGet(id);
 	}
-	
+
 	public int getCount(int id) {
-		return taskcounter[id];
+		return taskcounter.get(id);
 	}
-	
+
 	public boolean hasAnyLowerLimit(int limit) {
-		for(int i=0; i<taskcounter.length; i++) {
-			if(taskcounter[i] < limit)
+		for(int i=0; i<taskcounter.length(); i++) {
+			if(taskcounter.get(i) < limit)
 				return true;
 		}
-		
+
 		return false;
 	}
-	
+
 	public int[] getTaskCounter() {
-	    return taskcounter;
+		int[] counter = new int[taskcounter.length()];
+		for(int i=0; i<counter.length; i++)
+			counter[i] = taskcounter.get(i);
+
+		return counter;
 	}
 }
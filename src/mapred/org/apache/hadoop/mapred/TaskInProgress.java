@@ -87,6 +87,10 @@ class TaskInProgress {
     private volatile boolean skipping = false;
     private boolean jobCleanup = false; 
     private boolean jobSetup = false;
+    // reduce replica that only digests its output
+    private boolean digestOnly = false;
+    // where a map replica copies its output for the map result cache
+    private String resultCache = null;
 
     // The 'next' usable taskid of this tip
     int nextTaskId = 0;
@@ -243,6 +247,26 @@ class TaskInProgress {
         jobSetup = true;
     }
 
+    public boolean isDigestOnly() {
+        return digestOnly;
+    }
+
+    /**
+     * Run the attempts of this reduce replica without writing their output,
+     * only sending its digest to the vote.
+     */
+    public void setDigestOnly(boolean digestOnly) {
+        this.digestOnly = digestOnly;
+    }
+
+    /**
+     * Have the attempts of this map replica copy their output to a
+     * directory of the map result cache, or not with null.
+     */
+    public void setResultCache(String resultCache) {
+        this.resultCache = resultCache;
+    }
+
     public boolean isOnlyCommitPending() {
         for (TaskStatus t : taskStatuses.values()) {
             if (t.getRunState() == TaskStatus.State.COMMIT_PENDING) {
@@ -1063,9 +1087,11 @@ class TaskInProgress {
 
             // create an attempt map task
             t = new MapTask(jobFile, taskid, partition, splitClass, split, rawSplit.getFileName(), rawSplit.getLocations());
+            ((MapTask) t).setResultCache(resultCache);
             LOG.debug(t.getTaskID().toString() + " - Raw split: " + rawSplit.getFileName() + " - " + Arrays.deepToString(rawSplit.getLocations()));
         } else { // Create an attempt reduce task
             t  = new ReduceTask(jobFile, taskid, getIdWithinJob(), numMaps, conf.getFaultTolerance());
+            ((ReduceTask) t).setDigestOnly(digestOnly);
         }
 
         if (jobCleanup)
@@ -55,7 +55,11 @@ abstract class TaskStatus implements Writable, Cloneable {
 		private String stateString;
 		private String taskTracker;
 		private boolean containsHash = false;
-		private String[] digests;
+		private DigestWritable[] digests;
+		// progress digests of a reduce since the last update, and the
+		// position of the first one
+		private int progressDigestIndex = 0;
+		private DigestWritable[] progressDigests = null;
 
 		private long startTime;
 		private long finishTime;
@@ -302,6 +306,7 @@ abstract class TaskStatus implements Writable, Cloneable {
 			this.phase       = status.getPhase();
 			this.counters    = status.getCounters();
 			this.outputSize  = status.outputSize;
+			addProgressDigests(status.getProgressDigestIndex(), status.getProgressDigests());
 		}
 
 		/**
@@ -331,17 +336,51 @@ abstract class TaskStatus implements Writable, Cloneable {
 			}
 		}
 
-		public String[] getDigests() {
+		public DigestWritable[] getDigests() {
 			return digests;
 		}
 
-		public void setDigests(String[] digests) {
+		/**
+		 * Set the digests of a finished task. They are not written with the
+		 * status, but once in the digest section of the heartbeat of the
+		 * {@link TaskTrackerStatus}.
+		 * @param digests the digests, ignored if empty
+		 */
+		public void setDigests(DigestWritable[] digests) {
 			if(digests != null && digests.length > 0) {
 				containsHash = true;
 				this.digests = digests;
 			}
 		}
 
+		public int getProgressDigestIndex() {
+			return progressDigestIndex;
+		}
+
+		public DigestWritable[] getProgressDigests() {
+			return progressDigests;
+		}
+
+		/**
+		 * Add progress digests after the ones not sent yet
+		 * @param index the position of the first digest
+		 * @param digests the progress digests, in order
+		 */
+		synchronized void addProgressDigests(int index, DigestWritable[] digests) {
+			if(digests == null || digests.length == 0)
+				return;
+
+			if(progressDigests == null || progressDigestIndex + progressDigests.length != index) {
+				progressDigestIndex = index;
+				progressDigests = digests;
+			} else {
+				DigestWritable[] all = new DigestWritable[progressDigests.length + digests.length];
+				System.arraycopy(progressDigests, 0, all, 0, progressDigests.length);
+				System.arraycopy(digests, 0, all, progressDigests.length, digests.length);
+				progressDigests = all;
+			}
+		}
+
 		/**
 		 * Clear out transient information after sending out a status-update
 		 * from either the {@link Task} to the {@link TaskTracker} or from the
@@ -350,6 +389,8 @@ abstract class TaskStatus implements Writable, Cloneable {
 		synchronized void clearStatus() {
 			// Clear diagnosticInfo
 			diagnosticInfo = "";
+			// progress digests are only sent once
+			progressDigests = null;
 		}
 
 		@Override
@@ -380,10 +421,8 @@ abstract class TaskStatus implements Writable, Cloneable {
 				if (includeCounters)
 					counters.write(out);				
 				nextRecordRange.write(out);
-				out.writeBoolean(containsHash);
-				if(containsHash) {
-					WritableUtils.writeStringArray(out, digests);
-				}
+				WritableUtils.writeVInt(out, progressDigestIndex);
+				DigestWritable.writeArray(out, progressDigests);
 
 			} catch(Exception e) {
 				e.printStackTrace();
@@ -407,9 +446,8 @@ abstract class TaskStatus implements Writable, Cloneable {
 				if (includeCounters)
 					counters.readFields(in);				
 				nextRecordRange.readFields(in);
-				containsHash = in.readBoolean();
-				if(containsHash)
-					this.digests = WritableUtils.readStringArray(in);
+				this.progressDigestIndex = WritableUtils.readVInt(in);
+				this.progressDigests = DigestWritable.readArray(in);
 
 			} catch(Exception e) {
 				e.printStackTrace();
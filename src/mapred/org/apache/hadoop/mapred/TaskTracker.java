@@ -138,7 +138,7 @@ public class TaskTracker
 	// Collects all digests and then report to JT when a task end.
 	// For map task, it's and task ID for a set of digests.
 	// For reduce tasks only generate 1 digest
-	private Map<TaskID, String[]> digestCollection = new HashMap<TaskID, String[]>();
+	private Map<TaskID, DigestWritable[]> digestCollection = new HashMap<TaskID, DigestWritable[]>();
 
     private List<TaskAttemptID> tentativeExecutionTasks = Collections.synchronizedList(new ArrayList<TaskAttemptID>());
 
@@ -555,7 +555,9 @@ public class TaskTracker
                             if (task.getPhase() == TaskStatus.Phase.SHUFFLE) {
                                 if (rjob.getFetchStatus() == null) {
                                     //this is a new job; we start fetching its map events
-                                    f = new FetchStatus(jobId, ((ReduceTask)task).getNumMaps());
+                                    f = new FetchStatus(jobId, ((ReduceTask)task).getNumMaps(),
+                                            rjob.jobConf != null && rjob.jobConf.getDeferredExecution()
+                                            && rjob.jobConf.getVotedMapEvents());
                                     rjob.setFetchStatus(f);
                                 }
 
@@ -642,10 +644,13 @@ public class TaskTracker
         private JobID jobId;
         private long lastFetchTime;
         private boolean fetchAgain;
+        /** Are the events the ones of the voted maps */
+        private final boolean voted;
 
-        public FetchStatus(JobID jobId, int numMaps) {
+        public FetchStatus(JobID jobId, int numMaps, boolean voted) {
             this.fromEventId = new IntWritable(0);
             this.jobId = jobId;
+            this.voted = voted;
             this.allCompletedMapEvents = new ArrayList<TaskCompletionEvent>(numMaps);
         }
 
@@ -662,7 +667,15 @@ public class TaskTracker
             }
         }
 
-        private TaskCompletionEvent[] getMapEvents(int fromId, int max) {
+        /**
+         * Get the map events for a reduce. The events of the voted maps only
+         * keep the replicas that agree on the partition of the reduce, and
+         * the digest they agree on.
+         * @param fromId the first event
+         * @param max the maximum number of events
+         * @param partition the partition of the reduce
+         */
+        private TaskCompletionEvent[] getMapEvents(int fromId, int max, int partition) {
             TaskCompletionEvent[] mapEvents = TaskCompletionEvent.EMPTY_ARRAY;
             boolean notifyFetcher = false;
 
@@ -672,6 +685,22 @@ public class TaskTracker
                     List <TaskCompletionEvent> eventSublist = allCompletedMapEvents.subList(fromId, actualMax + fromId);
 
                     mapEvents = eventSublist.toArray(mapEvents);
+                    if (voted) {
+                        // keep the event ids in step with the reduce, that
+                        // counts the events it gets; a voted map none of
+                        // whose replicas agree on the partition is skipped
+                        // as an obsolete event of its first replica
+                        for (int i = 0; i < mapEvents.length; i++) {
+                            TaskCompletionEvent event = mapEvents[i].forPartition(partition);
+                            if (event == null) {
+                                event = new TaskCompletionEvent(mapEvents[i].getEventId(),
+                                        mapEvents[i].getTaskAttemptId(), true,
+                                        TaskCompletionEvent.Status.OBSOLETE,
+                                        mapEvents[i].getTaskTrackerHttp(), 0);
+                            }
+                            mapEvents[i] = event;
+                        }
+                    }
                 } else {
                     // Notify Fetcher thread. 
                     notifyFetcher = true;
@@ -702,7 +731,7 @@ public class TaskTracker
             int currFromEventId = 0;
             synchronized (fromEventId) {
                 currFromEventId = fromEventId.get();
-                List <TaskCompletionEvent> recentMapEvents = queryJobTracker(fromEventId, jobId, jobClient);
+                List <TaskCompletionEvent> recentMapEvents = queryJobTracker(fromEventId, jobId, jobClient, voted);
 
                 synchronized (allCompletedMapEvents) {
                     allCompletedMapEvents.addAll(recentMapEvents);
@@ -986,14 +1015,18 @@ public class TaskTracker
      * @param fromEventId the first event ID we want to start from, this is
      * modified by the call to this method
      * @param jobClient the job tracker
+     * @param voted query the events of the voted maps
      * @return a set of locations to copy outputs from
      * @throws IOException
      */
-    private List<TaskCompletionEvent> queryJobTracker(IntWritable fromEventId, JobID jobId, InterTrackerProtocol jobClient)
+    private List<TaskCompletionEvent> queryJobTracker(IntWritable fromEventId, JobID jobId, InterTrackerProtocol jobClient,
+                                                      boolean voted)
             throws IOException {
 
         LOG.debug("Requesting to JobID " + jobId.toString() + " from eventId " + fromEventId);
-        TaskCompletionEvent t[] = jobClient.getTaskCompletionEvents(jobId, fromEventId.get(), probe_sample_size);
+        TaskCompletionEvent t[] = voted
+                ? jobClient.getVotedMapEvents(jobId, fromEventId.get(), probe_sample_size)
+                : jobClient.getTaskCompletionEvents(jobId, fromEventId.get(), probe_sample_size);
 
         int count = 0;
         //we are interested in map task completion events only. So store only those
@@ -1306,6 +1339,10 @@ public class TaskTracker
 
                     try {
                         myInstrumentation.completeTask(taskStatus.getTaskID());
+                        if (taskStatus.getRunState() == TaskStatus.State.SUCCEEDED
+                                && taskStatus.getCounters() != null) {
+                            myInstrumentation.digestedTask(taskStatus.getTaskID(), taskStatus.getCounters());
+                        }
                     } catch (MetricsException me) {
                         LOG.warn("Caught: " + StringUtils.stringifyException(me));
                     }
@@ -2193,7 +2230,7 @@ public class TaskTracker
 				 this.taskStatus.setRunState(TaskStatus.State.SUCCEEDED);
 
 				 synchronized (digestCollection) {
-					 String[] digests = digestCollection.remove(getTaskID(this.taskStatus.getTaskID()));
+					 DigestWritable[] digests = digestCollection.remove(getTaskID(this.taskStatus.getTaskID()));
 
 					 if(digests != null && digests.length > 0) {
 						 LOG.debug("Set digests from " + this.taskStatus.getTaskID().toString());
@@ -2779,17 +2816,13 @@ public class TaskTracker
 	/**
 	 * Collects the digests
 	 */
-	public void sendDigest(TaskAttemptID taskid, String[] digest) 
+	public void sendDigest(TaskAttemptID taskid, DigestArrayWritable digest) 
 			throws IOException {
 		synchronized (digestCollection) {
 			if(LOG.isDebugEnabled()){
-				String[] digests = new String[digest.length];
-				for (int i = 0; i < digest.length; i++) {
-					digests[i] = ShaAbstractHash.convertHashToString(digest[i].getBytes());
-				}
-				LOG.debug("Collected task " + getTaskID(taskid) + ": " + Arrays.deepToString(digests));
+				LOG.debug("Collected task " + getTaskID(taskid) + ": " + Arrays.toString(digest.get()));
 			}
-			digestCollection.put(getTaskID(taskid), digest);
+			digestCollection.put(getTaskID(taskid), digest.get());
 		}
 	}
 
@@ -2868,8 +2901,9 @@ public class TaskTracker
             if (rjob != null) {
                 synchronized (rjob) {
                     FetchStatus f = rjob.getFetchStatus();
-                    if (f != null)
-                        mapEvents = f.getMapEvents(fromEventId, maxLocs);
+                    TaskInProgress tip = runningTasks.get(id);
+                    if (f != null && tip != null)
+                        mapEvents = f.getMapEvents(fromEventId, maxLocs, tip.getTask().getPartition());
                 }
             }
         }
@@ -3227,7 +3261,7 @@ public class TaskTracker
                  * the map-output for the given reducer is available. 
                  */
 
-                IndexRecord info = tracker.indexCache.getIndexInformation(mapId, partition, indexFileName);
+                SpillRecord.IndexRecord info = tracker.indexCache.getIndexInformation(mapId, partition, indexFileName);
 
                 //set the custom "from-map-task" http header to the map task from which
                 //the map output data is being transferred
@@ -48,6 +48,14 @@ class TaskTrackerInstrumentation  {
    * @param t
    */
   public void completeTask(TaskAttemptID t) { LOG.debug(t.getTaskID() + " reported completed."); }
+
+  /**
+   * invoked when task attempt t succeeds, with the counters of the time and
+   * bytes of its digests and of the map outputs it copied for nothing
+   * @param t
+   * @param counters the counters of the task attempt
+   */
+  public void digestedTask(TaskAttemptID t, Counters counters) { }
   
   public void timedoutTask(TaskAttemptID t) { LOG.debug(t.getTaskID() + " timeout task."); }
   
@@ -30,6 +30,9 @@ class TaskTrackerMetricsInst extends TaskTrackerInstrumentation
   private int numCompletedTasks = 0;
   private int timedoutTasks = 0;
   private int tasksFailedPing = 0;
+  private long digestMillis = 0;
+  private long digestedBytes = 0;
+  private long redundantShuffleBytes = 0;
     
   public TaskTrackerMetricsInst(TaskTracker t) {
     super(t);
@@ -49,6 +52,15 @@ class TaskTrackerMetricsInst extends TaskTrackerInstrumentation
     ++numCompletedTasks;
   }
 
+  @Override
+  public synchronized void digestedTask(TaskAttemptID t, Counters counters) {
+    digestMillis += counters.getCounter(Task.Counter.MAP_DIGEST_TIME)
+        + counters.getCounter(Task.Counter.SHUFFLE_DIGEST_TIME)
+        + counters.getCounter(Task.Counter.REDUCE_DIGEST_TIME);
+    digestedBytes += counters.getCounter(Task.Counter.DIGESTED_BYTES);
+    redundantShuffleBytes += counters.getCounter(Task.Counter.REDUNDANT_SHUFFLE_BYTES);
+  }
+
   @Override
   public synchronized void timedoutTask(TaskAttemptID t) {
     ++timedoutTasks;
@@ -74,10 +86,16 @@ class TaskTrackerMetricsInst extends TaskTrackerInstrumentation
       metricsRecord.incrMetric("tasks_completed", numCompletedTasks);
       metricsRecord.incrMetric("tasks_failed_timeout", timedoutTasks);
       metricsRecord.incrMetric("tasks_failed_ping", tasksFailedPing);
+      metricsRecord.incrMetric("digest_time", digestMillis);
+      metricsRecord.incrMetric("digested_bytes", digestedBytes);
+      metricsRecord.incrMetric("shuffle_bytes_discarded", redundantShuffleBytes);
       
       numCompletedTasks = 0;
       timedoutTasks = 0;
       tasksFailedPing = 0;
+      digestMillis = 0;
+      digestedBytes = 0;
+      redundantShuffleBytes = 0;
     }
       metricsRecord.update();
   }
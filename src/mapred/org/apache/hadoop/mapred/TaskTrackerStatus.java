@@ -21,6 +21,7 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
@@ -354,6 +355,72 @@ class TaskTrackerStatus implements Writable {
         for (TaskStatus taskStatus : taskReports) {
             TaskStatus.writeTaskStatus(out, taskStatus);
         }
+
+        writeDigests(out);
+    }
+
+    /**
+     * Write the digests of the tasks that finished since the last heartbeat.
+     * Each task is named by its position in the reports, and its digests
+     * by their common length and their bytes.
+     */
+    private void writeDigests(DataOutput out) throws IOException {
+        int count = 0;
+        for (TaskStatus taskStatus : taskReports) {
+            if (taskStatus.isContainsHash()) {
+                count++;
+            }
+        }
+
+        WritableUtils.writeVInt(out, count);
+        for (int i = 0; i < taskReports.size(); i++) {
+            if (!taskReports.get(i).isContainsHash()) {
+                continue;
+            }
+
+            DigestWritable[] digests = taskReports.get(i).getDigests();
+
+            WritableUtils.writeVInt(out, i);
+            WritableUtils.writeVInt(out, digests.length);
+            int length = digests[0].getLength();
+            for (DigestWritable d : digests) {
+                if (d.getLength() != length) {
+                    length = -1;
+                    break;
+                }
+            }
+
+            // -1 when the lengths differ, and each digest has its own
+            WritableUtils.writeVInt(out, length);
+            for (DigestWritable d : digests) {
+                if (length < 0) {
+                    d.write(out);
+                } else {
+                    out.write(d.get());
+                }
+            }
+        }
+    }
+
+    private void readDigests(DataInput in) throws IOException {
+        int count = WritableUtils.readVInt(in);
+        for (int t = 0; t < count; t++) {
+            TaskStatus taskStatus = taskReports.get(WritableUtils.readVInt(in));
+            DigestWritable[] digests = new DigestWritable[WritableUtils.readVInt(in)];
+            int length = WritableUtils.readVInt(in);
+            if (length < 0) {
+                for (int i = 0; i < digests.length; i++) {
+                    digests[i] = DigestWritable.read(in);
+                }
+            } else {
+                byte[] bytes = new byte[digests.length * length];
+                in.readFully(bytes);
+                for (int i = 0; i < digests.length; i++) {
+                    digests[i] = new DigestWritable(Arrays.copyOfRange(bytes, i * length, (i + 1) * length));
+                }
+            }
+            taskStatus.setDigests(digests);
+        }
     }
 
     public void readFields(DataInput in) throws IOException {
@@ -373,6 +440,8 @@ class TaskTrackerStatus implements Writable {
             TaskStatus ts = TaskStatus.readTaskStatus(in);
             taskReports.add(ts);
         }
+
+        readDigests(in);
     }
 
     public String printValues() {
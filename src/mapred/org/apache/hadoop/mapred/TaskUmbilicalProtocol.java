@@ -53,9 +53,17 @@ interface TaskUmbilicalProtocol extends VersionedProtocol {
      * Version 14 changed the getTask method signature for HADOOP-4232
      * Version 15 Adds FAILED_UNCLEAN and KILLED_UNCLEAN states for HADOOP-4759
      * Version 16 Added fatalError for child to communicate fatal errors to TT
+     * Version 17 sendDigest takes binary digests
+     * Version 18 TaskStatus carries the progress digests of reduces
+     * Version 19 TaskStatus no longer carries the digests of the task
+     * Version 20 TaskCompletionEvent lists the replicas of a voted map
+     * Version 21 TaskCompletionEvent tells the kept outputs of voted maps,
+     *            MapTask carries the directory where it keeps its output
+     * Version 22 TaskStatus and TaskCompletionEvent write their digests as
+     *            DigestWritables instead of UTF-8 strings
      * */
 
-    long versionID = 16L;
+    long versionID = 22L;
 
     /**
      * Called when a child task process starts, to get its task.
@@ -112,7 +120,7 @@ interface TaskUmbilicalProtocol extends VersionedProtocol {
      * @throws IOException
      * @throws Exception 
      */
-    void sendDigest(TaskAttemptID taskid, String[] hash) throws IOException;
+    void sendDigest(TaskAttemptID taskid, DigestArrayWritable hash) throws IOException;
 
     /** Report that the task is successfully completed.  Failure is assumed if
      * the task process exits without calling this.
@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Agreement history of the task trackers, from the votes on the digests of
+ * the replicas they ran, kept by the job tracker across jobs.
+ *
+ * A tracker whose last <code>agreements</code> voted replicas all agreed
+ * with the majority is trusted. A tracker that produced a minority digest
+ * is suspect until it agrees that many times in a row again.
+ */
+class TrackerTrust {
+
+    private final Map<String, Record> records = new HashMap<String, Record>();
+
+    private static class Record {
+        int agreements = 0;
+        int disagreements = 0;
+        // agreements since the last disagreement
+        int streak = 0;
+    }
+
+    private Record get(String tracker) {
+        Record r = records.get(tracker);
+        if(r == null) {
+            r = new Record();
+            records.put(tracker, r);
+        }
+
+        return r;
+    }
+
+    /**
+     * A replica that ran on the tracker agreed with the majority
+     */
+    synchronized void agreed(String tracker) {
+        Record r = get(tracker);
+        r.agreements++;
+        r.streak++;
+    }
+
+    /**
+     * A replica that ran on the tracker disagreed with the majority
+     */
+    synchronized void disagreed(String tracker) {
+        Record r = get(tracker);
+        r.disagreements++;
+        r.streak = 0;
+    }
+
+    /**
+     * @param tracker the tracker
+     * @param agreements the agreements in a row that make a tracker trusted
+     * @return true if the tracker is trusted
+     */
+    synchronized boolean isTrusted(String tracker, int agreements) {
+        Record r = records.get(tracker);
+
+        return agreements > 0 && r != null && r.streak >= agreements;
+    }
+
+    /**
+     * @param tracker the tracker
+     * @param agreements the agreements in a row that make a tracker trusted
+     * @return true if the tracker disagreed and isn't trusted again yet
+     */
+    synchronized boolean isSuspect(String tracker, int agreements) {
+        Record r = records.get(tracker);
+
+        return r != null && r.disagreements > 0 && r.streak < agreements;
+    }
+
+    synchronized int getAgreements(String tracker) {
+        Record r = records.get(tracker);
+
+        return r == null ? 0 : r.agreements;
+    }
+
+    synchronized int getDisagreements(String tracker) {
+        Record r = records.get(tracker);
+
+        return r == null ? 0 : r.disagreements;
+    }
+}
@@ -0,0 +1,261 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A Merkle tree digest, whose leaves are hashed in parallel.
+ *
+ * The bytes are cut in chunks of a fixed size, and each chunk is a leaf
+ * hashed as <code>H(0x00 || chunk)</code> by a pool of threads. The root is
+ * computed by hashing pairs of adjacent nodes as
+ * <code>H(0x01 || left || right)</code>, level by level, carrying an odd
+ * node up unchanged, until one node is left. The different prefixes of
+ * leaves and nodes keep a leaf from being taken for a node, so two inputs
+ * only have the same root if they have the same chunks, which keeps the
+ * root as sound as the underlying hash for voting. Empty input is one empty
+ * leaf.
+ *
+ * The leaf digests of the last root are kept, so that a copy of the bytes
+ * can be checked chunk by chunk, once the leaves are checked against the
+ * root with {@link #root(DigestProvider, List)}, and a partial copy
+ * resumed after its last good chunk.
+ */
+class TreeDigest extends MessageDigest {
+	static final byte LEAF = 0;
+	static final byte NODE = 1;
+
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+	private static final ExecutorService hashers = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "TreeDigest");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private final DigestProvider provider;
+	private final int chunkSize;
+	private final int digestLength;
+	// chunks being hashed, bounded to keep the memory used bounded
+	private final int maxPending;
+	private final LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+	private List<byte[]> leaves = new ArrayList<byte[]>();
+	private List<byte[]> lastLeaves = new ArrayList<byte[]>();
+	private byte[] chunk = null;
+	private int chunkLength = 0;
+
+	/**
+	 * @param provider the hash of the leaves and nodes
+	 * @param chunkSize the bytes of each leaf
+	 */
+	TreeDigest(DigestProvider provider, int chunkSize) {
+		super(provider.newInstance().getAlgorithm() + "-TREE");
+		this.provider = provider;
+		this.chunkSize = chunkSize;
+		this.digestLength = provider.newInstance().getDigestLength();
+		this.maxPending = 2 * THREADS;
+	}
+
+	int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * @return the leaf digests of the last root, in order
+	 */
+	List<byte[]> getLeafDigests() {
+		return lastLeaves;
+	}
+
+	@Override
+	protected void engineUpdate(byte input) {
+		engineUpdate(new byte[] { input }, 0, 1);
+	}
+
+	@Override
+	protected void engineUpdate(byte[] input, int offset, int len) {
+		while (len > 0) {
+			if (chunk == null) {
+				chunk = new byte[chunkSize];
+			}
+
+			int n = Math.min(len, chunkSize - chunkLength);
+			System.arraycopy(input, offset, chunk, chunkLength, n);
+			chunkLength += n;
+			offset += n;
+			len -= n;
+			if (chunkLength == chunkSize) {
+				submit();
+			}
+		}
+	}
+
+	@Override
+	protected byte[] engineDigest() {
+		if (chunkLength > 0 || (leaves.isEmpty() && pending.isEmpty())) {
+			submit();
+		}
+
+		while (!pending.isEmpty()) {
+			collect();
+		}
+
+		lastLeaves = leaves;
+		leaves = new ArrayList<byte[]>();
+		return root(provider, lastLeaves);
+	}
+
+	@Override
+	protected void engineReset() {
+		while (!pending.isEmpty()) {
+			collect();
+		}
+
+		leaves = new ArrayList<byte[]>();
+		chunk = null;
+		chunkLength = 0;
+	}
+
+	@Override
+	protected int engineGetDigestLength() {
+		return digestLength;
+	}
+
+	/**
+	 * Hash the current chunk in the background
+	 */
+	private void submit() {
+		if (pending.size() >= maxPending) {
+			collect();
+		}
+
+		final byte[] data = chunk == null ? new byte[0] : chunk;
+		final int length = chunkLength;
+		pending.add(hashers.submit(new Callable<byte[]>() {
+			public byte[] call() throws Exception {
+				return leaf(provider, data, 0, length);
+			}
+		}));
+
+		chunk = null;
+		chunkLength = 0;
+	}
+
+	/**
+	 * Wait for the oldest chunk being hashed
+	 */
+	private void collect() {
+		Future<byte[]> leaf = pending.removeFirst();
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					leaves.add(leaf.get());
+					return;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					throw new RuntimeException("Failed to hash a leaf of " + getAlgorithm(), e.getCause());
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * @return the leaf digest of a chunk
+	 */
+	static byte[] leaf(DigestProvider provider, byte[] b, int off, int len) {
+		MessageDigest md = provider.newInstance();
+		md.update(LEAF);
+		md.update(b, off, len);
+		return md.digest();
+	}
+
+	/**
+	 * @param leaves the leaf digests, in order
+	 * @return the root of the tree over the leaves
+	 */
+	static byte[] root(DigestProvider provider, List<byte[]> leaves) {
+		if (leaves.isEmpty()) {
+			return leaf(provider, new byte[0], 0, 0);
+		}
+
+		MessageDigest md = provider.newInstance();
+		List<byte[]> level = leaves;
+		while (level.size() > 1) {
+			List<byte[]> next = new ArrayList<byte[]>((level.size() + 1) / 2);
+			for (int i = 0; i < level.size(); i += 2) {
+				if (i + 1 < level.size()) {
+					md.update(NODE);
+					md.update(level.get(i));
+					md.update(level.get(i + 1));
+					next.add(md.digest());
+				} else {
+					next.add(level.get(i));
+				}
+			}
+			level = next;
+		}
+
+		return level.get(0);
+	}
+
+	/**
+	 * Count the chunks of a copy that match their leaves, which should have
+	 * been checked against the root first
+	 * @param leaves the leaf digests of the original
+	 * @param b the bytes copied so far
+	 * @param len the number of bytes copied so far
+	 * @return the number of leading chunks that match, so the copy can go
+	 *         on from <code>chunks * chunkSize</code>
+	 */
+	static int verifiedChunks(DigestProvider provider, int chunkSize, List<byte[]> leaves, byte[] b, int len) {
+		int chunks = 0;
+		for (int off = 0; off < len && chunks < leaves.size(); off += chunkSize) {
+			int n = Math.min(chunkSize, len - off);
+			// a partial last chunk can only be checked when it is the last leaf
+			if (n < chunkSize && chunks != leaves.size() - 1) {
+				break;
+			}
+
+			if (!Arrays.equals(leaf(provider, b, off, n), leaves.get(chunks))) {
+				break;
+			}
+			chunks++;
+		}
+
+		return chunks;
+	}
+}
@@ -34,7 +34,7 @@ public interface VotingSystem {
 	 * @param tid
 	 * @param values
 	 */
-	void addHash(TaskID tid, boolean map, String[] values);
+	void addHash(TaskID tid, boolean map, DigestWritable[] values);
 	
 	/**
 	 * Removes digest
@@ -47,7 +47,7 @@ public interface VotingSystem {
 	 * @param tid
 	 * @return
 	 */
-	String[] getHash(TaskID tid);
+	DigestWritable[] getHash(TaskID tid);
 	/**
 	 * Get the limit to consider a majority
 	 * @return (n/2)+1
@@ -62,6 +62,14 @@ public interface VotingSystem {
 	 * @return MAJORITY_VOTING, or NO_MAJORITY, or NOT_ENOUGH_ELEMENTS
 	 */
 	int hasMajorityOfDigests(TaskID tid);
+
+	/**
+	 * Get the digests a majority of the replicas agreed on
+	 * @param tid a replica of the task
+	 * @return the digest of each partition, or null if a partition has no
+	 *         majority
+	 */
+	DigestWritable[] getMajorityDigests(TaskID tid);
 	
 	/**
 	 * Get a task id of a reduce task that hasn't got a majority of equal digests
@@ -76,7 +84,7 @@ public interface VotingSystem {
 	 * @param digest
 	 * @return
 	 */
-	boolean allEqual(TaskID tid, String[] digest);
+	boolean allEqual(TaskID tid, DigestWritable[] digest);
 	
 	/**
 	 * Add task completion event
@@ -99,21 +107,21 @@ public interface VotingSystem {
 	 * @param digest2
 	 * @return
 	 */
-	boolean digestsEquals(String[] digest1, String[] digest2);
+	boolean digestsEquals(DigestWritable[] digest1, DigestWritable[] digest2);
 	
 	/**
 	 * Add the first tid who got the digests
 	 * @param tid
 	 * @param values
 	 */
-	void addFirstHash(TaskID tid, String[] values);
+	void addFirstHash(TaskID tid, DigestWritable[] values);
 	
 	/**
 	 * Return an array of digests related to the first event
 	 * @param tid
 	 * @return
 	 */
-	String[] getFirstHash(TaskID tid);
+	DigestWritable[] getFirstHash(TaskID tid);
 	/**
 	 * Is empty 
 	 * @param tid
@@ -134,4 +142,15 @@ public interface VotingSystem {
 	 * @return
 	 */
 	List<TaskID> getTask(TaskID tid);
-}
+	
+	/**
+	 * Number of digests held, to watch the memory used by the voting
+	 * @return
+	 */
+	long getStateSize();
+	
+	/**
+	 * Free all the voting state, once the job is done
+	 */
+	void clear();
+}
\ No newline at end of file
@@ -0,0 +1,286 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred.tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapred.DigestManifest;
+import org.apache.hadoop.mapred.DigestWritable;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Access to the {@link DigestManifest} of a job's output.
+ *
+ * It lists the digests of the reduce replicas and how their votes went,
+ * and checks the output files against them. The digests are taken over the
+ * text form of the records, so only the outputs of text output formats can
+ * be checked.
+ */
+public class DigestShell extends Configured implements Tool {
+
+  // part-r-00000_1, part-00000_1 or name-r-00000_1.ext
+  private static final Pattern OUTPUT_NAME = Pattern.compile("-(?:r-)?(\\d+)_(\\d+)(?:\\.|$)");
+
+  public DigestShell() {
+    super();
+  }
+
+  public DigestShell(Configuration conf) {
+    super(conf);
+  }
+
+  private static void printHelp(String cmd) {
+    String summary = "hadoop digests is the command to read the digest manifest of a job's output.\n" +
+    "The full syntax is: \n\n" +
+    "hadoop digests [-ls <output dir>] [-verify <output dir>] [-help [cmd]]\n";
+
+    String ls = "-ls <output dir>: \tList the digests of the reduce replicas of the job\n" +
+      "\t\tand the outcome of their votes.\n";
+
+    String verify = "-verify <output dir>: \tDigest the output files of the job and compare\n" +
+      "\t\tthem with the manifest. Only text outputs can be verified.\n";
+
+    String help = "-help [cmd]: \tDisplays help for the given command or all commands if none\n" +
+      "\t\tis specified.\n";
+
+    if ("ls".equals(cmd)) {
+      System.out.println(ls);
+    } else if ("verify".equals(cmd)) {
+      System.out.println(verify);
+    } else if ("help".equals(cmd)) {
+      System.out.println(help);
+    } else {
+      System.out.println(summary);
+      System.out.println(ls);
+      System.out.println(verify);
+      System.out.println(help);
+      System.out.println();
+      ToolRunner.printGenericCommandUsage(System.out);
+    }
+  }
+
+  /**
+   * Displays format of commands.
+   * @param cmd The command that is being executed.
+   */
+  private static void printUsage(String cmd) {
+    if ("-ls".equals(cmd)) {
+      System.err.println("Usage: java DigestShell [-ls <output dir>]");
+    } else if ("-verify".equals(cmd)) {
+      System.err.println("Usage: java DigestShell [-verify <output dir>]");
+    } else {
+      System.err.println("Usage: java DigestShell");
+      System.err.println("           [-ls <output dir>]");
+      System.err.println("           [-verify <output dir>]");
+      System.err.println("           [-help [cmd]]");
+      System.err.println();
+      ToolRunner.printGenericCommandUsage(System.err);
+    }
+  }
+
+  private DigestManifest.Reader open(Path output) throws IOException {
+    Path manifest = DigestManifest.getPath(output);
+    return new DigestManifest.Reader(manifest.getFileSystem(getConf()), manifest);
+  }
+
+  private int list(Path output) throws IOException {
+    DigestManifest.Reader reader = open(output);
+    try {
+      System.out.println("Digests of " + reader.getProviderClass()
+                         + (reader.getTreeChunkSize() > 0
+                            ? " (tree of " + reader.getTreeChunkSize() + " bytes)" : ""));
+      for (DigestManifest.Entry e : reader.getEntries()) {
+        System.out.println(e);
+      }
+    } finally {
+      reader.close();
+    }
+    return 0;
+  }
+
+  /**
+   * @param name the name of an output file
+   * @return the partition and replica, or null if the file isn't a
+   *         reduce output
+   */
+  static int[] parseOutputName(String name) {
+    Matcher m = OUTPUT_NAME.matcher(name);
+    if (!m.find()) {
+      return null;
+    }
+    return new int[] { Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)) };
+  }
+
+  private byte[] digest(FileSystem fs, Path file, MessageDigest md,
+                        CompressionCodecFactory codecs) throws IOException {
+    InputStream in = fs.open(file);
+    CompressionCodec codec = codecs.getCodec(file);
+    if (codec != null) {
+      in = codec.createInputStream(in);
+    }
+    try {
+      byte[] buf = new byte[64 * 1024];
+      int n = in.read(buf, 0, buf.length);
+      while (n > 0) {
+        md.update(buf, 0, n);
+        n = in.read(buf, 0, buf.length);
+      }
+    } finally {
+      in.close();
+    }
+    return md.digest();
+  }
+
+  private int verify(Path output) throws IOException {
+    Configuration conf = getConf();
+    FileSystem fs = output.getFileSystem(conf);
+    CompressionCodecFactory codecs = new CompressionCodecFactory(conf);
+    int mismatches = 0;
+    TreeSet<Integer> partitions = new TreeSet<Integer>();
+    TreeSet<Integer> verified = new TreeSet<Integer>();
+
+    DigestManifest.Reader reader = open(output);
+    try {
+      for (DigestManifest.Entry e : reader.getEntries()) {
+        partitions.add(e.getPartition());
+      }
+
+      FileStatus[] files = fs.listStatus(output);
+      List<FileStatus> outputs = new ArrayList<FileStatus>();
+      for (FileStatus file : files) {
+        String name = file.getPath().getName();
+        if (!file.isDir() && !name.startsWith("_") && !name.startsWith(".")) {
+          outputs.add(file);
+        }
+      }
+
+      for (FileStatus file : outputs) {
+        Path path = file.getPath();
+        int[] id = parseOutputName(path.getName());
+        if (id == null) {
+          System.out.println("SKIPPED\t" + path.getName());
+          continue;
+        }
+
+        DigestManifest.Entry entry = null;
+        for (DigestManifest.Entry e : reader.getEntries(id[0])) {
+          if (e.getReplica() == id[1]) {
+            entry = e;
+          }
+        }
+        if (entry == null) {
+          System.out.println("NO ENTRY\t" + path.getName());
+          mismatches++;
+          continue;
+        }
+
+        DigestWritable digest =
+          new DigestWritable(digest(fs, path, reader.newDigest(conf), codecs));
+        if (digest.equals(entry.getDigest())) {
+          System.out.println("OK\t" + path.getName() + "\t" + entry.getOutcome());
+          verified.add(id[0]);
+        } else {
+          System.out.println("MISMATCH\t" + path.getName() + "\t" + digest
+                             + " instead of " + entry.getDigest());
+          mismatches++;
+        }
+      }
+    } finally {
+      reader.close();
+    }
+
+    partitions.removeAll(verified);
+    for (int partition : partitions) {
+      System.out.println("NO OUTPUT\tpartition " + partition);
+    }
+    System.out.println("Verified " + verified.size() + " partitions, "
+                       + mismatches + " mismatches");
+    return mismatches == 0 ? 0 : 1;
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    if (args.length < 1) {
+      printUsage("");
+      return -1;
+    }
+
+    int exitCode = -1;
+    int i = 0;
+    String cmd = args[i++];
+
+    //
+    // verify that we have enough command line parameters
+    //
+    if ("-ls".equals(cmd) || "-verify".equals(cmd)) {
+      if (args.length != 2) {
+        printUsage(cmd);
+        return exitCode;
+      }
+    }
+
+    exitCode = 0;
+    try {
+      if ("-ls".equals(cmd)) {
+        exitCode = list(new Path(args[i]));
+      } else if ("-verify".equals(cmd)) {
+        exitCode = verify(new Path(args[i]));
+      } else if ("-help".equals(cmd)) {
+        if (i < args.length) {
+          printHelp(args[i]);
+        } else {
+          printHelp("");
+        }
+      } else {
+        exitCode = -1;
+        System.err.println(cmd.substring(1) + ": Unknown command");
+        printUsage("");
+      }
+    } catch (IllegalArgumentException arge) {
+      exitCode = -1;
+      System.err.println(cmd.substring(1) + ": " + arge.getLocalizedMessage());
+      printUsage(cmd);
+    } catch (Exception e) {
+      exitCode = -1;
+      System.err.println(cmd.substring(1) + ": "
+                         + e.getLocalizedMessage());
+    }
+    return exitCode;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int result = ToolRunner.run(new DigestShell(), args);
+    System.exit(result);
+  }
+
+}
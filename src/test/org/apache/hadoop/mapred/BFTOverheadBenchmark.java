@@ -0,0 +1,312 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.lib.IdentityMapper;
+import org.apache.hadoop.mapred.lib.IdentityReducer;
+import org.apache.hadoop.mapred.lib.LongSumReducer;
+import org.apache.hadoop.mapred.lib.TokenCountMapper;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Runs a fixed mix of jobs on a {@link MiniMRCluster} over a
+ * {@link MiniDFSCluster} for each number of faults tolerated, in deferred
+ * and tentative execution, with a share of the map and reduce replicas
+ * sending tampered digests through {@link BFTInjector}. It reports the
+ * latency, the slot time, the shuffled bytes and the HDFS bytes written of
+ * every job, and their ratio to the same job with one replica and no
+ * tampering.
+ *
+ * The jobs are a sort of the input lines, a word count, and an aggregate
+ * of the word lengths into a few keys, that its combiner collapses.
+ * Tampering is set on the job tracker, so each tampering share gets a map
+ * reduce cluster of its own.
+ */
+public class BFTOverheadBenchmark extends Configured implements Tool {
+  static final String[] WORKLOADS = { "sort", "wordcount", "aggregate" };
+  static final String[] MODES = { "deferred", "tentative" };
+  private static final Path ROOT = new Path("/bftbench");
+  private static final Path INPUT = new Path(ROOT, "input");
+  private static final int WORDS = 1000;
+
+  private int trackers = 4;
+  private int maps = 4;
+  private int reduces = 2;
+  private int bytesPerMap = 1024 * 1024;
+  private int maxFaults = 3;
+  private int[] tampering = { 0, 10, 30 };
+  private String[] workloads = WORKLOADS;
+  private String[] modes = MODES;
+
+  private static void usage() {
+    System.err.println("BFTOverheadBenchmark [-trackers <n>] [-maps <n>] " +
+                       "[-reduces <n>] [-bytesPerMap <bytes>] " +
+                       "[-faults <max f>] [-tamper <percent,...>] " +
+                       "[-workloads sort,wordcount,aggregate] " +
+                       "[-modes deferred,tentative]");
+    ToolRunner.printGenericCommandUsage(System.err);
+    System.exit(1);
+  }
+
+  /** What a job cost */
+  static class Result {
+    boolean succeeded;
+    long millis;
+    long slotMillis;
+    long shuffleBytes;
+    long hdfsBytesWritten;
+
+    private static String ratio(long value, long plain) {
+      return plain == 0 ? "-" : String.format("%.2f", (double) value / plain);
+    }
+
+    void print(PrintStream out, String name, Result plain) {
+      out.println(String.format("%-36s %-9s %8d ms %9d slot-ms %10d shuffle %10d hdfs" +
+                                "   x%s x%s x%s x%s", name,
+                                succeeded ? "succeeded" : "failed",
+                                millis, slotMillis, shuffleBytes, hdfsBytesWritten,
+                                ratio(millis, plain.millis),
+                                ratio(slotMillis, plain.slotMillis),
+                                ratio(shuffleBytes, plain.shuffleBytes),
+                                ratio(hdfsBytesWritten, plain.hdfsBytesWritten)));
+    }
+  }
+
+  /** Sums the lengths of the words into a few keys */
+  public static class LengthMapper extends MapReduceBase
+      implements Mapper<LongWritable, Text, Text, LongWritable> {
+    private final Text bucket = new Text();
+    private final LongWritable length = new LongWritable();
+
+    public void map(LongWritable key, Text value,
+                    OutputCollector<Text, LongWritable> output,
+                    Reporter reporter) throws IOException {
+      for (String word : value.toString().split(" ")) {
+        bucket.set("b" + (word.hashCode() & 15));
+        length.set(word.length());
+        output.collect(bucket, length);
+      }
+    }
+  }
+
+  /** Writes a file of random words for each map */
+  private void writeInput(FileSystem fs) throws IOException {
+    fs.delete(ROOT, true);
+    Random r = new Random(11);
+    for (int m = 0; m < maps; m++) {
+      FSDataOutputStream out = fs.create(new Path(INPUT, "part-" + m));
+      StringBuilder line = new StringBuilder();
+      for (long written = 0; written < bytesPerMap; ) {
+        line.setLength(0);
+        for (int w = 0; w < 10; w++) {
+          line.append(w == 0 ? "" : " ").append("w").append(r.nextInt(WORDS));
+        }
+        line.append('\n');
+        out.writeBytes(line.toString());
+        written += line.length();
+      }
+      out.close();
+    }
+  }
+
+  private void setWorkload(JobConf job, String workload) {
+    if ("sort".equals(workload)) {
+      job.setInputFormat(KeyValueTextInputFormat.class);
+      job.setMapperClass(IdentityMapper.class);
+      job.setReducerClass(IdentityReducer.class);
+      job.setOutputKeyClass(Text.class);
+      job.setOutputValueClass(Text.class);
+    } else {
+      job.setInputFormat(TextInputFormat.class);
+      job.setMapperClass("wordcount".equals(workload)
+                         ? TokenCountMapper.class : LengthMapper.class);
+      job.setCombinerClass(LongSumReducer.class);
+      job.setReducerClass(LongSumReducer.class);
+      job.setOutputKeyClass(Text.class);
+      job.setOutputValueClass(LongWritable.class);
+    }
+  }
+
+  private static long slotMillis(TaskReport[] reports) {
+    long millis = 0;
+    for (TaskReport report : reports) {
+      if (report.getFinishTime() > report.getStartTime()) {
+        millis += report.getFinishTime() - report.getStartTime();
+      }
+    }
+    return millis;
+  }
+
+  /**
+   * Run a job of the workload
+   * @param mr the cluster
+   * @param fs the file system of the input
+   * @param workload the workload
+   * @param deferred run the replicas deferred or tentatively
+   * @param faults the faults tolerated, for 2f+1 replicas
+   * @return what the job cost
+   */
+  Result run(MiniMRCluster mr, FileSystem fs, String workload,
+             boolean deferred, int faults) throws IOException {
+    JobConf job = mr.createJobConf();
+    job.setJobName("bftbench-" + workload);
+    setWorkload(job, workload);
+    job.setInt("tasktracker.tasks.fault.tolerance", faults);
+    job.setDeferredExecution(deferred);
+    job.setNumMapTasks(maps);
+    job.setNumReduceTasks(reduces);
+    Path output = new Path(ROOT, "output");
+    fs.delete(output, true);
+    FileInputFormat.setInputPaths(job, INPUT);
+    FileOutputFormat.setOutputPath(job, output);
+
+    JobClient client = new JobClient(job);
+    long start = System.currentTimeMillis();
+    RunningJob running = client.submitJob(job);
+    running.waitForCompletion();
+
+    Result result = new Result();
+    result.millis = System.currentTimeMillis() - start;
+    result.succeeded = running.isSuccessful();
+    result.slotMillis = slotMillis(client.getMapTaskReports(running.getID()))
+                        + slotMillis(client.getReduceTaskReports(running.getID()));
+    Counters counters = running.getCounters();
+    if (counters != null) {
+      result.shuffleBytes =
+        counters.findCounter(Task.Counter.REDUCE_SHUFFLE_BYTES).getCounter();
+      result.hdfsBytesWritten = counters.findCounter(Task.FILESYSTEM_COUNTER_GROUP,
+          Task.getFileSystemCounterNames("hdfs")[1]).getCounter();
+    }
+    fs.delete(output, true);
+    return result;
+  }
+
+  /**
+   * Run the sweep
+   * @param out where the results are printed
+   * @return the results by the name of the run
+   */
+  Map<String, Result> sweep(PrintStream out) throws IOException {
+    Map<String, Result> results = new LinkedHashMap<String, Result>();
+    MiniDFSCluster dfs = null;
+    try {
+      dfs = new MiniDFSCluster(getConf(), trackers, true, null);
+      FileSystem fs = dfs.getFileSystem();
+      writeInput(fs);
+
+      for (int tamper : tampering) {
+        JobConf conf = new JobConf(getConf());
+        conf.setBoolean("mapred.map.tasks.tampering.digests.execution", tamper > 0);
+        conf.setBoolean("mapred.reduce.tasks.tampering.digests.execution", tamper > 0);
+        conf.setFloat("mapred.tasks.tampering.percent", tamper / 100f);
+        MiniMRCluster mr = null;
+        try {
+          mr = new MiniMRCluster(0, 0, trackers, fs.getUri().toString(), 1,
+                                 null, null, null, conf);
+          for (String workload : workloads) {
+            for (String mode : modes) {
+              for (int f = 0; f <= maxFaults; f++) {
+                String name = workload + " " + mode + " f=" + f + " tamper=" + tamper + "%";
+                Result result = run(mr, fs, workload, MODES[0].equals(mode), f);
+                Result plain = results.get(workload + " " + mode + " f=0 tamper=0%");
+                result.print(out, name, plain == null ? result : plain);
+                results.put(name, result);
+              }
+            }
+          }
+        } finally {
+          if (mr != null) { mr.shutdown(); }
+        }
+      }
+    } finally {
+      if (dfs != null) { dfs.shutdown(); }
+    }
+    return results;
+  }
+
+  private static String[] split(String list) {
+    return list.split(",");
+  }
+
+  public int run(String[] args) throws Exception {
+    for (int i = 0; i < args.length; ++i) {
+      if ("-trackers".equals(args[i])) {
+        trackers = Integer.parseInt(args[++i]);
+      } else if ("-maps".equals(args[i])) {
+        maps = Integer.parseInt(args[++i]);
+      } else if ("-reduces".equals(args[i])) {
+        reduces = Integer.parseInt(args[++i]);
+      } else if ("-bytesPerMap".equals(args[i])) {
+        bytesPerMap = Integer.parseInt(args[++i]);
+      } else if ("-faults".equals(args[i])) {
+        maxFaults = Integer.parseInt(args[++i]);
+      } else if ("-tamper".equals(args[i])) {
+        String[] percents = split(args[++i]);
+        tampering = new int[percents.length];
+        for (int p = 0; p < percents.length; p++) {
+          tampering[p] = Integer.parseInt(percents[p]);
+        }
+      } else if ("-workloads".equals(args[i])) {
+        workloads = split(args[++i]);
+      } else if ("-modes".equals(args[i])) {
+        modes = split(args[++i]);
+        for (String mode : modes) {
+          if (!MODES[0].equals(mode) && !MODES[1].equals(mode)) {
+            usage();
+          }
+        }
+      } else {
+        usage();
+      }
+    }
+
+    // the runs without tampering come first, as the others are compared to them
+    if (tampering.length == 0 || tampering[0] != 0) {
+      int[] withPlain = new int[tampering.length + 1];
+      System.arraycopy(tampering, 0, withPlain, 1, tampering.length);
+      tampering = withPlain;
+    }
+
+    System.out.println("trackers=" + trackers + " maps=" + maps +
+                       " reduces=" + reduces + " bytesPerMap=" + bytesPerMap);
+    System.out.println("ratios of latency, slot time, shuffle bytes and " +
+                       "HDFS bytes written to f=0 without tampering");
+    sweep(System.out);
+    return 0;
+  }
+
+  public static void main(String argv[]) throws Exception {
+    int res = ToolRunner.run(new Configuration(), new BFTOverheadBenchmark(), argv);
+    System.exit(res);
+  }
+}
@@ -0,0 +1,143 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Reports the throughput of each {@link DigestProvider} on a map output
+ * segment, fed in the 64KB writes that the map output streams make, to
+ * choose the digest engine of a workload.
+ */
+public class DigestEngineBenchmark extends Configured implements Tool {
+
+  private String[] engines = { Sha1Hash.class.getName(),
+      Sha256Hash.class.getName(), Murmur3Hash.class.getName() };
+  private int megabytes = 64;
+  private int valueSize = 100;
+  private int iterations = 3;
+  private int pipelineBuffers = 0;
+  private int treeChunkSize = 0;
+  private CompressionCodec codec = null;
+
+  private static void usage() {
+    System.err.println("DigestEngineBenchmark [-engines <class,...>] " +
+                       "[-mb <segment size>] [-valueSize <bytes>] " +
+                       "[-iterations <n>] [-compress] " +
+                       "[-pipeline <buffers>] [-tree <leaf bytes>]");
+    ToolRunner.printGenericCommandUsage(System.err);
+    System.exit(1);
+  }
+
+  /** An IFile segment of text keys and random values */
+  private byte[] segment(JobConf conf) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    FSDataOutputStream out = new FSDataOutputStream(bytes, null);
+    IFile.Writer<Text, BytesWritable> writer =
+      new IFile.Writer<Text, BytesWritable>(conf, out,
+          Text.class, BytesWritable.class, codec, null);
+    Random random = new Random(1);
+    byte[] value = new byte[valueSize];
+    long raw = (long) megabytes << 20;
+    for (long i = 0; writer.getRawLength() < raw; i++) {
+      random.nextBytes(value);
+      writer.append(new Text("key" + i), new BytesWritable(value));
+    }
+    writer.close();
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private long digest(MessageDigest md, byte[] data) {
+    long start = System.nanoTime();
+    for (int off = 0; off < data.length; off += 64 * 1024) {
+      md.update(data, off, Math.min(64 * 1024, data.length - off));
+    }
+    md.digest();
+    return System.nanoTime() - start;
+  }
+
+  public int run(String[] args) throws Exception {
+    for (int i = 0; i < args.length; ++i) {
+      if ("-engines".equals(args[i])) {
+        engines = args[++i].split(",");
+      } else if ("-mb".equals(args[i])) {
+        megabytes = Integer.parseInt(args[++i]);
+      } else if ("-valueSize".equals(args[i])) {
+        valueSize = Integer.parseInt(args[++i]);
+      } else if ("-iterations".equals(args[i])) {
+        iterations = Integer.parseInt(args[++i]);
+      } else if ("-pipeline".equals(args[i])) {
+        pipelineBuffers = Integer.parseInt(args[++i]);
+      } else if ("-tree".equals(args[i])) {
+        treeChunkSize = Integer.parseInt(args[++i]);
+      } else if ("-compress".equals(args[i])) {
+        codec = ReflectionUtils.newInstance(DefaultCodec.class, getConf());
+      } else {
+        usage();
+      }
+    }
+
+    JobConf conf = new JobConf(getConf(), DigestEngineBenchmark.class);
+    byte[] data = segment(conf);
+    System.out.println("segment=" + (data.length >> 20) + " MB" +
+                       " valueSize=" + valueSize +
+                       " codec=" + (codec == null ? "none" : "default") +
+                       " pipeline=" + pipelineBuffers +
+                       " tree=" + treeChunkSize);
+
+    for (String engine : engines) {
+      Class<? extends DigestProvider> theClass =
+        conf.getClassByName(engine).asSubclass(DigestProvider.class);
+      DigestFactory factory = new DigestFactory(
+          ReflectionUtils.newInstance(theClass, conf),
+          pipelineBuffers, treeChunkSize);
+      MessageDigest md = factory.newInstance();
+
+      // warm up
+      digest(md, data);
+      long best = Long.MAX_VALUE;
+      for (int it = 0; it < iterations; it++) {
+        best = Math.min(best, digest(md, data));
+      }
+      double mbps = (data.length / (double) (1 << 20)) / (best / 1e9);
+      System.out.println(String.format("%-20s %8.1f MB/s", factory, mbps));
+    }
+    return 0;
+  }
+
+  public static void main(String argv[]) throws Exception {
+    int res = ToolRunner.run(new Configuration(),
+                             new DigestEngineBenchmark(), argv);
+    System.exit(res);
+  }
+}
@@ -0,0 +1,495 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Measures the digest and vote code on the map commit and heartbeat paths
+ * the way a JMH benchmark in sample time mode would: each benchmark runs
+ * warm-up iterations, then timed iterations of a fixed length, in forked
+ * JVMs. An iteration times small batches of operations, each from a reset
+ * state so that every batch sees the same state sizes, and the time of an
+ * operation in every batch of every fork goes in a histogram that gives
+ * the percentiles.
+ *
+ * The benchmarks and their parameters:
+ * <ul>
+ * <li><code>sha1.file</code>, <code>sha256.file</code>: the digest of a
+ * map output file, by segment size</li>
+ * <li><code>sha1.stream</code>, <code>sha256.stream</code>: the digest of a
+ * copied map output, by segment size</li>
+ * <li><code>hex</code>: the hexadecimal string of every partition digest of
+ * a map, by partition count</li>
+ * <li><code>majority</code>, <code>incremental</code>: adding the digests of
+ * the replicas of a map until {@link MajorityVoting} or
+ * {@link IncrementalVoting} decides, by partition and replica count</li>
+ * <li><code>mapcache</code>: adding the events of the replicas of a map to
+ * a {@link MapCache} and getting each back, by replica count</li>
+ * </ul>
+ */
+public class DigestVotingMicroBenchmark extends Configured implements Tool {
+  private static final JobID JOB = new JobID("200707121733", 1);
+  static final String[] BENCHMARKS = { "sha1.file", "sha1.stream",
+      "sha256.file", "sha256.stream", "hex", "majority", "incremental",
+      "mapcache" };
+
+  private String[] benchmarks = BENCHMARKS;
+  private int[] partitions = { 1, 16, 256 };
+  private int[] replicas = { 3, 5, 7 };
+  private int[] segments = { 64 * 1024, 1024 * 1024, 16 * 1024 * 1024 };
+  private int warmups = 5;
+  private int iterations = 10;
+  private int iterationMillis = 200;
+  private int batch = 16;
+  private int forks = 1;
+
+  private static void usage() {
+    System.err.println("DigestVotingMicroBenchmark [-benchmarks <name,...>] " +
+                       "[-partitions <n,...>] [-replicas <n,...>] " +
+                       "[-segments <bytes,...>] [-warmups <n>] " +
+                       "[-iterations <n>] [-millis <per iteration>] " +
+                       "[-batch <operations per sample>] " +
+                       "[-forks <n, 0 to run in this JVM>]");
+    ToolRunner.printGenericCommandUsage(System.err);
+    System.exit(1);
+  }
+
+  /** An operation of a benchmark, set up for its parameters */
+  static abstract class Op {
+    void setUp() throws IOException { }
+
+    /** Called before each batch, out of its time */
+    void reset() { }
+
+    /**
+     * Run the operation once
+     * @param i the number of the operation in the batch
+     */
+    abstract void run(int i) throws IOException;
+
+    void tearDown() throws IOException { }
+  }
+
+  private static DigestWritable[] digests(Random r, int partitions) {
+    DigestWritable[] digests = new DigestWritable[partitions];
+    for (int p = 0; p < partitions; p++) {
+      byte[] b = new byte[20];
+      r.nextBytes(b);
+      digests[p] = new DigestWritable(b);
+    }
+    return digests;
+  }
+
+  /**
+   * @param name the benchmark
+   * @param partitions the partitions of a map
+   * @param numReplicas the replicas of a task
+   * @param segment the bytes of a map output segment
+   * @return the operation of the benchmark
+   */
+  Op newOp(String name, final int partitions, final int numReplicas,
+           final int segment) {
+    final Random r = new Random(1);
+    if (name.startsWith("sha")) {
+      final ShaAbstractHash hash = name.startsWith("sha256")
+        ? new Sha256Hash() : new Sha1Hash();
+      final byte[] data = new byte[segment];
+      r.nextBytes(data);
+      if (name.endsWith(".stream")) {
+        return new Op() {
+          void run(int i) {
+            hash.generateHash(new ByteArrayInputStream(data), 0, segment);
+          }
+        };
+      }
+      return new Op() {
+        private FileSystem rfs;
+        private Path file;
+
+        void setUp() throws IOException {
+          rfs = FileSystem.getLocal(getConf()).getRaw();
+          file = new Path(System.getProperty("test.build.data", "/tmp"),
+                          "DigestVotingMicroBenchmark." + segment + ".out");
+          FSDataOutputStream out = rfs.create(file);
+          out.write(data);
+          out.close();
+        }
+
+        void run(int i) {
+          hash.generateHash(rfs, file, 0, segment);
+        }
+
+        void tearDown() throws IOException {
+          rfs.delete(file, false);
+        }
+      };
+    } else if ("hex".equals(name)) {
+      final DigestWritable[] digests = digests(r, partitions);
+      return new Op() {
+        void run(int i) {
+          for (DigestWritable digest : digests) {
+            ShaAbstractHash.convertHashToString(digest.get());
+          }
+        }
+      };
+    } else if ("majority".equals(name) || "incremental".equals(name)) {
+      final VotingSystem voting = "majority".equals(name)
+        ? new MajorityVoting(numReplicas, partitions)
+        : new IncrementalVoting(numReplicas, partitions);
+      final DigestWritable[] digests = digests(r, partitions);
+      return new Op() {
+        void reset() {
+          voting.clear();
+        }
+
+        void run(int i) throws IOException {
+          int maj = MajorityVoting.NOT_ENOUGH_ELEMENTS;
+          for (int replica = 0; maj != MajorityVoting.MAJORITY; replica++) {
+            if (replica == numReplicas) {
+              throw new IOException("No majority for map " + i);
+            }
+            TaskID tid = new TaskID(JOB, true, i, replica);
+            voting.addHash(tid, true, digests);
+            maj = voting.hasMajorityOfDigests(tid);
+          }
+        }
+      };
+    } else if ("mapcache".equals(name)) {
+      final TaskID[] tids = new TaskID[numReplicas];
+      final TaskCompletionEvent[] events = new TaskCompletionEvent[numReplicas];
+      for (int replica = 0; replica < numReplicas; replica++) {
+        tids[replica] = new TaskID(JOB, true, 0, replica);
+        events[replica] = new TaskCompletionEvent(replica,
+            new TaskAttemptID(tids[replica], 0), true,
+            TaskCompletionEvent.Status.SUCCEEDED, "http://localhost:50060",
+            digests(r, 1), numReplicas);
+      }
+      return new Op() {
+        private MapCache cache;
+
+        void reset() {
+          cache = new MapCache(MajorityVoting.getThreshold(numReplicas));
+        }
+
+        void run(int i) throws IOException {
+          String key = "task_" + i;
+          for (TaskCompletionEvent event : events) {
+            cache.add(key, event);
+          }
+          for (TaskID tid : tids) {
+            if (cache.getValue(key, tid) == null) {
+              throw new IOException("No event of " + tid);
+            }
+          }
+        }
+      };
+    }
+    throw new IllegalArgumentException("Unknown benchmark " + name);
+  }
+
+  /**
+   * The samples of the time of an operation, in buckets that double in
+   * width every {@link #SUB_BUCKETS} buckets, so that a bucket is within
+   * about 3% of its samples
+   */
+  static class Histogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // the values below 2 * SUB_BUCKETS have a bucket each
+    private static final int LINEAR = 2 * SUB_BUCKETS;
+    private static final int BUCKETS = LINEAR + (63 - SUB_BITS - 1) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long total = 0;
+    private long max = 0;
+
+    static int bucket(long value) {
+      if (value < LINEAR) {
+        return (int) Math.max(0, value);
+      }
+      int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+      int sub = (int) (value >>> shift) - SUB_BUCKETS;
+      return LINEAR + (shift - 1) * SUB_BUCKETS + sub;
+    }
+
+    /** @return the middle of the values of a bucket */
+    static long value(int bucket) {
+      if (bucket < LINEAR) {
+        return bucket;
+      }
+      int shift = (bucket - LINEAR) / SUB_BUCKETS + 1;
+      long sub = (bucket - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+      return (sub << shift) + (1L << (shift - 1));
+    }
+
+    void add(long value) {
+      add(bucket(value), 1);
+      max = Math.max(max, value);
+    }
+
+    private void add(int bucket, long count) {
+      counts[bucket] += count;
+      total += count;
+    }
+
+    void add(Histogram other) {
+      for (int i = 0; i < BUCKETS; i++) {
+        if (other.counts[i] > 0) {
+          add(i, other.counts[i]);
+        }
+      }
+      max = Math.max(max, other.max);
+    }
+
+    long getCount() {
+      return total;
+    }
+
+    long getMax() {
+      return max;
+    }
+
+    /**
+     * @param p the percentile, from 0 to 100
+     * @return the nearest-rank percentile of the samples
+     */
+    long percentile(double p) {
+      long rank = Math.max(1, (long) Math.ceil(p / 100 * total));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return Math.min(value(i), max);
+        }
+      }
+      return max;
+    }
+
+    /** @return the histogram, as "max bucket:count ..." */
+    public String toString() {
+      StringBuilder line = new StringBuilder().append(max);
+      for (int i = 0; i < BUCKETS; i++) {
+        if (counts[i] > 0) {
+          line.append(' ').append(i).append(':').append(counts[i]);
+        }
+      }
+      return line.toString();
+    }
+
+    static Histogram parse(String line) {
+      Histogram histogram = new Histogram();
+      String[] values = line.split(" ");
+      histogram.max = Long.parseLong(values[0]);
+      for (int i = 1; i < values.length; i++) {
+        int colon = values[i].indexOf(':');
+        histogram.add(Integer.parseInt(values[i].substring(0, colon)),
+                      Long.parseLong(values[i].substring(colon + 1)));
+      }
+      return histogram;
+    }
+  }
+
+  /**
+   * Run the warm-up and timed iterations of an operation
+   * @return the nanoseconds of an operation in each timed batch
+   */
+  Histogram measure(Op op) throws IOException {
+    op.setUp();
+    try {
+      Histogram histogram = new Histogram();
+      for (int it = -warmups; it < iterations; it++) {
+        long end = System.nanoTime() + iterationMillis * 1000000L;
+        long now;
+        do {
+          op.reset();
+          long start = System.nanoTime();
+          for (int i = 0; i < batch; i++) {
+            op.run(i);
+          }
+          now = System.nanoTime();
+          if (it >= 0) {
+            histogram.add((now - start) / batch);
+          }
+        } while (now < end);
+      }
+      return histogram;
+    } finally {
+      op.tearDown();
+    }
+  }
+
+  /** The parameters a benchmark is run with: partitions, replicas, segment */
+  private List<int[]> configurations(String name) {
+    List<int[]> configurations = new ArrayList<int[]>();
+    if (name.startsWith("sha")) {
+      for (int segment : segments) {
+        configurations.add(new int[] { 0, 0, segment });
+      }
+    } else if ("hex".equals(name)) {
+      for (int p : partitions) {
+        configurations.add(new int[] { p, 0, 0 });
+      }
+    } else if ("mapcache".equals(name)) {
+      for (int n : replicas) {
+        configurations.add(new int[] { 0, n, 0 });
+      }
+    } else {
+      for (int p : partitions) {
+        for (int n : replicas) {
+          configurations.add(new int[] { p, n, 0 });
+        }
+      }
+    }
+    return configurations;
+  }
+
+  private String[] settings() {
+    return new String[] { "-warmups", "" + warmups,
+                          "-iterations", "" + iterations,
+                          "-millis", "" + iterationMillis,
+                          "-batch", "" + batch };
+  }
+
+  /** Run the benchmark in a new JVM, and read its samples */
+  private Histogram fork(String name, int[] c)
+      throws IOException, InterruptedException {
+    List<String> command = new ArrayList<String>();
+    command.add(System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java");
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(DigestVotingMicroBenchmark.class.getName());
+    command.addAll(Arrays.asList(settings()));
+    command.add("-child");
+    command.add(name);
+    for (int value : c) {
+      command.add("" + value);
+    }
+
+    Process child = new ProcessBuilder(command).redirectErrorStream(true).start();
+    BufferedReader in = new BufferedReader(
+        new InputStreamReader(child.getInputStream()));
+    Histogram samples = null;
+    for (String line = in.readLine(); line != null; line = in.readLine()) {
+      if (line.startsWith("samples ")) {
+        samples = Histogram.parse(line.substring("samples ".length()));
+      }
+    }
+    in.close();
+    if (child.waitFor() != 0 || samples == null) {
+      throw new IOException("Fork of " + name + " failed");
+    }
+    return samples;
+  }
+
+  private void runChild(String[] args, int i) throws IOException {
+    Histogram samples = measure(newOp(args[i], Integer.parseInt(args[i + 1]),
+        Integer.parseInt(args[i + 2]), Integer.parseInt(args[i + 3])));
+    System.out.println("samples " + samples);
+  }
+
+  private static int[] parseInts(String list) {
+    String[] values = list.split(",");
+    int[] ints = new int[values.length];
+    for (int i = 0; i < values.length; i++) {
+      ints[i] = Integer.parseInt(values[i]);
+    }
+    return ints;
+  }
+
+  public int run(String[] args) throws Exception {
+    for (int i = 0; i < args.length; ++i) {
+      if ("-benchmarks".equals(args[i])) {
+        benchmarks = args[++i].split(",");
+      } else if ("-partitions".equals(args[i])) {
+        partitions = parseInts(args[++i]);
+      } else if ("-replicas".equals(args[i])) {
+        replicas = parseInts(args[++i]);
+      } else if ("-segments".equals(args[i])) {
+        segments = parseInts(args[++i]);
+      } else if ("-warmups".equals(args[i])) {
+        warmups = Integer.parseInt(args[++i]);
+      } else if ("-iterations".equals(args[i])) {
+        iterations = Integer.parseInt(args[++i]);
+      } else if ("-millis".equals(args[i])) {
+        iterationMillis = Integer.parseInt(args[++i]);
+      } else if ("-batch".equals(args[i])) {
+        batch = Integer.parseInt(args[++i]);
+      } else if ("-forks".equals(args[i])) {
+        forks = Integer.parseInt(args[++i]);
+      } else if ("-child".equals(args[i]) && i + 4 < args.length) {
+        runChild(args, i + 1);
+        return 0;
+      } else {
+        usage();
+      }
+    }
+
+    if (batch < 1) {
+      usage();
+    }
+
+    System.out.println("warmups=" + warmups + " iterations=" + iterations +
+                       " millis=" + iterationMillis + " batch=" + batch +
+                       " forks=" + forks);
+    System.out.println(String.format("%-14s %6s %8s %9s %10s %10s %10s %10s %9s",
+        "benchmark", "parts", "replicas", "segment",
+        "p50 ns/op", "p90", "p99", "max", "samples"));
+    for (String name : benchmarks) {
+      for (int[] c : configurations(name)) {
+        Histogram samples;
+        if (forks == 0) {
+          samples = measure(newOp(name, c[0], c[1], c[2]));
+        } else {
+          samples = new Histogram();
+          for (int f = 0; f < forks; f++) {
+            samples.add(fork(name, c));
+          }
+        }
+        System.out.println(String.format("%-14s %6d %8d %9d %10d %10d %10d %10d %9d",
+            name, c[0], c[1], c[2], samples.percentile(50),
+            samples.percentile(90), samples.percentile(99),
+            samples.getMax(), samples.getCount()));
+      }
+    }
+    return 0;
+  }
+
+  public static void main(String argv[]) throws Exception {
+    int res = ToolRunner.run(new Configuration(),
+                             new DigestVotingMicroBenchmark(), argv);
+    System.exit(res);
+  }
+}
@@ -0,0 +1,217 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Schedules the map replicas of a job the way <code>JobInProgress</code>
+ * does on the heartbeats: every replica is offered, those under the launch
+ * threshold are prepared, then launched and succeed. It reports the time
+ * taken by {@link MapLauncherController} and by the synchronized
+ * <code>TreeSet</code>s it replaced.
+ */
+public class LaunchControllerBenchmark extends Configured implements Tool {
+  private static final JobID JOB = new JobID("200707121733", 1);
+
+  private int tasks = 50000;
+  private int faults = 1;
+  private int threads = 1;
+
+  private static void usage() {
+    System.err.println("LaunchControllerBenchmark [-tasks <replicated maps>] " +
+                       "[-faults <f>] [-threads <n>]");
+    ToolRunner.printGenericCommandUsage(System.err);
+    System.exit(1);
+  }
+
+  /** The launch steps of a replica */
+  private interface Launcher {
+    boolean prepare(TaskID tid, TaskCounter counter, int threshold);
+    void launched(TaskAttemptID tid);
+    void succeeded(TaskID tid);
+  }
+
+  /** The state kept in synchronized sets, moved by iterating them */
+  private static class SetLauncher implements Launcher {
+    private Set<TaskID> mapsPrepStage = Collections.synchronizedSet(new TreeSet<TaskID>());
+    private Set<TaskID> mapsLaunched = Collections.synchronizedSet(new TreeSet<TaskID>());
+    private Set<TaskID> succesfulMap = Collections.synchronizedSet(new TreeSet<TaskID>());
+
+    public boolean prepare(TaskID tid, TaskCounter counter, int threshold) {
+      synchronized (counter) {
+        if (counter.getCount(tid.getId()) >= threshold) {
+          return false;
+        }
+        counter.addtask(tid.getId());
+      }
+      mapsPrepStage.add(tid);
+      return true;
+    }
+
+    public void launched(TaskAttemptID tid) {
+      synchronized (mapsPrepStage) {
+        Iterator<TaskID> iter = mapsPrepStage.iterator();
+        while (iter.hasNext()) {
+          TaskID t = iter.next();
+          if (t.equals(tid.getTaskID())) {
+            iter.remove();
+            synchronized (mapsLaunched) {
+              mapsLaunched.add(tid.getTaskID());
+            }
+          }
+        }
+      }
+    }
+
+    public void succeeded(TaskID tid) {
+      synchronized (mapsLaunched) {
+        Iterator<TaskID> iter = mapsLaunched.iterator();
+        while (iter.hasNext()) {
+          if (iter.next().equals(tid)) {
+            iter.remove();
+            break;
+          }
+        }
+      }
+      synchronized (mapsPrepStage) {
+        Iterator<TaskID> iter = mapsPrepStage.iterator();
+        while (iter.hasNext()) {
+          if (iter.next().equals(tid)) {
+            iter.remove();
+            break;
+          }
+        }
+      }
+      succesfulMap.add(tid);
+    }
+  }
+
+  private static class ControllerLauncher implements Launcher {
+    private final MapLauncherController controller;
+
+    ControllerLauncher(MapLauncherController controller) {
+      this.controller = controller;
+    }
+
+    public boolean prepare(TaskID tid, TaskCounter counter, int threshold) {
+      if (!counter.tryAddtask(tid.getId(), threshold)) {
+        return false;
+      }
+      controller.addToRun(tid);
+      return true;
+    }
+
+    public void launched(TaskAttemptID tid) {
+      controller.addMapsLaunched(tid);
+    }
+
+    public void succeeded(TaskID tid) {
+      controller.addSuccessfulMap(tid);
+    }
+  }
+
+  /**
+   * Offer every replica, and launch those under the threshold. The
+   * replicas stay prepared for a while, as they wait for the next
+   * heartbeat of their tracker, and launched until they finish.
+   */
+  private long run(final Launcher launcher) throws Exception {
+    final int numReplicas = 2 * faults + 1;
+    final int threshold = faults + 1;
+    final int maps = tasks / numReplicas;
+    final TaskCounter counter = new TaskCounter(maps * numReplicas, numReplicas);
+    final int window = 1000;
+    Thread[] workers = new Thread[threads];
+    long start = System.currentTimeMillis();
+    for (int t = 0; t < threads; t++) {
+      final int first = t;
+      workers[t] = new Thread() {
+        public void run() {
+          for (int map = first; map < maps + window; map += threads) {
+            if (map < maps) {
+              for (int replica = 0; replica < numReplicas; replica++) {
+                launcher.prepare(new TaskID(JOB, true, map, replica), counter, threshold);
+              }
+            }
+            int launched = map - window / 2;
+            int done = map - window;
+            for (int replica = 0; replica < threshold; replica++) {
+              if (launched >= 0 && launched < maps) {
+                launcher.launched(new TaskAttemptID(new TaskID(JOB, true, launched, replica), 0));
+              }
+              if (done >= 0) {
+                launcher.succeeded(new TaskID(JOB, true, done, replica));
+              }
+            }
+          }
+        }
+      };
+      workers[t].start();
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    return System.currentTimeMillis() - start;
+  }
+
+  /** Run once on <code>warmup</code> to compile the code, then measure */
+  private void measure(String name, Launcher warmup, Launcher launcher) throws Exception {
+    run(warmup);
+    System.gc();
+    long time = run(launcher);
+    System.out.println(name + ": " + time + " ms");
+  }
+
+  public int run(String[] args) throws Exception {
+    for (int i = 0; i < args.length; ++i) {
+      if ("-tasks".equals(args[i])) {
+        tasks = Integer.parseInt(args[++i]);
+      } else if ("-faults".equals(args[i])) {
+        faults = Integer.parseInt(args[++i]);
+      } else if ("-threads".equals(args[i])) {
+        threads = Integer.parseInt(args[++i]);
+      } else {
+        usage();
+      }
+    }
+
+    int numReplicas = 2 * faults + 1;
+    int maps = tasks / numReplicas;
+    System.out.println("tasks=" + tasks + " replicas=" + numReplicas +
+                       " threads=" + threads);
+    measure("TreeSets", new SetLauncher(), new SetLauncher());
+    measure("MapLauncherController",
+        new ControllerLauncher(new MapLauncherController(maps, 0, numReplicas)),
+        new ControllerLauncher(new MapLauncherController(maps, 0, numReplicas)));
+    return 0;
+  }
+
+  public static void main(String argv[]) throws Exception {
+    int res = ToolRunner.run(new Configuration(), new LaunchControllerBenchmark(), argv);
+    System.exit(res);
+  }
+}
@@ -0,0 +1,244 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Compares the wall time and peak heap of digesting map output partitions
+ * while the IFile segments are written ({@link SegmentDigestOutputStream})
+ * against reading the whole final output back into memory and hashing
+ * each partition from it, as <code>MapTask</code> used to do.
+ */
+public class MapOutputDigestBenchmark extends Configured implements Tool {
+
+  private int partitions = 64;
+  private int records = 10000;
+  private int valueSize = 100;
+  private int iterations = 3;
+  private int pipelineBuffers = 0;
+  private int treeChunkSize = 0;
+  private CompressionCodec codec = null;
+
+  private static void usage() {
+    System.err.println("MapOutputDigestBenchmark [-partitions <n>] " +
+                       "[-records <records per partition>] " +
+                       "[-valueSize <bytes>] [-iterations <n>] [-compress] " +
+                       "[-pipeline <buffers>] [-tree <leaf bytes>]");
+    ToolRunner.printGenericCommandUsage(System.err);
+    System.exit(1);
+  }
+
+  /** Result of writing and digesting one map output */
+  private static class Result {
+    long millis;
+    long peakHeap;
+    byte[][] digests;
+  }
+
+  private SpillRecord.IndexRecord writeSegment(JobConf conf, FSDataOutputStream out,
+                                   int partition, Random random)
+  throws IOException {
+    long segmentStart = out.getPos();
+    IFile.Writer<BytesWritable, BytesWritable> writer =
+      new IFile.Writer<BytesWritable, BytesWritable>(conf, out,
+          BytesWritable.class, BytesWritable.class, codec, null);
+    byte[] key = new byte[10];
+    byte[] value = new byte[valueSize];
+    for (int i = 0; i < records; i++) {
+      random.nextBytes(key);
+      random.nextBytes(value);
+      writer.append(new BytesWritable(key), new BytesWritable(value));
+    }
+    writer.close();
+    return new SpillRecord.IndexRecord(segmentStart, writer.getRawLength(),
+                           writer.getCompressedLength());
+  }
+
+  private DigestFactory newHashGen(boolean pipelined) {
+    return new DigestFactory(new Sha1Hash(),
+        pipelined ? pipelineBuffers : 0, treeChunkSize);
+  }
+
+  /** Write the map output, then read it all back and hash each partition */
+  private Result readBack(JobConf conf, FileSystem rfs, Path file)
+  throws IOException {
+    DigestFactory hashGen = newHashGen(false);
+    Random random = new Random(partitions);
+    Result result = new Result();
+    SpillRecord.IndexRecord[] index = new SpillRecord.IndexRecord[partitions];
+    long start = System.currentTimeMillis();
+
+    FSDataOutputStream out = rfs.create(file);
+    try {
+      for (int p = 0; p < partitions; p++) {
+        index[p] = writeSegment(conf, out, p, random);
+      }
+    } finally {
+      out.close();
+    }
+
+    byte[] bytes = new byte[(int) rfs.getFileStatus(file).getLen()];
+    FSDataInputStream in = rfs.open(file);
+    try {
+      in.readFully(0, bytes);
+    } finally {
+      in.close();
+    }
+    result.digests = new byte[partitions][];
+    for (int p = 0; p < partitions; p++) {
+      MessageDigest md = hashGen.newInstance();
+      md.update(bytes, (int) index[p].startOffset, (int) index[p].partLength);
+      result.digests[p] = md.digest();
+    }
+
+    result.millis = System.currentTimeMillis() - start;
+    return result;
+  }
+
+  /**
+   * Digest each partition while it is written, in the background with
+   * <code>-pipeline</code>
+   */
+  private Result streaming(JobConf conf, FileSystem rfs, Path file)
+  throws IOException {
+    DigestFactory hashGen = newHashGen(true);
+    Random random = new Random(partitions);
+    Result result = new Result();
+    result.digests = new byte[partitions][];
+    long start = System.currentTimeMillis();
+
+    SegmentDigestOutputStream digestOut =
+      new SegmentDigestOutputStream(rfs.create(file), hashGen.newInstance());
+    FSDataOutputStream out = new FSDataOutputStream(digestOut, null);
+    try {
+      for (int p = 0; p < partitions; p++) {
+        digestOut.startSegment();
+        writeSegment(conf, out, p, random);
+        result.digests[p] = digestOut.endSegment();
+      }
+    } finally {
+      out.close();
+    }
+
+    result.millis = System.currentTimeMillis() - start;
+    return result;
+  }
+
+  private static void resetPeakHeap() {
+    System.gc();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        pool.resetPeakUsage();
+      }
+    }
+  }
+
+  private static long getPeakHeap() {
+    long peak = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        peak += pool.getPeakUsage().getUsed();
+      }
+    }
+    return peak;
+  }
+
+  private Result measure(boolean stream, JobConf conf, FileSystem rfs,
+                         Path file) throws IOException {
+    resetPeakHeap();
+    Result result = stream ? streaming(conf, rfs, file)
+                           : readBack(conf, rfs, file);
+    result.peakHeap = getPeakHeap();
+    rfs.delete(file, true);
+    return result;
+  }
+
+  public int run(String[] args) throws Exception {
+    for (int i = 0; i < args.length; ++i) {
+      if ("-partitions".equals(args[i])) {
+        partitions = Integer.parseInt(args[++i]);
+      } else if ("-records".equals(args[i])) {
+        records = Integer.parseInt(args[++i]);
+      } else if ("-valueSize".equals(args[i])) {
+        valueSize = Integer.parseInt(args[++i]);
+      } else if ("-iterations".equals(args[i])) {
+        iterations = Integer.parseInt(args[++i]);
+      } else if ("-pipeline".equals(args[i])) {
+        pipelineBuffers = Integer.parseInt(args[++i]);
+      } else if ("-tree".equals(args[i])) {
+        treeChunkSize = Integer.parseInt(args[++i]);
+      } else if ("-compress".equals(args[i])) {
+        codec = ReflectionUtils.newInstance(DefaultCodec.class, getConf());
+      } else {
+        usage();
+      }
+    }
+
+    JobConf conf = new JobConf(getConf(), MapOutputDigestBenchmark.class);
+    FileSystem rfs = FileSystem.getLocal(conf).getRaw();
+    Path file = new Path(System.getProperty("test.build.data", "/tmp"),
+                         "MapOutputDigestBenchmark/file.out");
+
+    System.out.println("partitions=" + partitions + " records=" + records +
+                       " valueSize=" + valueSize +
+                       " pipeline=" + pipelineBuffers +
+                       " tree=" + treeChunkSize +
+                       " codec=" + (codec == null ? "none" : "default"));
+    for (int it = 0; it < iterations; it++) {
+      Result old = measure(false, conf, rfs, file);
+      Result cur = measure(true, conf, rfs, file);
+      for (int p = 0; p < partitions; p++) {
+        if (!Arrays.equals(old.digests[p], cur.digests[p])) {
+          throw new IOException("Digests differ for partition " + p);
+        }
+      }
+      System.out.println("iteration " + it +
+          ": read-back " + old.millis + " ms, peak heap " +
+          (old.peakHeap >> 20) + " MB" +
+          " | streaming " + cur.millis + " ms, peak heap " +
+          (cur.peakHeap >> 20) + " MB");
+    }
+    return 0;
+  }
+
+  public static void main(String argv[]) throws Exception {
+    int res = ToolRunner.run(new Configuration(),
+                             new MapOutputDigestBenchmark(), argv);
+    System.exit(res);
+  }
+}
@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.DigestManifest.Entry;
+import org.apache.hadoop.mapred.DigestManifest.Outcome;
+import org.apache.hadoop.mapred.tools.DigestShell;
+import org.apache.hadoop.util.ToolRunner;
+
+import junit.framework.TestCase;
+
+public class TestDigestManifest extends TestCase {
+  private static final Path TEST_DIR =
+    new Path(System.getProperty("test.build.data", "/tmp"), "TestDigestManifest");
+
+  private static DigestWritable digest(String content) {
+    return new DigestWritable(new Sha1Hash().newInstance().digest(content.getBytes()));
+  }
+
+  public void testWriteAndRead() throws Exception {
+    JobConf conf = new JobConf();
+    FileSystem fs = FileSystem.getLocal(conf);
+    fs.delete(TEST_DIR, true);
+    Path dir = new Path(TEST_DIR, DigestManifest.DIGESTS_DIR);
+
+    List<Entry> entries = new ArrayList<Entry>();
+    for (int p = 4; p >= 0; p--) {
+      for (int r = 2; r >= 0; r--) {
+        Outcome outcome = p == 3 ? Outcome.UNDECIDED
+          : r == 1 && p == 2 ? Outcome.DISAGREED : Outcome.AGREED;
+        entries.add(new Entry(p, r, digest(p + "_" + r), outcome));
+      }
+    }
+    DigestManifest.write(fs, dir, Sha1Hash.class.getName(), 0, entries);
+    assertFalse(fs.exists(new Path(dir, "_" + DigestManifest.MANIFEST)));
+
+    DigestManifest.Reader reader =
+      new DigestManifest.Reader(fs, DigestManifest.getPath(TEST_DIR));
+    assertEquals(Sha1Hash.class.getName(), reader.getProviderClass());
+    assertEquals(0, reader.getTreeChunkSize());
+    assertEquals(15, reader.size());
+
+    // sorted by partition and replica
+    List<Entry> all = reader.getEntries();
+    for (int i = 0; i < all.size(); i++) {
+      assertEquals(i / 3, all.get(i).getPartition());
+      assertEquals(i % 3, all.get(i).getReplica());
+      assertEquals(digest(i / 3 + "_" + i % 3), all.get(i).getDigest());
+    }
+
+    List<Entry> partition = reader.getEntries(2);
+    assertEquals(3, partition.size());
+    assertEquals(Outcome.DISAGREED, partition.get(1).getOutcome());
+    assertEquals(digest("2_0"), reader.getVotedDigest(2));
+    assertNull(reader.getVotedDigest(3));
+    assertEquals(3, reader.getEntries(4).size());
+    assertTrue(reader.getEntries(5).isEmpty());
+    assertTrue(reader.getEntries(-1).isEmpty());
+
+    assertEquals(digest("text"),
+                 new DigestWritable(reader.newDigest(conf).digest("text".getBytes())));
+    reader.close();
+    fs.delete(TEST_DIR, true);
+  }
+
+  public void testVerify() throws Exception {
+    JobConf conf = new JobConf();
+    FileSystem fs = FileSystem.getLocal(conf);
+    fs.delete(TEST_DIR, true);
+
+    String text = "a\t1\nb\t2\n";
+    FSDataOutputStream out = fs.create(new Path(TEST_DIR, "part-r-00000_1"));
+    out.writeBytes(text);
+    out.close();
+
+    List<Entry> entries = new ArrayList<Entry>();
+    entries.add(new Entry(0, 0, digest(text), Outcome.AGREED));
+    entries.add(new Entry(0, 1, digest(text), Outcome.AGREED));
+    DigestManifest.write(fs, new Path(TEST_DIR, DigestManifest.DIGESTS_DIR),
+                         Sha1Hash.class.getName(), 0, entries);
+
+    String[] args = { "-verify", TEST_DIR.toString() };
+    assertEquals(0, ToolRunner.run(conf, new DigestShell(), args));
+
+    // a tampered output
+    out = fs.create(new Path(TEST_DIR, "part-r-00000_1"), true);
+    out.writeBytes("a\t1\nb\t3\n");
+    out.close();
+    assertEquals(1, ToolRunner.run(conf, new DigestShell(), args));
+    fs.delete(TEST_DIR, true);
+  }
+}
@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TestDigestMeter extends TestCase {
+
+  /**
+   * A metered digest is the same digest, and the meter counts its bytes
+   * whether it is hashed inline, pipelined or as a tree
+   */
+  public void testMeteredDigests() throws Exception {
+    Sha1Hash inline = new Sha1Hash();
+    byte[] b = new byte[3 * PipelinedDigest.BUFFER_SIZE + 5];
+    new Random(3).nextBytes(b);
+    byte[] expected = inline.newInstance().digest(b);
+
+    DigestFactory[] factories = { new DigestFactory(inline, 0, 0),
+                                  new DigestFactory(inline, 2, 0) };
+    for (DigestFactory factory : factories) {
+      DigestMeter meter = new DigestMeter();
+      MessageDigest md = factory.meteredBy(meter).newInstance();
+      md.update(b, 0, b.length - 1);
+      md.update(b[b.length - 1]);
+      // a digest is added to the meter once it is done
+      assertEquals(0, meter.getBytes());
+      assertTrue(Arrays.equals(expected, md.digest()));
+      assertEquals(b.length, meter.getBytes());
+    }
+
+    // the leaves of a tree are metered, and the tree gives the same digest
+    DigestFactory tree = new DigestFactory(inline, 0, 1024);
+    DigestMeter meter = new DigestMeter();
+    MessageDigest md = tree.meteredBy(meter).newInstance();
+    md.update(b);
+    assertTrue(Arrays.equals(tree.newInstance().digest(b), md.digest()));
+    assertTrue(meter.getBytes() >= b.length);
+  }
+
+  /**
+   * The time of the updates too small to be timed each is still reported
+   */
+  public void testSmallUpdates() throws Exception {
+    DigestMeter meter = new DigestMeter();
+    MessageDigest md = meter.wrap(new Sha1Hash()).newInstance();
+    byte[] b = new byte[DigestMeter.TIMED_UPDATE / 4];
+    new Random(5).nextBytes(b);
+
+    // 64MB in updates of 128 bytes, which take well over a millisecond
+    for (int i = 0; i < (64 << 20) / b.length; i++) {
+      md.update(b);
+    }
+    md.digest();
+    assertEquals(64 << 20, meter.getBytes());
+    assertTrue(meter.getMillis() > 0);
+  }
+}
@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TestDigestProvider extends TestCase {
+
+  public void testConfiguration() throws Exception {
+    JobConf conf = new JobConf();
+    assertEquals(Sha1Hash.class, conf.getDigestProviderClass());
+    conf.set("security.digest.type", "SHA-256");
+    assertEquals(Sha256Hash.class, conf.getDigestProviderClass());
+    assertEquals("SHA-256", new DigestFactory(conf).newInstance().getAlgorithm());
+
+    conf.set("security.digest.provider.class", Murmur3Hash.class.getName());
+    assertEquals(Murmur3Hash.class, conf.getDigestProviderClass());
+    assertEquals(16, new DigestFactory(conf).newInstance().getDigestLength());
+  }
+
+  /**
+   * The verification value of MurmurHash3_x64_128 in SMHasher: the digests
+   * of the keys {}, {0}, {0, 1}, ..., {0, ..., 254} with the seeds 256 down
+   * to 1, digested together with the seed 0.
+   */
+  public void testMurmur3Verification() throws Exception {
+    byte[] key = new byte[256];
+    ByteArrayOutputStream hashes = new ByteArrayOutputStream();
+    for (int i = 0; i < 256; i++) {
+      key[i] = (byte) i;
+      hashes.write(new Murmur3Hash.Digest(256 - i).digest(Arrays.copyOf(key, i)));
+    }
+    byte[] digest = new Murmur3Hash().newInstance().digest(hashes.toByteArray());
+    int verification = (digest[0] & 0xff) | (digest[1] & 0xff) << 8
+        | (digest[2] & 0xff) << 16 | (digest[3] & 0xff) << 24;
+    assertEquals(0x6384BA69, verification);
+  }
+
+  /**
+   * The digest is the same however the bytes are split
+   */
+  public void testMurmur3Streaming() throws Exception {
+    Random r = new Random(3);
+    MessageDigest md = new Murmur3Hash().newInstance();
+    for (int length = 0; length < 200; length++) {
+      byte[] b = new byte[length];
+      r.nextBytes(b);
+      byte[] whole = md.digest(b);
+      for (int off = 0; off < length; ) {
+        int n = Math.min(length - off, r.nextInt(20));
+        if (n == 1) {
+          md.update(b[off]);
+        } else {
+          md.update(b, off, n);
+        }
+        off += n;
+      }
+      assertTrue("length " + length, Arrays.equals(whole, md.digest()));
+    }
+  }
+}
@@ -0,0 +1,189 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import junit.framework.TestCase;
+
+public class TestDigestRecordWriter extends TestCase {
+  private static final Path TEST_DIR = new Path(
+      System.getProperty("test.build.data", "/tmp"), "digestrecordwriter");
+
+  private JobConf conf = new JobConf();
+  private Sha1Hash hashGen = new Sha1Hash();
+
+  private void writeRecords(RecordWriter<Object, Object> out) throws Exception {
+    for (int i = 0; i < 1000; i++) {
+      out.write(new Text("key" + i), new IntWritable(i));
+    }
+    out.write(NullWritable.get(), new Text("no key"));
+    out.write(new Text("no value"), null);
+    out.close(null);
+  }
+
+  private byte[] readAll(InputStream in) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    IOUtils.copyBytes(in, bytes, 4096, true);
+    return bytes.toByteArray();
+  }
+
+  /**
+   * The digest of a text output is the digest of the file it writes
+   */
+  public void testTextOutput() throws Exception {
+    FileSystem fs = FileSystem.getLocal(conf).getRaw();
+    Path file = new Path(TEST_DIR, "part-00000");
+    DigestRecordWriter<Object, Object> out = new DigestRecordWriter<Object, Object>(
+        new TextOutputFormat.LineRecordWriter<Object, Object>(fs.create(file)),
+        conf, hashGen.newInstance());
+    writeRecords(out);
+
+    byte[] expected = hashGen.newInstance().digest(readAll(fs.open(file)));
+    assertTrue(Arrays.equals(expected, out.getDigest()));
+    fs.delete(TEST_DIR, true);
+  }
+
+  /**
+   * Compression of the output does not change the digest
+   */
+  public void testCompressedOutput() throws Exception {
+    CompressionCodec codec = ReflectionUtils.newInstance(DefaultCodec.class, conf);
+    FileSystem fs = FileSystem.getLocal(conf).getRaw();
+    Path file = new Path(TEST_DIR, "part-00000" + codec.getDefaultExtension());
+    DigestRecordWriter<Object, Object> out = new DigestRecordWriter<Object, Object>(
+        new TextOutputFormat.LineRecordWriter<Object, Object>(
+            new DataOutputStream(codec.createOutputStream(fs.create(file)))),
+        conf, hashGen.newInstance());
+    writeRecords(out);
+
+    byte[] expected = hashGen.newInstance().digest(
+        readAll(codec.createInputStream(fs.open(file))));
+    assertTrue(Arrays.equals(expected, out.getDigest()));
+
+    DigestRecordWriter<Object, Object> digestOnly =
+      new DigestRecordWriter<Object, Object>(null, conf, hashGen.newInstance());
+    writeRecords(digestOnly);
+    assertTrue(Arrays.equals(expected, digestOnly.getDigest()));
+    fs.delete(TEST_DIR, true);
+  }
+
+  public void testDifferentOutput() throws Exception {
+    DigestRecordWriter<Object, Object> out =
+      new DigestRecordWriter<Object, Object>(null, conf, hashGen.newInstance());
+    writeRecords(out);
+    DigestRecordWriter<Object, Object> other =
+      new DigestRecordWriter<Object, Object>(null, conf, hashGen.newInstance());
+    other.write(new Text("key0"), new IntWritable(1));
+    other.close(null);
+    assertFalse(Arrays.equals(out.getDigest(), other.getDigest()));
+  }
+
+  /**
+   * A reduce replica is told if it only digests its output
+   */
+  public void testDigestOnlyReduceTask() throws Exception {
+    TaskAttemptID id = TaskAttemptID.forName("attempt_201005301215_0001_r_000001_2_0");
+    ReduceTask task = new ReduceTask("job.xml", id, 1, 10, 3);
+    assertFalse(task.isDigestOnly());
+    task.setDigestOnly(true);
+
+    DataOutputBuffer out = new DataOutputBuffer();
+    task.write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    ReduceTask copy = new ReduceTask();
+    copy.readFields(in);
+    assertTrue(copy.isDigestOnly());
+    assertEquals(10, copy.getNumMaps());
+  }
+
+  /**
+   * Progress digests don't change the final digest, and only differ from
+   * the first position whose records differ
+   */
+  public void testProgressDigests() throws Exception {
+    DigestRecordWriter<Object, Object> plain =
+      new DigestRecordWriter<Object, Object>(null, conf, hashGen.newInstance());
+    writeRecords(plain);
+    ProgressDigest progress = new ProgressDigest(hashGen.newInstance(), 100);
+    DigestRecordWriter<Object, Object> out = new DigestRecordWriter<Object, Object>(
+        null, conf, hashGen.newInstance(), progress);
+    writeRecords(out);
+    assertTrue(Arrays.equals(plain.getDigest(), out.getDigest()));
+
+    DigestWritable[] digests = progress.take();
+    assertEquals(10, digests.length);
+    assertEquals(0, progress.take().length);
+
+    ProgressDigest otherProgress = new ProgressDigest(hashGen.newInstance(), 100);
+    DigestRecordWriter<Object, Object> other = new DigestRecordWriter<Object, Object>(
+        null, conf, hashGen.newInstance(), otherProgress);
+    for (int i = 0; i < 1000; i++) {
+      other.write(new Text("key" + i), new IntWritable(i == 350 ? -1 : i));
+    }
+    DigestWritable[] others = otherProgress.take();
+    assertEquals(10, others.length);
+    for (int i = 0; i < others.length; i++) {
+      assertEquals("position " + i, i < 3, digests[i].equals(others[i]));
+    }
+  }
+
+  /**
+   * Progress digests not sent yet are merged in order, and only sent once
+   */
+  public void testProgressDigestsInStatus() throws Exception {
+    TaskAttemptID id = TaskAttemptID.forName("attempt_201005301215_0001_r_000001_2_0");
+    TaskStatus status = TaskStatus.createTaskStatus(false, id, 0.5f,
+        TaskStatus.State.RUNNING, "", "", "tracker", TaskStatus.Phase.REDUCE, new Counters());
+    TaskStatus update = (TaskStatus) status.clone();
+    update.addProgressDigests(4, new DigestWritable[] { new DigestWritable(new byte[] { 4 }) });
+    status.statusUpdate(update);
+    update.clearStatus();
+    update.addProgressDigests(5, new DigestWritable[] { new DigestWritable(new byte[] { 5 }) });
+    status.statusUpdate(update);
+
+    DataOutputBuffer out = new DataOutputBuffer();
+    TaskStatus.writeTaskStatus(out, status);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    TaskStatus copy = TaskStatus.readTaskStatus(in);
+    assertEquals(4, copy.getProgressDigestIndex());
+    assertEquals(2, copy.getProgressDigests().length);
+    assertEquals(new DigestWritable(new byte[] { 5 }), copy.getProgressDigests()[1]);
+
+    status.clearStatus();
+    assertNull(status.getProgressDigests());
+  }
+}
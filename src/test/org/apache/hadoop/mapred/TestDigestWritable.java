@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparator;
+
+import junit.framework.TestCase;
+
+public class TestDigestWritable extends TestCase {
+
+  private static DigestWritable sha1(String s) {
+    return new DigestWritable(new Sha1Hash().newInstance().digest(s.getBytes()));
+  }
+
+  public void testSerialization() throws Exception {
+    DigestWritable[] digests = new DigestWritable[100];
+    for (int i = 0; i < digests.length; i++) {
+      digests[i] = sha1("partition" + i);
+    }
+
+    DataOutputBuffer out = new DataOutputBuffer();
+    DigestWritable.writeArray(out, digests);
+    DigestWritable.writeArray(out, null);
+    // one vint for the length, and 1 + 20 bytes for each SHA-1 digest
+    assertEquals(1 + digests.length * 21 + 1, out.getLength());
+
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    assertTrue(DigestWritable.equals(digests, DigestWritable.readArray(in)));
+    assertNull(DigestWritable.readArray(in));
+  }
+
+  public void testStatusAndEvent() throws Exception {
+    DigestWritable[] digests = { sha1("a"), sha1("b") };
+    TaskAttemptID id = TaskAttemptID.forName("attempt_201005301215_0001_m_000001_0_0");
+
+    TaskCompletionEvent event = new TaskCompletionEvent(1, id, true,
+        TaskCompletionEvent.Status.SUCCEEDED, "http://localhost:50060", digests, 3);
+    DataOutputBuffer out = new DataOutputBuffer();
+    event.write(out);
+    TaskCompletionEvent copy = new TaskCompletionEvent();
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    copy.readFields(in);
+    assertTrue(DigestWritable.equals(digests, copy.getDigests()));
+
+    DigestArrayWritable array = new DigestArrayWritable(digests);
+    out.reset();
+    array.write(out);
+    in.reset(out.getData(), out.getLength());
+    DigestArrayWritable arrayCopy = new DigestArrayWritable();
+    arrayCopy.readFields(in);
+    assertTrue(Arrays.equals(digests, arrayCopy.get()));
+  }
+
+  public void testRawComparator() throws Exception {
+    Random r = new Random(1);
+    WritableComparator comparator = WritableComparator.get(DigestWritable.class);
+    DataOutputBuffer out1 = new DataOutputBuffer();
+    DataOutputBuffer out2 = new DataOutputBuffer();
+    for (int i = 0; i < 1000; i++) {
+      byte[] b1 = new byte[r.nextInt(3) + 1];
+      byte[] b2 = new byte[r.nextInt(3) + 1];
+      r.nextBytes(b1);
+      r.nextBytes(b2);
+      DigestWritable d1 = new DigestWritable(b1);
+      DigestWritable d2 = new DigestWritable(b2);
+      out1.reset();
+      out2.reset();
+      d1.write(out1);
+      d2.write(out2);
+      int raw = comparator.compare(out1.getData(), 0, out1.getLength(),
+                                   out2.getData(), 0, out2.getLength());
+      assertEquals(Integer.signum(d1.compareTo(d2)), Integer.signum(raw));
+      assertEquals(d1.compareTo(d2) == 0, d1.equals(d2));
+    }
+  }
+
+  public void testTampering() throws Exception {
+    DigestWritable[] digests = { sha1("a") };
+    DigestWritable[] original = digests.clone();
+    while (!BFTInjector.tamperingDigests(digests));
+    assertFalse(DigestWritable.equals(original, digests));
+    assertEquals(original[0].getLength(), digests[0].getLength());
+  }
+}
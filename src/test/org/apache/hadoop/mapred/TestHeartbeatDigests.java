@@ -0,0 +1,94 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+
+import junit.framework.TestCase;
+
+public class TestHeartbeatDigests extends TestCase {
+
+  private static TaskStatus status(String attempt, boolean isMap, TaskStatus.State state) {
+    return TaskStatus.createTaskStatus(isMap, TaskAttemptID.forName(attempt), 1.0f,
+        state, "", "", "tracker", TaskStatus.Phase.CLEANUP, new Counters());
+  }
+
+  private static DigestWritable[] digests(int n, int length, int value) {
+    DigestWritable[] d = new DigestWritable[n];
+    for (int i = 0; i < n; i++) {
+      byte[] b = new byte[length];
+      b[0] = (byte) value;
+      b[length - 1] = (byte) i;
+      d[i] = new DigestWritable(b);
+    }
+    return d;
+  }
+
+  private static TaskTrackerStatus copy(TaskTrackerStatus tts, DataOutputBuffer out)
+      throws Exception {
+    out.reset();
+    tts.write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    TaskTrackerStatus copy = new TaskTrackerStatus();
+    copy.readFields(in);
+    return copy;
+  }
+
+  /**
+   * The digests of the finished tasks come back on their statuses
+   */
+  public void testDigestSection() throws Exception {
+    List<TaskStatus> reports = new ArrayList<TaskStatus>();
+    reports.add(status("attempt_201005301215_0001_m_000001_0_0", true, TaskStatus.State.RUNNING));
+    reports.add(status("attempt_201005301215_0001_m_000002_1_0", true, TaskStatus.State.SUCCEEDED));
+    reports.add(status("attempt_201005301215_0001_r_000000_2_0", false, TaskStatus.State.SUCCEEDED));
+    reports.get(1).setDigests(digests(100, 20, 1));
+    DigestWritable[] mixed = new DigestWritable[] {
+        new DigestWritable(new byte[] { 1, 2, 3 }), new DigestWritable(new byte[] { 4 }) };
+    reports.get(2).setDigests(mixed);
+
+    DataOutputBuffer out = new DataOutputBuffer();
+    TaskTrackerStatus tts = copy(new TaskTrackerStatus("tracker", "host", 50060,
+        reports, 0, 2, 2), out);
+    List<TaskStatus> copies = tts.getTaskReports();
+    assertEquals(3, copies.size());
+    assertFalse(copies.get(0).isContainsHash());
+    assertTrue(DigestWritable.equals(digests(100, 20, 1), copies.get(1).getDigests()));
+    assertTrue(DigestWritable.equals(mixed, copies.get(2).getDigests()));
+  }
+
+  /**
+   * A task's digests cost their bytes and a few header bytes
+   */
+  public void testCompact() throws Exception {
+    List<TaskStatus> reports = new ArrayList<TaskStatus>();
+    reports.add(status("attempt_201005301215_0001_m_000002_1_0", true, TaskStatus.State.SUCCEEDED));
+    DataOutputBuffer out = new DataOutputBuffer();
+    copy(new TaskTrackerStatus("tracker", "host", 50060, reports, 0, 2, 2), out);
+    int without = out.getLength();
+
+    reports.get(0).setDigests(digests(100, 20, 1));
+    copy(new TaskTrackerStatus("tracker", "host", 50060, reports, 0, 2, 2), out);
+    assertTrue(out.getLength() - without <= 100 * 20 + 4);
+  }
+}
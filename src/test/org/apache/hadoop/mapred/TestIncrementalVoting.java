@@ -0,0 +1,200 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TestIncrementalVoting extends TestCase {
+  private static final JobID JOB = new JobID("200707121733", 3);
+
+  private static DigestWritable digest(int value) {
+    return new DigestWritable(new byte[] { (byte) value, 1, 2, 3 });
+  }
+
+  private static DigestWritable[] digests(int partitions, int value) {
+    DigestWritable[] d = new DigestWritable[partitions];
+    for (int i = 0; i < partitions; i++) {
+      d[i] = digest(value + i);
+    }
+    return d;
+  }
+
+  public void testEarlyDecision() throws Exception {
+    int partitions = 5;
+    VotingSystem voting = new IncrementalVoting(3, partitions);
+    TaskID r0 = new TaskID(JOB, true, 7, 0);
+    TaskID r1 = new TaskID(JOB, true, 7, 1);
+    TaskID r2 = new TaskID(JOB, true, 7, 2);
+
+    voting.addHash(r0, true, digests(partitions, 0));
+    assertEquals(MajorityVoting.NOT_ENOUGH_ELEMENTS, voting.hasMajorityOfDigests(r0));
+    voting.addHash(r1, true, digests(partitions, 10));
+    assertEquals(MajorityVoting.NO_MAJORITY, voting.hasMajorityOfDigests(r0));
+    voting.addHash(r2, true, digests(partitions, 0));
+    assertEquals(MajorityVoting.MAJORITY, voting.hasMajorityOfDigests(r1));
+    assertEquals(2, voting.getTask(r0).size());
+    assertTrue(DigestWritable.equals(digests(partitions, 0), voting.getHash(r2)));
+
+    // unrelated task
+    assertEquals(MajorityVoting.NOT_ENOUGH_ELEMENTS,
+        voting.hasMajorityOfDigests(new TaskID(JOB, true, 8, 0)));
+
+    assertTrue(voting.removeHash(r2));
+    assertEquals(MajorityVoting.NOT_ENOUGH_ELEMENTS, voting.hasMajorityOfDigests(r0));
+  }
+
+  /**
+   * A decided task only keeps the winning digests and replicas
+   */
+  public void testCompaction() throws Exception {
+    int partitions = 10;
+    VotingSystem voting = new IncrementalVoting(5, partitions);
+    TaskID[] tids = new TaskID[5];
+    for (int i = 0; i < tids.length; i++) {
+      tids[i] = new TaskID(JOB, true, 2, i);
+    }
+
+    voting.addHash(tids[0], true, digests(partitions, 50));
+    voting.addHash(tids[1], true, digests(partitions, 0));
+    voting.addHash(tids[2], true, digests(partitions, 0));
+    assertEquals(3 * partitions, voting.getStateSize());
+    voting.addHash(tids[3], true, digests(partitions, 0));
+    assertEquals(MajorityVoting.MAJORITY, voting.hasMajorityOfDigests(tids[0]));
+    assertEquals(partitions, voting.getStateSize());
+    assertNull(voting.getHash(tids[0]));
+    assertEquals(3, voting.getTask(tids[0]).size());
+
+    // late replicas: an agreeing one joins the winners, the other is dropped
+    voting.addHash(tids[4], true, digests(partitions, 0));
+    assertEquals(4, voting.getTask(tids[0]).size());
+    voting.addHash(tids[4], true, digests(partitions, 1));
+    assertEquals(3, voting.getTask(tids[0]).size());
+    assertEquals(partitions, voting.getStateSize());
+
+    voting.clear();
+    assertEquals(0, voting.getStateSize());
+    assertTrue(voting.isEmpty(tids[0]));
+  }
+
+  /**
+   * With a majority only partition by partition, the replicas that agree on
+   * some partition are kept
+   */
+  public void testPartitionMajority() throws Exception {
+    VotingSystem voting = new IncrementalVoting(3, 2);
+    TaskID r0 = new TaskID(JOB, true, 5, 0);
+    TaskID r1 = new TaskID(JOB, true, 5, 1);
+    TaskID r2 = new TaskID(JOB, true, 5, 2);
+    DigestWritable[] xy = { digest(1), digest(2) };
+    DigestWritable[] xz = { digest(1), digest(3) };
+    DigestWritable[] wy = { digest(4), digest(2) };
+
+    voting.addHash(r0, true, xy);
+    voting.addHash(r1, true, xz);
+    assertEquals(MajorityVoting.NO_MAJORITY, voting.hasMajorityOfDigests(r0));
+    voting.addHash(r2, true, wy);
+    assertEquals(MajorityVoting.MAJORITY, voting.hasMajorityOfDigests(r0));
+    assertTrue(DigestWritable.equals(xy, voting.getMajorityDigests(r0)));
+    assertEquals(3, voting.getTask(r0).size());
+    assertTrue(DigestWritable.equals(xz, voting.getHash(r1)));
+    assertTrue(DigestWritable.equals(wy, voting.getHash(r2)));
+    assertFalse(voting.allEqual(r0, xy));
+
+    // the events of the replicas still make a voted event
+    List<TaskCompletionEvent> events = new ArrayList<TaskCompletionEvent>();
+    for (TaskID tid : voting.getTask(r0)) {
+      events.add(new TaskCompletionEvent(0, new TaskAttemptID(tid, 0), true,
+          TaskCompletionEvent.Status.SUCCEEDED, "http://host:50060", voting.getHash(tid), 0));
+    }
+    TaskCompletionEvent event = TaskCompletionEvent.voted(0, events, voting.getMajorityDigests(r0));
+    assertNotNull(event);
+    assertEquals(3, event.getReplicas().length);
+
+    // without one of them a partition has no majority left
+    assertTrue(voting.removeHash(r2));
+    assertEquals(MajorityVoting.NO_MAJORITY, voting.hasMajorityOfDigests(r0));
+  }
+
+  public void testMajorityVotingRemoveHash() throws Exception {
+    VotingSystem voting = new MajorityVoting(3, 1);
+    TaskID m0 = new TaskID(JOB, true, 1, 0);
+    voting.addHash(m0, true, digests(1, 0));
+    assertEquals(1, voting.getStateSize());
+    assertTrue(voting.removeHash(m0));
+    assertFalse(voting.removeHash(m0));
+    assertEquals(0, voting.getStateSize());
+
+    TaskID r0 = new TaskID(JOB, false, 1, 0);
+    TaskID r1 = new TaskID(JOB, false, 1, 1);
+    voting.addHash(r0, false, digests(1, 0));
+    voting.addHash(r1, false, digests(1, 1));
+    assertTrue(voting.removeHash(r0));
+    assertEquals(1, voting.getStateSize());
+    assertEquals(1, voting.getTask(r1).size());
+  }
+
+  public void testNoFaultTolerance() throws Exception {
+    VotingSystem voting = new IncrementalVoting(1, 2);
+    TaskID tid = new TaskID(JOB, true, 0, 0);
+    voting.addHash(tid, true, digests(2, 0));
+    assertEquals(MajorityVoting.MAJORITY, voting.hasMajorityOfDigests(tid));
+  }
+
+  public void testReduceWithoutMajority() throws Exception {
+    VotingSystem voting = new IncrementalVoting(3, 1);
+    assertEquals(-1, voting.getTaskWithoutMajority());
+    voting.addHash(new TaskID(JOB, false, 4, 0), false, digests(1, 0));
+    voting.addHash(new TaskID(JOB, false, 4, 1), false, digests(1, 1));
+    assertEquals(4, voting.getTaskWithoutMajority());
+    voting.addHash(new TaskID(JOB, false, 4, 2), false, digests(1, 1));
+    assertEquals(-1, voting.getTaskWithoutMajority());
+  }
+
+  /**
+   * Random votes give the same decisions as {@link MajorityVoting}
+   */
+  public void testSameAsMajorityVoting() throws Exception {
+    Random r = new Random(42);
+    int partitions = 4;
+    // MajorityVoting never finds a majority of a single digest, so f=0 is
+    // checked in testNoFaultTolerance
+    for (int replicas = 3; replicas <= 7; replicas += 2) {
+      VotingSystem expected = new MajorityVoting(replicas, partitions);
+      VotingSystem voting = new IncrementalVoting(replicas, partitions);
+      for (int task = 0; task < 200; task++) {
+        boolean isMap = r.nextBoolean();
+        for (int replica = 0; replica < replicas; replica++) {
+          TaskID tid = new TaskID(JOB, isMap, task, replica);
+          DigestWritable[] d = new DigestWritable[isMap ? partitions : 1];
+          for (int p = 0; p < d.length; p++) {
+            // few distinct values so that both majorities and ties happen
+            d[p] = digest(r.nextInt(3) == 0 ? r.nextInt(3) : 0);
+          }
+          expected.addHash(tid, isMap, d);
+          voting.addHash(tid, isMap, d);
+          assertEquals("task " + tid, expected.hasMajorityOfDigests(tid),
+                       voting.hasMajorityOfDigests(tid));
+        }
+      }
+    }
+  }
+}
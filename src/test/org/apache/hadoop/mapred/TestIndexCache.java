@@ -54,7 +54,7 @@ public class TestIndexCache extends TestCase {
 		for (; totalsize < 1024 * 1024; totalsize += bytesPerFile) {
 			Path f = new Path(p, Integer.toString(totalsize, 36));
 			writeFile(fs, f, totalsize, partsPerMap);
-			IndexRecord rec = cache.getIndexInformation(
+			SpillRecord.IndexRecord rec = cache.getIndexInformation(
 					Integer.toString(totalsize, 36), r.nextInt(partsPerMap), f);
 			checkRecord(rec, totalsize);
 		}
@@ -65,7 +65,7 @@ public class TestIndexCache extends TestCase {
 		}
 		for (int i = bytesPerFile; i < 1024 * 1024; i += bytesPerFile) {
 			Path f = new Path(p, Integer.toString(i, 36));
-			IndexRecord rec = cache.getIndexInformation(Integer.toString(i, 36),
+			SpillRecord.IndexRecord rec = cache.getIndexInformation(Integer.toString(i, 36),
 					r.nextInt(partsPerMap), f);
 			checkRecord(rec, i);
 		}
@@ -95,11 +95,11 @@ public class TestIndexCache extends TestCase {
 			fail("Failed to push out last entry");
 		// should find all the other entries
 		for (int i = bytesPerFile << 1; i < 1024 * 1024; i += bytesPerFile) {
-			IndexRecord rec = cache.getIndexInformation(Integer.toString(i, 36),
+			SpillRecord.IndexRecord rec = cache.getIndexInformation(Integer.toString(i, 36),
 					r.nextInt(partsPerMap), new Path(p, Integer.toString(i, 36)));
 			checkRecord(rec, i);
 		}
-		IndexRecord rec = cache.getIndexInformation(Integer.toString(totalsize, 36),
+		SpillRecord.IndexRecord rec = cache.getIndexInformation(Integer.toString(totalsize, 36),
 				r.nextInt(partsPerMap), f);
 		checkRecord(rec, totalsize);
 	}
@@ -139,7 +139,7 @@ public class TestIndexCache extends TestCase {
 		}
 	}
 
-	private static void checkRecord(IndexRecord rec, long fill) {
+	private static void checkRecord(SpillRecord.IndexRecord rec, long fill) {
 		assertEquals(fill, rec.startOffset);
 		assertEquals(fill, rec.rawLength);
 		assertEquals(fill, rec.partLength);
@@ -0,0 +1,88 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import org.apache.hadoop.mapred.MapLauncherController.State;
+
+import junit.framework.TestCase;
+
+public class TestMapLauncherController extends TestCase {
+  private static final JobID JOB = new JobID("200707121733", 1);
+
+  public void testMapStates() throws Exception {
+    MapLauncherController launcher = new MapLauncherController(4, 2, 3);
+    TaskID r0 = new TaskID(JOB, true, 2, 0);
+    TaskID r1 = new TaskID(JOB, true, 2, 1);
+    assertEquals(State.NONE, launcher.getState(r0));
+    assertEquals(3, launcher.getReplicas(r0, State.NONE));
+
+    launcher.addToRun(r0);
+    launcher.addToRun(r1);
+    assertEquals(State.PREPARED, launcher.getState(r0));
+    assertEquals(2, launcher.getReplicas(r0, State.PREPARED));
+
+    launcher.addMapsLaunched(new TaskAttemptID(r0, 0));
+    assertEquals(State.LAUNCHED, launcher.getState(r0));
+    assertEquals(1, launcher.getReplicas(r1, State.LAUNCHED));
+
+    launcher.addSuccessfulMap(r0);
+    assertEquals(State.SUCCEEDED, launcher.getState(r0));
+    // a succeeded replica isn't launched again
+    launcher.addMapsLaunched(new TaskAttemptID(r0, 1));
+    assertEquals(State.SUCCEEDED, launcher.getState(r0));
+
+    // a replica that failed before it was launched
+    launcher.removeToRun(r1);
+    assertEquals(State.NONE, launcher.getState(r1));
+    assertEquals(0, launcher.getReplicas(r1, State.PREPARED));
+    assertEquals(2, launcher.getReplicas(r1, State.NONE));
+    assertEquals(1, launcher.getReplicas(r1, State.SUCCEEDED));
+
+    // other maps are not touched
+    assertEquals(3, launcher.getReplicas(new TaskID(JOB, true, 3, 0), State.NONE));
+  }
+
+  public void testReduceAndOthers() throws Exception {
+    MapLauncherController launcher = new MapLauncherController(4, 2, 3);
+    TaskID reduce = new TaskID(JOB, false, 1, 2);
+    launcher.addToRun(reduce);
+    assertEquals(State.LAUNCHED, launcher.getState(reduce));
+    assertEquals(State.NONE, launcher.getState(new TaskID(JOB, true, 1, 2)));
+
+    // ids out of the job are ignored
+    launcher.addToRun(new TaskID(JOB, true, 4, 0));
+    launcher.addToRun(new TaskID(JOB, true, 0, 3));
+    assertEquals(State.NONE, launcher.getState(new TaskID(JOB, true, 4, 0)));
+
+    assertTrue(launcher.addTaskTrackerMap("tracker", "task"));
+    assertFalse(launcher.addTaskTrackerMap("tracker", "task"));
+    launcher.removeTaskTrackerMap("tracker", "task");
+    assertTrue(launcher.addTaskTrackerMap("tracker", "task"));
+  }
+
+  public void testTryAddtask() throws Exception {
+    TaskCounter counter = new TaskCounter(6, 3);
+    assertTrue(counter.tryAddtask(1, 2));
+    assertTrue(counter.tryAddtask(1, 2));
+    assertFalse(counter.tryAddtask(1, 2));
+    counter.removetask(1);
+    assertTrue(counter.tryAddtask(1, 2));
+    assertEquals(2, counter.getCount(1));
+    assertEquals(0, counter.getTaskCounter()[0]);
+  }
+}
@@ -0,0 +1,174 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class TestMapReplicaChooser extends TestCase {
+  private static final JobID JOB = new JobID("200707121733", 4);
+  private static final Set<TaskAttemptID> NONE = Collections.emptySet();
+
+  private static class Replica implements MapReplicaChooser.Replica {
+    private final TaskAttemptID attempt;
+    private final String host;
+    private final DigestWritable hash;
+    private final boolean voted;
+
+    Replica(int replica, String host, int digest, boolean voted) {
+      this.attempt = new TaskAttemptID(new TaskID(JOB, true, 3, replica), 0);
+      this.host = host;
+      this.hash = new DigestWritable(new byte[] { (byte) digest, 1, 2, 3 });
+      this.voted = voted;
+    }
+
+    public TaskAttemptID getTaskAttemptId() { return attempt; }
+    public String getHost() { return host; }
+    public DigestWritable getHash() { return hash; }
+    public boolean isVoted() { return voted; }
+  }
+
+  private static List<Replica> replicas(Replica... replicas) {
+    List<Replica> list = new ArrayList<Replica>();
+    Collections.addAll(list, replicas);
+    return list;
+  }
+
+  /**
+   * In deferred execution a map output is only copied once a majority of
+   * replicas agree on it, from one of them
+   */
+  public void testMajority() throws Exception {
+    MapReplicaChooser chooser = new MapReplicaChooser(2, 2);
+    Replica r0 = new Replica(0, "host0", 1, false);
+    Replica r1 = new Replica(1, "host1", 2, false);
+    Replica r2 = new Replica(2, "host2", 1, false);
+
+    assertNull(chooser.choose(replicas(r0), null, NONE));
+    assertNull(chooser.choose(replicas(r0, r1), null, NONE));
+    // r0 and r2 agree; r2 has the reduce's replica number
+    assertSame(r2, chooser.choose(replicas(r0, r1, r2), null, NONE));
+
+    // a voted replica needs no other
+    Replica voted = new Replica(1, "host1", 2, true);
+    assertSame(voted, chooser.choose(replicas(voted), null, NONE));
+  }
+
+  /**
+   * In tentative execution the first replica is copied, and the reduce
+   * replicas spread over the map replicas
+   */
+  public void testClosestReplica() throws Exception {
+    Replica r0 = new Replica(0, "host0", 1, false);
+    Replica r1 = new Replica(1, "host1", 1, false);
+    Replica r2 = new Replica(2, "host2", 1, false);
+
+    assertSame(r2, new MapReplicaChooser(0, 1).choose(replicas(r2), null, NONE));
+    for (int reduce = 0; reduce < 3; reduce++) {
+      Replica chosen = new MapReplicaChooser(reduce, 1).choose(replicas(r0, r1, r2), null, NONE);
+      assertEquals(reduce, chosen.getTaskAttemptId().getTaskID().getReplicaNumber());
+    }
+  }
+
+  /**
+   * After a failed copy another agreeing replica is chosen; the failed one
+   * only if there is no other, and obsolete ones never
+   */
+  public void testFallback() throws Exception {
+    MapReplicaChooser chooser = new MapReplicaChooser(0, 2);
+    Replica r0 = new Replica(0, "host0", 1, false);
+    Replica r1 = new Replica(1, "host1", 1, false);
+    Replica r2 = new Replica(2, "host2", 7, false);
+    List<Replica> all = replicas(r0, r1, r2);
+
+    assertSame(r0, chooser.choose(all, null, NONE));
+    assertSame(r1, chooser.choose(all, r0, NONE));
+    assertSame(r0, chooser.choose(all, r1, NONE));
+
+    Set<TaskAttemptID> obsolete = new HashSet<TaskAttemptID>();
+    obsolete.add(r1.getTaskAttemptId());
+    assertSame(r0, chooser.choose(all, r0, obsolete));
+    obsolete.add(r0.getTaskAttemptId());
+    assertNull(chooser.choose(all, r0, obsolete));
+  }
+
+  /**
+   * Agreeing replicas are copied from the hosts with the fewest copies
+   * outstanding
+   */
+  public void testHostLoad() throws Exception {
+    MapReplicaChooser chooser = new MapReplicaChooser(0, 2);
+    Replica r0 = new Replica(0, "host0", 1, false);
+    Replica r1 = new Replica(1, "host1", 1, false);
+    Replica r2 = new Replica(2, "host2", 1, false);
+    List<Replica> all = replicas(r0, r1, r2);
+
+    // every host gets a copy before any gets a second one
+    Set<String> hosts = new HashSet<String>();
+    for (int i = 0; i < 3; i++) {
+      Replica chosen = chooser.choose(all, null, NONE);
+      assertTrue(hosts.add(chosen.getHost()));
+      chooser.scheduled(chosen.getHost());
+    }
+    assertEquals(3, hosts.size());
+
+    chooser.done("host2", 0, 0);
+    assertSame(r2, chooser.choose(all, null, NONE));
+    assertEquals(0, chooser.getLoad("host2").outstanding);
+
+    chooser.clearScheduled();
+    assertEquals(0, chooser.getLoad("host0").outstanding);
+    assertSame(r0, chooser.choose(all, null, NONE));
+  }
+
+  /**
+   * A host that serves its copies faster gets more of them
+   */
+  public void testHostRate() throws Exception {
+    MapReplicaChooser chooser = new MapReplicaChooser(0, 1);
+    Replica r0 = new Replica(0, "host0", 1, false);
+    Replica r1 = new Replica(1, "host1", 1, false);
+    List<Replica> both = replicas(r0, r1);
+
+    chooser.scheduled("host0");
+    chooser.scheduled("host1");
+    // host1 is four times as fast as host0
+    chooser.done("host0", 1000, 100);
+    chooser.done("host1", 1000, 25);
+    assertEquals(10.0, chooser.getLoad("host0").rate);
+    assertEquals(40.0, chooser.getLoad("host1").rate);
+
+    // host1 takes copies until it has four times the outstanding ones
+    for (int i = 0; i < 3; i++) {
+      assertSame(r1, chooser.choose(both, null, NONE));
+      chooser.scheduled("host1");
+    }
+    chooser.scheduled("host1");
+    assertSame(r0, chooser.choose(both, null, NONE));
+
+    // a failed copy doesn't change the rate
+    chooser.done("host1", 0, 1000);
+    assertEquals(40.0, chooser.getLoad("host1").rate);
+    assertEquals(3, chooser.getLoad("host1").outstanding);
+  }
+}
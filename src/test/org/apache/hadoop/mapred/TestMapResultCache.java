@@ -0,0 +1,209 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.DataInputStream;
+import java.util.Arrays;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.MD5MD5CRC32FileChecksum;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.mapred.lib.IdentityMapper;
+
+import junit.framework.TestCase;
+
+public class TestMapResultCache extends TestCase {
+  private static final Path TEST_DIR =
+    new Path(System.getProperty("test.build.data", "/tmp"), "TestMapResultCache");
+  private static final TaskAttemptID ATTEMPT =
+    TaskAttemptID.forName("attempt_201005301215_0001_m_000003_1_0");
+
+  private static FileChecksum checksum(String content) {
+    return new MD5MD5CRC32FileChecksum(512, 128, MD5Hash.digest(content));
+  }
+
+  private static String key(byte[] split, FileChecksum checksum, byte[] jar, JobConf conf) {
+    return MapResultCache.getKey(FileSplit.class.getName(), split, split.length, checksum, jar, conf);
+  }
+
+  public void testKey() throws Exception {
+    JobConf conf = new JobConf();
+    byte[] split = { 1, 2, 3 };
+    byte[] jar = { 4, 5 };
+    String key = key(split, checksum("a"), jar, conf);
+    assertEquals(key, key(split, checksum("a"), jar, new JobConf()));
+
+    // the input, the split, the code and the configuration change the key
+    assertFalse(key.equals(key(split, checksum("b"), jar, conf)));
+    assertFalse(key.equals(key(new byte[] { 1, 2, 4 }, checksum("a"), jar, conf)));
+    assertFalse(key.equals(key(split, checksum("a"), new byte[] { 4, 6 }, conf)));
+    JobConf mapper = new JobConf();
+    mapper.setMapperClass(IdentityMapper.class);
+    assertFalse(key.equals(key(split, checksum("a"), jar, mapper)));
+
+    // the extra keys are only used when they are asked for
+    JobConf other = new JobConf();
+    other.set("my.key", "1");
+    assertEquals(key, key(split, checksum("a"), jar, other));
+    other.setMapResultCacheKeys("my.key");
+    assertFalse(key.equals(key(split, checksum("a"), jar, other)));
+  }
+
+  public void testStoreAndLookup() throws Exception {
+    JobConf conf = new JobConf();
+    FileSystem fs = FileSystem.getLocal(conf);
+    fs.delete(TEST_DIR, true);
+    MapResultCache cache = new MapResultCache(new Path(TEST_DIR, "cache"), conf);
+    String key = "0123456789abcdef";
+    DigestWritable[] digests = { new DigestWritable(new byte[] { 1 }),
+                                 new DigestWritable(new byte[] { 2 }) };
+
+    // a map output of two partitions
+    Path file = new Path(TEST_DIR, "file.out");
+    Path index = new Path(TEST_DIR, "file.out.index");
+    FSDataOutputStream out = FileSystem.getLocal(conf).getRaw().create(file);
+    out.write(new byte[] { 10, 11, 12, 20, 21 });
+    out.close();
+    SpillRecord spill = new SpillRecord(2);
+    spill.putIndex(new SpillRecord.IndexRecord(0, 30, 3), 0);
+    spill.putIndex(new SpillRecord.IndexRecord(3, 20, 2), 1);
+    spill.writeToFile(index, conf);
+
+    assertNull(cache.lookup(key, 2));
+    // the replica didn't copy its output
+    assertFalse(cache.store(key, ATTEMPT, digests));
+
+    MapResultCache.stage(conf, cache.getKeyDir(key), ATTEMPT, file, index);
+    assertNull(cache.lookup(key, 2));
+    assertTrue(cache.store(key, ATTEMPT, digests));
+    MapResultCache.Entry kept = cache.lookup(key, 2);
+    assertTrue(DigestWritable.equals(digests, kept.digests));
+    assertFalse(fs.exists(new Path(cache.getKeyDir(key), MapResultCache.ATTEMPTS)));
+    // the number of reduces must match
+    assertNull(cache.lookup(key, 3));
+
+    SpillRecord.IndexRecord info = new SpillRecord.IndexRecord();
+    DataInputStream in = MapResultCache.open(fs, kept.output, 1, info);
+    assertEquals(20, info.rawLength);
+    assertEquals(2, info.partLength);
+    assertEquals(20, in.read());
+    assertEquals(21, in.read());
+    in.close();
+
+    cache.evict(key);
+    assertNull(cache.lookup(key, 2));
+    fs.delete(TEST_DIR, true);
+  }
+
+  public void testStoreLater() throws Exception {
+    JobConf conf = new JobConf();
+    FileSystem fs = FileSystem.getLocal(conf);
+    fs.delete(TEST_DIR, true);
+    MapResultCache cache = new MapResultCache(new Path(TEST_DIR, "cache"), conf);
+    String key = "fedcba9876543210";
+    DigestWritable[] digests = { new DigestWritable(new byte[] { 1 }) };
+
+    Path file = new Path(TEST_DIR, "file.out");
+    Path index = new Path(TEST_DIR, "file.out.index");
+    FSDataOutputStream out = FileSystem.getLocal(conf).getRaw().create(file);
+    out.write(new byte[] { 10, 11 });
+    out.close();
+    SpillRecord spill = new SpillRecord(1);
+    spill.putIndex(new SpillRecord.IndexRecord(0, 20, 2), 0);
+    spill.writeToFile(index, conf);
+    MapResultCache.stage(conf, cache.getKeyDir(key), ATTEMPT, file, index);
+
+    // the first replica didn't copy its output, the next one is kept
+    TaskAttemptID other = TaskAttemptID.forName("attempt_201005301215_0001_m_000003_0_0");
+    cache.storeLater(key, Arrays.asList(other, ATTEMPT), digests);
+    assertTrue(DigestWritable.equals(digests, cache.lookup(key, 1).digests));
+    fs.delete(TEST_DIR, true);
+  }
+
+  /**
+   * An output kept again for a key replaces the previous one without the
+   * key ever being without an output
+   */
+  public void testStoreAgain() throws Exception {
+    JobConf conf = new JobConf();
+    FileSystem fs = FileSystem.getLocal(conf);
+    fs.delete(TEST_DIR, true);
+    MapResultCache cache = new MapResultCache(new Path(TEST_DIR, "cache"), conf);
+    String key = "00112233445566778899";
+    DigestWritable[] digests = { new DigestWritable(new byte[] { 1 }) };
+
+    Path file = new Path(TEST_DIR, "file.out");
+    Path index = new Path(TEST_DIR, "file.out.index");
+    FSDataOutputStream out = FileSystem.getLocal(conf).getRaw().create(file);
+    out.write(new byte[] { 10, 11 });
+    out.close();
+    SpillRecord spill = new SpillRecord(1);
+    spill.putIndex(new SpillRecord.IndexRecord(0, 20, 2), 0);
+    spill.writeToFile(index, conf);
+
+    Path[] outputs = new Path[3];
+    for (int i = 0; i < outputs.length; i++) {
+      MapResultCache.stage(conf, cache.getKeyDir(key), ATTEMPT, file, index);
+      assertTrue(cache.store(key, ATTEMPT, digests));
+      outputs[i] = cache.lookup(key, 1).output;
+      assertTrue(DigestWritable.equals(digests, cache.lookup(key, 1).digests));
+    }
+
+    // each output is new, and the previous one stays for its readers
+    assertFalse(outputs[0].equals(outputs[1]));
+    assertFalse(outputs[1].equals(outputs[2]));
+    assertFalse(fs.exists(outputs[0]));
+    assertTrue(fs.exists(outputs[1]));
+    assertTrue(fs.exists(outputs[2]));
+
+    cache.evict(key);
+    assertNull(cache.lookup(key, 1));
+    fs.delete(TEST_DIR, true);
+  }
+
+  public void testCachedEvent() throws Exception {
+    DigestWritable[] digests = { new DigestWritable(new byte[] { 1 }),
+                                 new DigestWritable(new byte[] { 2 }) };
+    TaskCompletionEvent event = TaskCompletionEvent.cached(4, ATTEMPT,
+        "hdfs://nn:8020/cache/0123/output", digests);
+
+    DataOutputBuffer out = new DataOutputBuffer();
+    event.write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    TaskCompletionEvent copy = new TaskCompletionEvent();
+    copy.readFields(in);
+    assertTrue(copy.isCached());
+    assertTrue(copy.isVoted());
+    assertEquals(ATTEMPT, copy.getReplicas()[0]);
+
+    TaskCompletionEvent part = copy.forPartition(1);
+    assertTrue(part.isCached());
+    assertEquals("hdfs://nn:8020/cache/0123/output", part.getReplicaHttps()[0]);
+    assertEquals(digests[1], part.getDigest(1));
+
+    TaskCompletionEvent plain = new TaskCompletionEvent(0, ATTEMPT, true,
+        TaskCompletionEvent.Status.SUCCEEDED, "http://host:50060", digests, 3);
+    assertFalse(plain.isCached());
+  }
+}
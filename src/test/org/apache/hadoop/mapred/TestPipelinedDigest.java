@@ -0,0 +1,74 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TestPipelinedDigest extends TestCase {
+
+  /**
+   * Random writes give the digest of the same bytes hashed inline
+   */
+  public void testSameDigest() throws Exception {
+    Random r = new Random(7);
+    Sha1Hash inline = new Sha1Hash();
+    for (int buffers = 1; buffers <= 4; buffers++) {
+      DigestFactory pipelined = new DigestFactory(inline, buffers, 0);
+      MessageDigest expected = inline.newInstance();
+      MessageDigest md = pipelined.newInstance();
+      assertTrue(md instanceof PipelinedDigest);
+
+      for (int digest = 0; digest < 5; digest++) {
+        // writes both smaller and larger than a buffer
+        for (int i = 0; i < 50; i++) {
+          byte[] b = new byte[r.nextInt(3 * PipelinedDigest.BUFFER_SIZE)];
+          r.nextBytes(b);
+          int off = b.length == 0 ? 0 : r.nextInt(b.length);
+          expected.update(b, off, b.length - off);
+          md.update(b, off, b.length - off);
+          expected.update((byte) i);
+          md.update((byte) i);
+        }
+        assertTrue(Arrays.equals(expected.digest(), md.digest()));
+      }
+
+      md.update(new byte[PipelinedDigest.BUFFER_SIZE + 1]);
+      md.reset();
+      assertTrue(Arrays.equals(expected.digest(), md.digest()));
+    }
+  }
+
+  public void testSegmentDigests() throws Exception {
+    DigestFactory hashGen = new DigestFactory(new Sha1Hash(), 2, 0);
+    SegmentDigestOutputStream out = new SegmentDigestOutputStream(
+        new ByteArrayOutputStream(), hashGen.newInstance());
+    byte[] b = new byte[PipelinedDigest.BUFFER_SIZE * 5 / 2];
+    new Random(1).nextBytes(b);
+    for (int i = 0; i < 3; i++) {
+      out.startSegment();
+      out.write(b, 0, b.length - i);
+      assertTrue(Arrays.equals(new Sha1Hash().newInstance().digest(
+          Arrays.copyOf(b, b.length - i)), out.endSegment()));
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import junit.framework.TestCase;
+
+public class TestProgressVoting extends TestCase {
+  private static final JobID JOB = new JobID("200707121733", 3);
+
+  private static DigestWritable[] digests(int... values) {
+    DigestWritable[] d = new DigestWritable[values.length];
+    for (int i = 0; i < values.length; i++) {
+      d[i] = new DigestWritable(new byte[] { (byte) values[i], 1, 2, 3 });
+    }
+    return d;
+  }
+
+  private static TaskID replica(int id, int replica) {
+    return new TaskID(JOB, false, id, replica);
+  }
+
+  public void testDivergentReplica() throws Exception {
+    ProgressVoting voting = new ProgressVoting(2);
+    assertTrue(voting.add(replica(0, 0), 0, digests(1, 2, 3)).isEmpty());
+    // disagrees at the third position, which is not decided yet
+    assertTrue(voting.add(replica(0, 1), 0, digests(1, 2)).isEmpty());
+    assertTrue(voting.add(replica(0, 1), 2, digests(9)).isEmpty());
+    assertTrue(voting.isDisputed(0));
+    // the third replica decides it
+    assertEquals("[1]", voting.add(replica(0, 2), 0, digests(1, 2, 3)).toString());
+    // a late replica is checked against the decided positions
+    assertEquals("[3]", voting.add(replica(0, 3), 1, digests(7)).toString());
+    assertTrue(voting.add(replica(0, 3), 2, digests(3)).isEmpty());
+
+    // other reduces are voted apart
+    assertTrue(voting.add(replica(1, 0), 0, digests(9)).isEmpty());
+    assertFalse(voting.isDisputed(1));
+    assertEquals(4, voting.getStateSize());
+    voting.clear(0);
+    assertEquals(1, voting.getStateSize());
+    assertFalse(voting.isDisputed(0));
+  }
+
+  /**
+   * A failed replica starts over, without its undecided votes
+   */
+  public void testRemove() throws Exception {
+    ProgressVoting voting = new ProgressVoting(2);
+    voting.add(replica(0, 0), 0, digests(1, 2));
+    voting.add(replica(0, 1), 0, digests(1, 5));
+    voting.remove(replica(0, 1));
+    assertEquals(2, voting.getStateSize());
+    voting.remove(replica(0, 0));
+    // the decided position is kept
+    assertEquals(1, voting.getStateSize());
+    assertTrue(voting.add(replica(0, 1), 0, digests(1, 2)).isEmpty());
+    assertTrue(voting.add(replica(0, 2), 1, digests(2)).isEmpty());
+    assertEquals("[0]", voting.add(replica(0, 0), 0, digests(1, 4)).toString());
+  }
+}
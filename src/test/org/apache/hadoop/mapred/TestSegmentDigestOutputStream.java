@@ -0,0 +1,144 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import junit.framework.TestCase;
+
+public class TestSegmentDigestOutputStream extends TestCase {
+  private static final Path TEST_DIR = new Path(
+      System.getProperty("test.build.data", "/tmp"), "segmentdigest");
+
+  public void testSegmentDigests() throws Exception {
+    checkSegmentDigests(null);
+  }
+
+  public void testSegmentDigestsCompressed() throws Exception {
+    JobConf conf = new JobConf();
+    checkSegmentDigests(ReflectionUtils.newInstance(DefaultCodec.class, conf));
+  }
+
+  /**
+   * The record digest of a partition is the same with and without a codec,
+   * and it is the digest of the records read back from the segment.
+   */
+  public void testRecordDigests() throws Exception {
+    JobConf conf = new JobConf();
+    byte[] plain = checkRecordDigest(conf, null);
+    byte[] compressed = checkRecordDigest(conf,
+        ReflectionUtils.newInstance(DefaultCodec.class, conf));
+    assertTrue(Arrays.equals(plain, compressed));
+  }
+
+  private byte[] checkRecordDigest(JobConf conf, CompressionCodec codec)
+      throws Exception {
+    FileSystem rfs = FileSystem.getLocal(conf).getRaw();
+    Path file = new Path(TEST_DIR, "records.out");
+    MessageDigest recordDigest = new Sha1Hash().newInstance();
+
+    IFile.Writer<Text, Text> writer = new IFile.Writer<Text, Text>(
+        conf, rfs.create(file), Text.class, Text.class, codec, null, recordDigest);
+    for (int i = 0; i < 1000; i++) {
+      writer.append(new Text("key" + i), new Text("value" + i));
+    }
+    writer.close();
+    byte[] digest = recordDigest.digest();
+
+    InputStream in = new IFileInputStream(rfs.open(file),
+        writer.getCompressedLength());
+    if (codec != null) {
+      in = codec.createInputStream(in);
+    }
+    byte[] records = new byte[(int) writer.getRawLength()];
+    try {
+      int read = 0;
+      while (read < records.length) {
+        int n = in.read(records, read, records.length - read);
+        assertTrue(n > 0);
+        read += n;
+      }
+    } finally {
+      in.close();
+      rfs.delete(TEST_DIR, true);
+    }
+    assertTrue(Arrays.equals(new Sha1Hash().newInstance().digest(records), digest));
+    return digest;
+  }
+
+  /**
+   * Write a few IFile segments through the digesting stream and check each
+   * digest against the segment bytes read back from disk.
+   */
+  private void checkSegmentDigests(CompressionCodec codec) throws Exception {
+    final int partitions = 4;
+    JobConf conf = new JobConf();
+    FileSystem rfs = FileSystem.getLocal(conf).getRaw();
+    Path file = new Path(TEST_DIR, "file.out");
+    Sha1Hash hashGen = new Sha1Hash();
+
+    SegmentDigestOutputStream digestOut =
+      new SegmentDigestOutputStream(rfs.create(file), hashGen.newInstance());
+    FSDataOutputStream out = new FSDataOutputStream(digestOut, null);
+    long[] start = new long[partitions];
+    long[] length = new long[partitions];
+    byte[][] digests = new byte[partitions][];
+    try {
+      for (int p = 0; p < partitions; p++) {
+        start[p] = out.getPos();
+        digestOut.startSegment();
+        IFile.Writer<Text, Text> writer = new IFile.Writer<Text, Text>(
+            conf, out, Text.class, Text.class, codec, null);
+        for (int i = 0; i < 100 * p; i++) {
+          writer.append(new Text("key" + i), new Text("value" + p + "_" + i));
+        }
+        writer.close();
+        digests[p] = digestOut.endSegment();
+        length[p] = writer.getCompressedLength();
+        assertEquals(out.getPos() - start[p], length[p]);
+      }
+    } finally {
+      out.close();
+    }
+
+    FSDataInputStream in = rfs.open(file);
+    try {
+      for (int p = 0; p < partitions; p++) {
+        byte[] segment = new byte[(int) length[p]];
+        in.readFully(start[p], segment);
+        MessageDigest md = hashGen.newInstance();
+        assertTrue("Digest of partition " + p,
+            Arrays.equals(md.digest(segment), digests[p]));
+      }
+    } finally {
+      in.close();
+      rfs.delete(TEST_DIR, true);
+    }
+  }
+}
@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import junit.framework.TestCase;
+
+/**
+ * The shuffle digests a map output as it is copied and rejects it if the
+ * digest isn't the one the map reported for the partition.
+ */
+public class TestShuffleDigest extends TestCase {
+  private static final JobID JOB = new JobID("200707121733", 5);
+
+  private static class Replica implements MapReplicaChooser.Replica {
+    private final TaskAttemptID attempt =
+      new TaskAttemptID(new TaskID(JOB, true, 1, 0), 0);
+    private final DigestWritable hash;
+
+    Replica(byte[] hash) {
+      this.hash = hash == null ? null : new DigestWritable(hash);
+    }
+
+    public TaskAttemptID getTaskAttemptId() { return attempt; }
+    public String getHost() { return "host0"; }
+    public DigestWritable getHash() { return hash; }
+    public boolean isVoted() { return false; }
+  }
+
+  /** A map output segment and the digest the map took of it */
+  private static class Segment {
+    byte[] bytes;
+    byte[] digest;
+    byte[] recordDigest;
+  }
+
+  private static Segment write(JobConf conf, CompressionCodec codec, String value)
+      throws IOException {
+    ByteArrayOutputStream file = new ByteArrayOutputStream();
+    SegmentDigestOutputStream digestOut =
+      new SegmentDigestOutputStream(file, new Sha1Hash().newInstance());
+    FSDataOutputStream out = new FSDataOutputStream(digestOut, null);
+    MessageDigest recordDigest = new Sha1Hash().newInstance();
+
+    digestOut.startSegment();
+    IFile.Writer<Text, Text> writer = new IFile.Writer<Text, Text>(
+        conf, out, Text.class, Text.class, codec, null, recordDigest);
+    for (int i = 0; i < 500; i++) {
+      writer.append(new Text("key" + i), new Text(value + i));
+    }
+    writer.close();
+
+    Segment segment = new Segment();
+    segment.digest = digestOut.endSegment();
+    segment.recordDigest = recordDigest.digest();
+    out.close();
+    segment.bytes = file.toByteArray();
+    return segment;
+  }
+
+  /**
+   * Copy a segment the way the shuffle reads it from the connection,
+   * digesting the bytes or the records, and check the digest
+   */
+  private static void copy(Segment segment, CompressionCodec codec, boolean logical,
+                           byte[] expected) throws IOException {
+    InputStream input = new ByteArrayInputStream(segment.bytes);
+    DigestInputStream digestIn = null;
+    if (!logical) {
+      digestIn = new DigestInputStream(input, new Sha1Hash().newInstance());
+      input = digestIn;
+    }
+    input = new IFileInputStream(input, segment.bytes.length);
+    if (codec != null) {
+      input = codec.createInputStream(input);
+    }
+    if (logical) {
+      digestIn = new DigestInputStream(input, new Sha1Hash().newInstance());
+      input = digestIn;
+    }
+
+    byte[] buf = new byte[4096];
+    while (input.read(buf, 0, buf.length) > 0) {
+    }
+    input.close();
+
+    ReduceTask.checkDigest(new Replica(expected), digestIn.getMessageDigest());
+  }
+
+  private void checkCopies(CompressionCodec codec) throws Exception {
+    JobConf conf = new JobConf();
+    Segment good = write(conf, codec, "value");
+    Segment bad = write(conf, codec, "other");
+
+    copy(good, codec, false, good.digest);
+    copy(good, codec, true, good.recordDigest);
+    // a map that didn't report a digest
+    copy(bad, codec, false, null);
+
+    // a replica that served other bytes than the voted ones, with a valid
+    // IFile checksum
+    try {
+      copy(bad, codec, false, good.digest);
+      fail("Copied a map output with another digest");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().startsWith("Digest of the map output"));
+    }
+    try {
+      copy(bad, codec, true, good.recordDigest);
+      fail("Copied map output records with another digest");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().startsWith("Digest of the map output"));
+    }
+  }
+
+  public void testCopyDigest() throws Exception {
+    checkCopies(null);
+  }
+
+  public void testCopyDigestCompressed() throws Exception {
+    checkCopies(ReflectionUtils.newInstance(DefaultCodec.class, new JobConf()));
+  }
+}
@@ -0,0 +1,52 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import junit.framework.TestCase;
+
+public class TestTrackerTrust extends TestCase {
+
+  public void testTrust() throws Exception {
+    TrackerTrust trust = new TrackerTrust();
+    assertFalse(trust.isTrusted("t1", 3));
+    assertFalse(trust.isSuspect("t1", 3));
+
+    for (int i = 0; i < 3; i++) {
+      assertFalse(trust.isTrusted("t1", 3));
+      trust.agreed("t1");
+    }
+    assertTrue(trust.isTrusted("t1", 3));
+    assertFalse(trust.isTrusted("t1", 0));
+    assertFalse(trust.isTrusted("t2", 3));
+
+    // one minority digest makes it suspect until it agrees 3 times again
+    trust.disagreed("t1");
+    assertFalse(trust.isTrusted("t1", 3));
+    assertTrue(trust.isSuspect("t1", 3));
+    trust.agreed("t1");
+    trust.agreed("t1");
+    assertTrue(trust.isSuspect("t1", 3));
+    trust.agreed("t1");
+    assertFalse(trust.isSuspect("t1", 3));
+    assertTrue(trust.isTrusted("t1", 3));
+
+    assertEquals(6, trust.getAgreements("t1"));
+    assertEquals(1, trust.getDisagreements("t1"));
+    assertEquals(0, trust.getDisagreements("t2"));
+  }
+}
@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TestTreeDigest extends TestCase {
+  private static final DigestProvider SHA1 = new Sha1Hash();
+  private static final int CHUNK = 1000;
+
+  private static byte[] bytes(int length, long seed) {
+    byte[] b = new byte[length];
+    new Random(seed).nextBytes(b);
+    return b;
+  }
+
+  private static MessageDigest newTree() {
+    return new DigestFactory(SHA1, 0, CHUNK).newInstance();
+  }
+
+  /**
+   * The root is the same however the bytes are written, and it is the
+   * root of the leaves of each chunk
+   */
+  public void testDeterministic() throws Exception {
+    byte[] b = bytes(10 * CHUNK + 123, 1);
+    MessageDigest md = newTree();
+    assertTrue(md instanceof TreeDigest);
+    byte[] whole = md.digest(b);
+
+    Random r = new Random(2);
+    for (int off = 0; off < b.length; ) {
+      int n = Math.min(b.length - off, r.nextInt(3 * CHUNK));
+      md.update(b, off, n);
+      off += n;
+    }
+    assertTrue(Arrays.equals(whole, md.digest()));
+
+    List<byte[]> leaves = new ArrayList<byte[]>();
+    for (int off = 0; off < b.length; off += CHUNK) {
+      leaves.add(TreeDigest.leaf(SHA1, b, off, Math.min(CHUNK, b.length - off)));
+    }
+    assertEquals(11, ((TreeDigest) md).getLeafDigests().size());
+    assertTrue(Arrays.equals(whole, TreeDigest.root(SHA1, leaves)));
+    assertFalse(Arrays.equals(whole, SHA1.newInstance().digest(b)));
+  }
+
+  public void testDifferentInputs() throws Exception {
+    MessageDigest md = newTree();
+    byte[] b = bytes(4 * CHUNK, 3);
+    byte[] root = md.digest(b);
+
+    byte[] changed = b.clone();
+    changed[3 * CHUNK + 7]++;
+    assertFalse(Arrays.equals(root, md.digest(changed)));
+    assertFalse(Arrays.equals(root, md.digest(Arrays.copyOf(b, b.length - 1))));
+    assertFalse(Arrays.equals(root, md.digest(Arrays.copyOf(b, b.length + 1))));
+
+    // empty input is one empty leaf
+    assertTrue(Arrays.equals(md.digest(new byte[0]),
+        TreeDigest.leaf(SHA1, new byte[0], 0, 0)));
+  }
+
+  /**
+   * A partial copy is checked chunk by chunk against the leaves
+   */
+  public void testVerifiedChunks() throws Exception {
+    TreeDigest md = (TreeDigest) newTree();
+    byte[] b = bytes(5 * CHUNK + 10, 4);
+    byte[] root = md.digest(b);
+    List<byte[]> leaves = md.getLeafDigests();
+    assertTrue(Arrays.equals(root, TreeDigest.root(SHA1, leaves)));
+
+    assertEquals(6, TreeDigest.verifiedChunks(SHA1, CHUNK, leaves, b, b.length));
+    assertEquals(2, TreeDigest.verifiedChunks(SHA1, CHUNK, leaves, b, 2 * CHUNK + 500));
+
+    byte[] copy = b.clone();
+    copy[3 * CHUNK + 1]++;
+    assertEquals(3, TreeDigest.verifiedChunks(SHA1, CHUNK, leaves, copy, copy.length));
+  }
+}
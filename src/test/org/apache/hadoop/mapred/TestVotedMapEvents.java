@@ -0,0 +1,146 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+
+import junit.framework.TestCase;
+
+public class TestVotedMapEvents extends TestCase {
+
+  private static final String MAP = "attempt_201005301215_0001_m_000003_";
+
+  private static DigestWritable d(int value) {
+    return new DigestWritable(new byte[] { (byte) value, 7, 7, 7 });
+  }
+
+  private static TaskCompletionEvent event(int replica, DigestWritable... digests) {
+    TaskAttemptID attempt = TaskAttemptID.forName(MAP + replica + "_0");
+    TaskCompletionEvent event = new TaskCompletionEvent(replica, attempt, true,
+        TaskCompletionEvent.Status.SUCCEEDED, "http://host" + replica + ":50060", digests, 3);
+    event.setTaskRunTime(100 + replica);
+    return event;
+  }
+
+  private static TaskCompletionEvent copy(TaskCompletionEvent event) throws Exception {
+    DataOutputBuffer out = new DataOutputBuffer();
+    event.write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    TaskCompletionEvent copy = new TaskCompletionEvent();
+    copy.readFields(in);
+    return copy;
+  }
+
+  private static List<TaskCompletionEvent> replicas() {
+    List<TaskCompletionEvent> events = new ArrayList<TaskCompletionEvent>();
+    events.add(event(0, d(1), d(2)));
+    events.add(event(1, d(1), d(2)));
+    // only agrees on partition 0
+    events.add(event(2, d(1), d(9)));
+    return events;
+  }
+
+  /**
+   * The voting gives the digests of the majority, partition by partition
+   */
+  public void testMajorityDigests() throws Exception {
+    for (VotingSystem voting : new VotingSystem[] {
+        new IncrementalVoting(3, 2), new MajorityVoting(3, 2) }) {
+      for (TaskCompletionEvent e : replicas()) {
+        TaskID tid = e.getTaskAttemptId().getTaskID();
+        voting.addHash(tid, true, e.getDigests());
+      }
+
+      TaskID tid = TaskAttemptID.forName(MAP + "0_0").getTaskID();
+      assertEquals(MajorityVoting.MAJORITY, voting.hasMajorityOfDigests(tid));
+      assertTrue(DigestWritable.equals(new DigestWritable[] { d(1), d(2) },
+          voting.getMajorityDigests(tid)));
+    }
+  }
+
+  /**
+   * A voted map lists the replicas that agree on each partition
+   */
+  public void testPartitions() throws Exception {
+    DigestWritable[] majority = new DigestWritable[] { d(1), d(2) };
+    TaskCompletionEvent voted = TaskCompletionEvent.voted(5, replicas(), majority);
+    assertTrue(voted.isVoted());
+    assertEquals(5, voted.getEventId());
+    assertEquals(3, voted.getReplicas().length);
+    assertEquals(voted.getTaskAttemptId(), voted.getReplicas()[0]);
+
+    TaskCompletionEvent p0 = voted.forPartition(0);
+    assertEquals(3, p0.getReplicas().length);
+    assertEquals(d(1), p0.getDigest(0));
+    assertNull(p0.getDigest(1));
+
+    TaskCompletionEvent p1 = voted.forPartition(1);
+    assertEquals(2, p1.getReplicas().length);
+    assertEquals("http://host1:50060", p1.getReplicaHttps()[1]);
+    assertEquals(d(2), p1.getDigest(1));
+    assertEquals(100, p1.getTaskRunTime());
+
+    // events of single replicas are not changed
+    TaskCompletionEvent single = event(0, d(1), d(2));
+    assertFalse(single.isVoted());
+    assertSame(single, single.forPartition(1));
+    assertEquals(d(2), single.getDigest(1));
+  }
+
+  /**
+   * Replicas that agree on no partition are left out
+   */
+  public void testDisagreeing() throws Exception {
+    DigestWritable[] majority = new DigestWritable[] { d(1), d(2) };
+    List<TaskCompletionEvent> late = new ArrayList<TaskCompletionEvent>();
+    late.add(event(2, d(8), d(9)));
+    assertNull(TaskCompletionEvent.voted(0, late, majority));
+
+    late.add(event(0, d(8), d(2)));
+    TaskCompletionEvent voted = TaskCompletionEvent.voted(0, late, majority);
+    assertEquals(1, voted.getReplicas().length);
+    assertEquals(TaskAttemptID.forName(MAP + "0_0"), voted.getTaskAttemptId());
+    assertNull(voted.forPartition(0));
+    assertNotNull(voted.forPartition(1));
+  }
+
+  public void testWritable() throws Exception {
+    TaskCompletionEvent voted = TaskCompletionEvent.voted(5,
+        replicas(), new DigestWritable[] { d(1), d(2) });
+
+    TaskCompletionEvent copy = copy(voted);
+    assertTrue(copy.isVoted());
+    assertEquals(voted, copy);
+    assertEquals(3, copy.getReplicas().length);
+    assertEquals(2, copy.forPartition(1).getReplicas().length);
+
+    copy = copy(voted.forPartition(1));
+    assertEquals(2, copy.getReplicas().length);
+    assertEquals(d(2), copy.getDigest(1));
+    assertNull(copy.getDigest(0));
+
+    copy = copy(event(1, d(1), d(2)));
+    assertFalse(copy.isVoted());
+    assertEquals(d(1), copy.getDigest(0));
+  }
+}
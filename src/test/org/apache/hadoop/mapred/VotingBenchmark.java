@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Feeds the votes of a job through {@link MajorityVoting} and
+ * {@link IncrementalVoting} and reports the time each takes to add the
+ * digests and decide, the way <code>JobInProgress</code> calls them on
+ * every completed replica.
+ */
+public class VotingBenchmark extends Configured implements Tool {
+  private static final JobID JOB = new JobID("200707121733", 1);
+
+  private int maps = 10000;
+  private int reduces = 1000;
+  private int faults = 1;
+  private int threads = 1;
+  private double byzantine = 0.01;
+
+  private static void usage() {
+    System.err.println("VotingBenchmark [-maps <n>] [-reduces <n>] " +
+                       "[-faults <f>] [-threads <n>] " +
+                       "[-byzantine <fraction of tasks>]");
+    ToolRunner.printGenericCommandUsage(System.err);
+    System.exit(1);
+  }
+
+  /** Votes of one map or reduce: the replica digests in arrival order */
+  private DigestWritable[][] votes(Random r, int partitions) {
+    int numReplicas = 2 * faults + 1;
+    DigestWritable[] agreed = new DigestWritable[partitions];
+    for (int p = 0; p < partitions; p++) {
+      byte[] b = new byte[20];
+      r.nextBytes(b);
+      agreed[p] = new DigestWritable(b);
+    }
+
+    // a byzantine replica comes first, so one more replica is needed
+    boolean bad = r.nextDouble() < byzantine;
+    DigestWritable[][] votes = new DigestWritable[bad ? faults + 2 : faults + 1][];
+    for (int i = 0; i < votes.length && i < numReplicas; i++) {
+      votes[i] = Arrays.copyOf(agreed, partitions);
+    }
+    if (bad) {
+      votes[0][r.nextInt(partitions)] = new DigestWritable(new byte[20]);
+    }
+    return votes;
+  }
+
+  private long run(final VotingSystem voting, final boolean isMap,
+                   final int tasks, final int partitions) throws Exception {
+    Thread[] workers = new Thread[threads];
+    final Exception[] error = new Exception[1];
+    long start = System.currentTimeMillis();
+    for (int t = 0; t < threads; t++) {
+      final int first = t;
+      workers[t] = new Thread() {
+        public void run() {
+          Random r = new Random(first);
+          for (int task = first; task < tasks; task += threads) {
+            DigestWritable[][] votes = votes(r, partitions);
+            int maj = MajorityVoting.NOT_ENOUGH_ELEMENTS;
+            for (int replica = 0; replica < votes.length; replica++) {
+              TaskID tid = new TaskID(JOB, isMap, task, replica);
+              voting.addHash(tid, isMap, votes[replica]);
+              maj = voting.hasMajorityOfDigests(tid);
+            }
+            if (maj != MajorityVoting.MAJORITY) {
+              synchronized (error) {
+                error[0] = new Exception("No majority for task " + task);
+              }
+            }
+          }
+        }
+      };
+      workers[t].start();
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    if (error[0] != null) {
+      throw error[0];
+    }
+    return System.currentTimeMillis() - start;
+  }
+
+  private void measure(String name, VotingSystem voting) throws Exception {
+    System.gc();
+    long mapTime = run(voting, true, maps, reduces);
+    long redTime = run(voting, false, reduces, 1);
+    Runtime rt = Runtime.getRuntime();
+    System.gc();
+    System.out.println(name + ": maps " + mapTime + " ms, reduces " +
+                       redTime + " ms, heap after " +
+                       ((rt.totalMemory() - rt.freeMemory()) >> 20) + " MB");
+  }
+
+  public int run(String[] args) throws Exception {
+    for (int i = 0; i < args.length; ++i) {
+      if ("-maps".equals(args[i])) {
+        maps = Integer.parseInt(args[++i]);
+      } else if ("-reduces".equals(args[i])) {
+        reduces = Integer.parseInt(args[++i]);
+      } else if ("-faults".equals(args[i])) {
+        faults = Integer.parseInt(args[++i]);
+      } else if ("-threads".equals(args[i])) {
+        threads = Integer.parseInt(args[++i]);
+      } else if ("-byzantine".equals(args[i])) {
+        byzantine = Double.parseDouble(args[++i]);
+      } else {
+        usage();
+      }
+    }
+
+    int numReplicas = 2 * faults + 1;
+    System.out.println("maps=" + maps + " reduces=" + reduces +
+                       " replicas=" + numReplicas + " threads=" + threads +
+                       " byzantine=" + byzantine);
+    measure("MajorityVoting", new MajorityVoting(numReplicas, reduces));
+    measure("IncrementalVoting", new IncrementalVoting(numReplicas, reduces));
+    return 0;
+  }
+
+  public static void main(String argv[]) throws Exception {
+    int res = ToolRunner.run(new Configuration(), new VotingBenchmark(), argv);
+    System.exit(res);
+  }
+}